@@ -0,0 +1,97 @@
+package de.cronn.proxy.ssh;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.apache.sshd.common.config.keys.KeyUtils;
+import org.apache.sshd.server.SshServer;
+
+final class BenchmarkEnvironment implements Closeable {
+
+	private static final Charset CONFIG_CHARSET = StandardCharsets.ISO_8859_1;
+	private static final String KNOWN_HOSTS_FILENAME = "known_hosts";
+	private static final String CONFIG_FILENAME = "config";
+	private static final Path TEST_RESOURCES = Paths.get("src", "test", "resources");
+
+	private final List<SshServer> sshServers = new ArrayList<>();
+	private final List<LatencyProxy> latencyProxies = new ArrayList<>();
+	private final Path userHome;
+	private final Path dotSsh;
+	private final String oldUserHome;
+
+	BenchmarkEnvironment() throws IOException {
+		userHome = Files.createTempDirectory("ssh-proxy-benchmark");
+		dotSsh = Files.createDirectories(userHome.resolve(".ssh"));
+		for (String file : Arrays.asList("id_rsa", "id_rsa.pub")) {
+			Files.copy(TEST_RESOURCES.resolve(file), dotSsh.resolve(file));
+		}
+		appendToSshFile(CONFIG_FILENAME, "");
+		appendToSshFile(KNOWN_HOSTS_FILENAME, "");
+
+		oldUserHome = System.getProperty("user.home");
+		System.setProperty("user.home", userHome.toAbsolutePath().toString());
+	}
+
+	String startSshServer(String hostConfigName) throws IOException {
+		return startSshServer(hostConfigName, null);
+	}
+
+	String startSshServer(String hostConfigName, String jumpHost) throws IOException {
+		appendToSshFile(KNOWN_HOSTS_FILENAME, TestSshServer.getKnownHostsEntry(KeyUtils.RSA_ALGORITHM));
+		SshServer sshServer = TestSshServer.start(KeyUtils.RSA_ALGORITHM);
+		sshServers.add(sshServer);
+
+		String hostConfig = "Host " + hostConfigName + "\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n";
+		if (jumpHost != null) {
+			hostConfig += "\tProxyJump " + jumpHost + "\n";
+		}
+		appendToSshFile(CONFIG_FILENAME, hostConfig + "\n");
+		return hostConfigName;
+	}
+
+	String startSshServerWithLatency(String hostConfigName, int roundTripMillis) throws IOException {
+		appendToSshFile(KNOWN_HOSTS_FILENAME, TestSshServer.getKnownHostsEntry(KeyUtils.RSA_ALGORITHM));
+		SshServer sshServer = TestSshServer.start(KeyUtils.RSA_ALGORITHM);
+		sshServers.add(sshServer);
+		LatencyProxy latencyProxy = new LatencyProxy(sshServer.getPort(), roundTripMillis);
+		latencyProxies.add(latencyProxy);
+
+		appendToSshFile(CONFIG_FILENAME, "Host " + hostConfigName + "\n\tHostName localhost\n\tPort " + latencyProxy.getPort() + "\n\n");
+		return hostConfigName;
+	}
+
+	void appendToSshFile(String filename, String text) throws IOException {
+		Files.writeString(dotSsh.resolve(filename), text, CONFIG_CHARSET, StandardOpenOption.APPEND, StandardOpenOption.CREATE);
+	}
+
+	Path getSshConfigPath() {
+		return dotSsh.resolve(CONFIG_FILENAME);
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (LatencyProxy latencyProxy : latencyProxies) {
+			latencyProxy.close();
+		}
+		for (SshServer sshServer : sshServers) {
+			TestSshServer.stop(sshServer);
+		}
+		System.setProperty("user.home", oldUserHome);
+		try (Stream<Path> paths = Files.walk(userHome)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package de.cronn.proxy.ssh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jcraft.jsch.Cipher;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.MAC;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CipherBenchmark {
+
+	private static final int PACKET_SIZE = 32 * 1024;
+
+	@State(Scope.Thread)
+	public static class CipherState {
+
+		@Param({ "aes128-ctr", "aes256-ctr", "aes128-cbc" })
+		public String cipherName;
+
+		private Cipher cipher;
+		private byte[] packet;
+
+		@Setup
+		public void setUp() throws Exception {
+			cipher = Class.forName(JSch.getConfig(cipherName)).asSubclass(Cipher.class).getDeclaredConstructor().newInstance();
+			cipher.init(Cipher.ENCRYPT_MODE, new byte[cipher.getBlockSize()], new byte[cipher.getIVSize()]);
+			packet = randomPacket();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class MacState {
+
+		@Param({ "hmac-md5", "hmac-sha1", "hmac-sha2-256" })
+		public String macName;
+
+		private MAC mac;
+		private byte[] packet;
+		private byte[] digest;
+
+		@Setup
+		public void setUp() throws Exception {
+			mac = Class.forName(JSch.getConfig(macName)).asSubclass(MAC.class).getDeclaredConstructor().newInstance();
+			mac.init(new byte[mac.getBlockSize()]);
+			packet = randomPacket();
+			digest = new byte[mac.getBlockSize()];
+		}
+	}
+
+	@Benchmark
+	public byte[] encrypt(CipherState state) throws Exception {
+		state.cipher.update(state.packet, 0, state.packet.length, state.packet, 0);
+		return state.packet;
+	}
+
+	@Benchmark
+	public byte[] authenticate(MacState state) throws Exception {
+		state.mac.update(state.packet, 0, state.packet.length);
+		state.mac.doFinal(state.digest, 0);
+		return state.digest;
+	}
+
+	private static byte[] randomPacket() {
+		byte[] packet = new byte[PACKET_SIZE];
+		new Random(0).nextBytes(packet);
+		return packet;
+	}
+}
@@ -0,0 +1,78 @@
+package de.cronn.proxy.ssh;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConnectBenchmark {
+
+	@Param({ "DEFAULT", "LOW_LATENCY" })
+	public CryptoProfile cryptoProfile;
+
+	private BenchmarkEnvironment environment;
+	private EchoServer echoServer;
+	private SshProxy pooledSessionHolder;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		environment = new BenchmarkEnvironment();
+		environment.startSshServer("firsthop");
+		environment.startSshServer("secondhop", "firsthop");
+		environment.startSshServer("pooled");
+		echoServer = new EchoServer();
+
+		pooledSessionHolder = new SshProxy(getSettings());
+		pooledSessionHolder.connect("pooled", "localhost", echoServer.getPort());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		pooledSessionHolder.close();
+		echoServer.close();
+		environment.close();
+	}
+
+	@Benchmark
+	public int singleHop() {
+		return connectAndClose("firsthop");
+	}
+
+	@Benchmark
+	public int twoHops() {
+		return connectAndClose("secondhop");
+	}
+
+	@Benchmark
+	public int singleHopPooledSession() {
+		return connectAndClose("pooled");
+	}
+
+	private int connectAndClose(String sshTunnelHost) {
+		try (SshProxy sshProxy = new SshProxy(getSettings())) {
+			return sshProxy.connect(sshTunnelHost, "localhost", echoServer.getPort());
+		}
+	}
+
+	private SshProxySettings getSettings() {
+		return SshProxySettings.defaults().withCryptoProfile(cryptoProfile);
+	}
+}
@@ -0,0 +1,63 @@
+package de.cronn.proxy.ssh;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+final class EchoServer extends Thread implements Closeable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final ServerSocket serverSocket;
+
+	EchoServer() throws IOException {
+		super(EchoServer.class.getSimpleName());
+		serverSocket = new ServerSocket();
+		serverSocket.bind(new InetSocketAddress("localhost", 0));
+		setDaemon(true);
+		start();
+	}
+
+	int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	@Override
+	public void run() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				Thread echoThread = new Thread(() -> echo(socket), "echo-" + socket.getPort());
+				echoThread.setDaemon(true);
+				echoThread.start();
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private static void echo(Socket socket) {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try (Socket s = socket;
+			 InputStream inputStream = s.getInputStream();
+			 OutputStream outputStream = s.getOutputStream()) {
+			int read;
+			while ((read = inputStream.read(buffer)) >= 0) {
+				outputStream.write(buffer, 0, read);
+				outputStream.flush();
+			}
+		} catch (IOException e) {
+			// connection closed by the benchmark
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+	}
+}
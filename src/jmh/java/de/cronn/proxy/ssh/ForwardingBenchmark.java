@@ -0,0 +1,120 @@
+package de.cronn.proxy.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ForwardingBenchmark {
+
+	private static final int BULK_TRANSFER_SIZE = 4 * 1024 * 1024;
+	private static final int BULK_CHUNK_SIZE = 32 * 1024;
+
+	@Param({ "64" })
+	public int messageSize;
+
+	@Param({ "DEFAULT", "THROUGHPUT" })
+	public CryptoProfile cryptoProfile;
+
+	private BenchmarkEnvironment environment;
+	private EchoServer echoServer;
+	private SshProxy sshProxy;
+	private ExecutorService writer;
+	private Socket socket;
+	private InputStream inputStream;
+	private OutputStream outputStream;
+	private byte[] message;
+	private byte[] bulkData;
+	private byte[] readBuffer;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		environment = new BenchmarkEnvironment();
+		environment.startSshServer("tunnel");
+		echoServer = new EchoServer();
+		sshProxy = new SshProxy(SshProxySettings.defaults().withCryptoProfile(cryptoProfile));
+		int port = sshProxy.connect("tunnel", "localhost", echoServer.getPort());
+
+		socket = new Socket(SshProxy.LOCALHOST, port);
+		socket.setTcpNoDelay(true);
+		inputStream = socket.getInputStream();
+		outputStream = socket.getOutputStream();
+		writer = Executors.newSingleThreadExecutor();
+
+		Random random = new Random(0);
+		message = new byte[messageSize];
+		random.nextBytes(message);
+		bulkData = new byte[BULK_TRANSFER_SIZE];
+		random.nextBytes(bulkData);
+		readBuffer = new byte[Math.max(BULK_CHUNK_SIZE, messageSize)];
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		writer.shutdownNow();
+		socket.close();
+		sshProxy.close();
+		echoServer.close();
+		environment.close();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public int roundTrip() throws IOException {
+		outputStream.write(message);
+		outputStream.flush();
+		return readFully(messageSize);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public int bulkTransfer() throws Exception {
+		Future<?> write = writer.submit(() -> {
+			for (int offset = 0; offset < bulkData.length; offset += BULK_CHUNK_SIZE) {
+				outputStream.write(bulkData, offset, Math.min(BULK_CHUNK_SIZE, bulkData.length - offset));
+			}
+			outputStream.flush();
+			return null;
+		});
+		int read = readFully(bulkData.length);
+		write.get();
+		return read;
+	}
+
+	private int readFully(int length) throws IOException {
+		int total = 0;
+		while (total < length) {
+			int read = inputStream.read(readBuffer, 0, Math.min(readBuffer.length, length - total));
+			if (read < 0) {
+				throw new IOException("Unexpected end of stream after " + total + " bytes");
+			}
+			total += read;
+		}
+		return total;
+	}
+}
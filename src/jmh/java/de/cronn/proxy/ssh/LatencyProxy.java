@@ -0,0 +1,130 @@
+package de.cronn.proxy.ssh;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// relays TCP connections and delays every chunk by half the round-trip time in each direction, like a long-haul link
+final class LatencyProxy extends Thread implements Closeable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final byte[] END_OF_STREAM = new byte[0];
+
+	private final ServerSocket serverSocket;
+	private final int targetPort;
+	private final long oneWayDelayNanos;
+
+	LatencyProxy(int targetPort, int roundTripMillis) throws IOException {
+		super(LatencyProxy.class.getSimpleName());
+		this.targetPort = targetPort;
+		this.oneWayDelayNanos = TimeUnit.MILLISECONDS.toNanos(roundTripMillis) / 2;
+		serverSocket = new ServerSocket();
+		serverSocket.bind(new InetSocketAddress("localhost", 0));
+		setDaemon(true);
+		start();
+	}
+
+	int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	@Override
+	public void run() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket client = serverSocket.accept();
+				Socket target = new Socket("localhost", targetPort);
+				client.setTcpNoDelay(true);
+				target.setTcpNoDelay(true);
+				relay(client, target);
+				relay(target, client);
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private void relay(Socket from, Socket to) {
+		BlockingQueue<DelayedChunk> chunks = new LinkedBlockingQueue<>();
+		startDaemon("latency-read-" + from.getPort(), () -> read(from, chunks));
+		startDaemon("latency-write-" + to.getPort(), () -> write(chunks, to, from));
+	}
+
+	private void read(Socket from, BlockingQueue<DelayedChunk> chunks) {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try {
+			InputStream inputStream = from.getInputStream();
+			int read;
+			while ((read = inputStream.read(buffer)) >= 0) {
+				chunks.add(new DelayedChunk(Arrays.copyOf(buffer, read), System.nanoTime() + oneWayDelayNanos));
+			}
+		} catch (IOException e) {
+			// connection closed
+		}
+		chunks.add(new DelayedChunk(END_OF_STREAM, System.nanoTime() + oneWayDelayNanos));
+	}
+
+	// SSH does not half-close the transport, so both sockets are closed as soon as one direction ends
+	private static void write(BlockingQueue<DelayedChunk> chunks, Socket to, Socket from) {
+		try {
+			OutputStream outputStream = to.getOutputStream();
+			while (true) {
+				DelayedChunk chunk = chunks.take();
+				long remainingNanos = chunk.releaseNanos - System.nanoTime();
+				if (remainingNanos > 0) {
+					TimeUnit.NANOSECONDS.sleep(remainingNanos);
+				}
+				if (chunk.data == END_OF_STREAM) {
+					return;
+				}
+				outputStream.write(chunk.data);
+				outputStream.flush();
+			}
+		} catch (IOException e) {
+			// connection closed
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			closeQuietly(to);
+			closeQuietly(from);
+		}
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// already closed
+		}
+	}
+
+	private static void startDaemon(String name, Runnable runnable) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+	}
+
+	private static final class DelayedChunk {
+
+		private final byte[] data;
+		private final long releaseNanos;
+
+		private DelayedChunk(byte[] data, long releaseNanos) {
+			this.data = data;
+			this.releaseNanos = releaseNanos;
+		}
+	}
+}
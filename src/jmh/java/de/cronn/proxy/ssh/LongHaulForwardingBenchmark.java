@@ -0,0 +1,106 @@
+package de.cronn.proxy.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+public class LongHaulForwardingBenchmark {
+
+	private static final int BULK_TRANSFER_SIZE = 16 * 1024 * 1024;
+	private static final int BULK_CHUNK_SIZE = 32 * 1024;
+
+	@Param({ "0", "20", "80" })
+	public int roundTripMillis;
+
+	// 0 keeps the JSch default of 128 KiB
+	@Param({ "0", "16777216" })
+	public int windowSize;
+
+	private BenchmarkEnvironment environment;
+	private EchoServer echoServer;
+	private SshProxy sshProxy;
+	private ExecutorService writer;
+	private Socket socket;
+	private InputStream inputStream;
+	private OutputStream outputStream;
+	private byte[] bulkData;
+	private byte[] readBuffer;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		environment = new BenchmarkEnvironment();
+		environment.startSshServerWithLatency("long-haul", roundTripMillis);
+		echoServer = new EchoServer();
+		sshProxy = new SshProxy(SshProxySettings.defaults().withForwardingEngine(ForwardingEngine.NIO));
+		TunnelSpec tunnelSpec = new TunnelSpec("long-haul", "localhost", echoServer.getPort())
+			.withWindowSize(windowSize)
+			.withMaxPacketSize(windowSize > 0 ? 64 * 1024 : 0);
+		int port = sshProxy.connect(tunnelSpec);
+
+		socket = new Socket(SshProxy.LOCALHOST, port);
+		socket.setTcpNoDelay(true);
+		inputStream = socket.getInputStream();
+		outputStream = socket.getOutputStream();
+		writer = Executors.newSingleThreadExecutor();
+
+		bulkData = new byte[BULK_TRANSFER_SIZE];
+		new Random(0).nextBytes(bulkData);
+		readBuffer = new byte[BULK_CHUNK_SIZE];
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		writer.shutdownNow();
+		socket.close();
+		sshProxy.close();
+		echoServer.close();
+		environment.close();
+	}
+
+	@Benchmark
+	public int bulkTransfer() throws Exception {
+		Future<?> write = writer.submit(() -> {
+			for (int offset = 0; offset < bulkData.length; offset += BULK_CHUNK_SIZE) {
+				outputStream.write(bulkData, offset, Math.min(BULK_CHUNK_SIZE, bulkData.length - offset));
+			}
+			outputStream.flush();
+			return null;
+		});
+		int total = 0;
+		while (total < bulkData.length) {
+			int read = inputStream.read(readBuffer, 0, Math.min(readBuffer.length, bulkData.length - total));
+			if (read < 0) {
+				throw new IOException("Unexpected end of stream after " + total + " bytes");
+			}
+			total += read;
+		}
+		write.get();
+		return total;
+	}
+}
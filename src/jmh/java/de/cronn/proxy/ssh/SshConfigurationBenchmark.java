@@ -0,0 +1,93 @@
+package de.cronn.proxy.ssh;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sshd.common.config.keys.KeyUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jcraft.jsch.OpenSSHConfig;
+
+import de.cronn.proxy.ssh.JSchHelper.ServerHostKeySortOrder;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SshConfigurationBenchmark {
+
+	private static final String HOST = "benchmark-host";
+
+	@Param({ "0", "20000" })
+	public int hashedKnownHosts;
+
+	private BenchmarkEnvironment environment;
+	private SshConfiguration sshConfiguration;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		environment = new BenchmarkEnvironment();
+		environment.appendToSshFile("config", "Host " + HOST + "\n\tHostName localhost\n\tPort 2222\n\n");
+		environment.appendToSshFile("known_hosts", createHashedKnownHosts(hashedKnownHosts));
+		environment.appendToSshFile("known_hosts", TestSshServer.getKnownHostsEntry(KeyUtils.RSA_ALGORITHM));
+		sshConfiguration = SshConfiguration.getConfiguration();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		environment.close();
+	}
+
+	@Benchmark
+	public SshConfiguration construct() throws Exception {
+		return new SshConfiguration(OpenSSHConfig.parseFile(environment.getSshConfigPath().toString()));
+	}
+
+	@Benchmark
+	public SshConfiguration getCachedConfiguration() throws Exception {
+		return SshConfiguration.getConfiguration();
+	}
+
+	@Benchmark
+	public ServerHostKeySortOrder guessHostKeySortOrder() {
+		return sshConfiguration.guessPreferredHostKeySortOrder(HOST);
+	}
+
+	@Benchmark
+	public String serverHostKeyOrder() {
+		return JSchHelper.getServerHostKeyOrder(ServerHostKeySortOrder.PREFER_RSA);
+	}
+
+	private static String createHashedKnownHosts(int count) {
+		String rsaKey = TestSshServer.getKnownHostsEntry(KeyUtils.RSA_ALGORITHM).split(" ", 2)[1];
+		Base64.Encoder encoder = Base64.getEncoder();
+		Random random = new Random(0);
+		byte[] salt = new byte[20];
+		byte[] hash = new byte[20];
+		StringBuilder knownHosts = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			random.nextBytes(salt);
+			random.nextBytes(hash);
+			knownHosts.append("|1|").append(encoder.encodeToString(salt))
+				.append('|').append(encoder.encodeToString(hash))
+				.append(' ').append(rsaKey);
+		}
+		return knownHosts.toString();
+	}
+}
@@ -0,0 +1,57 @@
+package de.cronn.proxy.ssh;
+
+import java.util.zip.Deflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class AdaptiveZlibCompression extends ZlibCompression {
+
+	private static final Logger log = LoggerFactory.getLogger(AdaptiveZlibCompression.class);
+
+	static final long SAMPLE_BYTES = 1024 * 1024;
+	static final double INCOMPRESSIBLE_RATIO = 0.9;
+	static final int UNCOMPRESSED_SAMPLES = 16;
+
+	private int level;
+	private long uncompressedBytes;
+	private long compressedBytes;
+	private long nanos;
+	private int remainingUncompressedSamples;
+
+	@Override
+	public void init(int type, int level) {
+		super.init(type, level);
+		this.level = level;
+	}
+
+	@Override
+	protected void compressed(int uncompressedBytes, int compressedBytes, long nanos) {
+		this.uncompressedBytes += uncompressedBytes;
+		this.compressedBytes += compressedBytes;
+		this.nanos += nanos;
+		if (this.uncompressedBytes < SAMPLE_BYTES) {
+			return;
+		}
+
+		double ratio = (double) this.compressedBytes / this.uncompressedBytes;
+		long megabytesPerSecond = this.uncompressedBytes * 1_000 / Math.max(this.nanos, 1);
+		this.uncompressedBytes = 0;
+		this.compressedBytes = 0;
+		this.nanos = 0;
+
+		if (remainingUncompressedSamples > 0) {
+			remainingUncompressedSamples--;
+			if (remainingUncompressedSamples == 0) {
+				log.trace("probing compression again");
+				getDeflater().setLevel(level);
+			}
+		} else if (ratio >= INCOMPRESSIBLE_RATIO) {
+			log.debug("disabling compression of incompressible traffic (compressed to {}% at {} MB/s)", Math.round(ratio * 100), megabytesPerSecond);
+			getDeflater().setLevel(Deflater.NO_COMPRESSION);
+			remainingUncompressedSamples = UNCOMPRESSED_SAMPLES;
+		} else {
+			log.trace("traffic compressed to {}% at {} MB/s", Math.round(ratio * 100), megabytesPerSecond);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package de.cronn.proxy.ssh;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.cronn.proxy.ssh.util.Assert;
+
+// resolves all addresses of a host; parallel connects to the same host share a single lookup
+final class AddressResolver {
+
+	private static final Logger log = LoggerFactory.getLogger(AddressResolver.class);
+
+	private static final long DEFAULT_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+	private static final AddressResolver INSTANCE = new AddressResolver(DEFAULT_TTL_MILLIS, InetAddress::getAllByName);
+
+	interface Lookup {
+		InetAddress[] getAllByName(String host) throws UnknownHostException;
+	}
+
+	private static final class CachedAddresses {
+
+		private final CompletableFuture<List<InetAddress>> addresses = new CompletableFuture<>();
+		private final AtomicBoolean lookupStarted = new AtomicBoolean();
+		private volatile long resolvedNanos;
+
+		private boolean isExpired(long nowNanos, long ttlNanos) {
+			return addresses.isDone() && nowNanos - resolvedNanos >= ttlNanos;
+		}
+	}
+
+	private final long ttlNanos;
+	private final Lookup lookup;
+	private final Map<String, CachedAddresses> cache = new ConcurrentHashMap<>();
+
+	AddressResolver(long ttlMillis, Lookup lookup) {
+		Assert.isTrue(ttlMillis >= 0, "illegal TTL: " + ttlMillis);
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		this.lookup = lookup;
+	}
+
+	static AddressResolver getInstance() {
+		return INSTANCE;
+	}
+
+	List<InetAddress> resolve(String host) throws UnknownHostException {
+		while (true) {
+			CachedAddresses cached = cache.computeIfAbsent(host, key -> new CachedAddresses());
+			if (cached.isExpired(System.nanoTime(), ttlNanos)) {
+				cache.remove(host, cached);
+				continue;
+			}
+			if (cached.lookupStarted.compareAndSet(false, true)) {
+				lookup(host, cached);
+			}
+			try {
+				return cached.addresses.join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof UnknownHostException) {
+					throw (UnknownHostException) e.getCause();
+				}
+				throw (RuntimeException) e.getCause();
+			}
+		}
+	}
+
+	private void lookup(String host, CachedAddresses cached) {
+		try {
+			List<InetAddress> addresses = Collections.unmodifiableList(Arrays.asList(lookup.getAllByName(host)));
+			log.debug("resolved {} to {}", host, addresses);
+			cached.resolvedNanos = System.nanoTime();
+			cached.addresses.complete(addresses);
+		} catch (UnknownHostException | RuntimeException e) {
+			// failures are not cached
+			cache.remove(host, cached);
+			cached.addresses.completeExceptionally(e);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package de.cronn.proxy.ssh;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.jcraft.jsch.Session;
+
+import de.cronn.proxy.ssh.util.Assert;
+
+// caps the concurrent channels per SSH session, as servers reject channel opens beyond their MaxSessions
+final class ChannelLimits {
+
+	static final ChannelLimits UNLIMITED = new ChannelLimits(0, 0);
+
+	static final Limiter NO_LIMIT = new Limiter(0, 0);
+
+	// sessions are shared by all SshProxy instances, so the limiter of a session is created by the first limited instance which uses it
+	private static final Map<Session, Limiter> LIMITERS = Collections.synchronizedMap(new WeakHashMap<>());
+
+	private final int maxChannels;
+	private final int maxQueuedChannels;
+
+	ChannelLimits(int maxChannels, int maxQueuedChannels) {
+		Assert.isTrue(maxChannels >= 0, "illegal max channels: " + maxChannels);
+		Assert.isTrue(maxQueuedChannels >= 0, "illegal max queued channels: " + maxQueuedChannels);
+		this.maxChannels = maxChannels;
+		this.maxQueuedChannels = maxQueuedChannels;
+	}
+
+	boolean isLimited() {
+		return maxChannels > 0;
+	}
+
+	Limiter forSession(Session session) {
+		if (!isLimited()) {
+			return NO_LIMIT;
+		}
+		return LIMITERS.computeIfAbsent(session, key -> new Limiter(maxChannels, maxQueuedChannels));
+	}
+
+	static final class Limiter {
+
+		private final int maxChannels;
+		private final int maxQueuedChannels;
+		private final Deque<Runnable> waiting = new ArrayDeque<>();
+		private int openChannels;
+
+		private Limiter(int maxChannels, int maxQueuedChannels) {
+			this.maxChannels = maxChannels;
+			this.maxQueuedChannels = maxQueuedChannels;
+		}
+
+		synchronized boolean hasCapacity() {
+			return maxChannels == 0 || openChannels < maxChannels;
+		}
+
+		// runs the task as soon as a channel may be opened, returns false if the wait queue is full
+		boolean acquire(Runnable onAcquired) {
+			if (maxChannels == 0) {
+				onAcquired.run();
+				return true;
+			}
+			synchronized (this) {
+				if (openChannels >= maxChannels) {
+					if (waiting.size() >= maxQueuedChannels) {
+						return false;
+					}
+					waiting.add(onAcquired);
+					return true;
+				}
+				openChannels++;
+			}
+			onAcquired.run();
+			return true;
+		}
+
+		// waits without timeout if timeoutMillis is 0
+		boolean acquire(long timeoutMillis) throws InterruptedException {
+			CountDownLatch acquired = new CountDownLatch(1);
+			Runnable onAcquired = acquired::countDown;
+			if (!acquire(onAcquired)) {
+				return false;
+			}
+			try {
+				if (timeoutMillis == 0) {
+					acquired.await();
+					return true;
+				}
+				if (acquired.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			} catch (InterruptedException e) {
+				if (!cancel(onAcquired)) {
+					// the channel was granted while the thread was interrupted
+					release();
+				}
+				throw e;
+			}
+			// the channel may have been granted while the wait timed out
+			return !cancel(onAcquired);
+		}
+
+		private synchronized boolean cancel(Runnable onAcquired) {
+			return waiting.remove(onAcquired);
+		}
+
+		void release() {
+			if (maxChannels == 0) {
+				return;
+			}
+			Runnable next;
+			synchronized (this) {
+				next = waiting.poll();
+				if (next == null) {
+					Assert.isTrue(openChannels > 0, "no channel is open");
+					openChannels--;
+					return;
+				}
+			}
+			// the channel is handed over to the next waiting connection
+			next.run();
+		}
+
+		synchronized int getOpenChannels() {
+			return openChannels;
+		}
+
+		synchronized int getQueuedChannels() {
+			return waiting.size();
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package de.cronn.proxy.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+final class ChannelPipe {
+
+	private static final int INITIAL_BUFFER_SIZE = 32 * 1024;
+	private static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+	private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+	private int readPosition;
+	private int count;
+	private boolean writerClosed;
+	private boolean readerClosed;
+	private volatile int readTimeoutMillis;
+
+	private final InputStream inputStream = new InputStream() {
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int read = read(b, 0, 1);
+			return read < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return ChannelPipe.this.read(b, off, len);
+		}
+
+		@Override
+		public int available() {
+			return ChannelPipe.this.available();
+		}
+
+		@Override
+		public void close() {
+			closeReader();
+		}
+	};
+
+	private final OutputStream outputStream = new OutputStream() {
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ChannelPipe.this.write(b, off, len);
+		}
+
+		@Override
+		public void close() {
+			closeWriter();
+		}
+	};
+
+	InputStream getInputStream() {
+		return inputStream;
+	}
+
+	OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	void setReadTimeoutMillis(int readTimeoutMillis) {
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	int getReadTimeoutMillis() {
+		return readTimeoutMillis;
+	}
+
+	private synchronized int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+
+		long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(readTimeoutMillis);
+		long deadline = System.nanoTime() + timeoutNanos;
+		while (count == 0) {
+			if (readerClosed) {
+				throw new IOException("Stream closed");
+			}
+			if (writerClosed) {
+				return -1;
+			}
+			if (timeoutNanos > 0) {
+				long remainingNanos = deadline - System.nanoTime();
+				if (remainingNanos <= 0) {
+					throw new SocketTimeoutException("Read timed out");
+				}
+				awaitChange(remainingNanos);
+			} else {
+				awaitChange(0);
+			}
+		}
+
+		int read = 0;
+		while (read < len && count > 0) {
+			int chunk = Math.min(Math.min(len - read, count), buffer.length - readPosition);
+			System.arraycopy(buffer, readPosition, b, off + read, chunk);
+			readPosition = (readPosition + chunk) % buffer.length;
+			count -= chunk;
+			read += chunk;
+		}
+		notifyAll();
+		return read;
+	}
+
+	private synchronized void write(byte[] b, int off, int len) throws IOException {
+		int written = 0;
+		while (written < len) {
+			if (readerClosed) {
+				throw new IOException("Pipe closed");
+			}
+			if (writerClosed) {
+				throw new IOException("Stream closed");
+			}
+
+			ensureCapacity(count + len - written);
+			int free = buffer.length - count;
+			if (free == 0) {
+				awaitChange(0);
+				continue;
+			}
+
+			int writePosition = (readPosition + count) % buffer.length;
+			int chunk = Math.min(Math.min(len - written, free), buffer.length - writePosition);
+			System.arraycopy(b, off + written, buffer, writePosition, chunk);
+			count += chunk;
+			written += chunk;
+			notifyAll();
+		}
+	}
+
+	private void ensureCapacity(int requiredCapacity) {
+		if (requiredCapacity <= buffer.length || buffer.length >= MAX_BUFFER_SIZE) {
+			return;
+		}
+
+		int newSize = buffer.length;
+		while (newSize < requiredCapacity && newSize < MAX_BUFFER_SIZE) {
+			newSize *= 2;
+		}
+
+		byte[] newBuffer = new byte[Math.min(newSize, MAX_BUFFER_SIZE)];
+		int firstChunk = Math.min(count, buffer.length - readPosition);
+		System.arraycopy(buffer, readPosition, newBuffer, 0, firstChunk);
+		System.arraycopy(buffer, 0, newBuffer, firstChunk, count - firstChunk);
+		buffer = newBuffer;
+		readPosition = 0;
+	}
+
+	private synchronized int available() {
+		return count;
+	}
+
+	synchronized void closeReader() {
+		readerClosed = true;
+		notifyAll();
+	}
+
+	synchronized void closeWriter() {
+		writerClosed = true;
+		notifyAll();
+	}
+
+	private void awaitChange(long timeoutNanos) throws InterruptedIOException {
+		try {
+			if (timeoutNanos > 0) {
+				TimeUnit.NANOSECONDS.timedWait(this, timeoutNanos);
+			} else {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for data");
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package de.cronn.proxy.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.JSchException;
+
+class ChannelSocket extends Socket {
+
+	private static final Logger log = LoggerFactory.getLogger(ChannelSocket.class);
+
+	interface SessionProvider {
+		SshSessionLease acquireSession(String targetHost) throws JSchException;
+	}
+
+	private final SessionProvider sessionProvider;
+	private final Consumer<ChannelSocket> onClose;
+	private final SshProxyListener listener;
+	private final String sshTunnelHost;
+	private final ChannelPipe pipe = new ChannelPipe();
+
+	private SshSessionLease sessionLease;
+	private Channel channel;
+	private ConnectionMeter meter;
+	private InputStream inputStream;
+	private OutputStream outputStream;
+	private InetSocketAddress remoteAddress;
+	private boolean tcpNoDelay = true;
+	private boolean keepAlive;
+	private boolean closed;
+
+	ChannelSocket(SessionProvider sessionProvider, Consumer<ChannelSocket> onClose) {
+		this(sessionProvider, onClose, SshProxyListener.NO_OP, null);
+	}
+
+	ChannelSocket(SessionProvider sessionProvider, Consumer<ChannelSocket> onClose, SshProxyListener listener, String sshTunnelHost) {
+		this.sessionProvider = sessionProvider;
+		this.onClose = onClose;
+		this.listener = listener;
+		this.sshTunnelHost = sshTunnelHost;
+	}
+
+	@Override
+	public void connect(SocketAddress endpoint) throws IOException {
+		connect(endpoint, 0);
+	}
+
+	@Override
+	public synchronized void connect(SocketAddress endpoint, int timeout) throws IOException {
+		if (!(endpoint instanceof InetSocketAddress)) {
+			throw new IllegalArgumentException("Unsupported address type: " + endpoint);
+		}
+		if (closed) {
+			throw new SocketException("Socket is closed");
+		}
+		if (channel != null) {
+			throw new SocketException("already connected");
+		}
+		if (timeout < 0) {
+			throw new IllegalArgumentException("connect: timeout can't be negative");
+		}
+
+		InetSocketAddress address = (InetSocketAddress) endpoint;
+		String host = address.getHostString();
+		int port = address.getPort();
+		ConnectionMeter connectionMeter = listener != SshProxyListener.NO_OP ? new ConnectionMeter(listener, sshTunnelHost, host, port) : null;
+		try {
+			sessionLease = sessionProvider.acquireSession(host);
+			Channel streamForwarder = sessionLease.getSession().getStreamForwarder(host, port);
+			streamForwarder.setOutputStream(pipe.getOutputStream());
+			outputStream = streamForwarder.getOutputStream();
+			inputStream = pipe.getInputStream();
+			// like Socket.connect, a timeout of 0 waits until the channel is opened or the session is lost
+			streamForwarder.connect(timeout);
+			channel = streamForwarder;
+			remoteAddress = address;
+			log.debug("opened channel to {}:{}", host, port);
+		} catch (JSchException | RuntimeException e) {
+			releaseSession();
+			if (connectionMeter != null) {
+				connectionMeter.failed(e);
+			}
+			SocketException socketException = new SocketException("Failed to open channel to " + host + ":" + port + ": " + e.getMessage());
+			socketException.initCause(e);
+			throw socketException;
+		}
+
+		if (connectionMeter != null) {
+			connectionMeter.opened();
+			inputStream = connectionMeter.countReceived(inputStream, null);
+			outputStream = connectionMeter.countSent(outputStream, null);
+			meter = connectionMeter;
+		}
+	}
+
+	@Override
+	public synchronized InputStream getInputStream() throws IOException {
+		assertConnected();
+		return inputStream;
+	}
+
+	@Override
+	public synchronized OutputStream getOutputStream() throws IOException {
+		assertConnected();
+		return outputStream;
+	}
+
+	private synchronized void assertConnected() throws SocketException {
+		if (closed) {
+			throw new SocketException("Socket is closed");
+		}
+		if (channel == null) {
+			throw new SocketException("Socket is not connected");
+		}
+	}
+
+	@Override
+	public synchronized boolean isConnected() {
+		return channel != null;
+	}
+
+	@Override
+	public boolean isBound() {
+		return isConnected();
+	}
+
+	@Override
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public synchronized SocketAddress getRemoteSocketAddress() {
+		return remoteAddress;
+	}
+
+	@Override
+	public synchronized int getPort() {
+		return remoteAddress != null ? remoteAddress.getPort() : 0;
+	}
+
+	@Override
+	public int getLocalPort() {
+		return -1;
+	}
+
+	@Override
+	public void setSoTimeout(int timeout) throws SocketException {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("timeout can't be negative");
+		}
+		pipe.setReadTimeoutMillis(timeout);
+	}
+
+	@Override
+	public int getSoTimeout() {
+		return pipe.getReadTimeoutMillis();
+	}
+
+	@Override
+	public synchronized void setTcpNoDelay(boolean on) {
+		tcpNoDelay = on;
+	}
+
+	@Override
+	public synchronized boolean getTcpNoDelay() {
+		return tcpNoDelay;
+	}
+
+	@Override
+	public synchronized void setKeepAlive(boolean on) {
+		keepAlive = on;
+	}
+
+	@Override
+	public synchronized boolean getKeepAlive() {
+		return keepAlive;
+	}
+
+	@Override
+	public void setSoLinger(boolean on, int linger) {
+	}
+
+	@Override
+	public int getSoLinger() {
+		return -1;
+	}
+
+	@Override
+	public void shutdownInput() {
+		pipe.closeReader();
+	}
+
+	@Override
+	public void shutdownOutput() throws IOException {
+		getOutputStream().close();
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+
+		pipe.closeReader();
+		if (channel != null) {
+			channel.disconnect();
+			log.debug("closed channel to {}", remoteAddress);
+		}
+		releaseSession();
+		if (meter != null) {
+			meter.closed();
+		}
+		onClose.accept(this);
+		super.close();
+	}
+
+	private synchronized void releaseSession() {
+		if (sessionLease != null) {
+			sessionLease.close();
+			sessionLease = null;
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		if (remoteAddress == null) {
+			return "ChannelSocket[unconnected]";
+		}
+		return "ChannelSocket[" + remoteAddress.getHostString() + ":" + remoteAddress.getPort() + "]";
+	}
+}
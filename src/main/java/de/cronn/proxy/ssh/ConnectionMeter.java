@@ -0,0 +1,163 @@
+package de.cronn.proxy.ssh;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class ConnectionMeter {
+
+	private static final int NEW = 0;
+	private static final int OPENED = 1;
+	private static final int CLOSED = 2;
+
+	private final SshProxyListener listener;
+	private final String sshTunnelHost;
+	private final String host;
+	private final int port;
+	private final long startNanos = System.nanoTime();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private final AtomicInteger state = new AtomicInteger(NEW);
+
+	ConnectionMeter(SshProxyListener listener, String sshTunnelHost, String host, int port) {
+		this.listener = listener;
+		this.sshTunnelHost = sshTunnelHost;
+		this.host = host;
+		this.port = port;
+	}
+
+	void opened() {
+		if (state.get() == NEW && state.compareAndSet(NEW, OPENED)) {
+			listener.connectionOpened(sshTunnelHost, host, port, Duration.ofNanos(System.nanoTime() - startNanos));
+		}
+	}
+
+	void failed(Exception cause) {
+		if (state.compareAndSet(NEW, CLOSED)) {
+			listener.connectionFailed(sshTunnelHost, host, port, cause);
+		} else {
+			closed();
+		}
+	}
+
+	// every connectionOpened event is followed by exactly one connectionClosed event
+	void closed() {
+		if (state.compareAndSet(OPENED, CLOSED)) {
+			Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+			listener.connectionClosed(sshTunnelHost, host, port, bytesSent.get(), bytesReceived.get(), duration);
+		} else if (state.compareAndSet(NEW, CLOSED)) {
+			// e.g. JSch closes the accepted socket if the channel cannot be opened
+			listener.connectionFailed(sshTunnelHost, host, port, new IOException("Connection closed before the channel was opened"));
+		}
+	}
+
+	InputStream countSent(InputStream inputStream, Closeable owner) {
+		return new CountingInputStream(inputStream, owner, bytesSent);
+	}
+
+	InputStream countReceived(InputStream inputStream, Closeable owner) {
+		return new CountingInputStream(inputStream, owner, bytesReceived);
+	}
+
+	OutputStream countSent(OutputStream outputStream, Closeable owner) {
+		return new CountingOutputStream(outputStream, owner, bytesSent);
+	}
+
+	OutputStream countReceived(OutputStream outputStream, Closeable owner) {
+		return new CountingOutputStream(outputStream, owner, bytesReceived);
+	}
+
+	private final class CountingInputStream extends FilterInputStream {
+
+		private final Closeable owner;
+		private final AtomicLong counter;
+
+		private CountingInputStream(InputStream in, Closeable owner, AtomicLong counter) {
+			super(in);
+			this.owner = owner;
+			this.counter = counter;
+		}
+
+		@Override
+		public int read() throws IOException {
+			opened();
+			int b = super.read();
+			if (b >= 0) {
+				counter.incrementAndGet();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			opened();
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				counter.addAndGet(read);
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			counter.addAndGet(skipped);
+			return skipped;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (owner != null) {
+				owner.close();
+			} else {
+				super.close();
+			}
+		}
+	}
+
+	private final class CountingOutputStream extends FilterOutputStream {
+
+		private final Closeable owner;
+		private final AtomicLong counter;
+
+		private CountingOutputStream(OutputStream out, Closeable owner, AtomicLong counter) {
+			super(out);
+			this.owner = owner;
+			this.counter = counter;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			opened();
+			out.write(b);
+			counter.incrementAndGet();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			opened();
+			out.write(b, off, len);
+			counter.addAndGet(len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (owner != null) {
+				owner.close();
+			} else {
+				super.close();
+			}
+		}
+	}
+}
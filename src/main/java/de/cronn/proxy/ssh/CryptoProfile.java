@@ -0,0 +1,44 @@
+package de.cronn.proxy.ssh;
+
+import java.util.Collections;
+import java.util.List;
+
+public enum CryptoProfile {
+
+	DEFAULT(Collections.emptyList(), Collections.emptyList(), Collections.emptyList()), //
+
+	THROUGHPUT( //
+		List.of("aes128-gcm@openssh.com", "aes256-gcm@openssh.com", "chacha20-poly1305@openssh.com", "aes128-ctr", "aes256-ctr", "aes192-ctr"), //
+		List.of("hmac-sha2-256-etm@openssh.com", "hmac-sha2-256", "hmac-sha1"), //
+		Collections.emptyList() //
+	), //
+
+	LOW_LATENCY( //
+		Collections.emptyList(), //
+		Collections.emptyList(), //
+		List.of("curve25519-sha256", "curve25519-sha256@libssh.org", "ecdh-sha2-nistp256", "ecdh-sha2-nistp384", "ecdh-sha2-nistp521") //
+	), //
+	;
+
+	private final List<String> preferredCiphers;
+	private final List<String> preferredMacs;
+	private final List<String> preferredKexAlgorithms;
+
+	CryptoProfile(List<String> preferredCiphers, List<String> preferredMacs, List<String> preferredKexAlgorithms) {
+		this.preferredCiphers = preferredCiphers;
+		this.preferredMacs = preferredMacs;
+		this.preferredKexAlgorithms = preferredKexAlgorithms;
+	}
+
+	List<String> getPreferredCiphers() {
+		return preferredCiphers;
+	}
+
+	List<String> getPreferredMacs() {
+		return preferredMacs;
+	}
+
+	List<String> getPreferredKexAlgorithms() {
+		return preferredKexAlgorithms;
+	}
+}
@@ -0,0 +1,76 @@
+package de.cronn.proxy.ssh;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+final class DaemonClient implements Closeable {
+
+	private final Path socketPath;
+	private final SocketChannel channel;
+	private final BufferedReader reader;
+	private final Writer writer;
+
+	// guarded by this
+	private final Map<Integer, Integer> references = new HashMap<>();
+
+	private DaemonClient(Path socketPath, SocketChannel channel) {
+		this.socketPath = socketPath;
+		this.channel = channel;
+		this.reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+		this.writer = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+	}
+
+	static DaemonClient connect(Path socketPath) throws IOException {
+		return new DaemonClient(socketPath, UnixDomainSockets.connect(socketPath));
+	}
+
+	synchronized int connect(TunnelSpec tunnelSpec) {
+		int localPort = Integer.parseInt(request(SshProxyDaemon.formatConnect(tunnelSpec)));
+		references.merge(Integer.valueOf(localPort), Integer.valueOf(1), Integer::sum);
+		return localPort;
+	}
+
+	synchronized boolean disconnect(int localPort) {
+		Integer port = Integer.valueOf(localPort);
+		if (!references.containsKey(port)) {
+			return false;
+		}
+		request(SshProxyDaemon.DISCONNECT + " " + localPort);
+		references.computeIfPresent(port, (key, count) -> count.intValue() > 1 ? Integer.valueOf(count.intValue() - 1) : null);
+		return true;
+	}
+
+	private String request(String request) {
+		String response;
+		try {
+			writer.write(request + "\n");
+			writer.flush();
+			response = reader.readLine();
+		} catch (IOException e) {
+			throw new SshProxyRuntimeException("Failed to communicate with SSH proxy daemon at " + socketPath, e);
+		}
+		if (response == null) {
+			throw new SshProxyRuntimeException("SSH proxy daemon at " + socketPath + " closed the connection");
+		}
+		if (response.startsWith(SshProxyDaemon.ERROR)) {
+			throw new SshProxyRuntimeException("SSH proxy daemon at " + socketPath + " failed: " + response.substring(SshProxyDaemon.ERROR.length()).trim());
+		}
+		return response.substring(SshProxyDaemon.OK.length()).trim();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		references.clear();
+		channel.close();
+	}
+}
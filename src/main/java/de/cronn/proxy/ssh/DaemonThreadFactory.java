@@ -0,0 +1,21 @@
+package de.cronn.proxy.ssh;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class DaemonThreadFactory implements ThreadFactory {
+
+	private final String name;
+	private final AtomicInteger threadNumber = new AtomicInteger();
+
+	DaemonThreadFactory(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+}
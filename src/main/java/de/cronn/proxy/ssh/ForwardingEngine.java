@@ -0,0 +1,7 @@
+package de.cronn.proxy.ssh;
+
+public enum ForwardingEngine {
+	JSCH,
+	NIO,
+	THREAD_PER_CONNECTION,
+}
@@ -0,0 +1,118 @@
+package de.cronn.proxy.ssh;
+
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+final class GuardedSshProxyListener implements SshProxyListener {
+
+	private static final Logger log = LoggerFactory.getLogger(GuardedSshProxyListener.class);
+
+	private final SshProxyListener delegate;
+
+	private GuardedSshProxyListener(SshProxyListener delegate) {
+		this.delegate = delegate;
+	}
+
+	static SshProxyListener wrap(SshProxyListener listener) {
+		if (listener == NO_OP || listener instanceof GuardedSshProxyListener) {
+			return listener;
+		}
+		return new GuardedSshProxyListener(listener);
+	}
+
+	@Override
+	public void sessionConnected(String sshHost, Duration handshakeDuration, Duration authenticationDuration) {
+		try {
+			delegate.sessionConnected(sshHost, handshakeDuration, authenticationDuration);
+		} catch (RuntimeException e) {
+			logFailure(e);
+		}
+	}
+
+	@Override
+	public void sessionFailed(String sshHost, Exception cause) {
+		try {
+			delegate.sessionFailed(sshHost, cause);
+		} catch (RuntimeException e) {
+			logFailure(e);
+		}
+	}
+
+	@Override
+	public void sessionClosed(String sshHost, Duration lifetime) {
+		try {
+			delegate.sessionClosed(sshHost, lifetime);
+		} catch (RuntimeException e) {
+			logFailure(e);
+		}
+	}
+
+	@Override
+	public void tunnelOpened(String sshTunnelHost, String host, int port, int localPort) {
+		try {
+			delegate.tunnelOpened(sshTunnelHost, host, port, localPort);
+		} catch (RuntimeException e) {
+			logFailure(e);
+		}
+	}
+
+	@Override
+	public void tunnelFailed(String sshTunnelHost, String host, int port, Exception cause) {
+		try {
+			delegate.tunnelFailed(sshTunnelHost, host, port, cause);
+		} catch (RuntimeException e) {
+			logFailure(e);
+		}
+	}
+
+	@Override
+	public void tunnelClosed(String sshTunnelHost, String host, int port, int localPort) {
+		try {
+			delegate.tunnelClosed(sshTunnelHost, host, port, localPort);
+		} catch (RuntimeException e) {
+			logFailure(e);
+		}
+	}
+
+	@Override
+	public void tunnelReconnected(String sshTunnelHost, String host, int port, int localPort, Duration downtime) {
+		try {
+			delegate.tunnelReconnected(sshTunnelHost, host, port, localPort, downtime);
+		} catch (RuntimeException e) {
+			logFailure(e);
+		}
+	}
+
+	@Override
+	public void connectionOpened(String sshTunnelHost, String host, int port, Duration channelOpenDuration) {
+		try {
+			delegate.connectionOpened(sshTunnelHost, host, port, channelOpenDuration);
+		} catch (RuntimeException e) {
+			logFailure(e);
+		}
+	}
+
+	@Override
+	public void connectionFailed(String sshTunnelHost, String host, int port, Exception cause) {
+		try {
+			delegate.connectionFailed(sshTunnelHost, host, port, cause);
+		} catch (RuntimeException e) {
+			logFailure(e);
+		}
+	}
+
+	@Override
+	public void connectionClosed(String sshTunnelHost, String host, int port, long bytesSent, long bytesReceived, Duration duration) {
+		try {
+			delegate.connectionClosed(sshTunnelHost, host, port, bytesSent, bytesReceived, duration);
+		} catch (RuntimeException e) {
+			logFailure(e);
+		}
+	}
+
+	private static void logFailure(RuntimeException e) {
+		log.warn("SSH proxy listener failed", e);
+	}
+}
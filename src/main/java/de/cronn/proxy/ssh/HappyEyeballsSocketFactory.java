@@ -0,0 +1,211 @@
+package de.cronn.proxy.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jcraft.jsch.SocketFactory;
+
+// connects to all addresses of a host with staggered parallel attempts (RFC 8305), so that a dead address does not cost the whole timeout
+final class HappyEyeballsSocketFactory implements SocketFactory {
+
+	private static final Logger log = LoggerFactory.getLogger(HappyEyeballsSocketFactory.class);
+
+	static final int CONNECTION_ATTEMPT_DELAY_MILLIS = 250;
+
+	private static final ThreadFactory CONNECT_THREAD_FACTORY = new DaemonThreadFactory("ssh-proxy-connect-attempt");
+
+	private final AddressResolver addressResolver;
+	private final int connectTimeoutMillis;
+	private final int socketBufferSize;
+	private final long attemptDelayNanos;
+
+	HappyEyeballsSocketFactory(int connectTimeoutMillis, int socketBufferSize) {
+		this(AddressResolver.getInstance(), connectTimeoutMillis, socketBufferSize, CONNECTION_ATTEMPT_DELAY_MILLIS);
+	}
+
+	HappyEyeballsSocketFactory(AddressResolver addressResolver, int connectTimeoutMillis, int socketBufferSize, int attemptDelayMillis) {
+		this.addressResolver = addressResolver;
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.socketBufferSize = socketBufferSize;
+		this.attemptDelayNanos = TimeUnit.MILLISECONDS.toNanos(attemptDelayMillis);
+	}
+
+	private static final class Attempt {
+
+		private final InetSocketAddress address;
+		private final Socket socket;
+		// written by the connecting thread before the attempt is passed to the queue of completed attempts
+		private IOException failure;
+
+		private Attempt(InetSocketAddress address, Socket socket) {
+			this.address = address;
+			this.socket = socket;
+		}
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		List<InetAddress> addresses = sortAddresses(addressResolver.resolve(host));
+		if (addresses.size() == 1) {
+			Attempt attempt = new Attempt(new InetSocketAddress(addresses.get(0), port), newSocket());
+			connect(attempt, connectTimeoutMillis);
+			if (attempt.failure != null) {
+				throw attempt.failure;
+			}
+			return attempt.socket;
+		}
+		return connectToFastest(host, port, addresses);
+	}
+
+	private Socket connectToFastest(String host, int port, List<InetAddress> addresses) throws IOException {
+		Deque<InetAddress> remaining = new ArrayDeque<>(addresses);
+		List<Attempt> attempts = new ArrayList<>();
+		BlockingQueue<Attempt> completed = new LinkedBlockingQueue<>();
+		long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis);
+		IOException failure = null;
+		int failedAttempts = 0;
+		Socket connected = null;
+		try {
+			while (connected == null) {
+				if (!remaining.isEmpty()) {
+					startAttempt(new InetSocketAddress(remaining.poll(), port), attempts, completed, deadlineNanos);
+				}
+
+				// a connect timeout of 0 waits without deadline, like Socket.connect
+				long timeoutNanos = connectTimeoutMillis > 0 ? deadlineNanos - System.nanoTime() : Long.MAX_VALUE;
+				if (!remaining.isEmpty()) {
+					timeoutNanos = Math.min(timeoutNanos, attemptDelayNanos);
+				}
+				Attempt attempt = timeoutNanos > 0 ? completed.poll(timeoutNanos, TimeUnit.NANOSECONDS) : null;
+				if (attempt == null) {
+					if (connectTimeoutMillis > 0 && System.nanoTime() - deadlineNanos >= 0) {
+						SocketTimeoutException timeout = new SocketTimeoutException(
+							"Failed to connect to " + host + ":" + port + " within " + connectTimeoutMillis + " ms");
+						if (failure != null) {
+							timeout.addSuppressed(failure);
+						}
+						throw timeout;
+					}
+					continue;
+				}
+
+				if (attempt.failure == null) {
+					connected = attempt.socket;
+					log.debug("connected to {} via {}", host, attempt.address);
+				} else {
+					log.debug("failed to connect to {} via {}: {}", host, attempt.address, attempt.failure.getMessage());
+					if (failure == null) {
+						failure = attempt.failure;
+					} else {
+						failure.addSuppressed(attempt.failure);
+					}
+					failedAttempts++;
+					if (remaining.isEmpty() && failedAttempts == attempts.size()) {
+						throw failure;
+					}
+				}
+			}
+			return connected;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SocketTimeoutException("Interrupted while connecting to " + host + ":" + port);
+		} finally {
+			for (Attempt attempt : attempts) {
+				if (attempt.socket != connected) {
+					closeQuietly(attempt.socket);
+				}
+			}
+		}
+	}
+
+	private void startAttempt(InetSocketAddress address, List<Attempt> attempts, BlockingQueue<Attempt> completed, long deadlineNanos) throws IOException {
+		Attempt attempt = new Attempt(address, newSocket());
+		attempts.add(attempt);
+		int timeoutMillis = connectTimeoutMillis > 0 ? (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime())) : 0;
+		CONNECT_THREAD_FACTORY.newThread(() -> {
+			connect(attempt, timeoutMillis);
+			completed.add(attempt);
+		}).start();
+	}
+
+	private static void connect(Attempt attempt, int timeoutMillis) {
+		try {
+			attempt.socket.connect(attempt.address, timeoutMillis);
+		} catch (IOException e) {
+			attempt.failure = e;
+			closeQuietly(attempt.socket);
+		}
+	}
+
+	private Socket newSocket() throws IOException {
+		Socket socket = new Socket();
+		if (socketBufferSize > 0) {
+			// the receive buffer must be set before connecting, as it determines the TCP window scale
+			socket.setReceiveBufferSize(socketBufferSize);
+			socket.setSendBufferSize(socketBufferSize);
+		}
+		return socket;
+	}
+
+	// interleaves the address families, starting with the family of the preferred address
+	static List<InetAddress> sortAddresses(List<InetAddress> addresses) {
+		if (addresses.isEmpty()) {
+			return addresses;
+		}
+		boolean firstIsIpv6 = addresses.get(0) instanceof Inet6Address;
+		Deque<InetAddress> preferred = new ArrayDeque<>();
+		Deque<InetAddress> other = new ArrayDeque<>();
+		for (InetAddress address : addresses) {
+			if ((address instanceof Inet6Address) == firstIsIpv6) {
+				preferred.add(address);
+			} else {
+				other.add(address);
+			}
+		}
+		List<InetAddress> sorted = new ArrayList<>(addresses.size());
+		while (!preferred.isEmpty() || !other.isEmpty()) {
+			if (!preferred.isEmpty()) {
+				sorted.add(preferred.poll());
+			}
+			if (!other.isEmpty()) {
+				sorted.add(other.poll());
+			}
+		}
+		return sorted;
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			log.trace("failed to close {}", socket, e);
+		}
+	}
+
+	@Override
+	public InputStream getInputStream(Socket socket) throws IOException {
+		return socket.getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream(Socket socket) throws IOException {
+		return socket.getOutputStream();
+	}
+}
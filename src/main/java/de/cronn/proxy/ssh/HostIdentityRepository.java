@@ -0,0 +1,58 @@
+package de.cronn.proxy.ssh;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Vector;
+
+import com.jcraft.jsch.Identity;
+import com.jcraft.jsch.IdentityRepository;
+
+// offers the identity files of a host before the other identities, like JSch does for the IdentityFile entries of a session
+final class HostIdentityRepository implements IdentityRepository {
+
+	private final List<Identity> hostIdentities;
+	private final IdentityRepository identityRepository;
+
+	HostIdentityRepository(List<Identity> hostIdentities, IdentityRepository identityRepository) {
+		this.hostIdentities = hostIdentities;
+		this.identityRepository = identityRepository;
+	}
+
+	@Override
+	public String getName() {
+		return identityRepository.getName();
+	}
+
+	@Override
+	public int getStatus() {
+		return identityRepository.getStatus();
+	}
+
+	@Override
+	public Vector<Identity> getIdentities() {
+		Vector<Identity> identities = new Vector<>(hostIdentities);
+		// the identities are a raw Vector in JSch 0.1.x
+		Collection<?> repositoryIdentities = identityRepository.getIdentities();
+		for (Object identity : repositoryIdentities) {
+			if (!identities.contains(identity)) {
+				identities.add((Identity) identity);
+			}
+		}
+		return identities;
+	}
+
+	@Override
+	public boolean add(byte[] identity) {
+		return identityRepository.add(identity);
+	}
+
+	@Override
+	public boolean remove(byte[] blob) {
+		return identityRepository.remove(blob);
+	}
+
+	@Override
+	public void removeAll() {
+		identityRepository.removeAll();
+	}
+}
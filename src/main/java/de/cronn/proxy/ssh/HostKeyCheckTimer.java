@@ -0,0 +1,65 @@
+package de.cronn.proxy.ssh;
+
+import com.jcraft.jsch.HostKey;
+import com.jcraft.jsch.HostKeyRepository;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.UserInfo;
+
+final class HostKeyCheckTimer implements HostKeyRepository {
+
+	private final HostKeyRepository delegate;
+	private volatile long hostKeyCheckedNanos;
+
+	private HostKeyCheckTimer(HostKeyRepository delegate) {
+		this.delegate = delegate;
+	}
+
+	static HostKeyCheckTimer install(Session session) {
+		HostKeyCheckTimer hostKeyCheckTimer = new HostKeyCheckTimer(session.getHostKeyRepository());
+		session.setHostKeyRepository(hostKeyCheckTimer);
+		return hostKeyCheckTimer;
+	}
+
+	long getHostKeyCheckedNanos(long defaultNanos) {
+		long nanos = hostKeyCheckedNanos;
+		return nanos != 0 ? nanos : defaultNanos;
+	}
+
+	@Override
+	public int check(String host, byte[] key) {
+		if (hostKeyCheckedNanos == 0) {
+			hostKeyCheckedNanos = System.nanoTime();
+		}
+		return delegate.check(host, key);
+	}
+
+	@Override
+	public void add(HostKey hostkey, UserInfo ui) {
+		delegate.add(hostkey, ui);
+	}
+
+	@Override
+	public void remove(String host, String type) {
+		delegate.remove(host, type);
+	}
+
+	@Override
+	public void remove(String host, String type, byte[] key) {
+		delegate.remove(host, type, key);
+	}
+
+	@Override
+	public String getKnownHostsRepositoryID() {
+		return delegate.getKnownHostsRepositoryID();
+	}
+
+	@Override
+	public HostKey[] getHostKey() {
+		return delegate.getHostKey();
+	}
+
+	@Override
+	public HostKey[] getHostKey(String host, String type) {
+		return delegate.getHostKey(host, type);
+	}
+}
@@ -0,0 +1,67 @@
+package de.cronn.proxy.ssh;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jcraft.jsch.Identity;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.KeyPair;
+
+import de.cronn.proxy.ssh.util.FileStamp;
+
+final class IdentityCache {
+
+	private static final Logger log = LoggerFactory.getLogger(IdentityCache.class);
+
+	private static final JSch KEY_LOADER = new JSch();
+
+	private static final Map<Path, CachedIdentity> identities = new ConcurrentHashMap<>();
+
+	private static final class CachedIdentity {
+
+		private final FileStamp fileStamp;
+		private final Identity identity;
+
+		private CachedIdentity(FileStamp fileStamp, Identity identity) {
+			this.fileStamp = fileStamp;
+			this.identity = identity;
+		}
+	}
+
+	private IdentityCache() {
+	}
+
+	static Identity getIdentity(Path identityFile) throws JSchException {
+		FileStamp fileStamp = getFileStamp(identityFile);
+		CachedIdentity cachedIdentity = identities.get(fileStamp.getPath());
+		if (cachedIdentity != null && cachedIdentity.fileStamp.equals(fileStamp)) {
+			return cachedIdentity.identity;
+		}
+
+		synchronized (identities) {
+			cachedIdentity = identities.get(fileStamp.getPath());
+			if (cachedIdentity == null || !cachedIdentity.fileStamp.equals(fileStamp)) {
+				log.debug("loading SSH key file {}", fileStamp.getPath());
+				String privateKeyFile = fileStamp.getPath().toString();
+				KeyPair keyPair = KeyPair.load(KEY_LOADER, privateKeyFile);
+				cachedIdentity = new CachedIdentity(fileStamp, new KeyPairIdentity(privateKeyFile, keyPair));
+				identities.put(fileStamp.getPath(), cachedIdentity);
+			}
+			return cachedIdentity.identity;
+		}
+	}
+
+	private static FileStamp getFileStamp(Path identityFile) throws JSchException {
+		try {
+			return FileStamp.of(identityFile);
+		} catch (IOException e) {
+			throw new JSchException("Failed to read " + identityFile, e);
+		}
+	}
+}
@@ -0,0 +1,240 @@
+package de.cronn.proxy.ssh;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jcraft.jsch.HostKey;
+import com.jcraft.jsch.HostKeyRepository;
+import com.jcraft.jsch.UserInfo;
+
+import de.cronn.proxy.ssh.util.Assert;
+
+class IndexedHostKeyRepository implements HostKeyRepository {
+
+	private static final Logger log = LoggerFactory.getLogger(IndexedHostKeyRepository.class);
+
+	private static final String HASHED_HOST_PREFIX = "|1|";
+	private static final String HASHED_HOST_SEPARATOR = "|";
+	private static final String HOST_SEPARATOR = ",";
+	private static final String HMAC_SHA1 = "HmacSHA1";
+	private static final String UNKNOWN_KEY_TYPE = "UNKNOWN";
+
+	private final HostKeyRepository delegate;
+	private volatile Index index;
+
+	IndexedHostKeyRepository(HostKeyRepository delegate) {
+		Assert.notNull(delegate, "delegate must not be null");
+		this.delegate = delegate;
+		this.index = new Index(delegate.getHostKey());
+		log.debug("indexed {} host keys from {}", Integer.valueOf(index.size), delegate.getKnownHostsRepositoryID());
+	}
+
+	@Override
+	public int check(String host, byte[] key) {
+		if (host == null || key == null) {
+			return NOT_INCLUDED;
+		}
+
+		String type = JSchHelper.readKeyType(key);
+		int result = NOT_INCLUDED;
+		for (IndexedHostKey hostKey : index.lookup(host)) {
+			if (hostKey.type.equals(type)) {
+				if (Arrays.equals(hostKey.key, key)) {
+					return OK;
+				}
+				result = CHANGED;
+			}
+		}
+
+		if (result == NOT_INCLUDED) {
+			String hostWithoutPort = stripPort(host);
+			if (hostWithoutPort != null) {
+				return check(hostWithoutPort, key);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public HostKey[] getHostKey(String host, String type) {
+		if (host == null) {
+			return getHostKey();
+		}
+
+		List<HostKey> hostKeys = new ArrayList<>();
+		collectHostKeys(host, type, hostKeys);
+		String hostWithoutPort = stripPort(host);
+		if (hostWithoutPort != null) {
+			collectHostKeys(hostWithoutPort, type, hostKeys);
+		}
+		return hostKeys.toArray(new HostKey[0]);
+	}
+
+	private void collectHostKeys(String host, String type, List<HostKey> hostKeys) {
+		for (IndexedHostKey hostKey : index.lookup(host)) {
+			if (type == null || hostKey.type.equals(type)) {
+				hostKeys.add(hostKey.hostKey);
+			}
+		}
+	}
+
+	@Override
+	public HostKey[] getHostKey() {
+		return delegate.getHostKey();
+	}
+
+	@Override
+	public synchronized void add(HostKey hostkey, UserInfo ui) {
+		delegate.add(hostkey, ui);
+		reindex();
+	}
+
+	@Override
+	public synchronized void remove(String host, String type) {
+		delegate.remove(host, type);
+		reindex();
+	}
+
+	@Override
+	public synchronized void remove(String host, String type, byte[] key) {
+		delegate.remove(host, type, key);
+		reindex();
+	}
+
+	@Override
+	public String getKnownHostsRepositoryID() {
+		return delegate.getKnownHostsRepositoryID();
+	}
+
+	private void reindex() {
+		index = new Index(delegate.getHostKey());
+	}
+
+	private static String stripPort(String host) {
+		int portSeparator = host.indexOf("]:");
+		if (host.startsWith("[") && portSeparator > 1) {
+			return host.substring(1, portSeparator);
+		}
+		return null;
+	}
+
+	private static final class IndexedHostKey {
+
+		private final int position;
+		private final HostKey hostKey;
+		private final String type;
+		private final byte[] key;
+
+		private IndexedHostKey(int position, HostKey hostKey) {
+			this.position = position;
+			this.hostKey = hostKey;
+			this.type = hostKey.getType();
+			this.key = Base64.getDecoder().decode(hostKey.getKey());
+		}
+	}
+
+	private static final class SaltedHostKeys {
+
+		private final byte[] salt;
+		private final Map<String, List<IndexedHostKey>> hostKeysByHash = new HashMap<>();
+
+		private SaltedHostKeys(byte[] salt) {
+			this.salt = salt;
+		}
+	}
+
+	private static final class Index {
+
+		private static final Comparator<IndexedHostKey> BY_POSITION = Comparator.comparingInt(hostKey -> hostKey.position);
+
+		private final Map<String, List<IndexedHostKey>> hostKeysByHost = new HashMap<>();
+		private final Map<String, SaltedHostKeys> hashedHostKeysBySalt = new HashMap<>();
+		private final Map<String, List<IndexedHostKey>> resolvedHostKeys = new ConcurrentHashMap<>();
+		private final int size;
+
+		private Index(HostKey[] hostKeys) {
+			int position = 0;
+			for (HostKey hostKey : hostKeys) {
+				if (UNKNOWN_KEY_TYPE.equals(hostKey.getType())) {
+					continue;
+				}
+				IndexedHostKey indexedHostKey = new IndexedHostKey(position++, hostKey);
+				String host = hostKey.getHost();
+				if (host.startsWith(HASHED_HOST_PREFIX)) {
+					addHashedHostKey(host, indexedHostKey);
+				} else {
+					for (String hostName : host.split(HOST_SEPARATOR)) {
+						hostKeysByHost.computeIfAbsent(hostName, k -> new ArrayList<>()).add(indexedHostKey);
+					}
+				}
+			}
+			this.size = position;
+		}
+
+		private void addHashedHostKey(String host, IndexedHostKey indexedHostKey) {
+			String[] saltAndHash = host.substring(HASHED_HOST_PREFIX.length()).split("\\" + HASHED_HOST_SEPARATOR);
+			if (saltAndHash.length != 2) {
+				log.warn("ignoring malformed hashed host entry: {}", host);
+				return;
+			}
+			String salt = saltAndHash[0];
+			String hash = saltAndHash[1];
+			try {
+				SaltedHostKeys saltedHostKeys = hashedHostKeysBySalt.computeIfAbsent(salt, k -> new SaltedHostKeys(Base64.getDecoder().decode(k)));
+				saltedHostKeys.hostKeysByHash.computeIfAbsent(hash, k -> new ArrayList<>()).add(indexedHostKey);
+			} catch (IllegalArgumentException e) {
+				log.warn("ignoring malformed hashed host entry: {}", host);
+			}
+		}
+
+		private List<IndexedHostKey> lookup(String host) {
+			return resolvedHostKeys.computeIfAbsent(host, this::resolve);
+		}
+
+		private List<IndexedHostKey> resolve(String host) {
+			List<IndexedHostKey> hostKeys = new ArrayList<>(hostKeysByHost.getOrDefault(host, Collections.emptyList()));
+			if (!hashedHostKeysBySalt.isEmpty()) {
+				Mac mac = createMac();
+				byte[] hostBytes = host.getBytes(StandardCharsets.UTF_8);
+				for (SaltedHostKeys saltedHostKeys : hashedHostKeysBySalt.values()) {
+					String hash = Base64.getEncoder().encodeToString(hmac(mac, saltedHostKeys.salt, hostBytes));
+					hostKeys.addAll(saltedHostKeys.hostKeysByHash.getOrDefault(hash, Collections.emptyList()));
+				}
+				hostKeys.sort(BY_POSITION);
+			}
+			return Collections.unmodifiableList(hostKeys);
+		}
+
+		private static Mac createMac() {
+			try {
+				return Mac.getInstance(HMAC_SHA1);
+			} catch (GeneralSecurityException e) {
+				throw new SshProxyRuntimeException("Failed to create " + HMAC_SHA1, e);
+			}
+		}
+
+		private static byte[] hmac(Mac mac, byte[] salt, byte[] data) {
+			try {
+				mac.init(new SecretKeySpec(salt, HMAC_SHA1));
+			} catch (GeneralSecurityException e) {
+				throw new SshProxyRuntimeException("Failed to initialize " + HMAC_SHA1, e);
+			}
+			return mac.doFinal(data);
+		}
+	}
+}
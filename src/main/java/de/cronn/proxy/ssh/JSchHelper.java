@@ -1,15 +1,34 @@
 package de.cronn.proxy.ssh;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.Cipher;
+import com.jcraft.jsch.Compression;
+import com.jcraft.jsch.ConfigRepository.Config;
 import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.KeyExchange;
+import com.jcraft.jsch.MAC;
+import com.jcraft.jsch.Session;
 
+import de.cronn.proxy.ssh.util.Assert;
 import de.cronn.proxy.ssh.util.Utils;
 
 public final class JSchHelper {
@@ -17,27 +36,45 @@ public final class JSchHelper {
 	private static final Logger log = LoggerFactory.getLogger(JSchHelper.class);
 
 	private static final String SERVER_HOST_KEY_SEPARATOR = ",";
+	private static final String ALGORITHM_SEPARATOR = ",";
 
 	private static final String JSCH_CONFIG_KEY_SERVER_HOST_KEY = "server_host_key";
+	private static final String JSCH_CONFIG_KEY_CIPHER_C2S = "cipher.c2s";
+	private static final String JSCH_CONFIG_KEY_CIPHER_S2C = "cipher.s2c";
+	private static final String JSCH_CONFIG_KEY_MAC_C2S = "mac.c2s";
+	private static final String JSCH_CONFIG_KEY_MAC_S2C = "mac.s2c";
+	private static final String JSCH_CONFIG_KEY_KEX = "kex";
+	private static final String JSCH_CONFIG_KEY_COMPRESSION_C2S = "compression.c2s";
+	private static final String JSCH_CONFIG_KEY_COMPRESSION_S2C = "compression.s2c";
+	private static final String JSCH_CONFIG_KEY_COMPRESSION_LEVEL = "compression_level";
+
+	private static final String JSCH_CONFIG_KEY_ZLIB = "zlib";
+	private static final String JSCH_CONFIG_KEY_ZLIB_OPENSSH = "zlib@openssh.com";
+
+	private static final String COMPRESSION_ZLIB = "zlib@openssh.com,zlib,none";
 	private static final String JSCH_CONFIG_KEY_PREFERRED_AUTHENTICATIONS = "PreferredAuthentications";
 
-	private static class HostKeyComparator implements Comparator<HostKeyType> {
+	// JSch rejects incoming packets larger than 256 KiB including the padding and the MAC
+	static final int MAX_CHANNEL_PACKET_SIZE = 128 * 1024;
 
-		private final List<HostKeyType> sortOrder;
+	private static class HostKeyComparator implements Comparator<HostKeyType> {
 
-		protected HostKeyComparator(List<HostKeyType> sortOrder) {
-			this.sortOrder = sortOrder;
-		}
+		private final Map<HostKeyType, Integer> ranks = new EnumMap<>(HostKeyType.class);
 
 		protected HostKeyComparator(HostKeyType... sortOrder) {
-			this(Arrays.asList(sortOrder));
+			for (HostKeyType hostKeyType : sortOrder) {
+				ranks.put(hostKeyType, Integer.valueOf(ranks.size()));
+			}
 		}
 
 		@Override
 		public int compare(HostKeyType a, HostKeyType b) {
-			int indexA = sortOrder.indexOf(a);
-			int indexB = sortOrder.indexOf(b);
-			return Integer.compare(indexA, indexB);
+			return Integer.compare(getRank(a), getRank(b));
+		}
+
+		private int getRank(HostKeyType hostKeyType) {
+			Integer rank = ranks.get(hostKeyType);
+			return rank != null ? rank.intValue() : -1;
 		}
 	}
 
@@ -54,11 +91,97 @@ public final class JSchHelper {
 		PREFER_RSA,
 	}
 
+	private static final class ServerHostKeyOrders {
+
+		private final String serverHostKeyConfig;
+		private final Map<ServerHostKeySortOrder, List<HostKeyType>> hostKeys = new EnumMap<>(ServerHostKeySortOrder.class);
+		private final Map<ServerHostKeySortOrder, String> hostKeyOrders = new EnumMap<>(ServerHostKeySortOrder.class);
+
+		private ServerHostKeyOrders(String serverHostKeyConfig) {
+			this.serverHostKeyConfig = serverHostKeyConfig;
+			for (ServerHostKeySortOrder hostKeySortOrder : ServerHostKeySortOrder.values()) {
+				List<HostKeyType> serverHostKeys = sortServerHostKeys(parseServerHostKeys(serverHostKeyConfig), hostKeySortOrder);
+				List<String> serverHostKeyNames = new ArrayList<>();
+				for (HostKeyType serverHostKey : serverHostKeys) {
+					serverHostKeyNames.add(serverHostKey.getTypeString());
+				}
+				hostKeys.put(hostKeySortOrder, Collections.unmodifiableList(serverHostKeys));
+				hostKeyOrders.put(hostKeySortOrder, Utils.join(serverHostKeyNames, SERVER_HOST_KEY_SEPARATOR));
+			}
+		}
+	}
+
+	private static final class ChannelSizeSetters {
+
+		private static final Method SET_LOCAL_WINDOW_SIZE_MAX;
+		private static final Method SET_LOCAL_WINDOW_SIZE;
+		private static final Method SET_LOCAL_PACKET_SIZE;
+		private static final Field LOCAL_WINDOW_SIZE_MAX;
+
+		static {
+			Method setLocalWindowSizeMax = null;
+			Method setLocalWindowSize = null;
+			Method setLocalPacketSize = null;
+			Field localWindowSizeMax = null;
+			try {
+				// JSch has no public API for the channel sizes, the setters are package-private
+				setLocalWindowSizeMax = getAccessibleChannelMethod("setLocalWindowSizeMax");
+				setLocalWindowSize = getAccessibleChannelMethod("setLocalWindowSize");
+				setLocalPacketSize = getAccessibleChannelMethod("setLocalPacketSize");
+				localWindowSizeMax = Channel.class.getDeclaredField("lwsize_max");
+				localWindowSizeMax.setAccessible(true);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				log.warn("channel window and packet sizes cannot be configured with this JSch version: {}", e.toString());
+				setLocalPacketSize = null;
+			}
+			SET_LOCAL_WINDOW_SIZE_MAX = setLocalWindowSizeMax;
+			SET_LOCAL_WINDOW_SIZE = setLocalWindowSize;
+			SET_LOCAL_PACKET_SIZE = setLocalPacketSize;
+			LOCAL_WINDOW_SIZE_MAX = localWindowSizeMax;
+		}
+
+		private static Method getAccessibleChannelMethod(String name) throws NoSuchMethodException {
+			Method method = Channel.class.getDeclaredMethod(name, int.class);
+			method.setAccessible(true);
+			return method;
+		}
+	}
+
+	private static final Map<String, Boolean> supportedAlgorithms = new ConcurrentHashMap<>();
+
+	private static volatile ServerHostKeyOrders serverHostKeyOrders;
+
 	private JSchHelper() {
 	}
 
-	protected static void reconfigureServerHostKeyOrder(ServerHostKeySortOrder hostKeySortOrder) {
-		List<HostKeyType> serverHostKeys = new ArrayList<>(getServerHostKeys());
+	protected static void configureServerHostKeyOrder(Session session, ServerHostKeySortOrder hostKeySortOrder) {
+		String hostKeyOrder = getServerHostKeyOrder(hostKeySortOrder);
+		log.trace("using server host key order: {}", hostKeyOrder);
+		session.setConfig(JSCH_CONFIG_KEY_SERVER_HOST_KEY, hostKeyOrder);
+	}
+
+	protected static String getServerHostKeyOrder(ServerHostKeySortOrder hostKeySortOrder) {
+		Assert.notNull(hostKeySortOrder, "hostKeySortOrder must not be null");
+		return getServerHostKeyOrders().hostKeyOrders.get(hostKeySortOrder);
+	}
+
+	protected static List<HostKeyType> getServerHostKeys(ServerHostKeySortOrder hostKeySortOrder) {
+		Assert.notNull(hostKeySortOrder, "hostKeySortOrder must not be null");
+		return getServerHostKeyOrders().hostKeys.get(hostKeySortOrder);
+	}
+
+	private static ServerHostKeyOrders getServerHostKeyOrders() {
+		// the orders are sorted again if the global configuration was changed with JSch.setConfig
+		String serverHostKeyConfig = JSch.getConfig(JSCH_CONFIG_KEY_SERVER_HOST_KEY);
+		ServerHostKeyOrders orders = serverHostKeyOrders;
+		if (orders == null || !orders.serverHostKeyConfig.equals(serverHostKeyConfig)) {
+			orders = new ServerHostKeyOrders(serverHostKeyConfig);
+			serverHostKeyOrders = orders;
+		}
+		return orders;
+	}
+
+	private static List<HostKeyType> sortServerHostKeys(List<HostKeyType> serverHostKeys, ServerHostKeySortOrder hostKeySortOrder) {
 		if (hostKeySortOrder == ServerHostKeySortOrder.PREFER_ECDSA) {
 			serverHostKeys.sort(CMP_PREFER_ECDSA);
 		} else if (hostKeySortOrder == ServerHostKeySortOrder.PREFER_RSA) {
@@ -66,18 +189,217 @@ public final class JSchHelper {
 		} else {
 			throw new IllegalArgumentException("Unknown host key sort order: " + hostKeySortOrder);
 		}
+		return serverHostKeys;
+	}
+
+	protected static void configureAlgorithms(Session session, CryptoProfile cryptoProfile, Config hostConfig) {
+		Assert.notNull(cryptoProfile, "cryptoProfile must not be null");
+		// JSch maps its own keys to Ciphers, MACs and KexAlgorithms of the OpenSSH configuration
+		String ciphers = hostConfig.getValue(JSCH_CONFIG_KEY_CIPHER_C2S);
+		String macs = hostConfig.getValue(JSCH_CONFIG_KEY_MAC_C2S);
+		String kexAlgorithms = hostConfig.getValue(JSCH_CONFIG_KEY_KEX);
+
+		String cipherOrder = resolveAlgorithms(JSCH_CONFIG_KEY_CIPHER_C2S, cryptoProfile.getPreferredCiphers(), ciphers, JSchHelper::isCipherSupported);
+		if (cipherOrder != null) {
+			log.trace("using ciphers: {}", cipherOrder);
+			session.setConfig(JSCH_CONFIG_KEY_CIPHER_C2S, cipherOrder);
+			session.setConfig(JSCH_CONFIG_KEY_CIPHER_S2C, cipherOrder);
+		}
+
+		String macOrder = resolveAlgorithms(JSCH_CONFIG_KEY_MAC_C2S, cryptoProfile.getPreferredMacs(), macs, JSchHelper::isMacSupported);
+		if (macOrder != null) {
+			log.trace("using MACs: {}", macOrder);
+			session.setConfig(JSCH_CONFIG_KEY_MAC_C2S, macOrder);
+			session.setConfig(JSCH_CONFIG_KEY_MAC_S2C, macOrder);
+		}
+
+		String kexOrder = resolveAlgorithms(JSCH_CONFIG_KEY_KEX, cryptoProfile.getPreferredKexAlgorithms(), kexAlgorithms, JSchHelper::isKexSupported);
+		if (kexOrder != null) {
+			log.trace("using key exchange algorithms: {}", kexOrder);
+			session.setConfig(JSCH_CONFIG_KEY_KEX, kexOrder);
+		}
+	}
+
+	protected static void configureCompression(Session session, int compressionLevel) {
+		log.trace("using compression level {}", compressionLevel);
+		session.setConfig(JSCH_CONFIG_KEY_COMPRESSION_C2S, COMPRESSION_ZLIB);
+		session.setConfig(JSCH_CONFIG_KEY_COMPRESSION_S2C, COMPRESSION_ZLIB);
+		session.setConfig(JSCH_CONFIG_KEY_COMPRESSION_LEVEL, String.valueOf(compressionLevel));
+	}
+
+	protected static void configureCompressionImplementation(Session session, Class<? extends Compression> compressionClass) {
+		session.setConfig(JSCH_CONFIG_KEY_ZLIB, compressionClass.getName());
+		session.setConfig(JSCH_CONFIG_KEY_ZLIB_OPENSSH, compressionClass.getName());
+	}
+
+	protected static boolean isChannelSizeConfigurable() {
+		return ChannelSizeSetters.SET_LOCAL_PACKET_SIZE != null;
+	}
+
+	protected static void configureChannelSizes(Channel channel, int windowSize, int maxPacketSize) {
+		if ((windowSize == 0 && maxPacketSize == 0) || !isChannelSizeConfigurable()) {
+			return;
+		}
+		Assert.isTrue(!channel.isConnected(), "channel is already connected");
+		try {
+			if (windowSize > 0) {
+				ChannelSizeSetters.SET_LOCAL_WINDOW_SIZE_MAX.invoke(channel, Integer.valueOf(windowSize));
+				ChannelSizeSetters.SET_LOCAL_WINDOW_SIZE.invoke(channel, Integer.valueOf(windowSize));
+			}
+			if (maxPacketSize > 0) {
+				ChannelSizeSetters.SET_LOCAL_PACKET_SIZE.invoke(channel, Integer.valueOf(maxPacketSize));
+			}
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Failed to configure the channel sizes", e);
+		}
+	}
+
+	// the session thread refills the window of a channel up to this size once less than half of it is left
+	protected static int getLocalWindowSizeMax(Channel channel) {
+		if (!isChannelSizeConfigurable()) {
+			return 0;
+		}
+		try {
+			return ChannelSizeSetters.LOCAL_WINDOW_SIZE_MAX.getInt(channel);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Failed to read the channel window size", e);
+		}
+	}
+
+	protected static void setLocalWindowSizeMax(Channel channel, int windowSizeMax) {
+		Assert.isTrue(isChannelSizeConfigurable(), "channel window size cannot be configured with this JSch version");
+		try {
+			ChannelSizeSetters.SET_LOCAL_WINDOW_SIZE_MAX.invoke(channel, Integer.valueOf(windowSizeMax));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Failed to configure the channel window size", e);
+		}
+	}
+
+	static String resolveAlgorithms(String jschConfigKey, List<String> preferredAlgorithms, String hostAlgorithms, Predicate<String> isSupported) {
+		if (preferredAlgorithms.isEmpty() && hostAlgorithms == null) {
+			return null;
+		}
+
+		String defaultAlgorithms = JSch.getConfig(jschConfigKey);
+		Set<String> algorithms = new LinkedHashSet<>(preferredAlgorithms);
+		algorithms.addAll(splitAlgorithms(defaultAlgorithms));
+		if (hostAlgorithms != null) {
+			algorithms = applyHostAlgorithms(algorithms, hostAlgorithms.trim());
+		}
+
+		List<String> supported = new ArrayList<>();
+		for (String algorithm : algorithms) {
+			if (isSupported.test(algorithm)) {
+				supported.add(algorithm);
+			}
+		}
+
+		if (supported.isEmpty()) {
+			log.warn("none of the algorithms {} is supported, using the defaults: {}", algorithms, defaultAlgorithms);
+			return defaultAlgorithms;
+		}
+		return Utils.join(supported, ALGORITHM_SEPARATOR);
+	}
+
+	private static Set<String> applyHostAlgorithms(Set<String> algorithms, String hostAlgorithms) {
+		if (hostAlgorithms.startsWith("+")) {
+			Set<String> result = new LinkedHashSet<>(algorithms);
+			result.addAll(splitAlgorithms(hostAlgorithms.substring(1)));
+			return result;
+		} else if (hostAlgorithms.startsWith("-")) {
+			List<Pattern> patterns = new ArrayList<>();
+			for (String pattern : splitAlgorithms(hostAlgorithms.substring(1))) {
+				patterns.add(toPattern(pattern));
+			}
+			Set<String> result = new LinkedHashSet<>(algorithms);
+			result.removeIf(algorithm -> patterns.stream().anyMatch(pattern -> pattern.matcher(algorithm).matches()));
+			return result;
+		} else if (hostAlgorithms.startsWith("^")) {
+			Set<String> result = new LinkedHashSet<>(splitAlgorithms(hostAlgorithms.substring(1)));
+			result.addAll(algorithms);
+			return result;
+		} else {
+			return new LinkedHashSet<>(splitAlgorithms(hostAlgorithms));
+		}
+	}
+
+	private static Pattern toPattern(String wildcardPattern) {
+		StringBuilder regex = new StringBuilder();
+		for (String part : wildcardPattern.split("((?<=[*?])|(?=[*?]))")) {
+			if (part.equals("*")) {
+				regex.append(".*");
+			} else if (part.equals("?")) {
+				regex.append('.');
+			} else if (!part.isEmpty()) {
+				regex.append(Pattern.quote(part));
+			}
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	private static List<String> splitAlgorithms(String algorithms) {
+		List<String> result = new ArrayList<>();
+		if (algorithms == null) {
+			return result;
+		}
+		for (String algorithm : algorithms.split(ALGORITHM_SEPARATOR)) {
+			if (!algorithm.trim().isEmpty()) {
+				result.add(algorithm.trim());
+			}
+		}
+		return result;
+	}
+
+	static boolean isCipherSupported(String cipherName) {
+		return isSupported(cipherName, Cipher.class, cipherClass -> {
+			Cipher cipher = cipherClass.getDeclaredConstructor().newInstance();
+			cipher.init(Cipher.ENCRYPT_MODE, new byte[cipher.getBlockSize()], new byte[cipher.getIVSize()]);
+		});
+	}
+
+	static boolean isMacSupported(String macName) {
+		return isSupported(macName, MAC.class, macClass -> {
+			MAC mac = macClass.getDeclaredConstructor().newInstance();
+			mac.init(new byte[mac.getBlockSize()]);
+		});
+	}
+
+	static boolean isKexSupported(String kexName) {
+		// key exchange implementations are not public in newer JSch versions, so they are only loaded
+		return isSupported(kexName, KeyExchange.class, kexClass -> {});
+	}
 
-		if (!getServerHostKeys().equals(serverHostKeys)) {
-			log.debug("changing server host key order to: {}", serverHostKeys);
+	private interface AlgorithmCheck<T> {
+		void check(Class<? extends T> algorithmClass) throws Exception;
+	}
 
-			List<String> serverHostKeyNames = new ArrayList<>();
-			for (HostKeyType serverHostKey : serverHostKeys) {
-				serverHostKeyNames.add(serverHostKey.getTypeString());
+	private static <T> boolean isSupported(String algorithmName, Class<T> algorithmType, AlgorithmCheck<T> algorithmCheck) {
+		return supportedAlgorithms.computeIfAbsent(algorithmType.getSimpleName() + ":" + algorithmName, key -> {
+			String className = JSch.getConfig(algorithmName);
+			if (className == null) {
+				log.debug("{} {} is unknown", algorithmType.getSimpleName(), algorithmName);
+				return Boolean.FALSE;
+			}
+			try {
+				algorithmCheck.check(Class.forName(className, true, JSch.class.getClassLoader()).asSubclass(algorithmType));
+				return Boolean.TRUE;
+			} catch (Exception | LinkageError e) {
+				log.debug("{} {} is not supported: {}", algorithmType.getSimpleName(), algorithmName, e.toString());
+				return Boolean.FALSE;
 			}
+		}).booleanValue();
+	}
 
-			String newHostKeyOrder = Utils.join(serverHostKeyNames, SERVER_HOST_KEY_SEPARATOR);
-			JSch.setConfig(JSCH_CONFIG_KEY_SERVER_HOST_KEY, newHostKeyOrder);
+	protected static String readKeyType(byte[] keyBlob) {
+		if (keyBlob == null || keyBlob.length < 4) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(keyBlob);
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			return null;
 		}
+		return new String(keyBlob, buffer.position(), length, StandardCharsets.UTF_8);
 	}
 
 	protected static void reconfigurePreferredAuthentications() {
@@ -89,8 +411,10 @@ public final class JSchHelper {
 	}
 
 	protected static List<HostKeyType> getServerHostKeys() {
-		String serverHostKey = JSch.getConfig(JSCH_CONFIG_KEY_SERVER_HOST_KEY);
+		return parseServerHostKeys(JSch.getConfig(JSCH_CONFIG_KEY_SERVER_HOST_KEY));
+	}
 
+	private static List<HostKeyType> parseServerHostKeys(String serverHostKey) {
 		List<HostKeyType> hostKeyTypes = new ArrayList<>();
 		for (String hostKeyString : serverHostKey.split(SERVER_HOST_KEY_SEPARATOR)) {
 			hostKeyTypes.add(HostKeyType.byTypeString(hostKeyString));
@@ -0,0 +1,76 @@
+package de.cronn.proxy.ssh;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.Proxy;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SocketFactory;
+
+class JumpHostProxy implements Proxy {
+
+	private final Session jumpHostSession;
+	private final String forwardingHost;
+	private final int forwardingPort;
+	private final ChannelPipe pipe = new ChannelPipe();
+
+	// JSch applies its timeout and ServerAliveInterval via the read timeout of the proxy socket
+	private final Socket socket = new Socket() {
+
+		@Override
+		public void setSoTimeout(int timeout) {
+			if (timeout < 0) {
+				throw new IllegalArgumentException("timeout can't be negative");
+			}
+			pipe.setReadTimeoutMillis(timeout);
+		}
+
+		@Override
+		public int getSoTimeout() {
+			return pipe.getReadTimeoutMillis();
+		}
+	};
+
+	private Channel channel;
+	private OutputStream outputStream;
+
+	JumpHostProxy(Session jumpHostSession, String forwardingHost, int forwardingPort) {
+		this.jumpHostSession = jumpHostSession;
+		this.forwardingHost = forwardingHost;
+		this.forwardingPort = forwardingPort;
+	}
+
+	@Override
+	public void connect(SocketFactory socketFactory, String host, int port, int timeout) throws Exception {
+		channel = jumpHostSession.getStreamForwarder(forwardingHost, forwardingPort);
+		channel.setOutputStream(pipe.getOutputStream());
+		outputStream = channel.getOutputStream();
+		channel.connect(timeout);
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return pipe.getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	@Override
+	public Socket getSocket() {
+		return socket;
+	}
+
+	@Override
+	public void close() {
+		pipe.closeReader();
+		if (channel != null) {
+			channel.disconnect();
+			channel = null;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package de.cronn.proxy.ssh;
+
+import com.jcraft.jsch.Identity;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.KeyPair;
+
+class KeyPairIdentity implements Identity {
+
+	private final String name;
+	private final KeyPair keyPair;
+	private final String algName;
+
+	KeyPairIdentity(String name, KeyPair keyPair) {
+		this.name = name;
+		this.keyPair = keyPair;
+		this.algName = JSchHelper.readKeyType(keyPair.getPublicKeyBlob());
+	}
+
+	@Override
+	public boolean setPassphrase(byte[] passphrase) throws JSchException {
+		return keyPair.decrypt(passphrase);
+	}
+
+	@Override
+	public byte[] getPublicKeyBlob() {
+		return keyPair.getPublicKeyBlob();
+	}
+
+	@Override
+	public byte[] getSignature(byte[] data) {
+		return keyPair.getSignature(data);
+	}
+
+	@Override
+	@Deprecated
+	public boolean decrypt() {
+		// the key pair is decrypted by setPassphrase
+		return !keyPair.isEncrypted();
+	}
+
+	@Override
+	public String getAlgName() {
+		return algName;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public boolean isEncrypted() {
+		return keyPair.isEncrypted();
+	}
+
+	@Override
+	public void clear() {
+		// the key pair is shared between all SshConfiguration instances and owned by the IdentityCache
+	}
+}
@@ -0,0 +1,141 @@
+package de.cronn.proxy.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.ServerSocketFactory;
+
+final class MeteredServerSocketFactory implements ServerSocketFactory {
+
+	private static final Logger log = LoggerFactory.getLogger(MeteredServerSocketFactory.class);
+
+	private final SshProxyListener listener;
+	private final String sshTunnelHost;
+	private final String host;
+	private final int port;
+	private final ChannelLimits.Limiter limiter;
+	private final int channelWaitTimeoutMillis;
+	private final int acceptBacklog;
+
+	MeteredServerSocketFactory(SshProxyListener listener, String sshTunnelHost, String host, int port) {
+		this(listener, sshTunnelHost, host, port, ChannelLimits.NO_LIMIT, 0, 0);
+	}
+
+	MeteredServerSocketFactory(SshProxyListener listener, String sshTunnelHost, String host, int port, ChannelLimits.Limiter limiter,
+		int channelWaitTimeoutMillis, int acceptBacklog) {
+		this.listener = listener;
+		this.sshTunnelHost = sshTunnelHost;
+		this.host = host;
+		this.port = port;
+		this.limiter = limiter;
+		this.channelWaitTimeoutMillis = channelWaitTimeoutMillis;
+		this.acceptBacklog = acceptBacklog;
+	}
+
+	@Override
+	public ServerSocket createServerSocket(int localPort, int backlog, InetAddress bindAddress) throws IOException {
+		return new MeteredServerSocket(localPort, acceptBacklog > 0 ? acceptBacklog : backlog, bindAddress);
+	}
+
+	private ConnectionMeter newConnectionMeter() {
+		return listener != SshProxyListener.NO_OP ? new ConnectionMeter(listener, sshTunnelHost, host, port) : null;
+	}
+
+	private final class MeteredServerSocket extends ServerSocket {
+
+		private MeteredServerSocket(int localPort, int backlog, InetAddress bindAddress) throws IOException {
+			super(localPort, backlog, bindAddress);
+		}
+
+		// JSch opens a channel for every accepted socket, so the accepting thread waits until the session may open another channel
+		@Override
+		public Socket accept() throws IOException {
+			while (true) {
+				if (isClosed()) {
+					throw new SocketException("Socket is closed");
+				}
+				MeteredSocket socket = new MeteredSocket();
+				implAccept(socket);
+				ConnectionMeter meter = newConnectionMeter();
+				if (acquireChannel()) {
+					socket.start(meter, limiter);
+					return socket;
+				}
+				log.debug("channel limit of the session to {} reached, closing connection to {}:{}", sshTunnelHost, host, Integer.valueOf(port));
+				if (meter != null) {
+					meter.failed(new JSchException("channel limit of the session to " + sshTunnelHost + " reached"));
+				}
+				socket.close();
+			}
+		}
+
+		private boolean acquireChannel() throws IOException {
+			try {
+				return limiter.acquire(channelWaitTimeoutMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SocketException("Interrupted while waiting for a channel");
+			}
+		}
+	}
+
+	private static final class MeteredSocket extends Socket {
+
+		private ConnectionMeter meter;
+		private ChannelLimits.Limiter limiter;
+		private InputStream inputStream;
+		private OutputStream outputStream;
+		private boolean closed;
+
+		private synchronized void start(ConnectionMeter meter, ChannelLimits.Limiter limiter) {
+			this.meter = meter;
+			this.limiter = limiter;
+		}
+
+		@Override
+		public synchronized InputStream getInputStream() throws IOException {
+			if (inputStream == null) {
+				inputStream = meter != null ? meter.countSent(super.getInputStream(), this) : super.getInputStream();
+			}
+			return inputStream;
+		}
+
+		@Override
+		public synchronized OutputStream getOutputStream() throws IOException {
+			if (outputStream == null) {
+				outputStream = meter != null ? meter.countReceived(super.getOutputStream(), this) : super.getOutputStream();
+			}
+			return outputStream;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				ConnectionMeter connectionMeter;
+				ChannelLimits.Limiter channelLimiter;
+				synchronized (this) {
+					connectionMeter = meter;
+					channelLimiter = closed ? null : limiter;
+					closed = true;
+				}
+				if (channelLimiter != null) {
+					channelLimiter.release();
+				}
+				if (connectionMeter != null) {
+					connectionMeter.closed();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,783 @@
+package de.cronn.proxy.ssh;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import de.cronn.proxy.ssh.util.Assert;
+
+final class NioPortForwarder implements PortForwarder {
+
+	private static final Logger log = LoggerFactory.getLogger(NioPortForwarder.class);
+
+	private static final int BUFFER_SIZE = 32 * 1024;
+	private static final int MAX_PENDING_BYTES = 1024 * 1024;
+	// the smallest window which JSch still refills, so that it grows again as soon as the client has caught up
+	private static final int THROTTLED_WINDOW_SIZE = 2;
+	// only used if the channel window cannot be throttled with this JSch version
+	private static final int MAX_BUFFERED_BYTES = 16 * MAX_PENDING_BYTES;
+	// JSch polls for the channel open confirmation, so a few channels are opened in parallel
+	private static final int CHANNEL_OPENER_THREADS = 8;
+	private static final long CHANNEL_OPENER_KEEP_ALIVE_SECONDS = 60;
+	private static final int DEFAULT_CHANNEL_WRITER_THREADS = 8;
+	private static final byte[] END_OF_STREAM = new byte[0];
+
+	private final Selector selector;
+	private final Thread selectorThread;
+	private final ThreadPoolExecutor channelOpener;
+	private final ThreadPoolExecutor remoteWriter;
+	private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+	private final Map<Integer, ServerSocketChannel> serverChannels = new ConcurrentHashMap<>();
+	private final Map<Integer, Forwarding> forwardings = new ConcurrentHashMap<>();
+	private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+	private final SshProxyListener listener;
+	private final int connectTimeoutMillis;
+	private final ChannelLimits channelLimits;
+	private final int acceptBacklog;
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private final AtomicInteger lastSocketId = new AtomicInteger();
+
+	private volatile boolean closed;
+
+	NioPortForwarder(SshProxyListener listener, int connectTimeoutMillis, ThreadFactory threadFactory) throws IOException {
+		this(listener, connectTimeoutMillis, threadFactory, ChannelLimits.UNLIMITED, 0, 0);
+	}
+
+	NioPortForwarder(SshProxyListener listener, int connectTimeoutMillis, ThreadFactory threadFactory, ChannelLimits channelLimits, int acceptBacklog,
+		int channelWriterThreads) throws IOException {
+		this.listener = listener;
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.channelLimits = channelLimits;
+		this.acceptBacklog = acceptBacklog;
+		this.selector = Selector.open();
+		ThreadFactory channelOpenerThreadFactory = threadFactory != null ? threadFactory : new DaemonThreadFactory("ssh-proxy-channel-opener");
+		this.channelOpener = new ThreadPoolExecutor(CHANNEL_OPENER_THREADS, CHANNEL_OPENER_THREADS,
+			CHANNEL_OPENER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), channelOpenerThreadFactory);
+		this.channelOpener.allowCoreThreadTimeOut(true);
+		// JSch blocks writes to a channel until the remote window has room, so they are kept off the selector thread;
+		// the pool is fixed, connections beyond its size wait until a writer thread is free
+		int remoteWriterThreads = channelWriterThreads > 0 ? channelWriterThreads : DEFAULT_CHANNEL_WRITER_THREADS;
+		ThreadFactory remoteWriterThreadFactory = threadFactory != null ? threadFactory : new DaemonThreadFactory("ssh-proxy-remote-writer");
+		this.remoteWriter = new ThreadPoolExecutor(remoteWriterThreads, remoteWriterThreads,
+			CHANNEL_OPENER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), remoteWriterThreadFactory);
+		this.remoteWriter.allowCoreThreadTimeOut(true);
+		ThreadFactory selectorThreadFactory = threadFactory != null ? threadFactory : new DaemonThreadFactory("ssh-proxy-forwarder");
+		this.selectorThread = selectorThreadFactory.newThread(this::run);
+		this.selectorThread.start();
+	}
+
+	@Override
+	public int addForwarding(List<Session> sessions, String bindAddress, TunnelSpec tunnelSpec) throws IOException {
+		Forwarding forwarding = new Forwarding(new StripedSessions(sessions, channelLimits), tunnelSpec);
+		ServerSocketChannel serverChannel;
+		int boundPort;
+		if (forwarding.socketPath != null) {
+			serverChannel = UnixDomainSockets.bind(forwarding.socketPath, acceptBacklog);
+			// Unix domain sockets have no port, so their forwardings are identified by negative numbers
+			boundPort = lastSocketId.decrementAndGet();
+		} else {
+			serverChannel = bindLocalPort(bindAddress, tunnelSpec);
+			boundPort = serverChannel.socket().getLocalPort();
+		}
+		try {
+			serverChannel.configureBlocking(false);
+		} catch (IOException e) {
+			closeServerChannel(serverChannel, forwarding);
+			throw e;
+		}
+
+		serverChannels.put(Integer.valueOf(boundPort), serverChannel);
+		forwardings.put(Integer.valueOf(boundPort), forwarding);
+		execute(() -> {
+			try {
+				serverChannel.register(selector, SelectionKey.OP_ACCEPT, forwarding);
+			} catch (IOException e) {
+				log.error("failed to register {}", forwarding, e);
+				closeServerChannel(serverChannel, forwarding);
+			}
+		});
+		return boundPort;
+	}
+
+	private ServerSocketChannel bindLocalPort(String bindAddress, TunnelSpec tunnelSpec) throws IOException {
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		try {
+			if (tunnelSpec.getSocketBufferSize() > 0) {
+				// accepted connections inherit the receive buffer, it must be set before binding to take effect on the TCP window
+				serverChannel.setOption(StandardSocketOptions.SO_RCVBUF, Integer.valueOf(tunnelSpec.getSocketBufferSize()));
+			}
+			serverChannel.bind(new InetSocketAddress(bindAddress, tunnelSpec.getLocalPort()), acceptBacklog);
+		} catch (IOException e) {
+			serverChannel.close();
+			throw e;
+		}
+		return serverChannel;
+	}
+
+	@Override
+	public void replaceSession(int localPort, Session disconnectedSession, Session session) {
+		Forwarding forwarding = forwardings.get(Integer.valueOf(localPort));
+		Assert.notNull(forwarding, "no forwarding on local port " + localPort);
+		Assert.isTrue(forwarding.sessions.replace(disconnectedSession, session), "session is not used by local port " + localPort);
+	}
+
+	@Override
+	public void removeForwarding(int localPort) {
+		Forwarding forwarding = forwardings.remove(Integer.valueOf(localPort));
+		ServerSocketChannel serverChannel = serverChannels.remove(Integer.valueOf(localPort));
+		if (serverChannel != null) {
+			// the socket file is deleted right away, so that the path can be bound again before the selector closes the channel
+			deleteSocketFile(forwarding);
+			execute(() -> closeQuietly(serverChannel));
+		}
+	}
+
+	int getConnectionCount() {
+		return connections.size();
+	}
+
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		channelOpener.shutdownNow();
+		remoteWriter.shutdownNow();
+		selector.wakeup();
+		try {
+			selectorThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void execute(Runnable task) {
+		pendingTasks.add(task);
+		selector.wakeup();
+	}
+
+	private void run() {
+		try {
+			while (!closed) {
+				selector.select();
+				runPendingTasks();
+				Set<SelectionKey> selectedKeys = selector.selectedKeys();
+				for (SelectionKey key : selectedKeys) {
+					handle(key);
+				}
+				selectedKeys.clear();
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			log.error("forwarder failed", e);
+		} finally {
+			shutdown();
+		}
+	}
+
+	private void runPendingTasks() {
+		Runnable task;
+		while ((task = pendingTasks.poll()) != null) {
+			task.run();
+		}
+	}
+
+	private void handle(SelectionKey key) {
+		if (!key.isValid()) {
+			return;
+		}
+		if (key.isAcceptable()) {
+			accept(key);
+			return;
+		}
+
+		Connection connection = (Connection) key.attachment();
+		try {
+			if (key.isReadable()) {
+				connection.readFromLocal();
+			}
+			if (key.isValid() && key.isWritable()) {
+				connection.writeToLocal();
+			}
+		} catch (IOException e) {
+			log.debug("closing connection {}: {}", connection, e.getMessage());
+			connection.close();
+		}
+	}
+
+	private void accept(SelectionKey key) {
+		Forwarding forwarding = (Forwarding) key.attachment();
+		ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
+		SocketChannel socketChannel;
+		try {
+			socketChannel = serverChannel.accept();
+			if (socketChannel == null) {
+				return;
+			}
+			socketChannel.configureBlocking(false);
+			if (forwarding.socketPath == null) {
+				socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+			}
+			if (forwarding.socketBufferSize > 0) {
+				socketChannel.setOption(StandardSocketOptions.SO_SNDBUF, Integer.valueOf(forwarding.socketBufferSize));
+			}
+		} catch (IOException e) {
+			log.error("failed to accept connection for {}", forwarding, e);
+			return;
+		}
+
+		Connection connection = new Connection(forwarding, socketChannel);
+		connections.add(connection);
+		if (forwarding.dynamic) {
+			connection.startHandshake();
+		} else {
+			connection.acquireChannel();
+		}
+	}
+
+	private void shutdown() {
+		for (Map.Entry<Integer, ServerSocketChannel> entry : serverChannels.entrySet()) {
+			closeServerChannel(entry.getValue(), forwardings.get(entry.getKey()));
+		}
+		serverChannels.clear();
+		forwardings.clear();
+		for (Connection connection : connections) {
+			connection.close();
+		}
+		closeQuietly(selector);
+	}
+
+	private static void closeServerChannel(ServerSocketChannel serverChannel, Forwarding forwarding) {
+		closeQuietly(serverChannel);
+		deleteSocketFile(forwarding);
+	}
+
+	private static void deleteSocketFile(Forwarding forwarding) {
+		if (forwarding != null && forwarding.socketPath != null) {
+			try {
+				Files.deleteIfExists(forwarding.socketPath);
+			} catch (IOException e) {
+				log.warn("failed to delete {}", forwarding.socketPath, e);
+			}
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			log.debug("failed to close {}", closeable, e);
+		}
+	}
+
+	private static final class Forwarding {
+
+		private final StripedSessions sessions;
+		private final String sshTunnelHost;
+		private final String host;
+		private final int port;
+		private final int windowSize;
+		private final int maxPacketSize;
+		private final int socketBufferSize;
+		private final Path socketPath;
+		private final boolean dynamic;
+
+		private Forwarding(StripedSessions sessions, TunnelSpec tunnelSpec) {
+			this.sessions = sessions;
+			this.sshTunnelHost = tunnelSpec.getSshTunnelHost();
+			this.host = tunnelSpec.getHost();
+			this.port = tunnelSpec.getPort();
+			this.windowSize = tunnelSpec.getWindowSize();
+			this.maxPacketSize = tunnelSpec.getMaxPacketSize();
+			this.socketBufferSize = tunnelSpec.getSocketBufferSize();
+			this.socketPath = tunnelSpec.getSocketPath();
+			this.dynamic = tunnelSpec.isDynamic();
+		}
+
+		@Override
+		public String toString() {
+			return dynamic ? "dynamic forwarding via " + sshTunnelHost : host + ":" + port + " via " + sshTunnelHost;
+		}
+	}
+
+	private final class Connection {
+
+		private final Forwarding forwarding;
+		private final int stripe;
+		private final ChannelLimits.Limiter limiter;
+		private final SocketChannel socketChannel;
+		private final ProxyHandshake handshake;
+		private final Deque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+		private final Deque<byte[]> remoteWrites = new ArrayDeque<>();
+
+		// the target of a dynamic forwarding is known after the handshake
+		private String host;
+		private int port;
+		private ConnectionMeter meter;
+
+		private Channel channel;
+		private Channel windowChannel;
+		private int windowSizeMax;
+		private boolean windowThrottled;
+		private OutputStream toRemote;
+		private SelectionKey key;
+		private int pendingBytes;
+		private int pendingRemoteBytes;
+		private boolean writingToRemote;
+		private boolean localEndOfStream;
+		private boolean endOfStreamSent;
+		private boolean remoteClosed;
+		private boolean localInputClosed;
+		private boolean localOutputClosed;
+		private boolean channelAcquired;
+		private boolean closed;
+
+		private Connection(Forwarding forwarding, SocketChannel socketChannel) {
+			this.forwarding = forwarding;
+			this.stripe = forwarding.sessions.acquire();
+			this.limiter = channelLimits.forSession(forwarding.sessions.getSession(stripe));
+			this.socketChannel = socketChannel;
+			if (forwarding.dynamic) {
+				this.handshake = new ProxyHandshake();
+			} else {
+				this.handshake = null;
+				setTarget(forwarding.host, forwarding.port);
+			}
+		}
+
+		private void setTarget(String host, int port) {
+			this.host = host;
+			this.port = port;
+			if (listener != SshProxyListener.NO_OP) {
+				this.meter = new ConnectionMeter(listener, forwarding.sshTunnelHost, host, port);
+			}
+		}
+
+		private void startHandshake() {
+			try {
+				key = socketChannel.register(selector, SelectionKey.OP_READ, this);
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		private void readHandshake(int read) throws IOException {
+			if (read < 0) {
+				close();
+				return;
+			}
+			readBuffer.flip();
+			handshake.receive(readBuffer);
+			ProxyHandshake.Step step;
+			while ((step = handshake.next()) == ProxyHandshake.Step.REPLY) {
+				writeReply(handshake.getReply());
+			}
+			if (step == ProxyHandshake.Step.REJECT) {
+				log.debug("rejected request of dynamic forwarding via {}", forwarding.sshTunnelHost);
+				if (handshake.getReply() != null) {
+					writeReply(handshake.getReply());
+				}
+				close();
+			} else if (step == ProxyHandshake.Step.CONNECT) {
+				setTarget(handshake.getHost(), handshake.getPort());
+				// the client waits for the reply before it sends more data
+				key.interestOps(0);
+				acquireChannel();
+			}
+		}
+
+		private void writeReply(byte[] reply) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(reply);
+			socketChannel.write(buffer);
+			if (buffer.hasRemaining()) {
+				throw new IOException("Failed to send proxy reply");
+			}
+		}
+
+		private void acquireChannel() {
+			// the connection waits without blocking a channel opener thread if the session has reached its channel limit
+			if (!limiter.acquire(this::channelAcquired)) {
+				log.debug("channel queue of the session for {} is full", this);
+				failed(new JSchException("channel limit of the session to " + forwarding.sshTunnelHost + " reached"));
+			}
+		}
+
+		private void channelAcquired() {
+			synchronized (this) {
+				if (closed) {
+					// the connection was closed while it was queued
+					limiter.release();
+					return;
+				}
+				channelAcquired = true;
+			}
+			try {
+				channelOpener.execute(this::open);
+			} catch (RejectedExecutionException e) {
+				close();
+			}
+		}
+
+		private void failed(Exception cause) {
+			if (handshake != null && host != null) {
+				try {
+					writeReply(handshake.failed());
+				} catch (IOException e) {
+					log.trace("failed to send proxy reply to {}", this, e);
+				}
+			}
+			if (meter != null) {
+				meter.failed(cause);
+			}
+			close();
+		}
+
+		private void open() {
+			try {
+				Channel streamForwarder = forwarding.sessions.getSession(stripe).getStreamForwarder(host, port);
+				JSchHelper.configureChannelSizes(streamForwarder, forwarding.windowSize, forwarding.maxPacketSize);
+				synchronized (this) {
+					windowChannel = streamForwarder;
+					windowSizeMax = JSchHelper.getLocalWindowSizeMax(streamForwarder);
+				}
+				OutputStream fromRemote = new RemoteOutputStream();
+				if (meter != null) {
+					fromRemote = meter.countReceived(fromRemote, null);
+				}
+				streamForwarder.setOutputStream(fromRemote);
+				OutputStream outputStream = streamForwarder.getOutputStream();
+				streamForwarder.connect(connectTimeoutMillis);
+				synchronized (this) {
+					channel = streamForwarder;
+					toRemote = meter != null ? meter.countSent(outputStream, null) : outputStream;
+					if (handshake != null) {
+						// the reply must reach the client before the data of the remote host
+						byte[] reply = handshake.connected();
+						pendingWrites.addFirst(ByteBuffer.wrap(reply));
+						pendingBytes += reply.length;
+					}
+				}
+				if (handshake != null) {
+					byte[] remaining = handshake.getRemaining();
+					if (remaining.length > 0) {
+						toRemote.write(remaining);
+						toRemote.flush();
+					}
+				}
+			} catch (JSchException | IOException | RuntimeException e) {
+				log.debug("failed to open channel to {}", this, e);
+				failed(e);
+				return;
+			}
+
+			if (meter != null) {
+				meter.opened();
+			}
+			log.debug("opened channel to {}", this);
+			execute(this::register);
+		}
+
+		private void register() {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+			}
+			try {
+				key = socketChannel.register(selector, 0, this);
+				updateInterestOps();
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		private void readFromLocal() throws IOException {
+			readBuffer.clear();
+			int read = socketChannel.read(readBuffer);
+			if (host == null) {
+				readHandshake(read);
+			} else if (read > 0) {
+				writeToRemote(Arrays.copyOf(readBuffer.array(), read));
+				updateInterestOps();
+			} else if (read < 0) {
+				endOfStreamToRemote();
+				updateInterestOps();
+			}
+		}
+
+		private void writeToRemote(byte[] data) {
+			synchronized (this) {
+				remoteWrites.add(data);
+				pendingRemoteBytes += data.length;
+			}
+			startRemoteWriter();
+		}
+
+		private void endOfStreamToRemote() {
+			synchronized (this) {
+				localEndOfStream = true;
+			}
+			startRemoteWriter();
+		}
+
+		private void startRemoteWriter() {
+			synchronized (this) {
+				if (writingToRemote) {
+					return;
+				}
+				writingToRemote = true;
+			}
+			try {
+				remoteWriter.execute(this::drainToRemote);
+			} catch (RejectedExecutionException e) {
+				close();
+			}
+		}
+
+		private void drainToRemote() {
+			try {
+				byte[] data;
+				while ((data = nextToRemote()) != null) {
+					if (data == END_OF_STREAM) {
+						closeToRemote();
+						execute(this::endOfStreamSent);
+						continue;
+					}
+					toRemote.write(data);
+					boolean flush;
+					boolean resumeReading;
+					synchronized (this) {
+						resumeReading = pendingRemoteBytes > MAX_PENDING_BYTES && pendingRemoteBytes - data.length <= MAX_PENDING_BYTES;
+						pendingRemoteBytes -= data.length;
+						flush = remoteWrites.isEmpty();
+					}
+					if (flush) {
+						toRemote.flush();
+					}
+					if (resumeReading) {
+						execute(this::flushToLocal);
+					}
+				}
+			} catch (IOException e) {
+				log.debug("closing connection {}: {}", this, e.getMessage());
+				close();
+			}
+		}
+
+		private synchronized byte[] nextToRemote() {
+			byte[] data = closed ? null : remoteWrites.poll();
+			if (data == null && !closed && localEndOfStream && !endOfStreamSent) {
+				endOfStreamSent = true;
+				return END_OF_STREAM;
+			}
+			if (data == null) {
+				writingToRemote = false;
+			}
+			return data;
+		}
+
+		private void endOfStreamSent() {
+			localInputClosed = true;
+			closeIfDone();
+		}
+
+		private void closeToRemote() {
+			try {
+				toRemote.close();
+			} catch (IOException e) {
+				log.trace("failed to send EOF to {}", forwarding, e);
+			}
+		}
+
+		private void writeToLocal() throws IOException {
+			synchronized (this) {
+				while (!pendingWrites.isEmpty()) {
+					ByteBuffer buffer = pendingWrites.peek();
+					int written = socketChannel.write(buffer);
+					pendingBytes -= written;
+					if (buffer.hasRemaining()) {
+						break;
+					}
+					pendingWrites.poll();
+				}
+				if (windowThrottled && pendingBytes <= MAX_PENDING_BYTES) {
+					// the window grows again with the next data of the remote host, which is always allowed to send a few bytes
+					JSchHelper.setLocalWindowSizeMax(windowChannel, windowSizeMax);
+					windowThrottled = false;
+				}
+			}
+			updateInterestOps();
+		}
+
+		private void updateInterestOps() throws IOException {
+			boolean hasPendingWrites;
+			boolean shutdownOutput;
+			boolean readable;
+			synchronized (this) {
+				if (channel == null) {
+					// nothing is sent to the client of a dynamic forwarding before the reply to its request
+					return;
+				}
+				hasPendingWrites = !pendingWrites.isEmpty();
+				shutdownOutput = !hasPendingWrites && remoteClosed && !localOutputClosed;
+				// JSch cannot hold back the window adjustment of a channel, so the client is not read while data piles up in either direction
+				readable = !localEndOfStream && pendingRemoteBytes <= MAX_PENDING_BYTES && pendingBytes <= MAX_PENDING_BYTES;
+			}
+
+			if (key == null || !key.isValid()) {
+				return;
+			}
+			key.interestOps((readable ? SelectionKey.OP_READ : 0) | (hasPendingWrites ? SelectionKey.OP_WRITE : 0));
+			if (shutdownOutput) {
+				localOutputClosed = true;
+				socketChannel.shutdownOutput();
+				closeIfDone();
+			}
+		}
+
+		private void closeIfDone() {
+			if (localInputClosed && localOutputClosed) {
+				close();
+			}
+		}
+
+		private void enqueue(byte[] b, int off, int len) throws IOException {
+			boolean overflow;
+			boolean updateInterestOps;
+			synchronized (this) {
+				// called by the session thread, which must not wait for the client because it serves all channels of the session
+				if (closed) {
+					throw new IOException("Connection closed");
+				}
+				// without a throttled window, nothing else limits the data of the remote host
+				overflow = windowSizeMax == 0 && pendingBytes + len > MAX_BUFFERED_BYTES;
+				updateInterestOps = !overflow && (pendingWrites.isEmpty() || (pendingBytes <= MAX_PENDING_BYTES && pendingBytes + len > MAX_PENDING_BYTES));
+				if (!overflow) {
+					ByteBuffer buffer = ByteBuffer.allocate(len);
+					buffer.put(b, off, len);
+					buffer.flip();
+					pendingWrites.add(buffer);
+					pendingBytes += len;
+				}
+				if (pendingBytes > MAX_PENDING_BYTES && windowSizeMax > 0 && !windowThrottled) {
+					// the session thread checks the window after this write; it is not refilled until the client has caught up
+					JSchHelper.setLocalWindowSizeMax(windowChannel, THROTTLED_WINDOW_SIZE);
+					windowThrottled = true;
+				}
+			}
+			if (overflow) {
+				log.debug("closing connection {}: client does not read", this);
+				close();
+			} else if (updateInterestOps) {
+				execute(this::flushToLocal);
+			}
+		}
+
+		private void remoteClosed() {
+			synchronized (this) {
+				if (remoteClosed) {
+					return;
+				}
+				remoteClosed = true;
+			}
+			execute(this::flushToLocal);
+		}
+
+		private void flushToLocal() {
+			try {
+				updateInterestOps();
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		private void close() {
+			Channel channelToDisconnect;
+			boolean releaseChannel;
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				pendingWrites.clear();
+				remoteWrites.clear();
+				channelToDisconnect = channel;
+				releaseChannel = channelAcquired;
+			}
+
+			connections.remove(this);
+			forwarding.sessions.release(stripe);
+			if (key != null) {
+				key.cancel();
+			}
+			closeQuietly(socketChannel);
+			if (channelToDisconnect != null) {
+				channelToDisconnect.disconnect();
+			}
+			if (releaseChannel) {
+				limiter.release();
+			}
+			if (meter != null) {
+				meter.closed();
+			}
+			log.debug("closed connection to {}", this);
+		}
+
+		@Override
+		public String toString() {
+			return host != null ? host + ":" + port + " via " + forwarding.sshTunnelHost : forwarding.toString();
+		}
+
+		private final class RemoteOutputStream extends OutputStream {
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (len > 0) {
+					enqueue(b, off, len);
+				}
+			}
+
+			@Override
+			public void close() {
+				remoteClosed();
+			}
+		}
+	}
+}
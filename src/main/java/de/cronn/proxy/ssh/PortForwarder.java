@@ -0,0 +1,19 @@
+package de.cronn.proxy.ssh;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import com.jcraft.jsch.Session;
+
+interface PortForwarder extends Closeable {
+
+	int addForwarding(List<Session> sessions, String bindAddress, TunnelSpec tunnelSpec) throws IOException;
+
+	void replaceSession(int localPort, Session disconnectedSession, Session session);
+
+	void removeForwarding(int localPort);
+
+	@Override
+	void close();
+}
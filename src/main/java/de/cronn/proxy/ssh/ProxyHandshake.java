@@ -0,0 +1,227 @@
+package de.cronn.proxy.ssh;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// parses the SOCKS5 (RFC 1928, without authentication) and HTTP CONNECT requests of dynamic forwardings
+final class ProxyHandshake {
+
+	enum Step {
+		READ_MORE, REPLY, CONNECT, REJECT
+	}
+
+	private static final int MAX_REQUEST_SIZE = 8 * 1024;
+
+	private static final byte SOCKS_VERSION = 5;
+	private static final byte SOCKS_NO_AUTHENTICATION = 0;
+	private static final byte SOCKS_NO_ACCEPTABLE_METHODS = (byte) 0xFF;
+	private static final byte SOCKS_CONNECT = 1;
+	private static final byte SOCKS_IPV4 = 1;
+	private static final byte SOCKS_DOMAIN_NAME = 3;
+	private static final byte SOCKS_IPV6 = 4;
+	private static final byte SOCKS_SUCCEEDED = 0;
+	private static final byte SOCKS_GENERAL_FAILURE = 1;
+	private static final byte SOCKS_COMMAND_NOT_SUPPORTED = 7;
+	private static final byte SOCKS_ADDRESS_TYPE_NOT_SUPPORTED = 8;
+
+	private static final String HTTP_CONNECT = "CONNECT";
+	private static final byte[] HTTP_END_OF_HEADER = "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+	private byte[] buffer = new byte[256];
+	private int length;
+	private boolean socksMethodSelected;
+	private byte[] reply;
+	private String host;
+	private int port;
+
+	void receive(ByteBuffer data) {
+		int required = length + data.remaining();
+		if (required > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(required, 2 * buffer.length));
+		}
+		int received = data.remaining();
+		data.get(buffer, length, received);
+		length += received;
+	}
+
+	Step next() {
+		reply = null;
+		if (length == 0) {
+			return Step.READ_MORE;
+		}
+		if (socksMethodSelected || buffer[0] == SOCKS_VERSION) {
+			return nextSocks();
+		}
+		if (buffer[0] < 'A' || buffer[0] > 'Z') {
+			// neither SOCKS5 nor an HTTP method, e.g. SOCKS4
+			return reject(null);
+		}
+		Step step = nextHttp();
+		if (step == Step.READ_MORE && length >= MAX_REQUEST_SIZE) {
+			return reject(httpReply("431 Request Header Fields Too Large"));
+		}
+		return step;
+	}
+
+	private Step nextSocks() {
+		if (!socksMethodSelected) {
+			if (length < 2) {
+				return Step.READ_MORE;
+			}
+			int methods = buffer[1] & 0xFF;
+			if (length < 2 + methods) {
+				return Step.READ_MORE;
+			}
+			boolean noAuthentication = false;
+			for (int i = 0; i < methods; i++) {
+				noAuthentication |= buffer[2 + i] == SOCKS_NO_AUTHENTICATION;
+			}
+			consume(2 + methods);
+			if (!noAuthentication) {
+				return reject(new byte[] { SOCKS_VERSION, SOCKS_NO_ACCEPTABLE_METHODS });
+			}
+			socksMethodSelected = true;
+			reply = new byte[] { SOCKS_VERSION, SOCKS_NO_AUTHENTICATION };
+			return Step.REPLY;
+		}
+
+		// VER CMD RSV ATYP DST.ADDR DST.PORT
+		if (length < 5) {
+			return Step.READ_MORE;
+		}
+		if (buffer[0] != SOCKS_VERSION) {
+			return reject(socksReply(SOCKS_GENERAL_FAILURE));
+		}
+		int addressLength;
+		switch (buffer[3]) {
+			case SOCKS_IPV4:
+				addressLength = 4;
+				break;
+			case SOCKS_IPV6:
+				addressLength = 16;
+				break;
+			case SOCKS_DOMAIN_NAME:
+				addressLength = 1 + (buffer[4] & 0xFF);
+				break;
+			default:
+				return reject(socksReply(SOCKS_ADDRESS_TYPE_NOT_SUPPORTED));
+		}
+		int requestLength = 4 + addressLength + 2;
+		if (length < requestLength) {
+			return Step.READ_MORE;
+		}
+		if (buffer[1] != SOCKS_CONNECT) {
+			return reject(socksReply(SOCKS_COMMAND_NOT_SUPPORTED));
+		}
+
+		if (buffer[3] == SOCKS_DOMAIN_NAME) {
+			host = new String(buffer, 5, addressLength - 1, StandardCharsets.US_ASCII);
+		} else {
+			try {
+				// does not resolve the address, the SSH server connects to it
+				host = InetAddress.getByAddress(Arrays.copyOfRange(buffer, 4, 4 + addressLength)).getHostAddress();
+			} catch (UnknownHostException e) {
+				return reject(socksReply(SOCKS_ADDRESS_TYPE_NOT_SUPPORTED));
+			}
+		}
+		port = (buffer[4 + addressLength] & 0xFF) << 8 | buffer[5 + addressLength] & 0xFF;
+		consume(requestLength);
+		if (host.isEmpty() || port == 0) {
+			return reject(socksReply(SOCKS_GENERAL_FAILURE));
+		}
+		return Step.CONNECT;
+	}
+
+	private Step nextHttp() {
+		int end = indexOf(HTTP_END_OF_HEADER);
+		if (end < 0) {
+			return Step.READ_MORE;
+		}
+		String header = new String(buffer, 0, end, StandardCharsets.ISO_8859_1);
+		consume(end + HTTP_END_OF_HEADER.length);
+
+		String[] requestLine = header.split("\r\n", 2)[0].split(" ");
+		if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/")) {
+			return reject(httpReply("400 Bad Request"));
+		}
+		if (!requestLine[0].equals(HTTP_CONNECT)) {
+			return reject(httpReply("405 Method Not Allowed"));
+		}
+
+		String authority = requestLine[1];
+		int colon = authority.lastIndexOf(':');
+		if (colon <= 0) {
+			return reject(httpReply("400 Bad Request"));
+		}
+		String authorityHost = authority.substring(0, colon);
+		if (authorityHost.startsWith("[") && authorityHost.endsWith("]")) {
+			authorityHost = authorityHost.substring(1, authorityHost.length() - 1);
+		}
+		try {
+			port = Integer.parseInt(authority.substring(colon + 1));
+		} catch (NumberFormatException e) {
+			return reject(httpReply("400 Bad Request"));
+		}
+		if (authorityHost.isEmpty() || port <= 0 || port > 0xFFFF) {
+			return reject(httpReply("400 Bad Request"));
+		}
+		host = authorityHost;
+		return Step.CONNECT;
+	}
+
+	private Step reject(byte[] rejectReply) {
+		reply = rejectReply;
+		return Step.REJECT;
+	}
+
+	private int indexOf(byte[] pattern) {
+		for (int i = 0; i + pattern.length <= length; i++) {
+			if (Arrays.equals(buffer, i, i + pattern.length, pattern, 0, pattern.length)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void consume(int count) {
+		System.arraycopy(buffer, count, buffer, 0, length - count);
+		length -= count;
+	}
+
+	private static byte[] socksReply(byte reply) {
+		// the bound address is not known to the client of an SSH channel
+		return new byte[] { SOCKS_VERSION, reply, 0, SOCKS_IPV4, 0, 0, 0, 0, 0, 0 };
+	}
+
+	private static byte[] httpReply(String status) {
+		return ("HTTP/1.1 " + status + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	byte[] getReply() {
+		return reply;
+	}
+
+	String getHost() {
+		return host;
+	}
+
+	int getPort() {
+		return port;
+	}
+
+	// data which the client sent after its request, before it received the reply
+	byte[] getRemaining() {
+		return Arrays.copyOf(buffer, length);
+	}
+
+	byte[] connected() {
+		return socksMethodSelected ? socksReply(SOCKS_SUCCEEDED) : httpReply("200 Connection established");
+	}
+
+	byte[] failed() {
+		return socksMethodSelected ? socksReply(SOCKS_GENERAL_FAILURE) : httpReply("502 Bad Gateway");
+	}
+}
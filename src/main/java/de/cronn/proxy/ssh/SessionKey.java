@@ -0,0 +1,112 @@
+package de.cronn.proxy.ssh;
+
+import java.util.Objects;
+
+final class SessionKey {
+
+	private final String user;
+	private final String host;
+	private final int port;
+	private final CryptoProfile cryptoProfile;
+	private final int stripe;
+	private final SessionKey via;
+	private final int timeoutMillis;
+	private final boolean adaptiveCompression;
+
+	SessionKey(String user, String host, int port, SessionKey via) {
+		this(user, host, port, CryptoProfile.DEFAULT, via);
+	}
+
+	SessionKey(String user, String host, int port, CryptoProfile cryptoProfile, SessionKey via) {
+		this(user, host, port, cryptoProfile, 0, via);
+	}
+
+	SessionKey(String user, String host, int port, CryptoProfile cryptoProfile, int stripe, SessionKey via) {
+		this(user, host, port, cryptoProfile, stripe, via, SshProxySettings.DEFAULT_TIMEOUT_MILLIS, false);
+	}
+
+	// the settings of the SshProxy which configure a session are part of the key, so that proxies with other settings do not share it
+	SessionKey(String user, String host, int port, CryptoProfile cryptoProfile, int stripe, SessionKey via, int timeoutMillis,
+			   boolean adaptiveCompression) {
+		this.user = user;
+		this.host = host;
+		this.port = port;
+		this.cryptoProfile = cryptoProfile;
+		this.stripe = stripe;
+		this.via = via;
+		this.timeoutMillis = timeoutMillis;
+		this.adaptiveCompression = adaptiveCompression;
+	}
+
+	String getUser() {
+		return user;
+	}
+
+	String getHost() {
+		return host;
+	}
+
+	int getPort() {
+		return port;
+	}
+
+	CryptoProfile getCryptoProfile() {
+		return cryptoProfile;
+	}
+
+	int getStripe() {
+		return stripe;
+	}
+
+	SessionKey getVia() {
+		return via;
+	}
+
+	int getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	boolean isAdaptiveCompression() {
+		return adaptiveCompression;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o == null || getClass() != o.getClass()) {
+			return false;
+		}
+		SessionKey that = (SessionKey) o;
+		return port == that.port
+			&& cryptoProfile == that.cryptoProfile
+			&& stripe == that.stripe
+			&& timeoutMillis == that.timeoutMillis
+			&& adaptiveCompression == that.adaptiveCompression
+			&& Objects.equals(user, that.user)
+			&& Objects.equals(host, that.host)
+			&& Objects.equals(via, that.via);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(user, host, Integer.valueOf(port), cryptoProfile, Integer.valueOf(stripe), via, Integer.valueOf(timeoutMillis),
+			Boolean.valueOf(adaptiveCompression));
+	}
+
+	@Override
+	public String toString() {
+		String result = user + "@" + host + ":" + port;
+		if (cryptoProfile != CryptoProfile.DEFAULT) {
+			result += " (" + cryptoProfile + ")";
+		}
+		if (stripe > 0) {
+			result += " #" + stripe;
+		}
+		if (via != null) {
+			result += " via " + via;
+		}
+		return result;
+	}
+}
@@ -1,14 +1,15 @@
 package de.cronn.proxy.ssh;
 
-import static de.cronn.proxy.ssh.SshProxy.*;
-
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,6 +18,7 @@ import com.jcraft.jsch.ConfigRepository;
 import com.jcraft.jsch.ConfigRepository.Config;
 import com.jcraft.jsch.HostKey;
 import com.jcraft.jsch.HostKeyRepository;
+import com.jcraft.jsch.Identity;
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.OpenSSHConfig;
@@ -24,6 +26,7 @@ import com.jcraft.jsch.Session;
 
 import de.cronn.proxy.ssh.JSchHelper.ServerHostKeySortOrder;
 import de.cronn.proxy.ssh.util.Assert;
+import de.cronn.proxy.ssh.util.FileStamp;
 import de.cronn.proxy.ssh.util.Utils;
 
 public class SshConfiguration {
@@ -33,27 +36,70 @@ public class SshConfiguration {
 	private static final String SSH_CONFIG_KEY_IDENTITY_FILE = "IdentityFile";
 	private static final String SSH_CONFIG_KEY_PROXY_COMMAND = "ProxyCommand";
 	private static final String SSH_CONFIG_KEY_PROXY_JUMP = "ProxyJump";
+	private static final String SSH_CONFIG_KEY_SERVER_ALIVE_INTERVAL = "ServerAliveInterval";
+	private static final String SSH_CONFIG_KEY_SERVER_ALIVE_COUNT_MAX = "ServerAliveCountMax";
+	private static final String SSH_CONFIG_KEY_COMPRESSION = "Compression";
+	private static final String SSH_CONFIG_KEY_COMPRESSION_LEVEL = "CompressionLevel";
+	private static final String SSH_CONFIG_KEY_CHANNEL_WINDOW_SIZE = "ChannelWindowSize";
+	private static final String SSH_CONFIG_KEY_CHANNEL_MAX_PACKET_SIZE = "ChannelMaxPacketSize";
+	private static final String SSH_CONFIG_KEY_SOCKET_BUFFER_SIZE = "SocketBufferSize";
 
 	private static final String USER_NAME = System.getProperty("user.name");
 
 	protected static final int SSH_DEFAULT_PORT = 22;
+	protected static final int SSH_DEFAULT_SERVER_ALIVE_COUNT_MAX = 3;
+	protected static final int SSH_DEFAULT_COMPRESSION_LEVEL = 6;
+
+	private static final Map<Path, CachedConfiguration> configurationCache = new ConcurrentHashMap<>();
+
+	private static final class CachedConfiguration {
+
+		private final List<FileStamp> fileStamps;
+		private final SshConfiguration configuration;
+
+		private CachedConfiguration(List<FileStamp> fileStamps, SshConfiguration configuration) {
+			this.fileStamps = fileStamps;
+			this.configuration = configuration;
+		}
+	}
 
 	private final JSch jsch = new JSch();
+	private final Map<String, Identity> identities = new HashMap<>();
+	private final Map<String, ServerHostKeySortOrder> hostKeySortOrders = new ConcurrentHashMap<>();
 	private final ConfigRepository configRepository;
 
 	public SshConfiguration(ConfigRepository configRepository) throws JSchException {
 		JSchHelper.configureGlobalSettings();
 
 		this.configRepository = configRepository;
-		jsch.setConfigRepository(this.configRepository);
+		// the identity files are loaded via the IdentityCache, JSch would parse the IdentityFile entries on every connect
+		jsch.setConfigRepository(host -> withoutIdentityFiles(configRepository.getConfig(host)));
 
 		Assert.isTrue(Files.isRegularFile(getLocalSshKnownHostsPath()), getLocalSshKnownHostsPath() + " does not exist");
 		jsch.setKnownHosts(getLocalSshKnownHostsPath().toString());
+		jsch.setHostKeyRepository(new IndexedHostKeyRepository(jsch.getHostKeyRepository()));
 	}
 
 	public static SshConfiguration getConfiguration() throws IOException, JSchException {
 		Assert.isTrue(Files.isRegularFile(getLocalSshConfigPath()), getLocalSshConfigPath() + " does not exist");
-		return new SshConfiguration(OpenSSHConfig.parseFile(getLocalSshConfigPath().toString()));
+
+		List<FileStamp> fileStamps = List.of(FileStamp.of(getLocalSshConfigPath()), FileStamp.of(getLocalSshKnownHostsPath()));
+		Path sshHome = getSshHome().toAbsolutePath();
+		CachedConfiguration cachedConfiguration = configurationCache.get(sshHome);
+		if (cachedConfiguration != null && cachedConfiguration.fileStamps.equals(fileStamps)) {
+			return cachedConfiguration.configuration;
+		}
+
+		synchronized (configurationCache) {
+			cachedConfiguration = configurationCache.get(sshHome);
+			if (cachedConfiguration == null || !cachedConfiguration.fileStamps.equals(fileStamps)) {
+				log.debug("loading SSH configuration from {}", sshHome);
+				SshConfiguration configuration = new SshConfiguration(OpenSSHConfig.parseFile(getLocalSshConfigPath().toString()));
+				cachedConfiguration = new CachedConfiguration(fileStamps, configuration);
+				configurationCache.put(sshHome, cachedConfiguration);
+			}
+			return cachedConfiguration.configuration;
+		}
 	}
 
 	private static String getUserHome() {
@@ -80,6 +126,36 @@ public class SshConfiguration {
 		return configRepository.getConfig(host);
 	}
 
+	private static Config withoutIdentityFiles(Config config) {
+		return new Config() {
+
+			@Override
+			public String getHostname() {
+				return config.getHostname();
+			}
+
+			@Override
+			public String getUser() {
+				return config.getUser();
+			}
+
+			@Override
+			public int getPort() {
+				return config.getPort();
+			}
+
+			@Override
+			public String getValue(String key) {
+				return SSH_CONFIG_KEY_IDENTITY_FILE.equalsIgnoreCase(key) ? null : config.getValue(key);
+			}
+
+			@Override
+			public String[] getValues(String key) {
+				return SSH_CONFIG_KEY_IDENTITY_FILE.equalsIgnoreCase(key) ? null : config.getValues(key);
+			}
+		};
+	}
+
 	public SshProxyConfig getProxyConfiguration(String host) {
 		Config config = getHostConfig(host);
 		String sshProxyCommand = config.getValue(SSH_CONFIG_KEY_PROXY_COMMAND);
@@ -96,13 +172,44 @@ public class SshConfiguration {
 	}
 
 	void addIdentity(String host) throws JSchException {
-		Config hostConfig = getHostConfig(host);
-		String identityFile = hostConfig.getValue(SSH_CONFIG_KEY_IDENTITY_FILE);
-		if (identityFile == null) {
-			identityFile = getDefaultSshKeyPath().toString();
+		for (Identity identity : getIdentities(host)) {
+			addIdentity(identity);
+		}
+	}
+
+	private List<Identity> getIdentities(String host) throws JSchException {
+		String[] identityFiles = getHostConfig(host).getValues(SSH_CONFIG_KEY_IDENTITY_FILE);
+		if (identityFiles == null || identityFiles.length == 0) {
+			return List.of(IdentityCache.getIdentity(getDefaultSshKeyPath()));
+		}
+
+		List<Identity> hostIdentities = new ArrayList<>();
+		for (String identityFile : identityFiles) {
+			hostIdentities.add(IdentityCache.getIdentity(resolveTilde(identityFile)));
+		}
+		return hostIdentities;
+	}
+
+	private void addIdentity(Identity identity) throws JSchException {
+		synchronized (identities) {
+			Identity previousIdentity = identities.put(identity.getName(), identity);
+			if (previousIdentity == identity) {
+				return;
+			}
+
+			log.debug("using SSH key file {}", identity.getName());
+			if (previousIdentity != null) {
+				jsch.removeIdentity(previousIdentity);
+			}
+			jsch.addIdentity(identity, null);
 		}
-		log.debug("using SSH key file {}", identityFile);
-		jsch.addIdentity(identityFile);
+	}
+
+	private static Path resolveTilde(String path) {
+		if (path.equals("~") || path.startsWith("~/")) {
+			return Paths.get(getUserHome() + path.substring(1));
+		}
+		return Paths.get(path);
 	}
 
 	public String getHostUser(String host) {
@@ -125,10 +232,86 @@ public class SshConfiguration {
 		}
 	}
 
-	private void configureHostKeyOrder(String host) {
+	public int getHostPort(String host) {
 		Config hostConfig = getHostConfig(host);
-		ServerHostKeySortOrder hostKeySortOrder = guessPreferredHostKeySortOrder(host, hostConfig);
-		JSchHelper.reconfigureServerHostKeyOrder(hostKeySortOrder);
+		int port = hostConfig.getPort();
+		if (port <= 0) {
+			return SSH_DEFAULT_PORT;
+		} else {
+			return port;
+		}
+	}
+
+	public int getServerAliveIntervalSeconds(String host) {
+		return getNonNegativeInt(host, SSH_CONFIG_KEY_SERVER_ALIVE_INTERVAL, 0);
+	}
+
+	public int getServerAliveCountMax(String host) {
+		return getNonNegativeInt(host, SSH_CONFIG_KEY_SERVER_ALIVE_COUNT_MAX, SSH_DEFAULT_SERVER_ALIVE_COUNT_MAX);
+	}
+
+	public boolean isCompressionEnabled(String host) {
+		String value = getHostConfig(host).getValue(SSH_CONFIG_KEY_COMPRESSION);
+		if (value == null || value.trim().equalsIgnoreCase("no")) {
+			return false;
+		}
+		if (value.trim().equalsIgnoreCase("yes")) {
+			return true;
+		}
+		log.warn("ignoring illegal {} for {}: {}", SSH_CONFIG_KEY_COMPRESSION, host, value);
+		return false;
+	}
+
+	public int getCompressionLevel(String host) {
+		int compressionLevel = getNonNegativeInt(host, SSH_CONFIG_KEY_COMPRESSION_LEVEL, SSH_DEFAULT_COMPRESSION_LEVEL);
+		if (compressionLevel < 1 || compressionLevel > 9) {
+			log.warn("ignoring illegal {} for {}: {}", SSH_CONFIG_KEY_COMPRESSION_LEVEL, host, Integer.valueOf(compressionLevel));
+			return SSH_DEFAULT_COMPRESSION_LEVEL;
+		}
+		return compressionLevel;
+	}
+
+	public int getChannelWindowSize(String host) {
+		return getNonNegativeInt(host, SSH_CONFIG_KEY_CHANNEL_WINDOW_SIZE, 0);
+	}
+
+	public int getChannelMaxPacketSize(String host) {
+		int maxPacketSize = getNonNegativeInt(host, SSH_CONFIG_KEY_CHANNEL_MAX_PACKET_SIZE, 0);
+		if (maxPacketSize > JSchHelper.MAX_CHANNEL_PACKET_SIZE) {
+			log.warn("ignoring illegal {} for {}: {}", SSH_CONFIG_KEY_CHANNEL_MAX_PACKET_SIZE, host, Integer.valueOf(maxPacketSize));
+			return 0;
+		}
+		return maxPacketSize;
+	}
+
+	public int getSocketBufferSize(String host) {
+		return getNonNegativeInt(host, SSH_CONFIG_KEY_SOCKET_BUFFER_SIZE, 0);
+	}
+
+	private int getNonNegativeInt(String host, String key, int defaultValue) {
+		String value = getHostConfig(host).getValue(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		int result;
+		try {
+			result = Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			result = -1;
+		}
+		if (result < 0) {
+			log.warn("ignoring illegal {} for {}: {}", key, host, value);
+			return defaultValue;
+		}
+		return result;
+	}
+
+	private ServerHostKeySortOrder getHostKeySortOrder(String host) {
+		return hostKeySortOrders.computeIfAbsent(host, this::guessPreferredHostKeySortOrder);
+	}
+
+	ServerHostKeySortOrder guessPreferredHostKeySortOrder(String host) {
+		return guessPreferredHostKeySortOrder(host, getHostConfig(host));
 	}
 
 	private ServerHostKeySortOrder guessPreferredHostKeySortOrder(String jumpHostName, Config hostConfig) {
@@ -174,12 +357,28 @@ public class SshConfiguration {
 	}
 
 	public Session openSession(String host) throws JSchException {
-		configureHostKeyOrder(host);
-		return jsch.getSession(host);
+		return openSession(host, CryptoProfile.DEFAULT);
+	}
+
+	public Session openSession(String host, CryptoProfile cryptoProfile) throws JSchException {
+		ServerHostKeySortOrder hostKeySortOrder = getHostKeySortOrder(host);
+		Session session = jsch.getSession(host);
+		session.setIdentityRepository(new HostIdentityRepository(getIdentities(host), jsch.getIdentityRepository()));
+		JSchHelper.configureServerHostKeyOrder(session, hostKeySortOrder);
+		JSchHelper.configureAlgorithms(session, cryptoProfile, getHostConfig(host));
+		if (isCompressionEnabled(host)) {
+			JSchHelper.configureCompression(session, getCompressionLevel(host));
+			JSchHelper.configureCompressionImplementation(session, ZlibCompression.class);
+		}
+		return session;
 	}
 
+	// hop sessions are now opened with openSession(String) and a JumpHostProxy
+	@Deprecated
 	public Session openSession(String hostUser, String jumpHost, int jumpPort) throws JSchException {
-		configureHostKeyOrder(jumpHost);
-		return jsch.getSession(hostUser, LOCALHOST, jumpPort);
+		ServerHostKeySortOrder hostKeySortOrder = getHostKeySortOrder(jumpHost);
+		Session session = jsch.getSession(hostUser, SshProxy.LOCALHOST, jumpPort);
+		JSchHelper.configureServerHostKeyOrder(session, hostKeySortOrder);
+		return session;
 	}
 }
@@ -1,12 +1,34 @@
 package de.cronn.proxy.ssh;
 
 import java.io.Closeable;
-import java.util.ArrayDeque;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.net.SocketFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,6 +36,7 @@ import org.slf4j.LoggerFactory;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
 
+import de.cronn.proxy.ssh.SshSessionPool.PooledSession;
 import de.cronn.proxy.ssh.util.Assert;
 
 public class SshProxy implements Closeable {
@@ -22,25 +45,122 @@ public class SshProxy implements Closeable {
 
 	public static final String LOCALHOST = "localhost";
 
-	private static final int DEFAULT_TIMEOUT_MILLIS = 10_000;
+	private static final String LOCAL_BIND_ADDRESS = "127.0.0.1";
+
+	private static final int MAX_EVICTION_INTERVAL_MILLIS = 1000;
+
+	private final Deque<SshSessionLease> sessionLeases = new ConcurrentLinkedDeque<>();
+	private final Map<Session, Set<LocalPortForwarding>> portForwardings = new ConcurrentHashMap<>();
+	private final Map<TunnelSpec, SharedTunnel> tunnels = new ConcurrentHashMap<>();
+	private final Map<Integer, Integer> evictedTunnelReferences = new ConcurrentHashMap<>();
+	private final Map<Path, Integer> evictedSocketReferences = new ConcurrentHashMap<>();
+	private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+	private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
 
-	private final Deque<Session> sshSessions = new ArrayDeque<>();
-	private final Map<Session, Set<Integer>> portForwardings = new LinkedHashMap<>();
+	private final SshSessionPool sessionPool = SshSessionPool.getInstance();
 
 	private final SshConfiguration sshConfiguration;
-	private int timeoutMillis;
+	private final int timeoutMillis;
+	private final SshProxyListener listener;
+	private final ForwardingEngine forwardingEngine;
+	private final ThreadFactory threadFactory;
+	private final int healthCheckIntervalMillis;
+	private final Executor connectExecutor;
+	private final CryptoProfile cryptoProfile;
+	private final boolean adaptiveCompression;
+	private final int idleTimeoutMillis;
+	private final int maxSessions;
+	private final TunnelActivityTracker activityTracker;
+	private final ChannelLimits channelLimits;
+	private final int acceptBacklog;
+	private final int channelWriterThreads;
+	private final Path daemonSocket;
+
+	private PortForwarder portForwarder;
+	private ScheduledExecutorService healthChecker;
+	private ExecutorService defaultConnectExecutor;
+	private DaemonClient daemonClient;
+	private boolean daemonUnavailable;
+	// only accessed by the health checker thread
+	private long evictionStartNanos;
+
+	private static final class LocalPortForwarding {
+
+		private final String sshTunnelHost;
+		private final String host;
+		private final int port;
+		private final int localPort;
+		private final ForwardingEngine forwardingEngine;
+		private final int stripe;
+		private final SshSessionLease sessionLease;
+		private long disconnectedNanos;
+
+		private LocalPortForwarding(String sshTunnelHost, String host, int port, int localPort, ForwardingEngine forwardingEngine, int stripe,
+			SshSessionLease sessionLease) {
+			this.sshTunnelHost = sshTunnelHost;
+			this.host = host;
+			this.port = port;
+			this.localPort = localPort;
+			this.forwardingEngine = forwardingEngine;
+			this.stripe = stripe;
+			this.sessionLease = sessionLease;
+		}
+
+		private LocalPortForwarding withSessionLease(SshSessionLease sessionLease) {
+			return new LocalPortForwarding(sshTunnelHost, host, port, localPort, forwardingEngine, stripe, sessionLease);
+		}
+	}
+
+	// changed while synchronized on the tunnel; read without lock by the lookups, which must not wait for a tunnel that is being opened
+	private static final class SharedTunnel {
+
+		private final TunnelSpec tunnelSpec;
+		private volatile int localPort;
+		private volatile int references;
+		private volatile boolean removed;
+		private volatile long lastUsedNanos;
+
+		private SharedTunnel(TunnelSpec tunnelSpec) {
+			this.tunnelSpec = tunnelSpec;
+		}
+	}
 
 	public SshProxy() {
-		this(DEFAULT_TIMEOUT_MILLIS);
+		this(SshProxySettings.defaults());
 	}
 
 	public SshProxy(int timeoutMillis) {
+		this(SshProxySettings.defaults().withTimeoutMillis(timeoutMillis));
+	}
+
+	public SshProxy(SshProxySettings settings) {
+		Assert.notNull(settings, "settings must not be null");
 		try {
 			sshConfiguration = SshConfiguration.getConfiguration();
 		} catch (Exception e) {
 			throw new SshProxyRuntimeException("Failed to open SSH proxy", e);
 		}
-		this.timeoutMillis = timeoutMillis;
+		this.timeoutMillis = settings.getTimeoutMillis();
+		this.idleTimeoutMillis = settings.getIdleTimeoutMillis();
+		this.maxSessions = settings.getMaxSessions();
+		if (isEvictionEnabled()) {
+			// eviction needs the connection events of all engines, so the listener must not be the no-op listener
+			this.activityTracker = new TunnelActivityTracker(GuardedSshProxyListener.wrap(settings.getListener()));
+			this.listener = activityTracker;
+		} else {
+			this.activityTracker = null;
+			this.listener = GuardedSshProxyListener.wrap(settings.getListener());
+		}
+		this.forwardingEngine = settings.getForwardingEngine();
+		this.threadFactory = settings.getThreadFactory();
+		this.healthCheckIntervalMillis = settings.getHealthCheckIntervalMillis();
+		this.connectExecutor = settings.getConnectExecutor();
+		this.cryptoProfile = settings.getCryptoProfile();
+		this.adaptiveCompression = settings.isAdaptiveCompression();
+		this.channelLimits = new ChannelLimits(settings.getMaxChannelsPerSession(), settings.getMaxQueuedChannels());
+		this.acceptBacklog = settings.getAcceptBacklog();
+		this.channelWriterThreads = settings.getChannelWriterThreads();
+		this.daemonSocket = settings.getDaemonSocket();
 	}
 
 	public int connect(String sshTunnelHost, String host, int port) {
@@ -48,53 +168,474 @@ public class SshProxy implements Closeable {
 	}
 
 	public int connect(String sshTunnelHost, String host, int port, int localPort) {
-		Assert.notNull(sshTunnelHost, "sshTunnelHost must not be null");
-		Assert.notNull(host, "host must not be null");
-		Assert.isTrue(port > 0, "illegal port: " + port);
-		Assert.isTrue(localPort >= 0, "illegal local port: " + localPort);
+		return connect(new TunnelSpec(sshTunnelHost, host, port, localPort));
+	}
 
-		log.debug("tunneling to {}:{} via {}", host, port, sshTunnelHost);
+	public int connect(TunnelSpec tunnelSpec) {
+		Assert.notNull(tunnelSpec, "tunnelSpec must not be null");
+		Assert.isTrue(tunnelSpec.getSocketPath() == null, "tunnels on Unix domain sockets must be connected with connectUnixSocket");
+		DaemonClient client = getDaemonClient();
+		if (client != null) {
+			return client.connect(tunnelSpec);
+		}
+		Assert.isTrue(tunnelSpec.getSessions() == 1 || forwardingEngine != ForwardingEngine.JSCH,
+			"striping across multiple sessions is not supported by the forwarding engine " + forwardingEngine);
+		Assert.isTrue(!hasBufferSizes(tunnelSpec) || forwardingEngine != ForwardingEngine.JSCH,
+			"window, packet and socket buffer sizes are not supported by the forwarding engine " + forwardingEngine);
+		Assert.isTrue(!tunnelSpec.isDynamic() || forwardingEngine == ForwardingEngine.NIO,
+			"dynamic forwarding is not supported by the forwarding engine " + forwardingEngine);
+		return connectTunnel(tunnelSpec);
+	}
 
-		try {
-			sshConfiguration.addIdentity(sshTunnelHost);
+	public int connectDynamic(String sshTunnelHost) {
+		return connect(TunnelSpec.dynamic(sshTunnelHost));
+	}
 
-			SshProxyConfig proxyConfig = sshConfiguration.getProxyConfiguration(sshTunnelHost);
-			if (proxyConfig == null) {
-				return directConnect(sshTunnelHost, host, port, localPort);
+	public int connectDynamic(String sshTunnelHost, int localPort) {
+		return connect(TunnelSpec.dynamic(sshTunnelHost, localPort));
+	}
+
+	public Path connectUnixSocket(String sshTunnelHost, String host, int port, Path socketPath) {
+		return connectUnixSocket(new TunnelSpec(sshTunnelHost, host, port).withSocketPath(socketPath));
+	}
+
+	public Path connectUnixSocket(TunnelSpec tunnelSpec) {
+		Assert.notNull(tunnelSpec, "tunnelSpec must not be null");
+		Assert.notNull(tunnelSpec.getSocketPath(), "socketPath must not be null");
+		Assert.isTrue(forwardingEngine == ForwardingEngine.NIO, "Unix domain sockets are not supported by the forwarding engine " + forwardingEngine);
+		connectTunnel(tunnelSpec);
+		return tunnelSpec.getSocketPath();
+	}
+
+	private int connectTunnel(TunnelSpec tunnelSpec) {
+		int localPort;
+		boolean opened = false;
+		while (true) {
+			SharedTunnel tunnel = addTunnel(tunnelSpec);
+			// the tunnel is opened without the close lock, only close() waits for it
+			synchronized (tunnel) {
+				if (tunnel.removed) {
+					continue;
+				}
+
+				if (tunnel.references == 0) {
+					if (activityTracker != null) {
+						activityTracker.track(tunnelSpec.getSshTunnelHost(), tunnelSpec.getHost(), tunnelSpec.getPort());
+					}
+					try {
+						tunnel.localPort = openTunnel(tunnelSpec);
+					} catch (RuntimeException e) {
+						removeTunnel(tunnel);
+						if (activityTracker != null) {
+							activityTracker.forget(tunnelSpec.getSshTunnelHost(), tunnelSpec.getHost(), tunnelSpec.getPort());
+						}
+						throw e;
+					}
+					opened = true;
+				} else {
+					log.debug("reusing tunnel to {} on local port {}", tunnelSpec, Integer.valueOf(tunnel.localPort));
+				}
+
+				tunnel.references++;
+				tunnel.lastUsedNanos = System.nanoTime();
+				localPort = tunnel.localPort;
+				break;
 			}
+		}
 
-			int jumpPort = connect(proxyConfig);
+		if (opened && maxSessions > 0) {
+			scheduleEviction();
+		}
+		return localPort;
+	}
 
-			String hostUser = sshConfiguration.getHostUser(sshTunnelHost);
-			String jumpHost = proxyConfig.getJumpHost();
-			Session jumpHostSession = sshConfiguration.openSession(hostUser, jumpHost, jumpPort);
-			String hostname = sshConfiguration.getHostName(sshTunnelHost);
-			jumpHostSession.setHostKeyAlias(hostname);
-			sshSessions.push(jumpHostSession);
-			jumpHostSession.setTimeout(timeoutMillis);
-			jumpHostSession.connect(timeoutMillis);
+	// close() sees every tunnel which was added before it, and waits until the tunnels which are being opened are done
+	private SharedTunnel addTunnel(TunnelSpec tunnelSpec) {
+		Lock lock = closeLock.readLock();
+		lock.lock();
+		try {
+			return tunnels.computeIfAbsent(tunnelSpec, SharedTunnel::new);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private int openTunnel(TunnelSpec tunnelSpec) {
+		String sshTunnelHost = tunnelSpec.getSshTunnelHost();
+		String host = tunnelSpec.getHost();
+		int port = tunnelSpec.getPort();
 
-			log.debug("[{}] connected via {}@localhost:{}", sshTunnelHost, hostUser, jumpPort);
+		log.debug("tunneling to {}", tunnelSpec);
 
-			return addLocalPortForwarding(sshTunnelHost, jumpHostSession, host, port, localPort);
+		List<SshSessionLease> stripeLeases = new ArrayList<>();
+		try {
+			for (int stripe = 0; stripe < tunnelSpec.getSessions(); stripe++) {
+				SshSessionLease sessionLease = acquireSession(sshTunnelHost, host, stripe);
+				sessionLeases.push(sessionLease);
+				stripeLeases.add(sessionLease);
+			}
+			int localPortReturned = addLocalPortForwarding(stripeLeases, withHostBufferSizes(tunnelSpec));
+			startHealthChecker();
+			return localPortReturned;
 		} catch (Exception e) {
+			// the sessions of a failed tunnel are not registered as port forwardings, so nothing else would release them
+			for (SshSessionLease sessionLease : stripeLeases) {
+				sessionLeases.remove(sessionLease);
+				sessionLease.close();
+			}
+			listener.tunnelFailed(sshTunnelHost, host, port, e);
 			throw new SshProxyRuntimeException("Failed to create SSH tunnel to " + host + " via " + sshTunnelHost, e);
 		}
 	}
 
-	private int connect(SshProxyConfig proxyConfig) {
+	public void disconnect(int localPort) {
+		DaemonClient client = getCurrentDaemonClient();
+		if (client != null && client.disconnect(localPort)) {
+			return;
+		}
+		Lock lock = closeLock.readLock();
+		lock.lock();
+		try {
+			while (!releaseEvictedTunnel(evictedTunnelReferences, Integer.valueOf(localPort))) {
+				SharedTunnel tunnel = findTunnel(localPort);
+				Assert.notNull(tunnel, "no tunnel on local port " + localPort);
+				if (releaseTunnel(tunnel)) {
+					return;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void disconnectUnixSocket(Path socketPath) {
+		Assert.notNull(socketPath, "socketPath must not be null");
+		Lock lock = closeLock.readLock();
+		lock.lock();
+		try {
+			while (!releaseEvictedTunnel(evictedSocketReferences, socketPath)) {
+				SharedTunnel tunnel = findTunnel(socketPath);
+				Assert.notNull(tunnel, "no tunnel on Unix domain socket " + socketPath);
+				if (releaseTunnel(tunnel)) {
+					return;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// returns false if the tunnel was evicted after it was found, its references are then released as evicted references
+	private boolean releaseTunnel(SharedTunnel tunnel) {
+		synchronized (tunnel) {
+			if (tunnel.removed) {
+				return false;
+			}
+			tunnel.references--;
+			if (tunnel.references > 0) {
+				log.debug("tunnel to {} is still used", tunnel.tunnelSpec);
+				return true;
+			}
+			removeTunnel(tunnel);
+		}
+
+		log.debug("closing unused tunnel to {}", tunnel.tunnelSpec);
+		closeTunnel(tunnel);
+		return true;
+	}
+
+	// the daemon is connected once; if it is not running, the tunnels are opened with the sessions of this process
+	private synchronized DaemonClient getDaemonClient() {
+		if (daemonSocket == null || daemonUnavailable) {
+			return null;
+		}
+		if (daemonClient == null) {
+			try {
+				daemonClient = DaemonClient.connect(daemonSocket);
+				log.debug("delegating tunnels to SSH proxy daemon at {}", daemonSocket);
+			} catch (IOException | UnsupportedOperationException e) {
+				log.info("SSH proxy daemon at {} is not available, opening own SSH sessions: {}", daemonSocket, e.getMessage());
+				daemonUnavailable = true;
+			}
+		}
+		return daemonClient;
+	}
+
+	private synchronized DaemonClient getCurrentDaemonClient() {
+		return daemonClient;
+	}
+
+	private synchronized void closeDaemonClient() {
+		if (daemonClient != null) {
+			try {
+				daemonClient.close();
+			} catch (IOException e) {
+				log.error("failed to close connection to SSH proxy daemon at {}", daemonSocket, e);
+			}
+			daemonClient = null;
+		}
+	}
+
+	// the users of an evicted tunnel may still disconnect it, which must not close a new tunnel on the same local port
+	private static <K> boolean releaseEvictedTunnel(Map<K, Integer> evictedReferences, K key) {
+		boolean[] released = new boolean[1];
+		evictedReferences.computeIfPresent(key, (k, references) -> {
+			released[0] = true;
+			return references.intValue() > 1 ? Integer.valueOf(references.intValue() - 1) : null;
+		});
+		return released[0];
+	}
+
+	private void closeTunnel(SharedTunnel tunnel) {
+		for (Map.Entry<Session, Set<LocalPortForwarding>> entry : portForwardings.entrySet()) {
+			for (LocalPortForwarding forwarding : entry.getValue()) {
+				if (forwarding.localPort == tunnel.localPort) {
+					closePortForwarding(entry.getKey(), forwarding);
+				}
+			}
+		}
+		if (activityTracker != null) {
+			TunnelSpec tunnelSpec = tunnel.tunnelSpec;
+			activityTracker.forget(tunnelSpec.getSshTunnelHost(), tunnelSpec.getHost(), tunnelSpec.getPort());
+		}
+	}
+
+	private void closePortForwarding(Session session, LocalPortForwarding forwarding) {
+		Set<LocalPortForwarding> forwardings = portForwardings.get(session);
+		if (forwardings == null || !forwardings.remove(forwarding)) {
+			return;
+		}
+		deletePortForwarding(session, forwarding);
+		sessionLeases.remove(forwarding.sessionLease);
+		forwarding.sessionLease.close();
+		portForwardings.computeIfPresent(session, (key, remaining) -> remaining.isEmpty() ? null : remaining);
+	}
+
+	// tunnels on Unix domain sockets are identified by their negative forwarding ids
+	private boolean isTunnelOpen(int localPort) {
+		for (SharedTunnel tunnel : tunnels.values()) {
+			// the local port of a tunnel which is being opened is not known yet
+			if (!tunnel.removed && (tunnel.localPort == localPort || tunnel.references == 0)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private SharedTunnel findTunnel(int localPort) {
+		for (SharedTunnel tunnel : tunnels.values()) {
+			if (!tunnel.removed && tunnel.references > 0 && tunnel.tunnelSpec.getSocketPath() == null && tunnel.localPort == localPort) {
+				return tunnel;
+			}
+		}
+		return null;
+	}
+
+	private SharedTunnel findTunnel(Path socketPath) {
+		for (SharedTunnel tunnel : tunnels.values()) {
+			if (!tunnel.removed && tunnel.references > 0 && socketPath.equals(tunnel.tunnelSpec.getSocketPath())) {
+				return tunnel;
+			}
+		}
+		return null;
+	}
+
+	private void removeTunnel(SharedTunnel tunnel) {
+		tunnel.removed = true;
+		tunnels.remove(tunnel.tunnelSpec, tunnel);
+	}
+
+	private static boolean hasBufferSizes(TunnelSpec tunnelSpec) {
+		return tunnelSpec.getWindowSize() > 0 || tunnelSpec.getMaxPacketSize() > 0 || tunnelSpec.getSocketBufferSize() > 0;
+	}
+
+	private TunnelSpec withHostBufferSizes(TunnelSpec tunnelSpec) {
+		String sshTunnelHost = tunnelSpec.getSshTunnelHost();
+		TunnelSpec result = tunnelSpec;
+		if (result.getWindowSize() == 0) {
+			result = result.withWindowSize(sshConfiguration.getChannelWindowSize(sshTunnelHost));
+		}
+		if (result.getMaxPacketSize() == 0) {
+			result = result.withMaxPacketSize(sshConfiguration.getChannelMaxPacketSize(sshTunnelHost));
+		}
+		return result;
+	}
+
+	public CompletableFuture<Integer> connectAsync(String sshTunnelHost, String host, int port) {
+		return connectAsync(new TunnelSpec(sshTunnelHost, host, port));
+	}
+
+	public CompletableFuture<Integer> connectAsync(String sshTunnelHost, String host, int port, int localPort) {
+		return connectAsync(new TunnelSpec(sshTunnelHost, host, port, localPort));
+	}
+
+	public CompletableFuture<Integer> connectAsync(TunnelSpec tunnelSpec) {
+		Assert.notNull(tunnelSpec, "tunnelSpec must not be null");
+		return CompletableFuture.supplyAsync(() -> Integer.valueOf(connect(tunnelSpec)), getConnectExecutor());
+	}
+
+	public List<Integer> connectAll(List<TunnelSpec> tunnelSpecs) {
+		Assert.notNull(tunnelSpecs, "tunnelSpecs must not be null");
+
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		for (TunnelSpec tunnelSpec : tunnelSpecs) {
+			futures.add(connectAsync(tunnelSpec));
+		}
+
+		List<Integer> localPorts = new ArrayList<>();
+		RuntimeException failure = null;
+		for (CompletableFuture<Integer> future : futures) {
+			try {
+				localPorts.add(future.join());
+			} catch (CompletionException e) {
+				RuntimeException cause = unwrap(e);
+				if (failure == null) {
+					failure = cause;
+				} else {
+					failure.addSuppressed(cause);
+				}
+			}
+		}
+		if (failure != null) {
+			// the caller does not get the ports of the tunnels which were connected, so they are closed again
+			for (Integer localPort : localPorts) {
+				try {
+					disconnect(localPort.intValue());
+				} catch (RuntimeException e) {
+					failure.addSuppressed(e);
+				}
+			}
+			throw failure;
+		}
+		return Collections.unmodifiableList(localPorts);
+	}
+
+	private static RuntimeException unwrap(CompletionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof RuntimeException) {
+			return (RuntimeException) cause;
+		}
+		return new SshProxyRuntimeException("Failed to create SSH tunnel", cause);
+	}
+
+	private synchronized Executor getConnectExecutor() {
+		if (connectExecutor != null) {
+			return connectExecutor;
+		}
+		if (defaultConnectExecutor == null) {
+			defaultConnectExecutor = Executors.newCachedThreadPool(threadFactory != null ? threadFactory : new DaemonThreadFactory("ssh-proxy-connect"));
+		}
+		return defaultConnectExecutor;
+	}
+
+	private synchronized void shutdownDefaultConnectExecutor() {
+		if (defaultConnectExecutor != null) {
+			defaultConnectExecutor.shutdown();
+			defaultConnectExecutor = null;
+		}
+	}
+
+	public Socket openSocket(String sshTunnelHost, String host, int port) {
+		Assert.notNull(host, "host must not be null");
+		Assert.isTrue(port > 0, "illegal port: " + port);
+
+		Socket socket = createSocket(sshTunnelHost);
+		try {
+			socket.connect(InetSocketAddress.createUnresolved(host, port), timeoutMillis);
+		} catch (IOException e) {
+			try {
+				socket.close();
+			} catch (IOException closeException) {
+				e.addSuppressed(closeException);
+			}
+			throw new SshProxyRuntimeException("Failed to open socket to " + host + " via " + sshTunnelHost, e);
+		}
+		return socket;
+	}
+
+	public SocketFactory getSocketFactory(String sshTunnelHost) {
+		Assert.notNull(sshTunnelHost, "sshTunnelHost must not be null");
+		return new SshProxySocketFactory(this, sshTunnelHost, timeoutMillis);
+	}
+
+	Socket createSocket(String sshTunnelHost) {
+		Assert.notNull(sshTunnelHost, "sshTunnelHost must not be null");
+
+		Lock lock = closeLock.readLock();
+		lock.lock();
+		try {
+			ChannelSocket socket = new ChannelSocket(targetHost -> acquireSession(sshTunnelHost, targetHost), openSockets::remove, listener,
+				sshTunnelHost);
+			openSockets.add(socket);
+			return socket;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private SshSessionLease acquireSession(String sshTunnelHost, String targetHost) throws JSchException {
+		return acquireSession(sshTunnelHost, targetHost, 0);
+	}
+
+	// every stripe uses its own chain of sessions, so that the jump hosts do not limit the throughput
+	private SshSessionLease acquireSession(String sshTunnelHost, String targetHost, int stripe) throws JSchException {
+		sshConfiguration.addIdentity(sshTunnelHost);
+
+		SshProxyConfig proxyConfig = sshConfiguration.getProxyConfiguration(sshTunnelHost);
+		SessionKey sessionKey = getSessionKey(sshTunnelHost, proxyConfig, stripe);
+		if (proxyConfig == null) {
+			return sessionPool.acquire(sessionKey, () -> directConnect(sshTunnelHost, targetHost));
+		} else {
+			return sessionPool.acquire(sessionKey, () -> connectViaJumpHost(sshTunnelHost, proxyConfig, stripe));
+		}
+	}
+
+	// the listener is not part of the key, the events of a shared session are reported to the proxy which opened it
+	private SessionKey getSessionKey(String sshTunnelHost, SshProxyConfig proxyConfig, int stripe) {
+		String hostUser = sshConfiguration.getHostUser(sshTunnelHost);
+		if (proxyConfig == null) {
+			String hostname = sshConfiguration.getHostName(sshTunnelHost);
+			int port = sshConfiguration.getHostPort(sshTunnelHost);
+			return new SessionKey(hostUser, hostname, port, cryptoProfile, stripe, null, timeoutMillis, adaptiveCompression);
+		}
+
+		String jumpHost = proxyConfig.getJumpHost();
+		SessionKey jumpHostKey = getSessionKey(jumpHost, sshConfiguration.getProxyConfiguration(jumpHost), stripe);
+		return new SessionKey(hostUser, proxyConfig.getForwardingHost(), proxyConfig.getForwardingPort(), cryptoProfile, stripe, jumpHostKey,
+			timeoutMillis, adaptiveCompression);
+	}
+
+	private PooledSession connectViaJumpHost(String sshTunnelHost, SshProxyConfig proxyConfig, int stripe) throws JSchException {
 		String jumpHost = proxyConfig.getJumpHost();
 		String forwardingHost = proxyConfig.getForwardingHost();
 		int forwardingPort = proxyConfig.getForwardingPort();
-		return connect(jumpHost, forwardingHost, forwardingPort);
+
+		SshSessionLease jumpHostLease = acquireSession(jumpHost, forwardingHost, stripe);
+		try {
+			Session session = sshConfiguration.openSession(sshTunnelHost, cryptoProfile);
+			session.setProxy(new JumpHostProxy(jumpHostLease.getSession(), forwardingHost, forwardingPort));
+			configureSession(sshTunnelHost, session);
+			long connectedNanos = connectSession(sshTunnelHost, session);
+
+			log.debug("[{}] connected via {} to {}:{}", sshTunnelHost, jumpHost, forwardingHost, forwardingPort);
+
+			return new PooledSession(session, jumpHostLease, () -> {
+				sessionClosed(sshTunnelHost, connectedNanos);
+				jumpHostLease.close();
+			});
+		} catch (JSchException | RuntimeException e) {
+			jumpHostLease.close();
+			throw e;
+		}
 	}
 
-	private int directConnect(String jumpHost, String targetHost, int targetPort, int localPort) throws JSchException {
-		Session jumpHostSession = sshConfiguration.openSession(jumpHost);
-		sshSessions.add(jumpHostSession);
-		jumpHostSession.setTimeout(timeoutMillis);
+	private PooledSession directConnect(String jumpHost, String targetHost) throws JSchException {
+		Session jumpHostSession = sshConfiguration.openSession(jumpHost, cryptoProfile);
+		configureSession(jumpHost, jumpHostSession);
+		jumpHostSession.setSocketFactory(new HappyEyeballsSocketFactory(timeoutMillis, sshConfiguration.getSocketBufferSize(jumpHost)));
+		long connectedNanos;
 		try {
-			jumpHostSession.connect(timeoutMillis);
+			connectedNanos = connectSession(jumpHost, jumpHostSession);
 		} catch (JSchException e) {
 			log.debug("Failed to connect to {} via {}", targetHost, jumpHost, e);
 			throw new SshProxyRuntimeException("Failed to connect to " + targetHost + " via " + jumpHost);
@@ -102,60 +643,425 @@ public class SshProxy implements Closeable {
 
 		log.debug("[{}] connected", jumpHost);
 
-		return addLocalPortForwarding(jumpHost, jumpHostSession, targetHost, targetPort, localPort);
+		return new PooledSession(jumpHostSession, () -> sessionClosed(jumpHost, connectedNanos));
+	}
+
+	private void configureSession(String sshHost, Session session) throws JSchException {
+		session.setTimeout(timeoutMillis);
+		int serverAliveIntervalSeconds = sshConfiguration.getServerAliveIntervalSeconds(sshHost);
+		if (serverAliveIntervalSeconds > 0) {
+			// JSch sends keepalive messages when reading from the socket times out, so this replaces the timeout set above
+			session.setServerAliveInterval((int) TimeUnit.SECONDS.toMillis(serverAliveIntervalSeconds));
+			session.setServerAliveCountMax(sshConfiguration.getServerAliveCountMax(sshHost));
+		}
+		if (adaptiveCompression) {
+			JSchHelper.configureCompressionImplementation(session, AdaptiveZlibCompression.class);
+		}
+	}
+
+	private long connectSession(String sshHost, Session session) throws JSchException {
+		if (listener == SshProxyListener.NO_OP) {
+			session.connect(timeoutMillis);
+			return 0;
+		}
+
+		HostKeyCheckTimer hostKeyCheckTimer = HostKeyCheckTimer.install(session);
+		long startNanos = System.nanoTime();
+		try {
+			session.connect(timeoutMillis);
+		} catch (JSchException | RuntimeException e) {
+			listener.sessionFailed(sshHost, e);
+			throw e;
+		}
+		long connectedNanos = System.nanoTime();
+		long handshakeNanos = hostKeyCheckTimer.getHostKeyCheckedNanos(connectedNanos);
+		listener.sessionConnected(sshHost, Duration.ofNanos(handshakeNanos - startNanos), Duration.ofNanos(connectedNanos - handshakeNanos));
+		return connectedNanos;
+	}
+
+	private void sessionClosed(String sshHost, long connectedNanos) {
+		if (listener != SshProxyListener.NO_OP) {
+			listener.sessionClosed(sshHost, Duration.ofNanos(System.nanoTime() - connectedNanos));
+		}
 	}
 
-	private int addLocalPortForwarding(String sshTunnelHost, Session session, String targetHost, int targetPort, int localPort) throws JSchException {
-		int localPortReturned = session.setPortForwardingL(localPort, targetHost, targetPort);
+	private int addLocalPortForwarding(List<SshSessionLease> stripeLeases, TunnelSpec tunnelSpec) throws JSchException, IOException {
+		String sshTunnelHost = tunnelSpec.getSshTunnelHost();
+		String targetHost = tunnelSpec.getHost();
+		int targetPort = tunnelSpec.getPort();
+		List<Session> sessions = new ArrayList<>();
+		for (SshSessionLease sessionLease : stripeLeases) {
+			sessions.add(sessionLease.getSession());
+		}
+		final int localPortReturned;
+		if (forwardingEngine != ForwardingEngine.JSCH) {
+			localPortReturned = getPortForwarder().addForwarding(sessions, LOCAL_BIND_ADDRESS, tunnelSpec);
+		} else {
+			// JSch opens the channels of its port forwardings internally, so the window and packet sizes of the host are not applied
+			localPortReturned = addJSchPortForwarding(sshTunnelHost, sessions.get(0), targetHost, targetPort, tunnelSpec.getLocalPort());
+		}
 
 		log.debug("[{}] local port {} forwarded to {}:{}", sshTunnelHost, localPortReturned, targetHost, targetPort);
 
-		Set<Integer> ports = portForwardings.computeIfAbsent(session, k -> new LinkedHashSet<>());
-		ports.add(Integer.valueOf(localPortReturned));
+		for (int stripe = 0; stripe < stripeLeases.size(); stripe++) {
+			registerPortForwarding(sessions.get(stripe),
+				new LocalPortForwarding(sshTunnelHost, targetHost, targetPort, localPortReturned, forwardingEngine, stripe, stripeLeases.get(stripe)));
+		}
+		listener.tunnelOpened(sshTunnelHost, targetHost, targetPort, listenerPort(localPortReturned));
 		return localPortReturned;
 	}
 
+	// forwardings on Unix domain sockets have negative ids instead of local ports
+	private static int listenerPort(int localPort) {
+		return Math.max(localPort, 0);
+	}
+
+	private int addJSchPortForwarding(String sshTunnelHost, Session session, String targetHost, int targetPort, int localPort) throws JSchException {
+		if (listener == SshProxyListener.NO_OP && !channelLimits.isLimited() && acceptBacklog == 0) {
+			return session.setPortForwardingL(localPort, targetHost, targetPort);
+		}
+		MeteredServerSocketFactory serverSocketFactory = new MeteredServerSocketFactory(listener, sshTunnelHost, targetHost, targetPort,
+			channelLimits.forSession(session), timeoutMillis, acceptBacklog);
+		return session.setPortForwardingL(LOCAL_BIND_ADDRESS, localPort, targetHost, targetPort, serverSocketFactory);
+	}
+
+	private void registerPortForwarding(Session session, LocalPortForwarding forwarding) {
+		portForwardings.compute(session, (k, forwardings) -> {
+			Set<LocalPortForwarding> result = forwardings != null ? forwardings : ConcurrentHashMap.newKeySet();
+			result.add(forwarding);
+			return result;
+		});
+	}
+
+	private boolean isEvictionEnabled() {
+		return idleTimeoutMillis > 0 || maxSessions > 0;
+	}
+
+	private synchronized void startHealthChecker() {
+		if (healthChecker != null || (healthCheckIntervalMillis == 0 && !isEvictionEnabled())) {
+			return;
+		}
+		ThreadFactory healthCheckerThreadFactory = threadFactory != null ? threadFactory : new DaemonThreadFactory("ssh-proxy-health-check");
+		healthChecker = Executors.newSingleThreadScheduledExecutor(healthCheckerThreadFactory);
+		if (healthCheckIntervalMillis > 0) {
+			healthChecker.scheduleWithFixedDelay(this::checkSessions, healthCheckIntervalMillis, healthCheckIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+		if (isEvictionEnabled()) {
+			int evictionIntervalMillis = idleTimeoutMillis > 0 ? Math.min(idleTimeoutMillis, MAX_EVICTION_INTERVAL_MILLIS) : MAX_EVICTION_INTERVAL_MILLIS;
+			healthChecker.scheduleWithFixedDelay(this::evictTunnels, evictionIntervalMillis, evictionIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private synchronized void scheduleEviction() {
+		if (healthChecker != null) {
+			healthChecker.execute(this::evictTunnels);
+		}
+	}
+
+	private void stopHealthChecker() {
+		ScheduledExecutorService executor;
+		synchronized (this) {
+			executor = healthChecker;
+			healthChecker = null;
+		}
+		if (executor == null) {
+			return;
+		}
+		executor.shutdownNow();
+		try {
+			if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				log.warn("health check did not terminate within {} ms", timeoutMillis);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void checkSessions() {
+		Lock lock = closeLock.readLock();
+		if (!lock.tryLock()) {
+			return;
+		}
+		try {
+			for (Map.Entry<Session, Set<LocalPortForwarding>> entry : portForwardings.entrySet()) {
+				Session session = entry.getKey();
+				if (!session.isConnected()) {
+					reconnect(session);
+				} else if (!isHopChainConnected(entry.getValue())) {
+					// the session only notices a lost jump host once the channel to it is closed, so it is dropped here
+					session.disconnect();
+					reconnect(session);
+				}
+			}
+		} catch (RuntimeException e) {
+			log.error("health check failed", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static boolean isHopChainConnected(Set<LocalPortForwarding> forwardings) {
+		for (LocalPortForwarding forwarding : forwardings) {
+			if (!forwarding.sessionLease.isConnected()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// tears down idle tunnels; the session pool then closes only the hops which are not shared with other tunnels
+	private void evictTunnels() {
+		Lock lock = closeLock.readLock();
+		if (!lock.tryLock()) {
+			return;
+		}
+		try {
+			evictionStartNanos = System.nanoTime();
+			List<SharedTunnel> idleTunnels = new ArrayList<>();
+			for (SharedTunnel tunnel : tunnels.values()) {
+				if (isIdle(tunnel)) {
+					idleTunnels.add(tunnel);
+				}
+			}
+
+			long nowNanos = System.nanoTime();
+			for (SharedTunnel tunnel : idleTunnels) {
+				long idleNanos = nowNanos - getLastActiveNanos(tunnel);
+				if (idleTimeoutMillis > 0 && idleNanos >= TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis)) {
+					evictTunnel(tunnel, "idle for " + TimeUnit.NANOSECONDS.toMillis(idleNanos) + " ms");
+				}
+			}
+			if (maxSessions > 0) {
+				evictLeastRecentlyUsedSessions(idleTunnels);
+			}
+		} catch (RuntimeException e) {
+			log.error("eviction failed", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// sessions are shared between the tunnels to the same host, a session is only released when all of its tunnels are evicted
+	private void evictLeastRecentlyUsedSessions(List<SharedTunnel> idleTunnels) {
+		Map<Integer, SharedTunnel> idleTunnelsByPort = new HashMap<>();
+		for (SharedTunnel tunnel : idleTunnels) {
+			idleTunnelsByPort.put(Integer.valueOf(tunnel.localPort), tunnel);
+		}
+
+		List<List<SharedTunnel>> idleSessions = new ArrayList<>();
+		for (Set<LocalPortForwarding> forwardings : portForwardings.values()) {
+			List<SharedTunnel> sessionTunnels = new ArrayList<>();
+			for (LocalPortForwarding forwarding : forwardings) {
+				SharedTunnel tunnel = idleTunnelsByPort.get(Integer.valueOf(forwarding.localPort));
+				if (tunnel == null) {
+					sessionTunnels = null;
+					break;
+				}
+				if (!sessionTunnels.contains(tunnel)) {
+					sessionTunnels.add(tunnel);
+				}
+			}
+			if (sessionTunnels != null && !sessionTunnels.isEmpty()) {
+				idleSessions.add(sessionTunnels);
+			}
+		}
+		idleSessions.sort(Comparator.comparingLong(sessionTunnels -> sessionTunnels.stream().mapToLong(this::getLastActiveNanos).max().getAsLong()));
+
+		for (List<SharedTunnel> sessionTunnels : idleSessions) {
+			int sessions = portForwardings.size();
+			if (sessions <= maxSessions) {
+				return;
+			}
+			for (SharedTunnel tunnel : sessionTunnels) {
+				evictTunnel(tunnel, "least recently used of " + sessions + " sessions");
+			}
+		}
+	}
+
+	private boolean isIdle(SharedTunnel tunnel) {
+		if (tunnel.removed || tunnel.references == 0) {
+			return false;
+		}
+		TunnelSpec tunnelSpec = tunnel.tunnelSpec;
+		return activityTracker.isIdle(tunnelSpec.getSshTunnelHost(), tunnelSpec.getHost(), tunnelSpec.getPort());
+	}
+
+	private long getLastActiveNanos(SharedTunnel tunnel) {
+		TunnelSpec tunnelSpec = tunnel.tunnelSpec;
+		return Math.max(tunnel.lastUsedNanos, activityTracker.getLastActiveNanos(tunnelSpec.getSshTunnelHost(), tunnelSpec.getHost(), tunnelSpec.getPort()));
+	}
+
+	private void evictTunnel(SharedTunnel tunnel, String reason) {
+		synchronized (tunnel) {
+			if (tunnel.removed || tunnel.lastUsedNanos - evictionStartNanos > 0) {
+				// connected again while the eviction was running
+				return;
+			}
+			removeTunnel(tunnel);
+			Path socketPath = tunnel.tunnelSpec.getSocketPath();
+			if (socketPath != null) {
+				evictedSocketReferences.merge(socketPath, Integer.valueOf(tunnel.references), Integer::sum);
+			} else {
+				evictedTunnelReferences.merge(Integer.valueOf(tunnel.localPort), Integer.valueOf(tunnel.references), Integer::sum);
+			}
+		}
+		log.info("evicting tunnel to {}: {}", tunnel.tunnelSpec, reason);
+		closeTunnel(tunnel);
+	}
+
+	private void reconnect(Session disconnectedSession) {
+		Set<LocalPortForwarding> forwardings = portForwardings.remove(disconnectedSession);
+		if (forwardings == null) {
+			return;
+		}
+		long nowNanos = System.nanoTime();
+		for (LocalPortForwarding forwarding : forwardings) {
+			if (forwarding.disconnectedNanos == 0) {
+				forwarding.disconnectedNanos = nowNanos;
+				log.info("[{}] session disconnected, reconnecting tunnel to {}:{} on local port {}", forwarding.sshTunnelHost, forwarding.host,
+					forwarding.port, forwarding.localPort);
+			}
+			reconnect(disconnectedSession, forwarding);
+		}
+	}
+
+	private void reconnect(Session disconnectedSession, LocalPortForwarding forwarding) {
+		SshSessionLease sessionLease = null;
+		try {
+			sessionLease = acquireSession(forwarding.sshTunnelHost, forwarding.host, forwarding.stripe);
+			Session session = sessionLease.getSession();
+			if (forwarding.forwardingEngine != ForwardingEngine.JSCH) {
+				getPortForwarder().replaceSession(forwarding.localPort, disconnectedSession, session);
+			} else {
+				addJSchPortForwarding(forwarding.sshTunnelHost, session, forwarding.host, forwarding.port, forwarding.localPort);
+			}
+		} catch (Exception e) {
+			log.warn("[{}] failed to reconnect tunnel to {}:{} on local port {}: {}", forwarding.sshTunnelHost, forwarding.host, forwarding.port,
+				forwarding.localPort, e.getMessage());
+			if (sessionLease != null) {
+				sessionLease.close();
+			}
+			registerPortForwarding(disconnectedSession, forwarding);
+			closeIfTunnelClosed(disconnectedSession, forwarding);
+			listener.tunnelFailed(forwarding.sshTunnelHost, forwarding.host, forwarding.port, e);
+			return;
+		}
+
+		sessionLeases.push(sessionLease);
+		sessionLeases.remove(forwarding.sessionLease);
+		forwarding.sessionLease.close();
+		LocalPortForwarding reconnectedForwarding = forwarding.withSessionLease(sessionLease);
+		registerPortForwarding(sessionLease.getSession(), reconnectedForwarding);
+		if (closeIfTunnelClosed(sessionLease.getSession(), reconnectedForwarding)) {
+			return;
+		}
+
+		log.info("[{}] reconnected tunnel to {}:{} on local port {}", forwarding.sshTunnelHost, forwarding.host, forwarding.port, forwarding.localPort);
+		Duration downtime = Duration.ofNanos(System.nanoTime() - forwarding.disconnectedNanos);
+		listener.tunnelReconnected(forwarding.sshTunnelHost, forwarding.host, forwarding.port, listenerPort(forwarding.localPort), downtime);
+	}
+
+	// a tunnel may be disconnected while its forwarding is reconnected; it is marked as removed before its forwardings are closed
+	private boolean closeIfTunnelClosed(Session session, LocalPortForwarding forwarding) {
+		if (isTunnelOpen(forwarding.localPort)) {
+			return false;
+		}
+		closePortForwarding(session, forwarding);
+		return true;
+	}
+
+	private synchronized PortForwarder getPortForwarder() throws IOException {
+		if (portForwarder == null) {
+			if (forwardingEngine == ForwardingEngine.NIO) {
+				portForwarder = new NioPortForwarder(listener, timeoutMillis, threadFactory, channelLimits, acceptBacklog, channelWriterThreads);
+			} else if (forwardingEngine == ForwardingEngine.THREAD_PER_CONNECTION) {
+				portForwarder = new ThreadPerConnectionPortForwarder(listener, timeoutMillis, threadFactory, channelLimits, acceptBacklog);
+			} else {
+				throw new IllegalArgumentException("Unsupported forwarding engine: " + forwardingEngine);
+			}
+		}
+		return portForwarder;
+	}
+
+	private synchronized void closePortForwarder() {
+		if (portForwarder != null) {
+			portForwarder.close();
+			portForwarder = null;
+		}
+	}
+
 	@Override
 	public void close() {
-		if (!sshSessions.isEmpty()) {
-			log.debug("closing SSH sessions");
-		}
+		Lock lock = closeLock.writeLock();
+		lock.lock();
+		try {
+			stopHealthChecker();
 
-		while (!sshSessions.isEmpty()) {
-			Session session = sshSessions.pop();
+			for (SharedTunnel tunnel : tunnels.values()) {
+				synchronized (tunnel) {
+					removeTunnel(tunnel);
+				}
+			}
+			evictedTunnelReferences.clear();
+			evictedSocketReferences.clear();
 
-			deletePortForwarding(session);
+			for (Socket socket : openSockets) {
+				closeSocket(socket);
+			}
 
-			try {
-				session.disconnect();
-			} catch (Exception e) {
-				log.error("Failed to disconnect SSH session", e);
+			if (!sessionLeases.isEmpty()) {
+				log.debug("releasing SSH sessions");
 			}
+
+			SshSessionLease sessionLease;
+			while ((sessionLease = sessionLeases.poll()) != null) {
+				deletePortForwarding(sessionLease.getSession());
+				sessionLease.close();
+			}
+
+			closePortForwarder();
+			shutdownDefaultConnectExecutor();
+			closeDaemonClient();
+
+			Assert.isTrue(portForwardings.isEmpty(), "port forwardings must be empty at this point");
+		} finally {
+			lock.unlock();
 		}
+	}
 
-		Assert.isTrue(portForwardings.isEmpty(), "port forwardings must be empty at this point");
+	private static void closeSocket(Socket socket) {
+		try {
+			socket.close();
+		} catch (Exception e) {
+			log.error("failed to close socket {}", socket, e);
+		}
 	}
 
 	private void deletePortForwarding(Session session) {
-		Set<Integer> ports = portForwardings.remove(session);
-		if (ports != null) {
-			for (Integer localPort : ports) {
-				deletePortForwarding(session, localPort);
+		Set<LocalPortForwarding> forwardings = portForwardings.remove(session);
+		if (forwardings != null) {
+			for (LocalPortForwarding forwarding : forwardings) {
+				deletePortForwarding(session, forwarding);
 			}
 		}
 	}
 
-	private void deletePortForwarding(Session session, Integer localPort) {
+	private void deletePortForwarding(Session session, LocalPortForwarding forwarding) {
+		if (forwarding.stripe > 0) {
+			// the local port is removed together with the first stripe
+			return;
+		}
 		try {
-			String host = session.getHost();
-			if (host.equals(LOCALHOST)) {
-				host = session.getHostKeyAlias();
+			if (forwarding.forwardingEngine != ForwardingEngine.JSCH) {
+				getPortForwarder().removeForwarding(forwarding.localPort);
+			} else if (session.isConnected()) {
+				session.delPortForwardingL(LOCALHOST, forwarding.localPort);
 			}
-			session.delPortForwardingL(LOCALHOST, localPort.intValue());
-			log.debug("deleted local port forwarding on port {} for {}", localPort, host);
+			log.debug("deleted local port forwarding on port {} for {}", forwarding.localPort, session.getHost());
 		} catch (Exception e) {
-			log.error("failed to delete port forwarding of port {}", localPort, e);
+			log.error("failed to delete port forwarding of port {}", forwarding.localPort, e);
 		}
+		listener.tunnelClosed(forwarding.sshTunnelHost, forwarding.host, forwarding.port, listenerPort(forwarding.localPort));
 	}
 
 }
@@ -0,0 +1,216 @@
+package de.cronn.proxy.ssh;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.cronn.proxy.ssh.util.Assert;
+
+// owns the SSH sessions of all SshProxy instances on a machine which are configured with its socket, like an OpenSSH ControlMaster
+public final class SshProxyDaemon implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(SshProxyDaemon.class);
+
+	static final String CONNECT = "CONNECT";
+	static final String DISCONNECT = "DISCONNECT";
+	static final String OK = "OK";
+	static final String ERROR = "ERROR";
+
+	private static final int BACKLOG = 50;
+
+	private final Path socketPath;
+	private final int persistMillis;
+	private final SshProxy sshProxy;
+	private final ServerSocketChannel serverChannel;
+	private final ThreadFactory threadFactory;
+	private final ScheduledExecutorService releaseScheduler;
+	private final Set<SocketChannel> clients = ConcurrentHashMap.newKeySet();
+	private final Thread acceptThread;
+
+	private volatile boolean closed;
+
+	public SshProxyDaemon(Path socketPath, SshProxySettings settings) throws IOException {
+		this(socketPath, settings, 0);
+	}
+
+	public SshProxyDaemon(Path socketPath, SshProxySettings settings, int persistMillis) throws IOException {
+		Assert.notNull(socketPath, "socketPath must not be null");
+		Assert.notNull(settings, "settings must not be null");
+		Assert.isTrue(settings.getDaemonSocket() == null, "the daemon must not delegate to a daemon");
+		Assert.isTrue(persistMillis >= 0, "illegal persist time: " + persistMillis);
+		this.socketPath = socketPath;
+		this.persistMillis = persistMillis;
+		this.threadFactory = settings.getThreadFactory() != null ? settings.getThreadFactory() : new DaemonThreadFactory("ssh-proxy-daemon");
+		this.sshProxy = new SshProxy(settings);
+		try {
+			this.serverChannel = UnixDomainSockets.bind(socketPath, BACKLOG);
+		} catch (IOException | RuntimeException e) {
+			sshProxy.close();
+			throw e;
+		}
+		this.releaseScheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("ssh-proxy-daemon-release"));
+		this.acceptThread = threadFactory.newThread(this::acceptClients);
+		this.acceptThread.start();
+		log.info("SSH proxy daemon listening on {}", socketPath);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("usage: " + SshProxyDaemon.class.getName() + " <socket path> [persist seconds]");
+			System.exit(1);
+		}
+		int persistMillis = args.length > 1 ? (int) TimeUnit.SECONDS.toMillis(Integer.parseInt(args[1])) : 0;
+		SshProxyDaemon daemon = new SshProxyDaemon(Paths.get(args[0]), SshProxySettings.defaults(), persistMillis);
+		Runtime.getRuntime().addShutdownHook(new Thread(daemon::close, "ssh-proxy-daemon-shutdown"));
+		daemon.acceptThread.join();
+	}
+
+	public Path getSocketPath() {
+		return socketPath;
+	}
+
+	private void acceptClients() {
+		while (!closed) {
+			SocketChannel client;
+			try {
+				client = serverChannel.accept();
+			} catch (IOException e) {
+				if (!closed) {
+					log.error("failed to accept client on {}", socketPath, e);
+				}
+				return;
+			}
+			clients.add(client);
+			if (closed) {
+				closeQuietly(client);
+				return;
+			}
+			threadFactory.newThread(() -> serve(client)).start();
+		}
+	}
+
+	private void serve(SocketChannel client) {
+		List<Integer> localPorts = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+			 Writer writer = new OutputStreamWriter(Channels.newOutputStream(client), StandardCharsets.UTF_8)) {
+			String request;
+			while ((request = reader.readLine()) != null) {
+				writer.write(handle(request, localPorts) + "\n");
+				writer.flush();
+			}
+		} catch (IOException e) {
+			log.debug("connection to client closed: {}", e.getMessage());
+		} finally {
+			clients.remove(client);
+			closeQuietly(client);
+			release(localPorts);
+		}
+	}
+
+	private String handle(String request, List<Integer> localPorts) {
+		String[] fields = request.split(" ");
+		try {
+			if (fields[0].equals(CONNECT)) {
+				int localPort = sshProxy.connect(parseTunnelSpec(fields));
+				localPorts.add(Integer.valueOf(localPort));
+				return OK + " " + localPort;
+			} else if (fields[0].equals(DISCONNECT) && fields.length == 2) {
+				int localPort = Integer.parseInt(fields[1]);
+				Assert.isTrue(localPorts.remove(Integer.valueOf(localPort)), "no tunnel on local port " + localPort);
+				sshProxy.disconnect(localPort);
+				return OK;
+			} else {
+				return ERROR + " illegal request: " + request;
+			}
+		} catch (RuntimeException e) {
+			log.debug("failed to handle request '{}'", request, e);
+			return ERROR + " " + String.valueOf(e.getMessage()).replace('\n', ' ');
+		}
+	}
+
+	// the tunnels of a client which went away are kept for the persist time, so that the next client can reuse the sessions
+	private void release(List<Integer> localPorts) {
+		for (Integer localPort : localPorts) {
+			if (persistMillis > 0 && !closed) {
+				releaseScheduler.schedule(() -> disconnectQuietly(localPort.intValue()), persistMillis, TimeUnit.MILLISECONDS);
+			} else {
+				disconnectQuietly(localPort.intValue());
+			}
+		}
+	}
+
+	private void disconnectQuietly(int localPort) {
+		try {
+			sshProxy.disconnect(localPort);
+		} catch (RuntimeException e) {
+			log.debug("failed to release tunnel on local port {}: {}", Integer.valueOf(localPort), e.getMessage());
+		}
+	}
+
+	static String formatConnect(TunnelSpec tunnelSpec) {
+		return String.join(" ", CONNECT, tunnelSpec.getSshTunnelHost(), tunnelSpec.getHost(), String.valueOf(tunnelSpec.getPort()),
+			String.valueOf(tunnelSpec.getLocalPort()), String.valueOf(tunnelSpec.getSessions()), String.valueOf(tunnelSpec.getWindowSize()),
+			String.valueOf(tunnelSpec.getMaxPacketSize()), String.valueOf(tunnelSpec.getSocketBufferSize()));
+	}
+
+	// dynamic tunnels are sent with port 0
+	static TunnelSpec parseTunnelSpec(String[] fields) {
+		Assert.isTrue(fields.length == 9, "illegal tunnel: " + String.join(" ", fields));
+		int port = Integer.parseInt(fields[3]);
+		int localPort = Integer.parseInt(fields[4]);
+		TunnelSpec tunnelSpec = port == 0 ? TunnelSpec.dynamic(fields[1], localPort) : new TunnelSpec(fields[1], fields[2], port, localPort);
+		return tunnelSpec
+			.withSessions(Integer.parseInt(fields[5]))
+			.withWindowSize(Integer.parseInt(fields[6]))
+			.withMaxPacketSize(Integer.parseInt(fields[7]))
+			.withSocketBufferSize(Integer.parseInt(fields[8]));
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			log.debug("failed to close {}", closeable, e);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		closeQuietly(serverChannel);
+		for (SocketChannel client : clients) {
+			closeQuietly(client);
+		}
+		releaseScheduler.shutdownNow();
+		sshProxy.close();
+		try {
+			Files.deleteIfExists(socketPath);
+		} catch (IOException e) {
+			log.warn("failed to delete {}", socketPath, e);
+		}
+	}
+}
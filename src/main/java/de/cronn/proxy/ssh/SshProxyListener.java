@@ -0,0 +1,39 @@
+package de.cronn.proxy.ssh;
+
+import java.time.Duration;
+
+public interface SshProxyListener {
+
+	SshProxyListener NO_OP = new SshProxyListener() {
+	};
+
+	default void sessionConnected(String sshHost, Duration handshakeDuration, Duration authenticationDuration) {
+	}
+
+	default void sessionFailed(String sshHost, Exception cause) {
+	}
+
+	default void sessionClosed(String sshHost, Duration lifetime) {
+	}
+
+	default void tunnelOpened(String sshTunnelHost, String host, int port, int localPort) {
+	}
+
+	default void tunnelFailed(String sshTunnelHost, String host, int port, Exception cause) {
+	}
+
+	default void tunnelClosed(String sshTunnelHost, String host, int port, int localPort) {
+	}
+
+	default void tunnelReconnected(String sshTunnelHost, String host, int port, int localPort, Duration downtime) {
+	}
+
+	default void connectionOpened(String sshTunnelHost, String host, int port, Duration channelOpenDuration) {
+	}
+
+	default void connectionFailed(String sshTunnelHost, String host, int port, Exception cause) {
+	}
+
+	default void connectionClosed(String sshTunnelHost, String host, int port, long bytesSent, long bytesReceived, Duration duration) {
+	}
+}
@@ -0,0 +1,215 @@
+package de.cronn.proxy.ssh;
+
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+import de.cronn.proxy.ssh.util.Assert;
+
+public final class SshProxySettings {
+
+	public static final int DEFAULT_TIMEOUT_MILLIS = 10_000;
+	public static final int DEFAULT_HEALTH_CHECK_INTERVAL_MILLIS = 1_000;
+
+	private static final SshProxySettings DEFAULTS = new SshProxySettings(DEFAULT_TIMEOUT_MILLIS, SshProxyListener.NO_OP, ForwardingEngine.JSCH, null,
+		DEFAULT_HEALTH_CHECK_INTERVAL_MILLIS, null, CryptoProfile.DEFAULT, false, 0, 0, 0, 0, 0, null, 0);
+
+	private final int timeoutMillis;
+	private final SshProxyListener listener;
+	private final ForwardingEngine forwardingEngine;
+	private final ThreadFactory threadFactory;
+	private final int healthCheckIntervalMillis;
+	private final Executor connectExecutor;
+	private final CryptoProfile cryptoProfile;
+	private final boolean adaptiveCompression;
+	private final int idleTimeoutMillis;
+	private final int maxSessions;
+	private final int maxChannelsPerSession;
+	private final int maxQueuedChannels;
+	private final int acceptBacklog;
+	private final Path daemonSocket;
+	private final int channelWriterThreads;
+
+	private SshProxySettings(int timeoutMillis, SshProxyListener listener, ForwardingEngine forwardingEngine, ThreadFactory threadFactory, int healthCheckIntervalMillis,
+		Executor connectExecutor, CryptoProfile cryptoProfile, boolean adaptiveCompression, int idleTimeoutMillis, int maxSessions,
+		int maxChannelsPerSession, int maxQueuedChannels, int acceptBacklog, Path daemonSocket, int channelWriterThreads) {
+		this.timeoutMillis = timeoutMillis;
+		this.listener = listener;
+		this.forwardingEngine = forwardingEngine;
+		this.threadFactory = threadFactory;
+		this.healthCheckIntervalMillis = healthCheckIntervalMillis;
+		this.connectExecutor = connectExecutor;
+		this.cryptoProfile = cryptoProfile;
+		this.adaptiveCompression = adaptiveCompression;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.maxSessions = maxSessions;
+		this.maxChannelsPerSession = maxChannelsPerSession;
+		this.maxQueuedChannels = maxQueuedChannels;
+		this.acceptBacklog = acceptBacklog;
+		this.daemonSocket = daemonSocket;
+		this.channelWriterThreads = channelWriterThreads;
+	}
+
+	public static SshProxySettings defaults() {
+		return DEFAULTS;
+	}
+
+	public int getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	public SshProxySettings withTimeoutMillis(int timeoutMillis) {
+		Assert.isTrue(timeoutMillis >= 0, "illegal timeout: " + timeoutMillis);
+		return new SshProxySettings(timeoutMillis, listener, forwardingEngine, threadFactory, healthCheckIntervalMillis, connectExecutor, cryptoProfile, adaptiveCompression,
+			idleTimeoutMillis, maxSessions, maxChannelsPerSession, maxQueuedChannels, acceptBacklog, daemonSocket, channelWriterThreads);
+	}
+
+	public SshProxyListener getListener() {
+		return listener;
+	}
+
+	public SshProxySettings withListener(SshProxyListener listener) {
+		Assert.notNull(listener, "listener must not be null");
+		return new SshProxySettings(timeoutMillis, listener, forwardingEngine, threadFactory, healthCheckIntervalMillis, connectExecutor, cryptoProfile, adaptiveCompression,
+			idleTimeoutMillis, maxSessions, maxChannelsPerSession, maxQueuedChannels, acceptBacklog, daemonSocket, channelWriterThreads);
+	}
+
+	public ForwardingEngine getForwardingEngine() {
+		return forwardingEngine;
+	}
+
+	public SshProxySettings withForwardingEngine(ForwardingEngine forwardingEngine) {
+		Assert.notNull(forwardingEngine, "forwardingEngine must not be null");
+		return new SshProxySettings(timeoutMillis, listener, forwardingEngine, threadFactory, healthCheckIntervalMillis, connectExecutor, cryptoProfile, adaptiveCompression,
+			idleTimeoutMillis, maxSessions, maxChannelsPerSession, maxQueuedChannels, acceptBacklog, daemonSocket, channelWriterThreads);
+	}
+
+	public ThreadFactory getThreadFactory() {
+		return threadFactory;
+	}
+
+	public SshProxySettings withThreadFactory(ThreadFactory threadFactory) {
+		Assert.notNull(threadFactory, "threadFactory must not be null");
+		return new SshProxySettings(timeoutMillis, listener, forwardingEngine, threadFactory, healthCheckIntervalMillis, connectExecutor, cryptoProfile, adaptiveCompression,
+			idleTimeoutMillis, maxSessions, maxChannelsPerSession, maxQueuedChannels, acceptBacklog, daemonSocket, channelWriterThreads);
+	}
+
+	public int getHealthCheckIntervalMillis() {
+		return healthCheckIntervalMillis;
+	}
+
+	public SshProxySettings withHealthCheckIntervalMillis(int healthCheckIntervalMillis) {
+		Assert.isTrue(healthCheckIntervalMillis >= 0, "illegal health check interval: " + healthCheckIntervalMillis);
+		return new SshProxySettings(timeoutMillis, listener, forwardingEngine, threadFactory, healthCheckIntervalMillis, connectExecutor, cryptoProfile, adaptiveCompression,
+			idleTimeoutMillis, maxSessions, maxChannelsPerSession, maxQueuedChannels, acceptBacklog, daemonSocket, channelWriterThreads);
+	}
+
+	public Executor getConnectExecutor() {
+		return connectExecutor;
+	}
+
+	public SshProxySettings withConnectExecutor(Executor connectExecutor) {
+		Assert.notNull(connectExecutor, "connectExecutor must not be null");
+		return new SshProxySettings(timeoutMillis, listener, forwardingEngine, threadFactory, healthCheckIntervalMillis, connectExecutor, cryptoProfile, adaptiveCompression,
+			idleTimeoutMillis, maxSessions, maxChannelsPerSession, maxQueuedChannels, acceptBacklog, daemonSocket, channelWriterThreads);
+	}
+
+	public CryptoProfile getCryptoProfile() {
+		return cryptoProfile;
+	}
+
+	public SshProxySettings withCryptoProfile(CryptoProfile cryptoProfile) {
+		Assert.notNull(cryptoProfile, "cryptoProfile must not be null");
+		return new SshProxySettings(timeoutMillis, listener, forwardingEngine, threadFactory, healthCheckIntervalMillis, connectExecutor, cryptoProfile, adaptiveCompression,
+			idleTimeoutMillis, maxSessions, maxChannelsPerSession, maxQueuedChannels, acceptBacklog, daemonSocket, channelWriterThreads);
+	}
+
+	public boolean isAdaptiveCompression() {
+		return adaptiveCompression;
+	}
+
+	public SshProxySettings withAdaptiveCompression(boolean adaptiveCompression) {
+		return new SshProxySettings(timeoutMillis, listener, forwardingEngine, threadFactory, healthCheckIntervalMillis, connectExecutor, cryptoProfile, adaptiveCompression,
+			idleTimeoutMillis, maxSessions, maxChannelsPerSession, maxQueuedChannels, acceptBacklog, daemonSocket, channelWriterThreads);
+	}
+
+	public int getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	public SshProxySettings withIdleTimeoutMillis(int idleTimeoutMillis) {
+		Assert.isTrue(idleTimeoutMillis >= 0, "illegal idle timeout: " + idleTimeoutMillis);
+		return new SshProxySettings(timeoutMillis, listener, forwardingEngine, threadFactory, healthCheckIntervalMillis, connectExecutor, cryptoProfile, adaptiveCompression,
+			idleTimeoutMillis, maxSessions, maxChannelsPerSession, maxQueuedChannels, acceptBacklog, daemonSocket, channelWriterThreads);
+	}
+
+	public int getMaxSessions() {
+		return maxSessions;
+	}
+
+	public SshProxySettings withMaxSessions(int maxSessions) {
+		Assert.isTrue(maxSessions >= 0, "illegal max sessions: " + maxSessions);
+		return new SshProxySettings(timeoutMillis, listener, forwardingEngine, threadFactory, healthCheckIntervalMillis, connectExecutor, cryptoProfile, adaptiveCompression,
+			idleTimeoutMillis, maxSessions, maxChannelsPerSession, maxQueuedChannels, acceptBacklog, daemonSocket, channelWriterThreads);
+	}
+
+	public int getMaxChannelsPerSession() {
+		return maxChannelsPerSession;
+	}
+
+	public SshProxySettings withMaxChannelsPerSession(int maxChannelsPerSession) {
+		Assert.isTrue(maxChannelsPerSession >= 0, "illegal max channels per session: " + maxChannelsPerSession);
+		return new SshProxySettings(timeoutMillis, listener, forwardingEngine, threadFactory, healthCheckIntervalMillis, connectExecutor, cryptoProfile, adaptiveCompression,
+			idleTimeoutMillis, maxSessions, maxChannelsPerSession, maxQueuedChannels, acceptBacklog, daemonSocket, channelWriterThreads);
+	}
+
+	public int getMaxQueuedChannels() {
+		return maxQueuedChannels;
+	}
+
+	public SshProxySettings withMaxQueuedChannels(int maxQueuedChannels) {
+		Assert.isTrue(maxQueuedChannels >= 0, "illegal max queued channels: " + maxQueuedChannels);
+		return new SshProxySettings(timeoutMillis, listener, forwardingEngine, threadFactory, healthCheckIntervalMillis, connectExecutor, cryptoProfile, adaptiveCompression,
+			idleTimeoutMillis, maxSessions, maxChannelsPerSession, maxQueuedChannels, acceptBacklog, daemonSocket, channelWriterThreads);
+	}
+
+	public int getAcceptBacklog() {
+		return acceptBacklog;
+	}
+
+	public SshProxySettings withAcceptBacklog(int acceptBacklog) {
+		Assert.isTrue(acceptBacklog >= 0, "illegal accept backlog: " + acceptBacklog);
+		return new SshProxySettings(timeoutMillis, listener, forwardingEngine, threadFactory, healthCheckIntervalMillis, connectExecutor, cryptoProfile, adaptiveCompression,
+			idleTimeoutMillis, maxSessions, maxChannelsPerSession, maxQueuedChannels, acceptBacklog, daemonSocket, channelWriterThreads);
+	}
+
+	public Path getDaemonSocket() {
+		return daemonSocket;
+	}
+
+	public SshProxySettings withDaemonSocket(Path daemonSocket) {
+		Assert.notNull(daemonSocket, "daemonSocket must not be null");
+		return new SshProxySettings(timeoutMillis, listener, forwardingEngine, threadFactory, healthCheckIntervalMillis, connectExecutor, cryptoProfile, adaptiveCompression,
+			idleTimeoutMillis, maxSessions, maxChannelsPerSession, maxQueuedChannels, acceptBacklog, daemonSocket, channelWriterThreads);
+	}
+
+	public int getChannelWriterThreads() {
+		return channelWriterThreads;
+	}
+
+	public SshProxySettings withChannelWriterThreads(int channelWriterThreads) {
+		Assert.isTrue(channelWriterThreads >= 0, "illegal channel writer threads: " + channelWriterThreads);
+		return new SshProxySettings(timeoutMillis, listener, forwardingEngine, threadFactory, healthCheckIntervalMillis, connectExecutor, cryptoProfile, adaptiveCompression,
+			idleTimeoutMillis, maxSessions, maxChannelsPerSession, maxQueuedChannels, acceptBacklog, daemonSocket, channelWriterThreads);
+	}
+
+	@Override
+	public String toString() {
+		return "SshProxySettings[timeoutMillis=" + timeoutMillis + ", listener=" + listener + ", forwardingEngine=" + forwardingEngine + ", threadFactory=" + threadFactory
+			+ ", healthCheckIntervalMillis=" + healthCheckIntervalMillis + ", connectExecutor=" + connectExecutor
+			+ ", cryptoProfile=" + cryptoProfile + ", adaptiveCompression=" + adaptiveCompression
+			+ ", idleTimeoutMillis=" + idleTimeoutMillis + ", maxSessions=" + maxSessions + ", maxChannelsPerSession=" + maxChannelsPerSession
+			+ ", maxQueuedChannels=" + maxQueuedChannels + ", acceptBacklog=" + acceptBacklog + ", daemonSocket=" + daemonSocket
+			+ ", channelWriterThreads=" + channelWriterThreads + "]";
+	}
+}
@@ -0,0 +1,49 @@
+package de.cronn.proxy.ssh;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import javax.net.SocketFactory;
+
+class SshProxySocketFactory extends SocketFactory {
+
+	private final SshProxy sshProxy;
+	private final String sshTunnelHost;
+	private final int connectTimeoutMillis;
+
+	SshProxySocketFactory(SshProxy sshProxy, String sshTunnelHost, int connectTimeoutMillis) {
+		this.sshProxy = sshProxy;
+		this.sshTunnelHost = sshTunnelHost;
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	@Override
+	public Socket createSocket() {
+		return sshProxy.createSocket(sshTunnelHost);
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		Socket socket = createSocket();
+		// the unconnected sockets from createSocket() use the timeout of their connect call
+		socket.connect(InetSocketAddress.createUnresolved(host, port), connectTimeoutMillis);
+		return socket;
+	}
+
+	@Override
+	public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+		return createSocket(host, port);
+	}
+
+	@Override
+	public Socket createSocket(InetAddress host, int port) throws IOException {
+		return createSocket(host.getHostAddress(), port);
+	}
+
+	@Override
+	public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+		return createSocket(address, port);
+	}
+}
@@ -0,0 +1,37 @@
+package de.cronn.proxy.ssh;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.jcraft.jsch.Session;
+
+final class SshSessionLease implements Closeable {
+
+	private final SshSessionPool sessionPool;
+	private final SshSessionPool.Entry entry;
+	private final AtomicBoolean released = new AtomicBoolean();
+
+	SshSessionLease(SshSessionPool sessionPool, SshSessionPool.Entry entry) {
+		this.sessionPool = sessionPool;
+		this.entry = entry;
+	}
+
+	SessionKey getKey() {
+		return entry.getKey();
+	}
+
+	Session getSession() {
+		return entry.getSession();
+	}
+
+	boolean isConnected() {
+		return entry.isConnected();
+	}
+
+	@Override
+	public void close() {
+		if (released.compareAndSet(false, true)) {
+			sessionPool.release(entry);
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package de.cronn.proxy.ssh;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import de.cronn.proxy.ssh.util.Assert;
+
+final class SshSessionPool {
+
+	private static final Logger log = LoggerFactory.getLogger(SshSessionPool.class);
+
+	private static final SshSessionPool INSTANCE = new SshSessionPool();
+
+	interface SessionFactory {
+		PooledSession openSession() throws JSchException;
+	}
+
+	static final class PooledSession {
+
+		private final Session session;
+		private final SshSessionLease jumpHostLease;
+		private final Runnable onDisconnect;
+
+		PooledSession(Session session, SshSessionLease jumpHostLease, Runnable onDisconnect) {
+			this.session = session;
+			this.jumpHostLease = jumpHostLease;
+			this.onDisconnect = onDisconnect;
+		}
+
+		PooledSession(Session session, Runnable onDisconnect) {
+			this(session, null, onDisconnect);
+		}
+
+		PooledSession(Session session) {
+			this(session, () -> {});
+		}
+
+		Session getSession() {
+			return session;
+		}
+
+		// a session behind a jump host is only usable while the whole hop chain is connected
+		private boolean isConnected() {
+			return session.isConnected() && (jumpHostLease == null || jumpHostLease.isConnected());
+		}
+	}
+
+	static final class Entry {
+
+		private final SessionKey key;
+		private PooledSession pooledSession;
+		private int leases;
+		private boolean removed;
+
+		private Entry(SessionKey key) {
+			this.key = key;
+		}
+
+		SessionKey getKey() {
+			return key;
+		}
+
+		Session getSession() {
+			return pooledSession.session;
+		}
+
+		boolean isConnected() {
+			return pooledSession != null && pooledSession.isConnected();
+		}
+
+		private boolean isDisconnected() {
+			return pooledSession != null && !pooledSession.isConnected();
+		}
+	}
+
+	private final Map<SessionKey, Entry> sessions = new ConcurrentHashMap<>();
+
+	static SshSessionPool getInstance() {
+		return INSTANCE;
+	}
+
+	SshSessionLease acquire(SessionKey key, SessionFactory sessionFactory) throws JSchException {
+		while (true) {
+			Entry entry = sessions.computeIfAbsent(key, Entry::new);
+			synchronized (entry) {
+				if (entry.removed) {
+					continue;
+				}
+
+				if (entry.isDisconnected()) {
+					log.debug("[{}] evicting disconnected session", key);
+					remove(entry);
+					continue;
+				}
+
+				if (entry.pooledSession == null) {
+					try {
+						entry.pooledSession = sessionFactory.openSession();
+					} catch (JSchException | RuntimeException e) {
+						remove(entry);
+						throw e;
+					}
+					log.debug("[{}] added session to pool", key);
+				} else {
+					log.debug("[{}] reusing pooled session", key);
+				}
+
+				entry.leases++;
+				return new SshSessionLease(this, entry);
+			}
+		}
+	}
+
+	void release(Entry entry) {
+		synchronized (entry) {
+			Assert.isTrue(entry.leases > 0, "session " + entry.key + " is not leased");
+			entry.leases--;
+			if (entry.leases > 0) {
+				return;
+			}
+			remove(entry);
+		}
+
+		log.debug("[{}] disconnecting unused session", entry.key);
+		try {
+			entry.pooledSession.session.disconnect();
+		} catch (Exception e) {
+			log.error("Failed to disconnect SSH session", e);
+		}
+		entry.pooledSession.onDisconnect.run();
+	}
+
+	private void remove(Entry entry) {
+		entry.removed = true;
+		sessions.remove(entry.key, entry);
+	}
+
+	int size() {
+		return sessions.size();
+	}
+
+}
@@ -0,0 +1,82 @@
+package de.cronn.proxy.ssh;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.jcraft.jsch.Session;
+
+import de.cronn.proxy.ssh.util.Assert;
+
+final class StripedSessions {
+
+	private final AtomicReferenceArray<Session> sessions;
+	private final AtomicIntegerArray activeConnections;
+	private final AtomicInteger nextStripe = new AtomicInteger();
+	private final ChannelLimits channelLimits;
+
+	StripedSessions(List<Session> sessions) {
+		this(sessions, ChannelLimits.UNLIMITED);
+	}
+
+	StripedSessions(List<Session> sessions, ChannelLimits channelLimits) {
+		Assert.isTrue(!sessions.isEmpty(), "sessions must not be empty");
+		this.sessions = new AtomicReferenceArray<>(sessions.toArray(new Session[0]));
+		this.activeConnections = new AtomicIntegerArray(sessions.size());
+		this.channelLimits = channelLimits;
+	}
+
+	int size() {
+		return sessions.length();
+	}
+
+	int acquire() {
+		int size = sessions.length();
+		int start = Math.floorMod(nextStripe.getAndIncrement(), size);
+		int leastLoaded = -1;
+		boolean leastLoadedHasCapacity = false;
+		for (int i = 0; i < size; i++) {
+			int stripe = (start + i) % size;
+			Session session = sessions.get(stripe);
+			if (!session.isConnected()) {
+				continue;
+			}
+			// connections spill over to sessions which are below their channel limit, as the channels of a session are shared with other tunnels
+			boolean hasCapacity = channelLimits.forSession(session).hasCapacity();
+			if (leastLoaded < 0 || (hasCapacity && !leastLoadedHasCapacity)
+				|| (hasCapacity == leastLoadedHasCapacity && activeConnections.get(stripe) < activeConnections.get(leastLoaded))) {
+				leastLoaded = stripe;
+				leastLoadedHasCapacity = hasCapacity;
+			}
+		}
+		if (leastLoaded < 0) {
+			// the channel open fails, unless the session is reconnected in the meantime
+			leastLoaded = start;
+		}
+		activeConnections.incrementAndGet(leastLoaded);
+		return leastLoaded;
+	}
+
+	Session getSession(int stripe) {
+		return sessions.get(stripe);
+	}
+
+	int getActiveConnections(int stripe) {
+		return activeConnections.get(stripe);
+	}
+
+	void release(int stripe) {
+		int remaining = activeConnections.decrementAndGet(stripe);
+		Assert.isTrue(remaining >= 0, "stripe " + stripe + " was not acquired");
+	}
+
+	boolean replace(Session disconnectedSession, Session session) {
+		for (int stripe = 0; stripe < sessions.length(); stripe++) {
+			if (sessions.compareAndSet(stripe, disconnectedSession, session)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
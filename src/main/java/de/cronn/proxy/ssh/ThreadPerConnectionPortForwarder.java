@@ -0,0 +1,323 @@
+package de.cronn.proxy.ssh;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import de.cronn.proxy.ssh.util.Assert;
+
+final class ThreadPerConnectionPortForwarder implements PortForwarder {
+
+	private static final Logger log = LoggerFactory.getLogger(ThreadPerConnectionPortForwarder.class);
+
+	private static final int BUFFER_SIZE = 32 * 1024;
+
+	private final SshProxyListener listener;
+	private final int connectTimeoutMillis;
+	private final ThreadFactory threadFactory;
+	private final ChannelLimits channelLimits;
+	private final int acceptBacklog;
+	private final Map<Integer, Forwarding> forwardings = new ConcurrentHashMap<>();
+	private final Set<LocalConnection> connections = ConcurrentHashMap.newKeySet();
+
+	private volatile boolean closed;
+
+	ThreadPerConnectionPortForwarder(SshProxyListener listener, int connectTimeoutMillis, ThreadFactory threadFactory) {
+		this(listener, connectTimeoutMillis, threadFactory, ChannelLimits.UNLIMITED, 0);
+	}
+
+	ThreadPerConnectionPortForwarder(SshProxyListener listener, int connectTimeoutMillis, ThreadFactory threadFactory, ChannelLimits channelLimits,
+		int acceptBacklog) {
+		this.listener = listener;
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.threadFactory = threadFactory != null ? threadFactory : new DaemonThreadFactory("ssh-proxy-forwarder");
+		this.channelLimits = channelLimits;
+		this.acceptBacklog = acceptBacklog;
+	}
+
+	@Override
+	public int addForwarding(List<Session> sessions, String bindAddress, TunnelSpec tunnelSpec) throws IOException {
+		ServerSocket serverSocket = new ServerSocket();
+		try {
+			if (tunnelSpec.getSocketBufferSize() > 0) {
+				// accepted connections inherit the receive buffer, it must be set before binding to take effect on the TCP window
+				serverSocket.setReceiveBufferSize(tunnelSpec.getSocketBufferSize());
+			}
+			serverSocket.bind(new InetSocketAddress(InetAddress.getByName(bindAddress), tunnelSpec.getLocalPort()), acceptBacklog);
+		} catch (IOException e) {
+			serverSocket.close();
+			throw e;
+		}
+
+		Forwarding forwarding = new Forwarding(serverSocket, new StripedSessions(sessions, channelLimits), tunnelSpec);
+		int boundPort = serverSocket.getLocalPort();
+		forwardings.put(Integer.valueOf(boundPort), forwarding);
+		threadFactory.newThread(() -> acceptConnections(forwarding)).start();
+		return boundPort;
+	}
+
+	@Override
+	public void replaceSession(int localPort, Session disconnectedSession, Session session) {
+		Forwarding forwarding = forwardings.get(Integer.valueOf(localPort));
+		Assert.notNull(forwarding, "no forwarding on local port " + localPort);
+		Assert.isTrue(forwarding.sessions.replace(disconnectedSession, session), "session is not used by local port " + localPort);
+	}
+
+	@Override
+	public void removeForwarding(int localPort) {
+		Forwarding forwarding = forwardings.remove(Integer.valueOf(localPort));
+		if (forwarding != null) {
+			closeQuietly(forwarding.serverSocket);
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		for (Forwarding forwarding : forwardings.values()) {
+			closeQuietly(forwarding.serverSocket);
+		}
+		forwardings.clear();
+		for (LocalConnection connection : connections) {
+			connection.close();
+		}
+	}
+
+	private void acceptConnections(Forwarding forwarding) {
+		ServerSocket serverSocket = forwarding.serverSocket;
+		while (!serverSocket.isClosed()) {
+			Socket socket;
+			try {
+				socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				if (forwarding.socketBufferSize > 0) {
+					socket.setSendBufferSize(forwarding.socketBufferSize);
+				}
+			} catch (IOException e) {
+				if (!serverSocket.isClosed()) {
+					log.error("failed to accept connection for {}", forwarding, e);
+				}
+				return;
+			}
+
+			LocalConnection connection = new LocalConnection(socket);
+			connections.add(connection);
+			if (closed) {
+				connection.close();
+				connections.remove(connection);
+				return;
+			}
+			threadFactory.newThread(() -> forward(connection, forwarding)).start();
+		}
+	}
+
+	private void forward(LocalConnection connection, Forwarding forwarding) {
+		String sshTunnelHost = forwarding.sshTunnelHost;
+		String host = forwarding.host;
+		int port = forwarding.port;
+		ConnectionMeter meter = listener != SshProxyListener.NO_OP ? new ConnectionMeter(listener, sshTunnelHost, host, port) : null;
+		Socket socket = connection.socket;
+		int stripe = forwarding.sessions.acquire();
+		ChannelLimits.Limiter limiter = channelLimits.forSession(forwarding.sessions.getSession(stripe));
+		boolean channelAcquired = false;
+		Channel channel = null;
+		try {
+			InputStream fromLocal = socket.getInputStream();
+			OutputStream fromRemote = new SocketOutputStream(socket.getOutputStream(), connection);
+			if (meter != null) {
+				fromLocal = meter.countSent(fromLocal, null);
+				fromRemote = meter.countReceived(fromRemote, null);
+			}
+
+			if (!limiter.acquire(connectTimeoutMillis)) {
+				throw new JSchException("channel limit of the session to " + sshTunnelHost + " reached");
+			}
+			channelAcquired = true;
+			channel = forwarding.sessions.getSession(stripe).getStreamForwarder(host, port);
+			JSchHelper.configureChannelSizes(channel, forwarding.windowSize, forwarding.maxPacketSize);
+			channel.setOutputStream(fromRemote);
+			OutputStream toRemote = channel.getOutputStream();
+			channel.connect(connectTimeoutMillis);
+			if (meter != null) {
+				meter.opened();
+			}
+			log.debug("opened channel to {}:{} via {}", host, Integer.valueOf(port), sshTunnelHost);
+
+			copy(fromLocal, toRemote);
+			toRemote.close();
+			connection.awaitRemoteEndOfStream();
+		} catch (JSchException e) {
+			log.debug("failed to open channel to {}:{} via {}", host, Integer.valueOf(port), sshTunnelHost, e);
+			if (meter != null) {
+				meter.failed(e);
+			}
+		} catch (IOException e) {
+			log.debug("closing connection to {}:{} via {}: {}", host, Integer.valueOf(port), sshTunnelHost, e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (channel != null) {
+				channel.disconnect();
+			}
+			if (channelAcquired) {
+				limiter.release();
+			}
+			forwarding.sessions.release(stripe);
+			connection.close();
+			connections.remove(connection);
+			if (meter != null) {
+				meter.closed();
+			}
+		}
+	}
+
+	private static void copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int read;
+		while ((read = inputStream.read(buffer)) >= 0) {
+			outputStream.write(buffer, 0, read);
+			outputStream.flush();
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			log.debug("failed to close {}", closeable, e);
+		}
+	}
+
+	private static final class Forwarding {
+
+		private final ServerSocket serverSocket;
+		private final StripedSessions sessions;
+		private final String sshTunnelHost;
+		private final String host;
+		private final int port;
+		private final int windowSize;
+		private final int maxPacketSize;
+		private final int socketBufferSize;
+
+		private Forwarding(ServerSocket serverSocket, StripedSessions sessions, TunnelSpec tunnelSpec) {
+			this.serverSocket = serverSocket;
+			this.sessions = sessions;
+			this.sshTunnelHost = tunnelSpec.getSshTunnelHost();
+			this.host = tunnelSpec.getHost();
+			this.port = tunnelSpec.getPort();
+			this.windowSize = tunnelSpec.getWindowSize();
+			this.maxPacketSize = tunnelSpec.getMaxPacketSize();
+			this.socketBufferSize = tunnelSpec.getSocketBufferSize();
+		}
+
+		@Override
+		public String toString() {
+			return host + ":" + port + " via " + sshTunnelHost;
+		}
+	}
+
+	private static final class LocalConnection {
+
+		private final Socket socket;
+		// a monitor would pin the carrier of a virtual thread while it waits on JDK 21 to 23
+		private final Lock lock = new ReentrantLock();
+		private final Condition remoteEndOfStreamOrClosed = lock.newCondition();
+		private boolean remoteEndOfStream;
+		private boolean closed;
+
+		private LocalConnection(Socket socket) {
+			this.socket = socket;
+		}
+
+		private void remoteEndOfStream() {
+			lock.lock();
+			try {
+				if (remoteEndOfStream || closed) {
+					return;
+				}
+				remoteEndOfStream = true;
+				remoteEndOfStreamOrClosed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			try {
+				socket.shutdownOutput();
+			} catch (IOException e) {
+				log.trace("failed to shut down output of {}", socket, e);
+			}
+		}
+
+		private void awaitRemoteEndOfStream() throws InterruptedException {
+			lock.lock();
+			try {
+				while (!remoteEndOfStream && !closed) {
+					remoteEndOfStreamOrClosed.await();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void close() {
+			lock.lock();
+			try {
+				closed = true;
+				remoteEndOfStreamOrClosed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			closeQuietly(socket);
+		}
+	}
+
+	private static final class SocketOutputStream extends OutputStream {
+
+		private final OutputStream outputStream;
+		private final LocalConnection connection;
+
+		private SocketOutputStream(OutputStream outputStream, LocalConnection connection) {
+			this.outputStream = outputStream;
+			this.connection = connection;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			outputStream.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			outputStream.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			outputStream.flush();
+		}
+
+		@Override
+		public void close() {
+			connection.remoteEndOfStream();
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package de.cronn.proxy.ssh;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// counts the open connections per tracked tunnel, so that idle tunnels can be evicted
+final class TunnelActivityTracker implements SshProxyListener {
+
+	private final SshProxyListener delegate;
+	private final Map<TunnelSpec, Activity> activities = new ConcurrentHashMap<>();
+
+	TunnelActivityTracker(SshProxyListener delegate) {
+		this.delegate = delegate;
+	}
+
+	private static final class Activity {
+
+		private int tunnels;
+		private int openConnections;
+		private long lastActiveNanos = Long.MIN_VALUE;
+
+		private boolean isUnused() {
+			return tunnels == 0 && openConnections <= 0;
+		}
+	}
+
+	// only the connections of tracked tunnels are counted
+	void track(String sshTunnelHost, String host, int port) {
+		activities.compute(key(sshTunnelHost, host, port), (key, activity) -> {
+			Activity result = activity != null ? activity : new Activity();
+			synchronized (result) {
+				result.tunnels++;
+			}
+			return result;
+		});
+	}
+
+	boolean isIdle(String sshTunnelHost, String host, int port) {
+		Activity activity = activities.get(key(sshTunnelHost, host, port));
+		if (activity == null) {
+			return true;
+		}
+		synchronized (activity) {
+			return activity.openConnections == 0;
+		}
+	}
+
+	long getLastActiveNanos(String sshTunnelHost, String host, int port) {
+		Activity activity = activities.get(key(sshTunnelHost, host, port));
+		if (activity == null) {
+			return Long.MIN_VALUE;
+		}
+		synchronized (activity) {
+			return activity.lastActiveNanos;
+		}
+	}
+
+	void forget(String sshTunnelHost, String host, int port) {
+		activities.computeIfPresent(key(sshTunnelHost, host, port), (key, activity) -> {
+			synchronized (activity) {
+				if (activity.tunnels > 0) {
+					activity.tunnels--;
+				}
+				return activity.isUnused() ? null : activity;
+			}
+		});
+	}
+
+	// dynamic tunnels are reported with port 0
+	private static TunnelSpec key(String sshTunnelHost, String host, int port) {
+		return port == 0 ? TunnelSpec.dynamic(sshTunnelHost) : new TunnelSpec(sshTunnelHost, host, port);
+	}
+
+	private void update(String sshTunnelHost, String host, int port, int delta) {
+		long nowNanos = System.nanoTime();
+		TunnelSpec tunnelKey = key(sshTunnelHost, host, port);
+		update(tunnelKey, delta, nowNanos);
+		// the connections of a dynamic tunnel are reported with their target, which can be any host behind the tunnel host;
+		// they are counted for the dynamic tunnel, the targets themselves are not tracked
+		TunnelSpec dynamicKey = TunnelSpec.dynamic(sshTunnelHost);
+		if (!dynamicKey.equals(tunnelKey)) {
+			update(dynamicKey, delta, nowNanos);
+		}
+	}
+
+	private void update(TunnelSpec tunnelKey, int delta, long nowNanos) {
+		activities.computeIfPresent(tunnelKey, (key, activity) -> {
+			synchronized (activity) {
+				activity.openConnections += delta;
+				activity.lastActiveNanos = nowNanos;
+				return activity.isUnused() ? null : activity;
+			}
+		});
+	}
+
+	@Override
+	public void sessionConnected(String sshHost, Duration handshakeDuration, Duration authenticationDuration) {
+		delegate.sessionConnected(sshHost, handshakeDuration, authenticationDuration);
+	}
+
+	@Override
+	public void sessionFailed(String sshHost, Exception cause) {
+		delegate.sessionFailed(sshHost, cause);
+	}
+
+	@Override
+	public void sessionClosed(String sshHost, Duration lifetime) {
+		delegate.sessionClosed(sshHost, lifetime);
+	}
+
+	@Override
+	public void tunnelOpened(String sshTunnelHost, String host, int port, int localPort) {
+		delegate.tunnelOpened(sshTunnelHost, host, port, localPort);
+	}
+
+	@Override
+	public void tunnelFailed(String sshTunnelHost, String host, int port, Exception cause) {
+		delegate.tunnelFailed(sshTunnelHost, host, port, cause);
+	}
+
+	@Override
+	public void tunnelClosed(String sshTunnelHost, String host, int port, int localPort) {
+		delegate.tunnelClosed(sshTunnelHost, host, port, localPort);
+	}
+
+	@Override
+	public void tunnelReconnected(String sshTunnelHost, String host, int port, int localPort, Duration downtime) {
+		delegate.tunnelReconnected(sshTunnelHost, host, port, localPort, downtime);
+	}
+
+	@Override
+	public void connectionOpened(String sshTunnelHost, String host, int port, Duration channelOpenDuration) {
+		update(sshTunnelHost, host, port, 1);
+		delegate.connectionOpened(sshTunnelHost, host, port, channelOpenDuration);
+	}
+
+	@Override
+	public void connectionFailed(String sshTunnelHost, String host, int port, Exception cause) {
+		update(sshTunnelHost, host, port, 0);
+		delegate.connectionFailed(sshTunnelHost, host, port, cause);
+	}
+
+	@Override
+	public void connectionClosed(String sshTunnelHost, String host, int port, long bytesSent, long bytesReceived, Duration duration) {
+		update(sshTunnelHost, host, port, -1);
+		delegate.connectionClosed(sshTunnelHost, host, port, bytesSent, bytesReceived, duration);
+	}
+}
@@ -0,0 +1,165 @@
+package de.cronn.proxy.ssh;
+
+import java.nio.file.Path;
+import java.util.Objects;
+
+import de.cronn.proxy.ssh.util.Assert;
+
+public final class TunnelSpec {
+
+	private static final String ANY_HOST = "*";
+
+	private final String sshTunnelHost;
+	private final String host;
+	private final int port;
+	private final int localPort;
+	private final int sessions;
+	private final int windowSize;
+	private final int maxPacketSize;
+	private final int socketBufferSize;
+	private final Path socketPath;
+	private final boolean dynamic;
+
+	public TunnelSpec(String sshTunnelHost, String host, int port) {
+		this(sshTunnelHost, host, port, 0);
+	}
+
+	public TunnelSpec(String sshTunnelHost, String host, int port, int localPort) {
+		this(sshTunnelHost, host, port, localPort, 1, 0, 0, 0, null, false);
+	}
+
+	private TunnelSpec(String sshTunnelHost, String host, int port, int localPort, int sessions, int windowSize, int maxPacketSize, int socketBufferSize,
+		Path socketPath, boolean dynamic) {
+		Assert.notNull(sshTunnelHost, "sshTunnelHost must not be null");
+		Assert.notNull(host, "host must not be null");
+		Assert.isTrue(dynamic ? port == 0 : port > 0, "illegal port: " + port);
+		Assert.isTrue(localPort >= 0, "illegal local port: " + localPort);
+		Assert.isTrue(sessions > 0, "illegal number of sessions: " + sessions);
+		Assert.isTrue(windowSize >= 0, "illegal window size: " + windowSize);
+		Assert.isTrue(maxPacketSize >= 0 && maxPacketSize <= JSchHelper.MAX_CHANNEL_PACKET_SIZE, "illegal max packet size: " + maxPacketSize);
+		Assert.isTrue(socketBufferSize >= 0, "illegal socket buffer size: " + socketBufferSize);
+		Assert.isTrue(socketPath == null || localPort == 0, "a tunnel on a Unix domain socket must not have a local port");
+		this.sshTunnelHost = sshTunnelHost;
+		this.host = host;
+		this.port = port;
+		this.localPort = localPort;
+		this.sessions = sessions;
+		this.windowSize = windowSize;
+		this.maxPacketSize = maxPacketSize;
+		this.socketBufferSize = socketBufferSize;
+		this.socketPath = socketPath;
+		this.dynamic = dynamic;
+	}
+
+	// a SOCKS5 and HTTP CONNECT proxy which opens channels to the hosts requested by its clients
+	public static TunnelSpec dynamic(String sshTunnelHost) {
+		return dynamic(sshTunnelHost, 0);
+	}
+
+	public static TunnelSpec dynamic(String sshTunnelHost, int localPort) {
+		return new TunnelSpec(sshTunnelHost, ANY_HOST, 0, localPort, 1, 0, 0, 0, null, true);
+	}
+
+	public TunnelSpec withSessions(int sessions) {
+		return new TunnelSpec(sshTunnelHost, host, port, localPort, sessions, windowSize, maxPacketSize, socketBufferSize, socketPath, dynamic);
+	}
+
+	public TunnelSpec withWindowSize(int windowSize) {
+		return new TunnelSpec(sshTunnelHost, host, port, localPort, sessions, windowSize, maxPacketSize, socketBufferSize, socketPath, dynamic);
+	}
+
+	public TunnelSpec withMaxPacketSize(int maxPacketSize) {
+		return new TunnelSpec(sshTunnelHost, host, port, localPort, sessions, windowSize, maxPacketSize, socketBufferSize, socketPath, dynamic);
+	}
+
+	public TunnelSpec withSocketBufferSize(int socketBufferSize) {
+		return new TunnelSpec(sshTunnelHost, host, port, localPort, sessions, windowSize, maxPacketSize, socketBufferSize, socketPath, dynamic);
+	}
+
+	public TunnelSpec withSocketPath(Path socketPath) {
+		Assert.notNull(socketPath, "socketPath must not be null");
+		return new TunnelSpec(sshTunnelHost, host, port, localPort, sessions, windowSize, maxPacketSize, socketBufferSize, socketPath, dynamic);
+	}
+
+	public String getSshTunnelHost() {
+		return sshTunnelHost;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public int getLocalPort() {
+		return localPort;
+	}
+
+	public int getSessions() {
+		return sessions;
+	}
+
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	public int getMaxPacketSize() {
+		return maxPacketSize;
+	}
+
+	public int getSocketBufferSize() {
+		return socketBufferSize;
+	}
+
+	public Path getSocketPath() {
+		return socketPath;
+	}
+
+	public boolean isDynamic() {
+		return dynamic;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o == null || getClass() != o.getClass()) {
+			return false;
+		}
+		TunnelSpec that = (TunnelSpec) o;
+		return port == that.port
+			&& localPort == that.localPort
+			&& sessions == that.sessions
+			&& windowSize == that.windowSize
+			&& maxPacketSize == that.maxPacketSize
+			&& socketBufferSize == that.socketBufferSize
+			&& sshTunnelHost.equals(that.sshTunnelHost)
+			&& host.equals(that.host)
+			&& Objects.equals(socketPath, that.socketPath)
+			&& dynamic == that.dynamic;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(sshTunnelHost, host, Integer.valueOf(port), Integer.valueOf(localPort), Integer.valueOf(sessions),
+			Integer.valueOf(windowSize), Integer.valueOf(maxPacketSize), Integer.valueOf(socketBufferSize), socketPath, Boolean.valueOf(dynamic));
+	}
+
+	@Override
+	public String toString() {
+		String result = dynamic ? "dynamic forwarding via " + sshTunnelHost : host + ":" + port + " via " + sshTunnelHost;
+		if (localPort > 0) {
+			result += " on local port " + localPort;
+		}
+		if (socketPath != null) {
+			result += " on Unix domain socket " + socketPath;
+		}
+		if (sessions > 1) {
+			result += " striped across " + sessions + " sessions";
+		}
+		return result;
+	}
+}
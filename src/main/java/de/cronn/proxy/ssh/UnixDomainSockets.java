@@ -0,0 +1,149 @@
+package de.cronn.proxy.ssh;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.EnumSet;
+
+final class UnixDomainSockets {
+
+	private static final int MIN_JAVA_VERSION = 16;
+	private static final int S_IFMT = 0170000;
+	private static final int S_IFSOCK = 0140000;
+
+	private UnixDomainSockets() {
+	}
+
+	static boolean isSupported() {
+		return Runtime.version().feature() >= MIN_JAVA_VERSION;
+	}
+
+	// binds a socket which is only accessible by the current user; a stale socket file of a terminated process is replaced
+	static ServerSocketChannel bind(Path path, int backlog) throws IOException {
+		assertSupported();
+		if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+			if (!isSocket(path)) {
+				throw new FileAlreadyExistsException(path.toString(), null, "not a Unix domain socket");
+			}
+			if (isListening(path)) {
+				throw new IOException("Unix domain socket " + path + " is already in use");
+			}
+			Files.deleteIfExists(path);
+		}
+
+		Path parent = path.toAbsolutePath().getParent();
+		if (Files.getFileStore(parent).supportsFileAttributeView(PosixFileAttributeView.class)) {
+			return bindPrivately(path, parent, backlog);
+		}
+		return bindTo(path, backlog);
+	}
+
+	// binds in a directory only accessible by the current user and moves the socket into place afterwards,
+	// so other users cannot connect before the permissions of the socket file are restricted
+	private static ServerSocketChannel bindPrivately(Path path, Path parent, int backlog) throws IOException {
+		Path directory = Files.createTempDirectory(parent, ".ssh-proxy",
+			PosixFilePermissions.asFileAttribute(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE)));
+		Path privatePath = directory.resolve("s");
+		ServerSocketChannel serverChannel = null;
+		try {
+			serverChannel = bindTo(privatePath, backlog);
+			Files.setPosixFilePermissions(privatePath, EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+			Files.move(privatePath, path, StandardCopyOption.ATOMIC_MOVE);
+			Files.delete(directory);
+			return serverChannel;
+		} catch (IOException | RuntimeException e) {
+			if (serverChannel != null) {
+				serverChannel.close();
+			}
+			Files.deleteIfExists(privatePath);
+			Files.deleteIfExists(directory);
+			throw e;
+		}
+	}
+
+	private static ServerSocketChannel bindTo(Path path, int backlog) throws IOException {
+		ServerSocketChannel serverChannel = (ServerSocketChannel) open(ServerSocketChannel.class);
+		try {
+			serverChannel.bind(address(path), backlog);
+		} catch (IOException | RuntimeException e) {
+			serverChannel.close();
+			throw e;
+		}
+		return serverChannel;
+	}
+
+	private static boolean isSocket(Path path) throws IOException {
+		try {
+			int mode = (Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+			return (mode & S_IFMT) == S_IFSOCK;
+		} catch (UnsupportedOperationException | IllegalArgumentException e) {
+			// the "unix" attribute view is not available on every platform
+			return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther();
+		}
+	}
+
+	static SocketChannel connect(Path path) throws IOException {
+		assertSupported();
+		SocketChannel channel = (SocketChannel) open(SocketChannel.class);
+		try {
+			channel.connect(address(path));
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		return channel;
+	}
+
+	private static boolean isListening(Path path) {
+		try {
+			connect(path).close();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static void assertSupported() {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException("Unix domain sockets require Java " + MIN_JAVA_VERSION + "+");
+		}
+	}
+
+	// ServerSocketChannel.open(StandardProtocolFamily.UNIX) and SocketChannel.open(StandardProtocolFamily.UNIX)
+	private static Object open(Class<?> channelClass) throws IOException {
+		ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+		try {
+			return channelClass.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new SshProxyRuntimeException("Failed to open Unix domain socket", e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new SshProxyRuntimeException("Failed to open Unix domain socket", e);
+		}
+	}
+
+	// UnixDomainSocketAddress.of(path)
+	private static SocketAddress address(Path path) {
+		try {
+			Class<?> addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+			return (SocketAddress) addressClass.getMethod("of", Path.class).invoke(null, path);
+		} catch (ReflectiveOperationException e) {
+			throw new SshProxyRuntimeException("Failed to create Unix domain socket address for " + path, e);
+		}
+	}
+}
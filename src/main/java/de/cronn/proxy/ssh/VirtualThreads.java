@@ -0,0 +1,32 @@
+package de.cronn.proxy.ssh;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+public final class VirtualThreads {
+
+	private static final int MIN_JAVA_VERSION = 21;
+
+	private VirtualThreads() {
+	}
+
+	public static boolean isSupported() {
+		return Runtime.version().feature() >= MIN_JAVA_VERSION;
+	}
+
+	public static ThreadFactory newThreadFactory(String name) {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException("Virtual threads require Java " + MIN_JAVA_VERSION + "+");
+		}
+		try {
+			// Thread.ofVirtual().name(name + "-", 1).factory()
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Method nameMethod = builderClass.getMethod("name", String.class, long.class);
+			builder = nameMethod.invoke(builder, name + "-", Long.valueOf(1));
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			throw new SshProxyRuntimeException("Failed to create virtual thread factory", e);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package de.cronn.proxy.ssh;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jcraft.jsch.Compression;
+
+public class ZlibCompression implements Compression {
+
+	private static final Logger log = LoggerFactory.getLogger(ZlibCompression.class);
+
+	// JSch appends the padding and the MAC to the returned buffer and sizes the
+	// reads of forwarded channels by the buffer length, so the buffer must only grow
+	// if necessary. The margin is the same as in the JZlib based compression of JSch.
+	private static final int BUFFER_MARGIN = 52;
+	private static final int INITIAL_BUFFER_SIZE = 32 * 1024;
+
+	private Deflater deflater;
+	private Inflater inflater;
+	private byte[] outputBuffer = new byte[INITIAL_BUFFER_SIZE];
+
+	@Override
+	public void init(int type, int level) {
+		if (type == DEFLATER) {
+			deflater = new Deflater(level);
+		} else if (type == INFLATER) {
+			inflater = new Inflater();
+		} else {
+			throw new IllegalArgumentException("Unknown compression type: " + type);
+		}
+	}
+
+	// not annotated with @Override, since older JSch versions do not release compressions
+	public void end() {
+		if (deflater != null) {
+			deflater.end();
+		}
+		if (inflater != null) {
+			inflater.end();
+		}
+	}
+
+	@Override
+	public byte[] compress(byte[] buf, int start, int[] len) {
+		long startNanos = System.nanoTime();
+		int uncompressedBytes = len[0] - start;
+		deflater.setInput(buf, start, uncompressedBytes);
+		int compressedBytes = 0;
+		while (true) {
+			compressedBytes += deflater.deflate(outputBuffer, compressedBytes, outputBuffer.length - compressedBytes, Deflater.SYNC_FLUSH);
+			if (compressedBytes < outputBuffer.length) {
+				break;
+			}
+			outputBuffer = Arrays.copyOf(outputBuffer, outputBuffer.length * 2);
+		}
+		len[0] = start + compressedBytes;
+		byte[] result = copyOutput(buf, start, compressedBytes);
+		compressed(uncompressedBytes, compressedBytes, System.nanoTime() - startNanos);
+		return result;
+	}
+
+	@Override
+	public byte[] uncompress(byte[] buf, int start, int[] len) {
+		inflater.setInput(buf, start, len[0]);
+		int uncompressedBytes = 0;
+		try {
+			while (true) {
+				if (uncompressedBytes == outputBuffer.length) {
+					outputBuffer = Arrays.copyOf(outputBuffer, outputBuffer.length * 2);
+				}
+				int inflated = inflater.inflate(outputBuffer, uncompressedBytes, outputBuffer.length - uncompressedBytes);
+				uncompressedBytes += inflated;
+				if (uncompressedBytes < outputBuffer.length && inflater.needsInput()) {
+					break;
+				}
+				if (inflated == 0 && uncompressedBytes < outputBuffer.length) {
+					log.error("Failed to uncompress SSH packet: unexpected end of compressed stream");
+					return null;
+				}
+			}
+		} catch (DataFormatException e) {
+			log.error("Failed to uncompress SSH packet", e);
+			return null;
+		}
+
+		len[0] = uncompressedBytes;
+		return copyOutput(buf, start, uncompressedBytes);
+	}
+
+	private byte[] copyOutput(byte[] buf, int start, int length) {
+		byte[] result = buf;
+		if (buf.length < start + length + BUFFER_MARGIN) {
+			result = Arrays.copyOf(buf, (start + length + BUFFER_MARGIN) * 2);
+		}
+		System.arraycopy(outputBuffer, 0, result, start, length);
+		return result;
+	}
+
+	protected void compressed(int uncompressedBytes, int compressedBytes, long nanos) {
+	}
+
+	protected Deflater getDeflater() {
+		return deflater;
+	}
+}
@@ -0,0 +1,59 @@
+package de.cronn.proxy.ssh.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+public final class FileStamp {
+
+	private final Path path;
+	private final long lastModifiedMillis;
+	private final long size;
+
+	private FileStamp(Path path, long lastModifiedMillis, long size) {
+		this.path = path;
+		this.lastModifiedMillis = lastModifiedMillis;
+		this.size = size;
+	}
+
+	public static FileStamp of(Path path) throws IOException {
+		Path absolutePath = path.toAbsolutePath();
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(absolutePath, BasicFileAttributes.class);
+			return new FileStamp(absolutePath, attributes.lastModifiedTime().toMillis(), attributes.size());
+		} catch (NoSuchFileException e) {
+			return new FileStamp(absolutePath, -1, -1);
+		}
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o == null || getClass() != o.getClass()) {
+			return false;
+		}
+		FileStamp that = (FileStamp) o;
+		return lastModifiedMillis == that.lastModifiedMillis
+			&& size == that.size
+			&& path.equals(that.path);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(path, Long.valueOf(lastModifiedMillis), Long.valueOf(size));
+	}
+
+	@Override
+	public String toString() {
+		return path + " (modified: " + lastModifiedMillis + ", size: " + size + ")";
+	}
+}
@@ -0,0 +1,68 @@
+package de.cronn.proxy.ssh;
+
+import static de.cronn.proxy.ssh.ZlibCompressionTest.*;
+import static org.assertj.core.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.jcraft.jsch.Compression;
+
+class AdaptiveZlibCompressionTest {
+
+	private static final int PACKET_SIZE = 32 * 1024;
+	private static final int PACKETS_PER_SAMPLE = (int) (AdaptiveZlibCompression.SAMPLE_BYTES / PACKET_SIZE);
+
+	private AdaptiveZlibCompression deflater;
+	private ZlibCompression inflater;
+
+	@BeforeEach
+	void setUp() {
+		deflater = new AdaptiveZlibCompression();
+		deflater.init(Compression.DEFLATER, 1);
+		inflater = new ZlibCompression();
+		inflater.init(Compression.INFLATER, 0);
+	}
+
+	@AfterEach
+	void tearDown() {
+		deflater.end();
+		inflater.end();
+	}
+
+	@Test
+	void testCompressibleTrafficIsCompressed() throws Exception {
+		byte[] data = compressibleData(PACKET_SIZE);
+		for (int i = 0; i < 2 * PACKETS_PER_SAMPLE; i++) {
+			roundTrip(data);
+		}
+
+		assertThat(roundTrip(data)).isLessThan(PACKET_SIZE / 10);
+	}
+
+	@Test
+	void testCompressionIsDisabledForIncompressibleTraffic() throws Exception {
+		for (int i = 0; i < PACKETS_PER_SAMPLE; i++) {
+			roundTrip(randomData(PACKET_SIZE, i));
+		}
+
+		byte[] data = compressibleData(PACKET_SIZE);
+		// the new level applies after the pending input is flushed
+		roundTrip(data);
+		assertThat(roundTrip(data)).isGreaterThanOrEqualTo(PACKET_SIZE);
+
+		for (int i = 0; i < AdaptiveZlibCompression.UNCOMPRESSED_SAMPLES * PACKETS_PER_SAMPLE; i++) {
+			roundTrip(data);
+		}
+
+		roundTrip(data);
+		assertThat(roundTrip(data)).isLessThan(PACKET_SIZE / 10);
+	}
+
+	private int roundTrip(byte[] data) {
+		byte[] compressed = compress(deflater, data);
+		assertThat(uncompress(inflater, compressed)).isEqualTo(data);
+		return compressed.length;
+	}
+}
@@ -0,0 +1,58 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class AddressResolverTest {
+
+	@Test
+	void testAddressesAreCached() throws Exception {
+		AtomicInteger lookups = new AtomicInteger();
+		AddressResolver addressResolver = new AddressResolver(60_000, host -> {
+			lookups.incrementAndGet();
+			return new InetAddress[] { InetAddress.getByName("192.0.2.1"), InetAddress.getByName("2001:db8::1") };
+		});
+
+		assertThat(addressResolver.resolve("bastion")).containsExactly(InetAddress.getByName("192.0.2.1"), InetAddress.getByName("2001:db8::1"));
+		assertThat(addressResolver.resolve("bastion")).hasSize(2);
+		assertThat(lookups).hasValue(1);
+
+		addressResolver.resolve("other");
+		assertThat(lookups).hasValue(2);
+	}
+
+	@Test
+	void testExpiredAddressesAreResolvedAgain() throws Exception {
+		AtomicInteger lookups = new AtomicInteger();
+		AddressResolver addressResolver = new AddressResolver(0, host -> {
+			lookups.incrementAndGet();
+			return new InetAddress[] { InetAddress.getByName("192.0.2.1") };
+		});
+
+		addressResolver.resolve("bastion");
+		addressResolver.resolve("bastion");
+		assertThat(lookups).hasValue(2);
+	}
+
+	@Test
+	void testFailuresAreNotCached() throws Exception {
+		AtomicInteger lookups = new AtomicInteger();
+		AddressResolver addressResolver = new AddressResolver(60_000, host -> {
+			if (lookups.incrementAndGet() == 1) {
+				throw new UnknownHostException(host);
+			}
+			return new InetAddress[] { InetAddress.getByName("192.0.2.1") };
+		});
+
+		assertThatExceptionOfType(UnknownHostException.class)
+			.isThrownBy(() -> addressResolver.resolve("bastion"))
+			.withMessage("bastion");
+		assertThat(addressResolver.resolve("bastion")).containsExactly(InetAddress.getByName("192.0.2.1"));
+		assertThat(lookups).hasValue(2);
+	}
+}
@@ -0,0 +1,138 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.jcraft.jsch.Session;
+
+class ChannelLimitsTest {
+
+	@Test
+	void testUnlimited() throws Exception {
+		ChannelLimits.Limiter limiter = ChannelLimits.UNLIMITED.forSession(mock(Session.class));
+
+		for (int i = 0; i < 100; i++) {
+			assertThat(limiter.acquire(0)).isTrue();
+		}
+		assertThat(limiter.hasCapacity()).isTrue();
+		limiter.release();
+	}
+
+	@Test
+	void testLimiterPerSession() {
+		ChannelLimits channelLimits = new ChannelLimits(2, 1);
+		Session session = mock(Session.class);
+
+		assertThat(channelLimits.forSession(session)).isSameAs(channelLimits.forSession(session));
+		assertThat(channelLimits.forSession(session)).isNotSameAs(channelLimits.forSession(mock(Session.class)));
+	}
+
+	@Test
+	void testLimiterIsSharedBetweenProxies() throws Exception {
+		Session session = mock(Session.class);
+		ChannelLimits.Limiter limiter = new ChannelLimits(1, 0).forSession(session);
+
+		assertThat(new ChannelLimits(1, 0).forSession(session)).isSameAs(limiter);
+		assertThat(limiter.acquire(100)).isTrue();
+		assertThat(new ChannelLimits(1, 0).forSession(session).acquire(100)).isFalse();
+		limiter.release();
+	}
+
+	@Test
+	void testWaitingChannelsAreHandedOverInOrder() {
+		ChannelLimits.Limiter limiter = new ChannelLimits(2, 2).forSession(mock(Session.class));
+		List<String> acquired = new ArrayList<>();
+
+		assertThat(limiter.acquire(() -> acquired.add("first"))).isTrue();
+		assertThat(limiter.acquire(() -> acquired.add("second"))).isTrue();
+		assertThat(limiter.hasCapacity()).isFalse();
+		assertThat(limiter.acquire(() -> acquired.add("third"))).isTrue();
+		assertThat(limiter.acquire(() -> acquired.add("fourth"))).isTrue();
+		assertThat(limiter.acquire(() -> acquired.add("fifth"))).isFalse();
+
+		assertThat(acquired).containsExactly("first", "second");
+		assertThat(limiter.getQueuedChannels()).isEqualTo(2);
+
+		limiter.release();
+		assertThat(acquired).containsExactly("first", "second", "third");
+		assertThat(limiter.getOpenChannels()).isEqualTo(2);
+
+		limiter.release();
+		limiter.release();
+		limiter.release();
+		assertThat(acquired).containsExactly("first", "second", "third", "fourth");
+		assertThat(limiter.getOpenChannels()).isZero();
+		assertThat(limiter.getQueuedChannels()).isZero();
+
+		assertThatExceptionOfType(IllegalArgumentException.class)
+			.isThrownBy(limiter::release)
+			.withMessage("no channel is open");
+	}
+
+	@Test
+	void testWaitTimesOut() throws Exception {
+		ChannelLimits.Limiter limiter = new ChannelLimits(1, 1).forSession(mock(Session.class));
+
+		assertThat(limiter.acquire(100)).isTrue();
+		assertThat(limiter.acquire(100)).isFalse();
+		assertThat(limiter.getQueuedChannels()).isZero();
+
+		limiter.release();
+		assertThat(limiter.getOpenChannels()).isZero();
+	}
+
+	@Test
+	void testWaitingChannelIsGrantedByRelease() throws Exception {
+		ChannelLimits.Limiter limiter = new ChannelLimits(1, 1).forSession(mock(Session.class));
+		assertThat(limiter.acquire(0)).isTrue();
+
+		Thread releaser = new Thread(() -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			limiter.release();
+		});
+		releaser.start();
+
+		assertThat(limiter.acquire(10_000)).isTrue();
+		releaser.join();
+		assertThat(limiter.getOpenChannels()).isEqualTo(1);
+	}
+
+	@Test
+	void testWaitWithoutTimeout() throws Exception {
+		ChannelLimits.Limiter limiter = new ChannelLimits(1, 1).forSession(mock(Session.class));
+		assertThat(limiter.acquire(0)).isTrue();
+
+		Thread releaser = new Thread(() -> {
+			try {
+				Thread.sleep(200);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			limiter.release();
+		});
+		releaser.start();
+
+		long startNanos = System.nanoTime();
+		assertThat(limiter.acquire(0)).isTrue();
+		assertThat(System.nanoTime() - startNanos).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+		releaser.join();
+		assertThat(limiter.getOpenChannels()).isEqualTo(1);
+	}
+
+	@Test
+	void testIllegalLimits() {
+		assertThatExceptionOfType(IllegalArgumentException.class)
+			.isThrownBy(() -> new ChannelLimits(-1, 0))
+			.withMessage("illegal max channels: -1");
+	}
+}
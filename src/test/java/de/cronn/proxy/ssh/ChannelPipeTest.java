@@ -0,0 +1,82 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ChannelPipeTest {
+
+	@Test
+	void testReadWrittenBytes() throws Exception {
+		ChannelPipe pipe = new ChannelPipe();
+		OutputStream outputStream = pipe.getOutputStream();
+		InputStream inputStream = pipe.getInputStream();
+
+		outputStream.write(new byte[] { 1, 2, 3 });
+		outputStream.write(4);
+
+		assertThat(inputStream.available()).isEqualTo(4);
+		byte[] buffer = new byte[10];
+		assertThat(inputStream.read(buffer)).isEqualTo(4);
+		assertThat(buffer).startsWith(1, 2, 3, 4);
+	}
+
+	@Test
+	void testEndOfStreamAfterWriterClosed() throws Exception {
+		ChannelPipe pipe = new ChannelPipe();
+		pipe.getOutputStream().write(42);
+		pipe.getOutputStream().close();
+
+		InputStream inputStream = pipe.getInputStream();
+		assertThat(inputStream.read()).isEqualTo(42);
+		assertThat(inputStream.read()).isEqualTo(-1);
+	}
+
+	@Test
+	void testReadTimeout() {
+		ChannelPipe pipe = new ChannelPipe();
+		pipe.setReadTimeoutMillis(50);
+
+		assertThatExceptionOfType(SocketTimeoutException.class)
+			.isThrownBy(() -> pipe.getInputStream().read())
+			.withMessage("Read timed out");
+	}
+
+	@Test
+	void testWriteAfterReaderClosed() {
+		ChannelPipe pipe = new ChannelPipe();
+		pipe.getInputStream().close();
+
+		assertThatExceptionOfType(IOException.class)
+			.isThrownBy(() -> pipe.getOutputStream().write(1))
+			.withMessage("Pipe closed");
+	}
+
+	@Test
+	void testTransferLargerThanInitialBuffer() throws Exception {
+		byte[] data = new byte[3 * 1024 * 1024];
+		new Random(0).nextBytes(data);
+
+		ChannelPipe pipe = new ChannelPipe();
+		Thread writer = new Thread(() -> {
+			try (OutputStream outputStream = pipe.getOutputStream()) {
+				outputStream.write(data);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		writer.start();
+
+		byte[] received = pipe.getInputStream().readAllBytes();
+		writer.join();
+
+		assertThat(received).isEqualTo(data);
+	}
+
+}
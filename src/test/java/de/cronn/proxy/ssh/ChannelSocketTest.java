@@ -0,0 +1,74 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.Session;
+
+import de.cronn.proxy.ssh.SshSessionPool.PooledSession;
+
+@ExtendWith(MockitoExtension.class)
+class ChannelSocketTest {
+
+	private static final SessionKey SESSION_KEY = new SessionKey("user", "jumphost", 22, null);
+
+	@Mock
+	private Session session;
+
+	@Mock
+	private Channel channel;
+
+	@Mock
+	private SshProxy sshProxy;
+
+	private final SshSessionPool sessionPool = new SshSessionPool();
+
+	@Test
+	void testConnectWithoutTimeout() throws Exception {
+		when(session.getStreamForwarder("target", 1234)).thenReturn(channel);
+
+		try (ChannelSocket socket = createChannelSocket()) {
+			socket.connect(InetSocketAddress.createUnresolved("target", 1234), 0);
+			assertThat(socket.isConnected()).isTrue();
+		}
+
+		verify(channel).connect(0);
+		verify(channel).disconnect();
+		assertThat(sessionPool.size()).isZero();
+	}
+
+	@Test
+	void testConnectWithNegativeTimeout() throws Exception {
+		try (ChannelSocket socket = createChannelSocket()) {
+			assertThatIllegalArgumentException()
+				.isThrownBy(() -> socket.connect(InetSocketAddress.createUnresolved("target", 1234), -1));
+		}
+	}
+
+	@Test
+	void testSocketFactoryAppliesConnectTimeout() throws Exception {
+		when(session.getStreamForwarder("target", 1234)).thenReturn(channel);
+		when(sshProxy.createSocket("jumphost")).thenReturn(createChannelSocket());
+
+		SshProxySocketFactory socketFactory = new SshProxySocketFactory(sshProxy, "jumphost", 5000);
+		try (Socket socket = socketFactory.createSocket("target", 1234)) {
+			assertThat(socket.isConnected()).isTrue();
+		}
+
+		verify(channel).connect(5000);
+	}
+
+	private ChannelSocket createChannelSocket() {
+		return new ChannelSocket(targetHost -> sessionPool.acquire(SESSION_KEY, () -> new PooledSession(session)), socket -> {});
+	}
+
+}
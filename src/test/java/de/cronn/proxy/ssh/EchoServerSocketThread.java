@@ -0,0 +1,58 @@
+package de.cronn.proxy.ssh;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public final class EchoServerSocketThread extends Thread implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(EchoServerSocketThread.class);
+
+	private final ServerSocket serverSocket;
+
+	public EchoServerSocketThread() throws IOException {
+		super(EchoServerSocketThread.class.getSimpleName());
+		this.serverSocket = new ServerSocket();
+		serverSocket.bind(new InetSocketAddress("localhost", 0));
+		log.info("Listening on local port {}", serverSocket.getLocalPort());
+		setDaemon(true);
+		start();
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+	}
+
+	@Override
+	public void run() {
+		while (!serverSocket.isClosed()) {
+			Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				return;
+			}
+			Thread echoThread = new Thread(() -> echo(socket), "echo-" + socket.getPort());
+			echoThread.setDaemon(true);
+			echoThread.start();
+		}
+	}
+
+	private static void echo(Socket socket) {
+		try (Socket s = socket) {
+			s.getInputStream().transferTo(s.getOutputStream());
+		} catch (IOException e) {
+			log.debug("echo connection closed: {}", e.getMessage());
+		}
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+}
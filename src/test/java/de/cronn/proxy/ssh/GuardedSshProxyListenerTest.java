@@ -0,0 +1,41 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class GuardedSshProxyListenerTest {
+
+	@Mock
+	private SshProxyListener listener;
+
+	@Test
+	void testNoOpListenerIsNotWrapped() {
+		assertThat(GuardedSshProxyListener.wrap(SshProxyListener.NO_OP)).isSameAs(SshProxyListener.NO_OP);
+	}
+
+	@Test
+	void testGuardedListenerIsNotWrappedTwice() {
+		SshProxyListener guardedListener = GuardedSshProxyListener.wrap(listener);
+
+		assertThat(guardedListener).isNotSameAs(listener);
+		assertThat(GuardedSshProxyListener.wrap(guardedListener)).isSameAs(guardedListener);
+	}
+
+	@Test
+	void testExceptionsOfListenerAreNotPropagated() {
+		doThrow(new IllegalStateException("listener failure")).when(listener).sessionClosed("host", Duration.ofSeconds(1));
+
+		SshProxyListener guardedListener = GuardedSshProxyListener.wrap(listener);
+
+		assertThatCode(() -> guardedListener.sessionClosed("host", Duration.ofSeconds(1))).doesNotThrowAnyException();
+		verify(listener).sessionClosed("host", Duration.ofSeconds(1));
+	}
+}
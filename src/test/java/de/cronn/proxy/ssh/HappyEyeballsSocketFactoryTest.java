@@ -0,0 +1,87 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class HappyEyeballsSocketFactoryTest {
+
+	@Test
+	void testAddressFamiliesAreInterleaved() throws Exception {
+		InetAddress ipv6First = InetAddress.getByName("2001:db8::1");
+		InetAddress ipv6Second = InetAddress.getByName("2001:db8::2");
+		InetAddress ipv4First = InetAddress.getByName("192.0.2.1");
+		InetAddress ipv4Second = InetAddress.getByName("192.0.2.2");
+		InetAddress ipv4Third = InetAddress.getByName("192.0.2.3");
+
+		List<InetAddress> sorted = HappyEyeballsSocketFactory.sortAddresses(Arrays.asList(ipv6First, ipv6Second, ipv4First, ipv4Second, ipv4Third));
+		assertThat(sorted).containsExactly(ipv6First, ipv4First, ipv6Second, ipv4Second, ipv4Third);
+
+		sorted = HappyEyeballsSocketFactory.sortAddresses(Arrays.asList(ipv4First, ipv6First, ipv4Second));
+		assertThat(sorted).containsExactly(ipv4First, ipv6First, ipv4Second);
+	}
+
+	@Test
+	void testUnreachableAddressIsSkipped() throws Exception {
+		try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))) {
+			// nothing listens on the second loopback address
+			AddressResolver addressResolver = new AddressResolver(0,
+				host -> new InetAddress[] { InetAddress.getByName("127.0.0.2"), InetAddress.getByName("127.0.0.1") });
+			HappyEyeballsSocketFactory socketFactory = new HappyEyeballsSocketFactory(addressResolver, 10_000, 0, 50);
+
+			try (Socket socket = socketFactory.createSocket("dual-homed", serverSocket.getLocalPort())) {
+				assertThat(socket.isConnected()).isTrue();
+				assertThat(socket.getInetAddress()).isEqualTo(InetAddress.getByName("127.0.0.1"));
+			}
+		}
+	}
+
+	@Test
+	void testWithoutTimeout() throws Exception {
+		try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))) {
+			AddressResolver addressResolver = new AddressResolver(0,
+				host -> new InetAddress[] { InetAddress.getByName("127.0.0.2"), InetAddress.getByName("127.0.0.1") });
+			HappyEyeballsSocketFactory socketFactory = new HappyEyeballsSocketFactory(addressResolver, 0, 0, 50);
+
+			try (Socket socket = socketFactory.createSocket("dual-homed", serverSocket.getLocalPort())) {
+				assertThat(socket.isConnected()).isTrue();
+				assertThat(socket.getInetAddress()).isEqualTo(InetAddress.getByName("127.0.0.1"));
+			}
+		}
+	}
+
+	@Test
+	void testAllAddressesFail() throws Exception {
+		int port;
+		try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))) {
+			port = serverSocket.getLocalPort();
+		}
+		AddressResolver addressResolver = new AddressResolver(0,
+			host -> new InetAddress[] { InetAddress.getByName("127.0.0.1"), InetAddress.getByName("::1") });
+		HappyEyeballsSocketFactory socketFactory = new HappyEyeballsSocketFactory(addressResolver, 10_000, 0, 50);
+
+		assertThatExceptionOfType(ConnectException.class)
+			.isThrownBy(() -> socketFactory.createSocket("closed", port));
+	}
+
+	@Test
+	void testSingleAddress() throws Exception {
+		try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))) {
+			AddressResolver addressResolver = new AddressResolver(0, host -> new InetAddress[] { InetAddress.getByName("127.0.0.1") });
+			HappyEyeballsSocketFactory socketFactory = new HappyEyeballsSocketFactory(addressResolver, 10_000, 64 * 1024, 50);
+
+			try (Socket socket = socketFactory.createSocket("localhost", serverSocket.getLocalPort())) {
+				assertThat(socket.isConnected()).isTrue();
+				assertThat(socketFactory.getInputStream(socket)).isNotNull();
+				assertThat(socketFactory.getOutputStream(socket)).isNotNull();
+			}
+		}
+	}
+}
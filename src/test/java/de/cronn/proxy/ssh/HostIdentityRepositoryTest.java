@@ -0,0 +1,54 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+import java.util.Vector;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.jcraft.jsch.Identity;
+import com.jcraft.jsch.IdentityRepository;
+
+@ExtendWith(MockitoExtension.class)
+class HostIdentityRepositoryTest {
+
+	@Mock
+	private IdentityRepository identityRepository;
+
+	@Mock
+	private Identity defaultIdentity;
+
+	@Mock
+	private Identity hostIdentity;
+
+	@Mock
+	private Identity otherHostIdentity;
+
+	@Test
+	void testHostIdentitiesAreOfferedFirst() {
+		when(identityRepository.getIdentities()).thenReturn(new Vector<>(List.of(defaultIdentity, otherHostIdentity, hostIdentity)));
+
+		HostIdentityRepository hostIdentityRepository = new HostIdentityRepository(List.of(hostIdentity), identityRepository);
+
+		assertThat(hostIdentityRepository.getIdentities()).containsExactly(hostIdentity, defaultIdentity, otherHostIdentity);
+	}
+
+	@Test
+	void testChangesAreDelegated() {
+		when(identityRepository.getStatus()).thenReturn(IdentityRepository.RUNNING);
+
+		HostIdentityRepository hostIdentityRepository = new HostIdentityRepository(List.of(hostIdentity), identityRepository);
+
+		assertThat(hostIdentityRepository.getStatus()).isEqualTo(IdentityRepository.RUNNING);
+		hostIdentityRepository.remove(new byte[] { 1 });
+		hostIdentityRepository.removeAll();
+		verify(identityRepository).remove(new byte[] { 1 });
+		verify(identityRepository).removeAll();
+	}
+
+}
@@ -0,0 +1,66 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.jcraft.jsch.Identity;
+import com.jcraft.jsch.JSchException;
+
+class IdentityCacheTest {
+
+	private static final Path TEST_RESOURCES = Paths.get("src", "test", "resources");
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	@SuppressWarnings("deprecation")
+	void testIdentityIsLoadedOnce() throws Exception {
+		Path keyFile = copyKeyFile();
+
+		Identity identity = IdentityCache.getIdentity(keyFile);
+
+		assertThat(IdentityCache.getIdentity(keyFile)).isSameAs(identity);
+		assertThat(identity.getName()).isEqualTo(keyFile.toAbsolutePath().toString());
+		assertThat(identity.getAlgName()).isEqualTo("ssh-rsa");
+		assertThat(identity.isEncrypted()).isFalse();
+		assertThat(identity.decrypt()).isTrue();
+		assertThat(identity.getPublicKeyBlob()).isNotEmpty();
+		assertThat(identity.getSignature(new byte[] { 1, 2, 3 })).isNotEmpty();
+	}
+
+	@Test
+	void testIdentityIsReloadedAfterChange() throws Exception {
+		Path keyFile = copyKeyFile();
+		Identity identity = IdentityCache.getIdentity(keyFile);
+
+		Files.setLastModifiedTime(keyFile, FileTime.fromMillis(Files.getLastModifiedTime(keyFile).toMillis() + 1000));
+
+		Identity reloadedIdentity = IdentityCache.getIdentity(keyFile);
+		assertThat(reloadedIdentity).isNotSameAs(identity);
+		assertThat(reloadedIdentity.getPublicKeyBlob()).isEqualTo(identity.getPublicKeyBlob());
+	}
+
+	@Test
+	void testMissingKeyFile() {
+		Path keyFile = tempDir.resolve("does-not-exist");
+
+		assertThatExceptionOfType(JSchException.class)
+			.isThrownBy(() -> IdentityCache.getIdentity(keyFile));
+	}
+
+	private Path copyKeyFile() throws Exception {
+		Path keyFile = tempDir.resolve("id_rsa");
+		Files.copy(TEST_RESOURCES.resolve("id_rsa"), keyFile);
+		Files.copy(TEST_RESOURCES.resolve("id_rsa.pub"), tempDir.resolve("id_rsa.pub"));
+		return keyFile;
+	}
+
+}
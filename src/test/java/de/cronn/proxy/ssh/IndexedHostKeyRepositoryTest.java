@@ -0,0 +1,132 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.jcraft.jsch.HostKey;
+import com.jcraft.jsch.HostKeyRepository;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.KeyPair;
+
+class IndexedHostKeyRepositoryTest {
+
+	@TempDir
+	Path tempDir;
+
+	private byte[] rsaKey;
+	private byte[] otherRsaKey;
+	private byte[] ecDsaKey;
+
+	private HostKeyRepository knownHosts;
+	private IndexedHostKeyRepository indexedHostKeyRepository;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		JSch jsch = new JSch();
+		rsaKey = KeyPair.genKeyPair(jsch, KeyPair.RSA, 1024).getPublicKeyBlob();
+		otherRsaKey = KeyPair.genKeyPair(jsch, KeyPair.RSA, 1024).getPublicKeyBlob();
+		ecDsaKey = KeyPair.genKeyPair(jsch, KeyPair.ECDSA, 256).getPublicKeyBlob();
+
+		Path knownHostsFile = tempDir.resolve("known_hosts");
+		Files.writeString(knownHostsFile, String.join("\n",
+			"# comment",
+			"plain-host,alias-host " + entry("ssh-rsa", rsaKey),
+			"plain-host " + entry("ecdsa-sha2-nistp256", ecDsaKey),
+			"[plain-host]:2222 " + entry("ssh-rsa", otherRsaKey),
+			hashedHost("hashed-host") + " " + entry("ecdsa-sha2-nistp256", ecDsaKey),
+			hashedHost("[hashed-host]:2222") + " " + entry("ssh-rsa", otherRsaKey),
+			hashedHost("changed-host") + " " + entry("ssh-rsa", otherRsaKey),
+			""), StandardCharsets.ISO_8859_1);
+
+		jsch.setKnownHosts(knownHostsFile.toString());
+		knownHosts = jsch.getHostKeyRepository();
+		indexedHostKeyRepository = new IndexedHostKeyRepository(knownHosts);
+	}
+
+	@Test
+	void testCheck() throws Exception {
+		assertCheck("plain-host", rsaKey, HostKeyRepository.OK);
+		assertCheck("alias-host", rsaKey, HostKeyRepository.OK);
+		assertCheck("plain-host", ecDsaKey, HostKeyRepository.OK);
+		assertCheck("plain-host", otherRsaKey, HostKeyRepository.CHANGED);
+		assertCheck("[plain-host]:2222", otherRsaKey, HostKeyRepository.OK);
+		assertCheck("[plain-host]:2222", rsaKey, HostKeyRepository.CHANGED);
+		assertCheck("[plain-host]:2222", ecDsaKey, HostKeyRepository.OK);
+		assertCheck("[alias-host]:2222", rsaKey, HostKeyRepository.OK);
+		assertCheck("hashed-host", ecDsaKey, HostKeyRepository.OK);
+		assertCheck("hashed-host", rsaKey, HostKeyRepository.NOT_INCLUDED);
+		assertCheck("[hashed-host]:2222", otherRsaKey, HostKeyRepository.OK);
+		assertCheck("[hashed-host]:2222", ecDsaKey, HostKeyRepository.OK);
+		assertCheck("changed-host", rsaKey, HostKeyRepository.CHANGED);
+		assertCheck("unknown-host", rsaKey, HostKeyRepository.NOT_INCLUDED);
+		assertCheck(null, rsaKey, HostKeyRepository.NOT_INCLUDED);
+	}
+
+	@Test
+	void testGetHostKey() throws Exception {
+		assertGetHostKey("plain-host", null, 2);
+		assertGetHostKey("plain-host", "ssh-rsa", 1);
+		assertGetHostKey("plain-host", "ecdsa-sha2-nistp256", 1);
+		assertGetHostKey("plain-host", "ecdsa-sha2-nistp384", 0);
+		assertGetHostKey("alias-host", "ssh-rsa", 1);
+		assertGetHostKey("[plain-host]:2222", null, 3);
+		assertGetHostKey("[plain-host]:2222", "ssh-rsa", 2);
+		assertGetHostKey("hashed-host", "ecdsa-sha2-nistp256", 1);
+		assertGetHostKey("[hashed-host]:2222", null, 2);
+		assertGetHostKey("unknown-host", null, 0);
+
+		assertThat(indexedHostKeyRepository.getHostKey()).hasSameSizeAs(knownHosts.getHostKey());
+		assertThat(indexedHostKeyRepository.getHostKey(null, null)).hasSameSizeAs(knownHosts.getHostKey());
+		assertThat(indexedHostKeyRepository.getKnownHostsRepositoryID()).isEqualTo(knownHosts.getKnownHostsRepositoryID());
+	}
+
+	@Test
+	void testIndexIsUpdatedAfterRemove() throws Exception {
+		indexedHostKeyRepository.remove("plain-host", "ssh-rsa");
+
+		assertCheck("plain-host", rsaKey, HostKeyRepository.NOT_INCLUDED);
+		assertCheck("plain-host", ecDsaKey, HostKeyRepository.OK);
+		assertGetHostKey("plain-host", null, 1);
+	}
+
+	private void assertCheck(String host, byte[] key, int expectedResult) {
+		assertThat(indexedHostKeyRepository.check(host, key))
+			.as("check(%s)", host)
+			.isEqualTo(knownHosts.check(host, key))
+			.isEqualTo(expectedResult);
+	}
+
+	private void assertGetHostKey(String host, String type, int expectedCount) {
+		HostKey[] hostKeys = indexedHostKeyRepository.getHostKey(host, type);
+		assertThat(hostKeys)
+			.as("getHostKey(%s, %s)", host, type)
+			.hasSize(expectedCount)
+			.hasSameSizeAs(knownHosts.getHostKey(host, type));
+	}
+
+	private static String entry(String type, byte[] key) {
+		return type + " " + Base64.getEncoder().encodeToString(key);
+	}
+
+	private static String hashedHost(String host) throws Exception {
+		byte[] salt = new byte[20];
+		for (int i = 0; i < salt.length; i++) {
+			salt[i] = (byte) (host.hashCode() + i);
+		}
+		Mac mac = Mac.getInstance("HmacSHA1");
+		mac.init(new SecretKeySpec(salt, "HmacSHA1"));
+		byte[] hash = mac.doFinal(host.getBytes(StandardCharsets.UTF_8));
+		return "|1|" + Base64.getEncoder().encodeToString(salt) + "|" + Base64.getEncoder().encodeToString(hash);
+	}
+}
@@ -1,16 +1,24 @@
 package de.cronn.proxy.ssh;
 
 import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ConfigRepository.Config;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.Session;
 
 class JSchHelperTest {
 
 	@Test
 	void testHostKeysPreferEcdsa() throws Exception {
-		JSchHelper.reconfigureServerHostKeyOrder(JSchHelper.ServerHostKeySortOrder.PREFER_ECDSA);
 		List<HostKeyType> expectedHostKeys = List.of(//
 			HostKeyType.ECDSA256, //
 			HostKeyType.ECDSA384, //
@@ -18,12 +26,11 @@ class JSchHelperTest {
 			HostKeyType.SSH_RSA, //
 			HostKeyType.SSH_DSS //
 		);
-		assertThat(JSchHelper.getServerHostKeys()).isEqualTo(expectedHostKeys);
+		assertThat(JSchHelper.getServerHostKeys(JSchHelper.ServerHostKeySortOrder.PREFER_ECDSA)).isEqualTo(expectedHostKeys);
 	}
 
 	@Test
 	void testHostKeysPreferRsa() throws Exception {
-		JSchHelper.reconfigureServerHostKeyOrder(JSchHelper.ServerHostKeySortOrder.PREFER_RSA);
 		List<HostKeyType> expectedHostKeys = List.of(//
 			HostKeyType.SSH_RSA, //
 			HostKeyType.ECDSA256, //
@@ -31,7 +38,177 @@ class JSchHelperTest {
 			HostKeyType.ECDSA521, //
 			HostKeyType.SSH_DSS //
 		);
-		assertThat(expectedHostKeys).isEqualTo(JSchHelper.getServerHostKeys());
+		assertThat(expectedHostKeys).isEqualTo(JSchHelper.getServerHostKeys(JSchHelper.ServerHostKeySortOrder.PREFER_RSA));
+	}
+
+	@Test
+	void testServerHostKeyOrderIsPrecomputed() throws Exception {
+		String hostKeyOrder = JSchHelper.getServerHostKeyOrder(JSchHelper.ServerHostKeySortOrder.PREFER_ECDSA);
+
+		assertThat(hostKeyOrder).isEqualTo("ecdsa-sha2-nistp256,ecdsa-sha2-nistp384,ecdsa-sha2-nistp521,ssh-rsa,ssh-dss");
+		assertThat(JSchHelper.getServerHostKeyOrder(JSchHelper.ServerHostKeySortOrder.PREFER_ECDSA)).isSameAs(hostKeyOrder);
+	}
+
+	@Test
+	void testServerHostKeyOrderFollowsGlobalConfig() throws Exception {
+		String serverHostKey = JSch.getConfig("server_host_key");
+		try {
+			JSch.setConfig("server_host_key", "ssh-dss,ssh-rsa,ecdsa-sha2-nistp256");
+
+			assertThat(JSchHelper.getServerHostKeyOrder(JSchHelper.ServerHostKeySortOrder.PREFER_ECDSA)).isEqualTo("ecdsa-sha2-nistp256,ssh-rsa,ssh-dss");
+		} finally {
+			JSch.setConfig("server_host_key", serverHostKey);
+		}
+		assertThat(JSchHelper.getServerHostKeyOrder(JSchHelper.ServerHostKeySortOrder.PREFER_ECDSA))
+			.isEqualTo("ecdsa-sha2-nistp256,ecdsa-sha2-nistp384,ecdsa-sha2-nistp521,ssh-rsa,ssh-dss");
+	}
+
+	@Test
+	void testConfigureServerHostKeyOrder() throws Exception {
+		List<HostKeyType> globalHostKeys = JSchHelper.getServerHostKeys();
+		Session session = mock(Session.class);
+
+		JSchHelper.configureServerHostKeyOrder(session, JSchHelper.ServerHostKeySortOrder.PREFER_RSA);
+
+		verify(session).setConfig("server_host_key", "ssh-rsa,ecdsa-sha2-nistp256,ecdsa-sha2-nistp384,ecdsa-sha2-nistp521,ssh-dss");
+		assertThat(JSchHelper.getServerHostKeys()).isEqualTo(globalHostKeys);
+	}
+
+	@Test
+	void testResolveAlgorithmsWithoutPreferencesAndHostConfig() throws Exception {
+		assertThat(JSchHelper.resolveAlgorithms("cipher.c2s", List.of(), null, algorithm -> true)).isNull();
+	}
+
+	@Test
+	void testResolveAlgorithmsPrefersProfile() throws Exception {
+		String resolved = JSchHelper.resolveAlgorithms("cipher.c2s", List.of("aes256-ctr", "new-cipher"), null, algorithm -> true);
+
+		assertThat(split(resolved)).startsWith("aes256-ctr", "new-cipher").containsAll(getDefaultCiphers()).doesNotHaveDuplicates();
+	}
+
+	@Test
+	void testResolveAlgorithmsSkipsUnsupported() throws Exception {
+		String resolved = JSchHelper.resolveAlgorithms("cipher.c2s", List.of("new-cipher", "aes256-ctr"), null, algorithm -> !algorithm.equals("new-cipher"));
+
+		assertThat(split(resolved)).startsWith("aes256-ctr").doesNotContain("new-cipher");
+	}
+
+	@Test
+	void testResolveAlgorithmsFallsBackToDefaultsIfNothingIsSupported() throws Exception {
+		String resolved = JSchHelper.resolveAlgorithms("cipher.c2s", List.of("new-cipher"), null, algorithm -> false);
+
+		assertThat(resolved).isEqualTo(JSch.getConfig("cipher.c2s"));
+	}
+
+	@Test
+	void testResolveAlgorithmsWithHostConfig() throws Exception {
+		List<String> preferred = List.of("aes256-ctr");
+
+		assertThat(split(JSchHelper.resolveAlgorithms("cipher.c2s", preferred, "aes128-ctr, aes256-ctr", algorithm -> true)))
+			.containsExactly("aes128-ctr", "aes256-ctr");
+		assertThat(split(JSchHelper.resolveAlgorithms("cipher.c2s", preferred, "+new-cipher", algorithm -> true)))
+			.startsWith("aes256-ctr").endsWith("new-cipher");
+		assertThat(split(JSchHelper.resolveAlgorithms("cipher.c2s", preferred, "^new-cipher", algorithm -> true)))
+			.startsWith("new-cipher", "aes256-ctr");
+		assertThat(split(JSchHelper.resolveAlgorithms("cipher.c2s", List.of(), "-aes*-cbc,aes256-ctr", algorithm -> true)))
+			.isNotEmpty()
+			.doesNotContain("aes256-ctr")
+			.noneMatch(algorithm -> algorithm.startsWith("aes") && algorithm.endsWith("-cbc"));
+	}
+
+	@Test
+	void testSupportedAlgorithms() throws Exception {
+		assertThat(JSchHelper.isCipherSupported("aes128-ctr")).isTrue();
+		assertThat(JSchHelper.isCipherSupported("no-such-cipher")).isFalse();
+		assertThat(JSchHelper.isMacSupported("hmac-sha2-256")).isTrue();
+		assertThat(JSchHelper.isMacSupported("no-such-mac")).isFalse();
+		assertThat(JSchHelper.isKexSupported("ecdh-sha2-nistp256")).isTrue();
+		assertThat(JSchHelper.isKexSupported("no-such-kex")).isFalse();
+	}
+
+	@Test
+	void testConfigureAlgorithmsWithThroughputProfile() throws Exception {
+		Session session = mock(Session.class);
+
+		JSchHelper.configureAlgorithms(session, CryptoProfile.THROUGHPUT, mock(Config.class));
+
+		ArgumentCaptor<String> ciphers = ArgumentCaptor.forClass(String.class);
+		verify(session).setConfig(eq("cipher.c2s"), ciphers.capture());
+		verify(session).setConfig("cipher.s2c", ciphers.getValue());
+		assertThat(CryptoProfile.THROUGHPUT.getPreferredCiphers()).contains(split(ciphers.getValue()).get(0));
+		verify(session).setConfig(eq("mac.c2s"), startsWith("hmac-sha2-256"));
+		verify(session).setConfig(eq("mac.s2c"), startsWith("hmac-sha2-256"));
+		verify(session, never()).setConfig(eq("kex"), anyString());
+	}
+
+	@Test
+	void testConfigureAlgorithmsWithDefaultProfile() throws Exception {
+		Session session = mock(Session.class);
+
+		Config hostConfig = mock(Config.class);
+		when(hostConfig.getValue("kex")).thenReturn("ecdh-sha2-nistp384");
+
+		JSchHelper.configureAlgorithms(session, CryptoProfile.DEFAULT, hostConfig);
+
+		verify(session).setConfig("kex", "ecdh-sha2-nistp384");
+		verifyNoMoreInteractions(session);
+	}
+
+	@Test
+	void testConfigureCompression() throws Exception {
+		Session session = mock(Session.class);
+
+		JSchHelper.configureCompression(session, 1);
+		JSchHelper.configureCompressionImplementation(session, AdaptiveZlibCompression.class);
+
+		verify(session).setConfig("compression.c2s", "zlib@openssh.com,zlib,none");
+		verify(session).setConfig("compression.s2c", "zlib@openssh.com,zlib,none");
+		verify(session).setConfig("compression_level", "1");
+		verify(session).setConfig("zlib", AdaptiveZlibCompression.class.getName());
+		verify(session).setConfig("zlib@openssh.com", AdaptiveZlibCompression.class.getName());
+		verifyNoMoreInteractions(session);
+	}
+
+	@Test
+	void testConfigureChannelSizes() throws Exception {
+		Session session = new JSch().getSession("user", "localhost", 22);
+		Channel channel = session.getStreamForwarder("localhost", 1234);
+
+		JSchHelper.configureChannelSizes(channel, 8 * 1024 * 1024, 64 * 1024);
+
+		assertThat(JSchHelper.isChannelSizeConfigurable()).isTrue();
+		assertThat(channel).extracting("lwsize_max", "lwsize", "lmpsize")
+			.containsExactly(8 * 1024 * 1024, 8 * 1024 * 1024, 64 * 1024);
+	}
+
+	@Test
+	void testLocalWindowSizeMax() throws Exception {
+		Session session = new JSch().getSession("user", "localhost", 22);
+		Channel channel = session.getStreamForwarder("localhost", 1234);
+		JSchHelper.configureChannelSizes(channel, 8 * 1024 * 1024, 0);
+		assertThat(JSchHelper.getLocalWindowSizeMax(channel)).isEqualTo(8 * 1024 * 1024);
+
+		JSchHelper.setLocalWindowSizeMax(channel, 2);
+
+		assertThat(JSchHelper.getLocalWindowSizeMax(channel)).isEqualTo(2);
+		assertThat(channel).extracting("lwsize").isEqualTo(8 * 1024 * 1024);
+	}
+
+	@Test
+	void testConfigureChannelSizes_Defaults() throws Exception {
+		Channel channel = mock(Channel.class);
+
+		JSchHelper.configureChannelSizes(channel, 0, 0);
+
+		verifyNoInteractions(channel);
+	}
+
+	private static List<String> getDefaultCiphers() {
+		return split(JSch.getConfig("cipher.c2s"));
+	}
+
+	private static List<String> split(String algorithms) {
+		return new ArrayList<>(Arrays.asList(algorithms.split(",")));
 	}
 
 }
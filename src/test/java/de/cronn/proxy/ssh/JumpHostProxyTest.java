@@ -0,0 +1,67 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.Session;
+
+@ExtendWith(MockitoExtension.class)
+class JumpHostProxyTest {
+
+	@Mock
+	private Session jumpHostSession;
+
+	@Mock
+	private Channel channel;
+
+	@Test
+	void testConnectOpensChannelToForwardingHost() throws Exception {
+		OutputStream outputStream = new ByteArrayOutputStream();
+		when(jumpHostSession.getStreamForwarder("forwarding-host", 2222)).thenReturn(channel);
+		when(channel.getOutputStream()).thenReturn(outputStream);
+
+		JumpHostProxy proxy = new JumpHostProxy(jumpHostSession, "forwarding-host", 2222);
+		proxy.connect(null, "tunnel-host", 22, 1000);
+
+		verify(channel).connect(1000);
+		ArgumentCaptor<OutputStream> channelOutput = ArgumentCaptor.forClass(OutputStream.class);
+		verify(channel).setOutputStream(channelOutput.capture());
+		channelOutput.getValue().write(42);
+		assertThat(proxy.getInputStream().read()).isEqualTo(42);
+		assertThat(proxy.getOutputStream()).isSameAs(outputStream);
+
+		proxy.close();
+		proxy.close();
+		verify(channel).disconnect();
+	}
+
+	@Test
+	void testSocketTimeoutAppliesToInputStream() throws Exception {
+		when(jumpHostSession.getStreamForwarder("forwarding-host", 2222)).thenReturn(channel);
+
+		JumpHostProxy proxy = new JumpHostProxy(jumpHostSession, "forwarding-host", 2222);
+		proxy.connect(null, "tunnel-host", 22, 1000);
+
+		Socket socket = proxy.getSocket();
+		socket.setSoTimeout(50);
+		assertThat(socket.getSoTimeout()).isEqualTo(50);
+		InputStream inputStream = proxy.getInputStream();
+		assertThatThrownBy(inputStream::read).isInstanceOf(SocketTimeoutException.class);
+
+		proxy.close();
+	}
+
+}
@@ -0,0 +1,121 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class ProxyHandshakeTest {
+
+	private static final byte[] SOCKS_GREETING = { 5, 2, 0, 2 };
+
+	@Test
+	void testSocksDomainName() throws Exception {
+		ProxyHandshake handshake = new ProxyHandshake();
+		receive(handshake, SOCKS_GREETING);
+		assertThat(handshake.next()).isEqualTo(ProxyHandshake.Step.REPLY);
+		assertThat(handshake.getReply()).containsExactly(5, 0);
+		assertThat(handshake.next()).isEqualTo(ProxyHandshake.Step.READ_MORE);
+
+		receive(handshake, new byte[] { 5, 1, 0, 3, 9, 'l', 'o', 'c', 'a', 'l', 'h', 'o', 's', 't', 0x1F, (byte) 0x90, 'x' });
+		assertThat(handshake.next()).isEqualTo(ProxyHandshake.Step.CONNECT);
+		assertThat(handshake.getHost()).isEqualTo("localhost");
+		assertThat(handshake.getPort()).isEqualTo(8080);
+		assertThat(handshake.getRemaining()).containsExactly('x');
+		assertThat(handshake.connected()).containsExactly(5, 0, 0, 1, 0, 0, 0, 0, 0, 0);
+		assertThat(handshake.failed()).containsExactly(5, 1, 0, 1, 0, 0, 0, 0, 0, 0);
+	}
+
+	@Test
+	void testSocksAddresses() throws Exception {
+		ProxyHandshake ipv4Handshake = new ProxyHandshake();
+		receive(ipv4Handshake, SOCKS_GREETING);
+		receive(ipv4Handshake, new byte[] { 5, 1, 0, 1, (byte) 192, 0, 2, 1, 0, 22 });
+		assertThat(ipv4Handshake.next()).isEqualTo(ProxyHandshake.Step.REPLY);
+		assertThat(ipv4Handshake.next()).isEqualTo(ProxyHandshake.Step.CONNECT);
+		assertThat(ipv4Handshake.getHost()).isEqualTo("192.0.2.1");
+		assertThat(ipv4Handshake.getPort()).isEqualTo(22);
+
+		ProxyHandshake ipv6Handshake = new ProxyHandshake();
+		receive(ipv6Handshake, SOCKS_GREETING);
+		receive(ipv6Handshake, new byte[] { 5, 1, 0, 4, 0x20, 0x01, 0x0D, (byte) 0xB8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 0, 22 });
+		assertThat(ipv6Handshake.next()).isEqualTo(ProxyHandshake.Step.REPLY);
+		assertThat(ipv6Handshake.next()).isEqualTo(ProxyHandshake.Step.CONNECT);
+		assertThat(ipv6Handshake.getHost()).isEqualTo("2001:db8:0:0:0:0:0:1");
+	}
+
+	@Test
+	void testSocksRequestIsReceivedBytewise() throws Exception {
+		ProxyHandshake handshake = new ProxyHandshake();
+		byte[] request = { 5, 1, 0, 1, 127, 0, 0, 1, 0, 80 };
+		for (byte b : SOCKS_GREETING) {
+			receive(handshake, new byte[] { b });
+		}
+		assertThat(handshake.next()).isEqualTo(ProxyHandshake.Step.REPLY);
+		for (int i = 0; i < request.length - 1; i++) {
+			receive(handshake, new byte[] { request[i] });
+			assertThat(handshake.next()).isEqualTo(ProxyHandshake.Step.READ_MORE);
+		}
+		receive(handshake, new byte[] { request[request.length - 1] });
+		assertThat(handshake.next()).isEqualTo(ProxyHandshake.Step.CONNECT);
+		assertThat(handshake.getHost()).isEqualTo("127.0.0.1");
+		assertThat(handshake.getPort()).isEqualTo(80);
+	}
+
+	@Test
+	void testSocksRejections() throws Exception {
+		ProxyHandshake authenticationRequired = new ProxyHandshake();
+		receive(authenticationRequired, new byte[] { 5, 1, 2 });
+		assertThat(authenticationRequired.next()).isEqualTo(ProxyHandshake.Step.REJECT);
+		assertThat(authenticationRequired.getReply()).containsExactly(5, 0xFF);
+
+		ProxyHandshake bind = new ProxyHandshake();
+		receive(bind, SOCKS_GREETING);
+		receive(bind, new byte[] { 5, 2, 0, 1, 127, 0, 0, 1, 0, 80 });
+		assertThat(bind.next()).isEqualTo(ProxyHandshake.Step.REPLY);
+		assertThat(bind.next()).isEqualTo(ProxyHandshake.Step.REJECT);
+		assertThat(bind.getReply()).containsExactly(5, 7, 0, 1, 0, 0, 0, 0, 0, 0);
+
+		ProxyHandshake socks4 = new ProxyHandshake();
+		receive(socks4, new byte[] { 4, 1, 0, 80, 127, 0, 0, 1, 0 });
+		assertThat(socks4.next()).isEqualTo(ProxyHandshake.Step.REJECT);
+		assertThat(socks4.getReply()).isNull();
+	}
+
+	@Test
+	void testHttpConnect() throws Exception {
+		ProxyHandshake handshake = new ProxyHandshake();
+		receive(handshake, "CONNECT [2001:db8::1]:443 HTTP/1.1\r\n".getBytes(StandardCharsets.ISO_8859_1));
+		assertThat(handshake.next()).isEqualTo(ProxyHandshake.Step.READ_MORE);
+
+		receive(handshake, "Host: [2001:db8::1]:443\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+		assertThat(handshake.next()).isEqualTo(ProxyHandshake.Step.CONNECT);
+		assertThat(handshake.getHost()).isEqualTo("2001:db8::1");
+		assertThat(handshake.getPort()).isEqualTo(443);
+		assertThat(handshake.getRemaining()).isEmpty();
+		assertThat(new String(handshake.connected(), StandardCharsets.ISO_8859_1)).isEqualTo("HTTP/1.1 200 Connection established\r\n\r\n");
+		assertThat(new String(handshake.failed(), StandardCharsets.ISO_8859_1)).isEqualTo("HTTP/1.1 502 Bad Gateway\r\n\r\n");
+	}
+
+	@Test
+	void testHttpRejections() throws Exception {
+		assertHttpRejected("GET http://example.com/ HTTP/1.1\r\n\r\n", "HTTP/1.1 405 Method Not Allowed\r\n\r\n");
+		assertHttpRejected("CONNECT example.com HTTP/1.1\r\n\r\n", "HTTP/1.1 400 Bad Request\r\n\r\n");
+		assertHttpRejected("CONNECT example.com:0 HTTP/1.1\r\n\r\n", "HTTP/1.1 400 Bad Request\r\n\r\n");
+		assertHttpRejected("CONNECT example.com:https HTTP/1.1\r\n\r\n", "HTTP/1.1 400 Bad Request\r\n\r\n");
+		assertHttpRejected("CONNECT " + "x".repeat(10_000), "HTTP/1.1 431 Request Header Fields Too Large\r\n\r\n");
+	}
+
+	private static void assertHttpRejected(String request, String expectedReply) {
+		ProxyHandshake handshake = new ProxyHandshake();
+		receive(handshake, request.getBytes(StandardCharsets.ISO_8859_1));
+		assertThat(handshake.next()).isEqualTo(ProxyHandshake.Step.REJECT);
+		assertThat(new String(handshake.getReply(), StandardCharsets.ISO_8859_1)).isEqualTo(expectedReply);
+	}
+
+	private static void receive(ProxyHandshake handshake, byte[] data) {
+		handshake.receive(ByteBuffer.wrap(data));
+	}
+}
@@ -0,0 +1,86 @@
+package de.cronn.proxy.ssh;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+final class RecordingSshProxyListener implements SshProxyListener {
+
+	private final List<String> events = new CopyOnWriteArrayList<>();
+
+	List<String> getEvents() {
+		return events;
+	}
+
+	void awaitEvent(String eventPrefix) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (events.stream().noneMatch(event -> event.startsWith(eventPrefix))) {
+			if (System.nanoTime() > deadline) {
+				throw new IllegalStateException("Timed out waiting for " + eventPrefix + " in " + events);
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	@Override
+	public void sessionConnected(String sshHost, Duration handshakeDuration, Duration authenticationDuration) {
+		assertPositive(handshakeDuration);
+		assertPositive(authenticationDuration);
+		events.add("sessionConnected " + sshHost);
+	}
+
+	@Override
+	public void sessionFailed(String sshHost, Exception cause) {
+		events.add("sessionFailed " + sshHost);
+	}
+
+	@Override
+	public void sessionClosed(String sshHost, Duration lifetime) {
+		assertPositive(lifetime);
+		events.add("sessionClosed " + sshHost);
+	}
+
+	@Override
+	public void tunnelOpened(String sshTunnelHost, String host, int port, int localPort) {
+		events.add("tunnelOpened " + sshTunnelHost + " " + host);
+	}
+
+	@Override
+	public void tunnelFailed(String sshTunnelHost, String host, int port, Exception cause) {
+		events.add("tunnelFailed " + sshTunnelHost + " " + host);
+	}
+
+	@Override
+	public void tunnelClosed(String sshTunnelHost, String host, int port, int localPort) {
+		events.add("tunnelClosed " + sshTunnelHost + " " + host);
+	}
+
+	@Override
+	public void tunnelReconnected(String sshTunnelHost, String host, int port, int localPort, Duration downtime) {
+		assertPositive(downtime);
+		events.add("tunnelReconnected " + sshTunnelHost + " " + host);
+	}
+
+	@Override
+	public void connectionOpened(String sshTunnelHost, String host, int port, Duration channelOpenDuration) {
+		assertPositive(channelOpenDuration);
+		events.add("connectionOpened " + sshTunnelHost + " " + host);
+	}
+
+	@Override
+	public void connectionFailed(String sshTunnelHost, String host, int port, Exception cause) {
+		events.add("connectionFailed " + sshTunnelHost + " " + host);
+	}
+
+	@Override
+	public void connectionClosed(String sshTunnelHost, String host, int port, long bytesSent, long bytesReceived, Duration duration) {
+		events.add("connectionClosed " + sshTunnelHost + " " + host + " sent=" + bytesSent + " received=" + bytesReceived);
+	}
+
+	private static void assertPositive(Duration duration) {
+		if (duration.isNegative() || duration.isZero()) {
+			throw new IllegalArgumentException("Unexpected duration: " + duration);
+		}
+	}
+}
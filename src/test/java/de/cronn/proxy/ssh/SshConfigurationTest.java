@@ -0,0 +1,144 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SshConfigurationTest {
+
+	@TempDir
+	Path userHome;
+
+	private String oldUserHome;
+	private Path dotSsh;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		oldUserHome = System.getProperty("user.home");
+		System.setProperty("user.home", userHome.toAbsolutePath().toString());
+
+		dotSsh = userHome.resolve(".ssh");
+		Files.createDirectories(dotSsh);
+		Files.writeString(dotSsh.resolve("config"), "Host some-host\n\tHostName some-host.example\n\n", StandardCharsets.ISO_8859_1);
+		Files.writeString(dotSsh.resolve("known_hosts"), "", StandardCharsets.ISO_8859_1);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		System.setProperty("user.home", oldUserHome);
+	}
+
+	@Test
+	void testConfigurationIsCached() throws Exception {
+		SshConfiguration configuration = SshConfiguration.getConfiguration();
+
+		assertThat(SshConfiguration.getConfiguration()).isSameAs(configuration);
+		assertThat(configuration.getHostName("some-host")).isEqualTo("some-host.example");
+	}
+
+	@Test
+	void testConfigurationIsReloadedAfterChange() throws Exception {
+		SshConfiguration configuration = SshConfiguration.getConfiguration();
+		assertThat(configuration.getHostName("other-host")).isEqualTo("other-host");
+
+		Files.writeString(dotSsh.resolve("config"), "Host other-host\n\tHostName other-host.example\n\tPort 2222\n\n",
+			StandardCharsets.ISO_8859_1, StandardOpenOption.APPEND);
+
+		SshConfiguration reloadedConfiguration = SshConfiguration.getConfiguration();
+		assertThat(reloadedConfiguration).isNotSameAs(configuration);
+		assertThat(reloadedConfiguration.getHostName("other-host")).isEqualTo("other-host.example");
+		assertThat(reloadedConfiguration.getHostPort("other-host")).isEqualTo(2222);
+		assertThat(SshConfiguration.getConfiguration()).isSameAs(reloadedConfiguration);
+	}
+
+	@Test
+	void testServerAliveSettings() throws Exception {
+		Files.writeString(dotSsh.resolve("config"), String.join("\n",
+			"Host keepalive-host",
+			"\tServerAliveInterval 15",
+			"\tServerAliveCountMax 5",
+			"Host illegal-keepalive-host",
+			"\tServerAliveInterval -1",
+			"\tServerAliveCountMax many",
+			""), StandardCharsets.ISO_8859_1, StandardOpenOption.APPEND);
+
+		SshConfiguration configuration = SshConfiguration.getConfiguration();
+
+		assertThat(configuration.getServerAliveIntervalSeconds("keepalive-host")).isEqualTo(15);
+		assertThat(configuration.getServerAliveCountMax("keepalive-host")).isEqualTo(5);
+		assertThat(configuration.getServerAliveIntervalSeconds("illegal-keepalive-host")).isZero();
+		assertThat(configuration.getServerAliveCountMax("illegal-keepalive-host")).isEqualTo(3);
+		assertThat(configuration.getServerAliveIntervalSeconds("some-host")).isZero();
+		assertThat(configuration.getServerAliveCountMax("some-host")).isEqualTo(3);
+	}
+
+	@Test
+	void testCompressionSettings() throws Exception {
+		Files.writeString(dotSsh.resolve("config"), String.join("\n",
+			"Host compressed-host",
+			"\tCompression yes",
+			"\tCompressionLevel 1",
+			"Host uncompressed-host",
+			"\tCompression no",
+			"\tCompressionLevel 9",
+			"Host illegal-compression-host",
+			"\tCompression maybe",
+			"\tCompressionLevel 10",
+			""), StandardCharsets.ISO_8859_1, StandardOpenOption.APPEND);
+
+		SshConfiguration configuration = SshConfiguration.getConfiguration();
+
+		assertThat(configuration.isCompressionEnabled("compressed-host")).isTrue();
+		assertThat(configuration.getCompressionLevel("compressed-host")).isEqualTo(1);
+		assertThat(configuration.isCompressionEnabled("uncompressed-host")).isFalse();
+		assertThat(configuration.getCompressionLevel("uncompressed-host")).isEqualTo(9);
+		assertThat(configuration.isCompressionEnabled("illegal-compression-host")).isFalse();
+		assertThat(configuration.getCompressionLevel("illegal-compression-host")).isEqualTo(6);
+		assertThat(configuration.isCompressionEnabled("some-host")).isFalse();
+		assertThat(configuration.getCompressionLevel("some-host")).isEqualTo(6);
+	}
+
+	@Test
+	void testBufferSizeSettings() throws Exception {
+		Files.writeString(dotSsh.resolve("config"), String.join("\n",
+			"Host long-haul-host",
+			"\tChannelWindowSize 16777216",
+			"\tChannelMaxPacketSize 65536",
+			"\tSocketBufferSize 4194304",
+			"Host illegal-sizes-host",
+			"\tChannelWindowSize -1",
+			"\tChannelMaxPacketSize 1048576",
+			"\tSocketBufferSize large",
+			""), StandardCharsets.ISO_8859_1, StandardOpenOption.APPEND);
+
+		SshConfiguration configuration = SshConfiguration.getConfiguration();
+
+		assertThat(configuration.getChannelWindowSize("long-haul-host")).isEqualTo(16 * 1024 * 1024);
+		assertThat(configuration.getChannelMaxPacketSize("long-haul-host")).isEqualTo(64 * 1024);
+		assertThat(configuration.getSocketBufferSize("long-haul-host")).isEqualTo(4 * 1024 * 1024);
+		assertThat(configuration.getChannelWindowSize("illegal-sizes-host")).isZero();
+		assertThat(configuration.getChannelMaxPacketSize("illegal-sizes-host")).isZero();
+		assertThat(configuration.getSocketBufferSize("illegal-sizes-host")).isZero();
+		assertThat(configuration.getChannelWindowSize("some-host")).isZero();
+		assertThat(configuration.getChannelMaxPacketSize("some-host")).isZero();
+		assertThat(configuration.getSocketBufferSize("some-host")).isZero();
+	}
+
+	@Test
+	void testConfigurationIsReloadedAfterKnownHostsChange() throws Exception {
+		SshConfiguration configuration = SshConfiguration.getConfiguration();
+
+		Files.writeString(dotSsh.resolve("known_hosts"), "# comment\n", StandardCharsets.ISO_8859_1, StandardOpenOption.APPEND);
+
+		assertThat(SshConfiguration.getConfiguration()).isNotSameAs(configuration);
+	}
+
+}
@@ -0,0 +1,28 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class SshProxyDaemonTest {
+
+	@Test
+	void testTunnelSpecRoundTrip() throws Exception {
+		TunnelSpec tunnelSpec = new TunnelSpec("jumpHost", "targetHost", 1234, 4321)
+			.withSessions(2)
+			.withWindowSize(1024 * 1024)
+			.withMaxPacketSize(32 * 1024)
+			.withSocketBufferSize(64 * 1024);
+
+		String request = SshProxyDaemon.formatConnect(tunnelSpec);
+		assertThat(request).isEqualTo("CONNECT jumpHost targetHost 1234 4321 2 1048576 32768 65536");
+		assertThat(SshProxyDaemon.parseTunnelSpec(request.split(" "))).isEqualTo(tunnelSpec);
+	}
+
+	@Test
+	void testIllegalTunnelSpec() throws Exception {
+		assertThatExceptionOfType(IllegalArgumentException.class)
+			.isThrownBy(() -> SshProxyDaemon.parseTunnelSpec("CONNECT jumpHost targetHost".split(" ")))
+			.withMessage("illegal tunnel: CONNECT jumpHost targetHost");
+	}
+}
@@ -6,31 +6,57 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.SocketFactory;
 
 import org.apache.sshd.common.config.keys.KeyUtils;
 import org.apache.sshd.common.util.security.SecurityUtils;
 import org.apache.sshd.server.SshServer;
-import org.apache.sshd.server.auth.pubkey.AcceptAllPublickeyAuthenticator;
-import org.apache.sshd.server.forward.AcceptAllForwardingFilter;
-import org.apache.sshd.server.keyprovider.AbstractGeneratorHostKeyProvider;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
 import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.jcraft.jsch.JSchException;
+
 class SshProxyTest {
 
 	private static final Logger log = LoggerFactory.getLogger(SshProxyTest.class);
@@ -40,8 +66,6 @@ class SshProxyTest {
 	private static final String KNOWN_HOSTS_FILENAME = "known_hosts";
 	private static final String CONFIG_FILENAME = "config";
 	private static final Path TEST_RESOURCES = Paths.get("src", "test", "resources");
-	private static final Path SERVER_RSA_KEY = TEST_RESOURCES.resolve("server-rsa.key");
-	private static final Path SERVER_ECDSA_KEY = TEST_RESOURCES.resolve("server-ecdsa.key");
 
 	private static final long TEST_TIMEOUT_MILLIS = 30_000L;
 
@@ -157,6 +181,34 @@ class SshProxyTest {
 		}
 	}
 
+	@ParameterizedTest
+	@EnumSource(CryptoProfile.class)
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testSingleHopWithCryptoProfile(CryptoProfile cryptoProfile) throws Exception {
+		SshServer sshServer = setUpSshServer();
+		SshServer otherSshServer = setUpSshServer();
+
+		String hostConfigName = "localhost-" + sshServer.getPort();
+		String hostWithAlgorithmsConfigName = "localhost-" + otherSshServer.getPort();
+		appendToSshFile(CONFIG_FILENAME, "Host " + hostConfigName + "\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n\n");
+		appendToSshFile(CONFIG_FILENAME, "Host " + hostWithAlgorithmsConfigName + "\n\tHostName localhost\n\tPort " + otherSshServer.getPort() + "\n"
+			+ "\tCiphers aes256-ctr\n\tMACs hmac-sha1\n\tKexAlgorithms ecdh-sha2-nistp384\n\n");
+
+		SshProxySettings settings = SshProxySettings.defaults().withCryptoProfile(cryptoProfile);
+		try (DummyServerSocketThread dummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT);
+			 DummyServerSocketThread otherDummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT);
+			 SshProxy sshProxy = new SshProxy(settings)) {
+			int port = sshProxy.connect(hostConfigName, "localhost", dummyServerSocketThread.getPort());
+			int otherPort = sshProxy.connect(hostWithAlgorithmsConfigName, "localhost", otherDummyServerSocketThread.getPort());
+
+			assertThat(readLineFromLocalPort(port)).isEqualTo(TEST_TEXT);
+			assertThat(readLineFromLocalPort(otherPort)).isEqualTo(TEST_TEXT);
+		} finally {
+			tryStop(sshServer);
+			tryStop(otherSshServer);
+		}
+	}
+
 	@Test
 	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
 	void testTwoHops_ProxyCommand() throws Exception {
@@ -169,6 +221,33 @@ class SshProxyTest {
 		doTestTwoHops("ProxyJump firsthop");
 	}
 
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testTwoHops_KnownHostsEntriesWithPort() throws Exception {
+		SshServer firstSshServer = setUpSshServer();
+		int firstServerPort = firstSshServer.getPort();
+
+		SshServer secondSshServer = setUpSshServer();
+		int secondServerPort = secondSshServer.getPort();
+
+		// hop host keys are looked up as [host]:port first, the portless entries are covered by doTestTwoHops
+		String hostKey = TestSshServer.getKnownHostsEntry(KeyUtils.RSA_ALGORITHM).substring("localhost".length());
+		Files.writeString(dotSsh.resolve(KNOWN_HOSTS_FILENAME),
+			"[localhost]:" + firstServerPort + hostKey + "[localhost]:" + secondServerPort + hostKey, CONFIG_CHARSET);
+
+		appendToSshFile(CONFIG_FILENAME, "Host firsthop\n\tHostName localhost\n\tPort " + firstServerPort + "\n\n");
+		appendToSshFile(CONFIG_FILENAME, "Host secondhop\n\tHostName localhost\n\tPort " + secondServerPort + "\n\tProxyJump firsthop\n\n");
+
+		try (DummyServerSocketThread dummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT);
+			 SshProxy sshProxy = new SshProxy()) {
+			int port = sshProxy.connect("secondhop", "localhost", dummyServerSocketThread.getPort());
+			assertThat(readLineFromLocalPort(port)).isEqualTo(TEST_TEXT);
+		} finally {
+			tryStop(firstSshServer);
+			tryStop(secondSshServer);
+		}
+	}
+
 	private void doTestTwoHops(String proxyConfiguration) throws Exception {
 		SshServer firstSshServer = setUpSshServer();
 		int firstServerPort = firstSshServer.getPort();
@@ -198,121 +277,1220 @@ class SshProxyTest {
 
 	@Test
 	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
-	void testSingleHop_NoHostKeyFound() {
-		try (SshProxy sshProxy = new SshProxy()) {
-			sshProxy.connect("jumphost", "targethost", 1234);
-			fail("SshProxyRuntimeException expected");
-		} catch (SshProxyRuntimeException e) {
-			log.debug("Expected exception", e);
-			assertThat(e.getMessage()).isEqualTo("Failed to create SSH tunnel to targethost via jumphost");
-			assertThat(e.getCause().getMessage()).startsWith("Found no host key for jumphost");
+	void testSessionIsSharedBetweenProxies() throws Exception {
+		SshServer sshServer = setUpSshServer();
+		int sshServerPort = sshServer.getPort();
+
+		String hostConfigName = "localhost-" + sshServerPort;
+		appendToSshFile(CONFIG_FILENAME, "Host " + hostConfigName + "\n\tHostName localhost\n\tPort " + sshServerPort + "\n\n");
+
+		try (DummyServerSocketThread firstDummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT);
+			 DummyServerSocketThread secondDummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT);
+			 SshProxy firstSshProxy = new SshProxy();
+			 SshProxy secondSshProxy = new SshProxy()) {
+			int firstPort = firstSshProxy.connect(hostConfigName, "localhost", firstDummyServerSocketThread.getPort());
+			int secondPort = secondSshProxy.connect(hostConfigName, "localhost", secondDummyServerSocketThread.getPort());
+
+			assertThat(sshServer.getActiveSessions()).hasSize(1);
+			assertThat(readLineFromLocalPort(firstPort)).isEqualTo(TEST_TEXT);
+
+			firstSshProxy.close();
+
+			assertThat(readLineFromLocalPort(secondPort)).isEqualTo(TEST_TEXT);
+		} finally {
+			tryStop(sshServer);
+		}
+	}
+
+	@ParameterizedTest
+	@EnumSource(ForwardingEngine.class)
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testIdenticalTunnelIsShared(ForwardingEngine forwardingEngine) throws Exception {
+		SshServer sshServer = setUpSshServer();
+		String hostConfigName = "localhost-" + sshServer.getPort();
+		appendToSshFile(CONFIG_FILENAME, "Host " + hostConfigName + "\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n\n");
+
+		RecordingSshProxyListener listener = new RecordingSshProxyListener();
+		SshProxySettings settings = SshProxySettings.defaults().withForwardingEngine(forwardingEngine).withListener(listener);
+		try (DummyServerSocketThread dummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT);
+			 SshProxy sshProxy = new SshProxy(settings)) {
+			int firstPort = sshProxy.connect(hostConfigName, "localhost", dummyServerSocketThread.getPort());
+			int secondPort = sshProxy.connect(hostConfigName, "localhost", dummyServerSocketThread.getPort());
+
+			assertThat(secondPort).isEqualTo(firstPort);
+			assertThat(listener.getEvents()).filteredOn(event -> event.startsWith("tunnelOpened")).hasSize(1);
+
+			sshProxy.disconnect(firstPort);
+			assertThat(readLineFromLocalPort(secondPort)).isEqualTo(TEST_TEXT);
+			assertThat(SshSessionPool.getInstance().size()).isEqualTo(1);
+
+			sshProxy.disconnect(secondPort);
+			assertThatThrownBy(() -> readLineFromLocalPort(secondPort));
+			assertThat(SshSessionPool.getInstance().size()).isZero();
+			assertThat(listener.getEvents()).filteredOn(event -> event.startsWith("tunnelClosed")).hasSize(1);
+
+			assertThatExceptionOfType(IllegalArgumentException.class)
+				.isThrownBy(() -> sshProxy.disconnect(secondPort))
+				.withMessage("no tunnel on local port " + secondPort);
+		} finally {
+			tryStop(sshServer);
+		}
+	}
+
+	@ParameterizedTest
+	@EnumSource(ForwardingEngine.class)
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testIdleTunnelIsEvicted(ForwardingEngine forwardingEngine) throws Exception {
+		SshServer sshServer = setUpSshServer();
+		String hostConfigName = "localhost-" + sshServer.getPort();
+		appendToSshFile(CONFIG_FILENAME, "Host " + hostConfigName + "\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n\n");
+
+		RecordingSshProxyListener listener = new RecordingSshProxyListener();
+		SshProxySettings settings = SshProxySettings.defaults().withForwardingEngine(forwardingEngine).withListener(listener).withIdleTimeoutMillis(200);
+		try (EchoServerSocketThread echoServerSocketThread = new EchoServerSocketThread();
+			 SshProxy sshProxy = new SshProxy(settings)) {
+			int port = sshProxy.connect(hostConfigName, "localhost", echoServerSocketThread.getPort());
+			assertThat(echoLineViaLocalPort(port, TEST_TEXT)).isEqualTo(TEST_TEXT);
+
+			listener.awaitEvent("tunnelClosed");
+			assertThat(SshSessionPool.getInstance().size()).isZero();
+			assertThatThrownBy(() -> echoLineViaLocalPort(port, TEST_TEXT));
+
+			sshProxy.disconnect(port);
+			assertThatExceptionOfType(IllegalArgumentException.class)
+				.isThrownBy(() -> sshProxy.disconnect(port))
+				.withMessage("no tunnel on local port " + port);
+
+			int newPort = sshProxy.connect(hostConfigName, "localhost", echoServerSocketThread.getPort());
+			assertThat(echoLineViaLocalPort(newPort, TEST_TEXT)).isEqualTo(TEST_TEXT);
+		} finally {
+			tryStop(sshServer);
 		}
 	}
 
 	@Test
 	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
-	void testSingleHop_ConnectionRefused() throws Exception {
-		try (SshServer sshServer = setUpSshServer()) {
-			sshServer.stop();
-			try (SshProxy sshProxy = new SshProxy()) {
-				sshProxy.connect("localhost", "targethost", 1234);
-				fail("SshProxyRuntimeException expected");
-			} catch (SshProxyRuntimeException e) {
-				log.debug("Expected exception", e);
-				assertThat(e.getMessage()).isEqualTo("Failed to create SSH tunnel to targethost via localhost");
-				assertThat(e.getCause().getMessage()).isEqualTo("Failed to connect to targethost via localhost");
+	void testLeastRecentlyUsedTunnelIsEvicted() throws Exception {
+		SshServer firstSshServer = setUpSshServer();
+		SshServer secondSshServer = setUpSshServer();
+
+		appendToSshFile(CONFIG_FILENAME, "Host firsthop\n\tHostName localhost\n\tPort " + firstSshServer.getPort() + "\n\n");
+		appendToSshFile(CONFIG_FILENAME, "Host secondhop\n\tHostName localhost\n\tPort " + secondSshServer.getPort() + "\n\tProxyJump firsthop\n\n");
+
+		RecordingSshProxyListener listener = new RecordingSshProxyListener();
+		SshProxySettings settings = SshProxySettings.defaults().withListener(listener).withMaxSessions(1);
+		try (DummyServerSocketThread dummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT);
+			 SshProxy sshProxy = new SshProxy(settings)) {
+			int firstPort = sshProxy.connect("firsthop", "localhost", dummyServerSocketThread.getPort());
+			int secondPort = sshProxy.connect("secondhop", "localhost", dummyServerSocketThread.getPort());
+
+			listener.awaitEvent("tunnelClosed firsthop");
+			assertThat(listener.getEvents()).filteredOn(event -> event.startsWith("tunnelClosed")).containsExactly("tunnelClosed firsthop localhost");
+
+			// the session to the first hop is still used as jump host by the second tunnel
+			assertThat(SshSessionPool.getInstance().size()).isEqualTo(2);
+			assertThat(readLineFromLocalPort(secondPort)).isEqualTo(TEST_TEXT);
+			assertThatThrownBy(() -> readLineFromLocalPort(firstPort));
+		} finally {
+			tryStop(firstSshServer);
+			tryStop(secondSshServer);
+		}
+		assertThat(SshSessionPool.getInstance().size()).isZero();
+	}
+
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testLeastRecentlyUsedTunnelIsOnlyEvictedIfItReleasesSession() throws Exception {
+		SshServer firstSshServer = setUpSshServer();
+		SshServer secondSshServer = setUpSshServer();
+
+		appendToSshFile(CONFIG_FILENAME, "Host firsthop\n\tHostName localhost\n\tPort " + firstSshServer.getPort() + "\n\n");
+		appendToSshFile(CONFIG_FILENAME, "Host secondhop\n\tHostName localhost\n\tPort " + secondSshServer.getPort() + "\n\n");
+
+		RecordingSshProxyListener listener = new RecordingSshProxyListener();
+		SshProxySettings settings = SshProxySettings.defaults().withListener(listener).withMaxSessions(1);
+		try (DummyServerSocketThread dummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT);
+			 EchoServerSocketThread echoServerSocketThread = new EchoServerSocketThread();
+			 SshProxy sshProxy = new SshProxy(settings)) {
+			int idlePort = sshProxy.connect("firsthop", "localhost", dummyServerSocketThread.getPort());
+			int activePort = sshProxy.connect("firsthop", "localhost", echoServerSocketThread.getPort());
+
+			try (Socket s = new Socket(SshProxy.LOCALHOST, activePort)) {
+				s.getOutputStream().write((TEST_TEXT + "\n").getBytes(TRANSFER_CHARSET));
+				BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), TRANSFER_CHARSET));
+				assertThat(reader.readLine()).isEqualTo(TEST_TEXT);
+
+				// the idle tunnel shares its session with the active tunnel, so evicting it would not release a session
+				sshProxy.connect("secondhop", "localhost", dummyServerSocketThread.getPort());
+				listener.awaitEvent("tunnelClosed secondhop");
+				assertThat(listener.getEvents()).filteredOn(event -> event.startsWith("tunnelClosed")).containsExactly("tunnelClosed secondhop localhost");
+				assertThat(readLineFromLocalPort(idlePort)).isEqualTo(TEST_TEXT);
 			}
+		} finally {
+			tryStop(firstSshServer);
+			tryStop(secondSshServer);
 		}
 	}
 
 	@Test
+	@EnabledForJreRange(min = JRE.JAVA_16)
 	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
-	void testSingleHop_IllegalPort() {
-		try (SshProxy sshProxy = new SshProxy()) {
-			sshProxy.connect("localhost", "targethost", 0);
-			fail("IllegalArgumentException expected");
-		} catch (IllegalArgumentException e) {
-			assertThat(e.getMessage()).isEqualTo("illegal port: 0");
+	void testTunnelsAreDelegatedToDaemon() throws Exception {
+		SshServer sshServer = setUpSshServer();
+		String hostConfigName = "localhost-" + sshServer.getPort();
+		appendToSshFile(CONFIG_FILENAME, "Host " + hostConfigName + "\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n\n");
+
+		Path daemonSocket = userHome.resolve("ssh-proxy.sock");
+		RecordingSshProxyListener daemonListener = new RecordingSshProxyListener();
+		SshProxySettings settings = SshProxySettings.defaults().withDaemonSocket(daemonSocket);
+		try (EchoServerSocketThread echoServerSocketThread = new EchoServerSocketThread();
+			 SshProxyDaemon daemon = new SshProxyDaemon(daemonSocket, SshProxySettings.defaults().withListener(daemonListener));
+			 SshProxy firstSshProxy = new SshProxy(settings);
+			 SshProxy secondSshProxy = new SshProxy(settings)) {
+			int firstPort = firstSshProxy.connect(hostConfigName, "localhost", echoServerSocketThread.getPort());
+			int secondPort = secondSshProxy.connect(hostConfigName, "localhost", echoServerSocketThread.getPort());
+
+			assertThat(secondPort).isEqualTo(firstPort);
+			assertThat(sshServer.getActiveSessions()).hasSize(1);
+			assertThat(daemonListener.getEvents()).filteredOn(event -> event.startsWith("tunnelOpened")).hasSize(1);
+
+			firstSshProxy.close();
+			assertThat(echoLineViaLocalPort(secondPort, TEST_TEXT)).isEqualTo(TEST_TEXT);
+
+			// the daemon releases the tunnels of a client which went away
+			secondSshProxy.close();
+			daemonListener.awaitEvent("tunnelClosed");
+			assertThat(SshSessionPool.getInstance().size()).isZero();
+		} finally {
+			tryStop(sshServer);
 		}
+		assertThat(daemonSocket).doesNotExist();
 	}
 
 	@Test
 	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
-	void testSingleHop_IllegalLocalPort() {
+	void testTunnelsAreOpenedLocallyIfDaemonIsNotRunning() throws Exception {
+		SshServer sshServer = setUpSshServer();
+		String hostConfigName = "localhost-" + sshServer.getPort();
+		appendToSshFile(CONFIG_FILENAME, "Host " + hostConfigName + "\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n\n");
+
+		SshProxySettings settings = SshProxySettings.defaults().withDaemonSocket(userHome.resolve("ssh-proxy.sock"));
+		try (EchoServerSocketThread echoServerSocketThread = new EchoServerSocketThread();
+			 SshProxy sshProxy = new SshProxy(settings)) {
+			int port = sshProxy.connect(hostConfigName, "localhost", echoServerSocketThread.getPort());
+			assertThat(echoLineViaLocalPort(port, TEST_TEXT)).isEqualTo(TEST_TEXT);
+
+			sshProxy.disconnect(port);
+			assertThat(SshSessionPool.getInstance().size()).isZero();
+		} finally {
+			tryStop(sshServer);
+		}
+	}
+
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testConcurrentConnects() throws Exception {
+		SshServer firstSshServer = setUpSshServer();
+		SshServer secondSshServer = setUpSshServer();
+
+		appendToSshFile(CONFIG_FILENAME, "Host firsthop\n\tHostName localhost\n\tPort " + firstSshServer.getPort() + "\n\n");
+		appendToSshFile(CONFIG_FILENAME, "Host secondhop\n\tHostName localhost\n\tPort " + secondSshServer.getPort() + "\n\tProxyJump firsthop\n\n");
+
+		int numberOfTunnels = 8;
+		List<DummyServerSocketThread> dummyServerSocketThreads = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfTunnels);
 		try (SshProxy sshProxy = new SshProxy()) {
-			sshProxy.connect("localhost", "targethost", 1234, -1);
-			fail("IllegalArgumentException expected");
-		} catch (IllegalArgumentException e) {
-			assertThat(e.getMessage()).isEqualTo("illegal local port: -1");
+			List<Future<String>> receivedTexts = new ArrayList<>();
+			for (int i = 0; i < numberOfTunnels; i++) {
+				DummyServerSocketThread dummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT);
+				dummyServerSocketThreads.add(dummyServerSocketThread);
+				receivedTexts.add(executor.submit(() -> {
+					int port = sshProxy.connect("secondhop", "localhost", dummyServerSocketThread.getPort());
+					return readLineFromLocalPort(port);
+				}));
+			}
+
+			for (Future<String> receivedText : receivedTexts) {
+				assertThat(receivedText.get()).isEqualTo(TEST_TEXT);
+			}
+			assertThat(firstSshServer.getActiveSessions()).hasSize(1);
+			assertThat(secondSshServer.getActiveSessions()).hasSize(1);
+		} finally {
+			executor.shutdownNow();
+			for (DummyServerSocketThread dummyServerSocketThread : dummyServerSocketThreads) {
+				dummyServerSocketThread.close();
+			}
+			tryStop(firstSshServer);
+			tryStop(secondSshServer);
 		}
 	}
 
-	private void tryStop(SshServer sshServer) {
-		try {
-			log.debug("stopping SSH server");
-			sshServer.stop();
-		} catch (IOException e) {
-			log.error("Failed to stop SSH server", e);
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testConcurrentConnects_EcDsaAndRsaServers() throws Exception {
+		SshServer rsaSshServer = setUpSshServer(KeyUtils.RSA_ALGORITHM);
+		SshServer ecDsaSshServer = setUpSshServer(KeyUtils.EC_ALGORITHM);
+
+		appendToSshFile(CONFIG_FILENAME, "Host rsa-host\n\tHostName localhost\n\tPort " + rsaSshServer.getPort() + "\n\n");
+		appendToSshFile(CONFIG_FILENAME, "Host ecdsa-host\n\tHostName localhost\n\tPort " + ecDsaSshServer.getPort() + "\n\n");
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try (DummyServerSocketThread firstDummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT);
+			 DummyServerSocketThread secondDummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT);
+			 SshProxy sshProxy = new SshProxy()) {
+			Future<String> viaRsaHost = executor.submit(() -> readLineFromLocalPort(sshProxy.connect("rsa-host", "localhost", firstDummyServerSocketThread.getPort())));
+			Future<String> viaEcDsaHost = executor.submit(() -> readLineFromLocalPort(sshProxy.connect("ecdsa-host", "localhost", secondDummyServerSocketThread.getPort())));
+
+			assertThat(viaRsaHost.get()).isEqualTo(TEST_TEXT);
+			assertThat(viaEcDsaHost.get()).isEqualTo(TEST_TEXT);
+		} finally {
+			executor.shutdownNow();
+			tryStop(rsaSshServer);
+			tryStop(ecDsaSshServer);
 		}
 	}
 
-	private String readLine(InputStream is) throws IOException {
-		try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, TRANSFER_CHARSET))) {
-			String line = reader.readLine();
-			assertThat(line).isNotNull();
-			return line.trim();
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testOpenSocket() throws Exception {
+		SshServer firstSshServer = setUpSshServer();
+		SshServer secondSshServer = setUpSshServer();
+
+		appendToSshFile(CONFIG_FILENAME, "Host firsthop\n\tHostName localhost\n\tPort " + firstSshServer.getPort() + "\n\n");
+		appendToSshFile(CONFIG_FILENAME, "Host secondhop\n\tHostName localhost\n\tPort " + secondSshServer.getPort() + "\n\tProxyJump firsthop\n\n");
+
+		try (DummyServerSocketThread dummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT);
+			 SshProxy sshProxy = new SshProxy()) {
+			final String receivedText;
+			try (Socket s = sshProxy.openSocket("secondhop", "localhost", dummyServerSocketThread.getPort());
+				 InputStream is = s.getInputStream()) {
+				assertThat(s.isConnected()).isTrue();
+				receivedText = readLine(is);
+			}
+			assertThat(receivedText).isEqualTo(TEST_TEXT);
+			assertThat(SshSessionPool.getInstance().size()).isZero();
+		} finally {
+			tryStop(firstSshServer);
+			tryStop(secondSshServer);
 		}
 	}
 
-	private SshServer setUpSshServer() throws IOException {
-		return setUpSshServer(KeyUtils.RSA_ALGORITHM);
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testFailedForwardingReleasesSessions() throws Exception {
+		SshServer firstSshServer = setUpSshServer();
+		SshServer secondSshServer = setUpSshServer();
+
+		appendToSshFile(CONFIG_FILENAME, "Host firsthop\n\tHostName localhost\n\tPort " + firstSshServer.getPort() + "\n\n");
+		appendToSshFile(CONFIG_FILENAME, "Host secondhop\n\tHostName localhost\n\tPort " + secondSshServer.getPort() + "\n\tProxyJump firsthop\n\n");
+
+		try (ServerSocket usedLocalPort = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+			 SshProxy sshProxy = new SshProxy()) {
+			TunnelSpec tunnelSpec = new TunnelSpec("secondhop", "localhost", 1234, usedLocalPort.getLocalPort());
+			assertThatExceptionOfType(SshProxyRuntimeException.class)
+				.isThrownBy(() -> sshProxy.connect(tunnelSpec))
+				.withMessage("Failed to create SSH tunnel to localhost via secondhop");
+
+			assertThat(SshSessionPool.getInstance().size()).isZero();
+		} finally {
+			tryStop(firstSshServer);
+			tryStop(secondSshServer);
+		}
 	}
 
-	private SshServer setUpSshServer(String algorithm) throws IOException {
-		SshServer sshServer = SshServer.setUpDefaultServer();
-		sshServer.setPort(0);
-		AbstractGeneratorHostKeyProvider hostKeyProvider = SecurityUtils.createGeneratorHostKeyProvider(getServerKeyFile(algorithm));
-		hostKeyProvider.setAlgorithm(algorithm);
-		if (algorithm.equals(KeyUtils.EC_ALGORITHM)) {
-			hostKeyProvider.setKeySize(256);
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testOpenSocketToClosedPort() throws Exception {
+		SshServer sshServer = setUpSshServer();
+		appendToSshFile(CONFIG_FILENAME, "Host firsthop\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n\n");
+
+		int closedPort;
+		try (ServerSocket serverSocket = new ServerSocket(0)) {
+			closedPort = serverSocket.getLocalPort();
 		}
-		sshServer.setKeyPairProvider(hostKeyProvider);
 
-		sshServer.setPublickeyAuthenticator(AcceptAllPublickeyAuthenticator.INSTANCE);
-		sshServer.setForwardingFilter(AcceptAllForwardingFilter.INSTANCE);
+		try (SshProxy sshProxy = new SshProxy()) {
+			assertThatExceptionOfType(SshProxyRuntimeException.class)
+				.isThrownBy(() -> sshProxy.openSocket("firsthop", "localhost", closedPort))
+				.withRootCauseInstanceOf(JSchException.class);
+			assertThat(SshSessionPool.getInstance().size()).isZero();
+		} finally {
+			tryStop(sshServer);
+		}
+	}
+
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testNioForwardingEngine() throws Exception {
+		SshServer firstSshServer = setUpSshServer();
+		SshServer secondSshServer = setUpSshServer();
 
-		writeFingerprintToKnownHosts(algorithm);
+		appendToSshFile(CONFIG_FILENAME, "Host firsthop\n\tHostName localhost\n\tPort " + firstSshServer.getPort() + "\n\n");
+		appendToSshFile(CONFIG_FILENAME, "Host secondhop\n\tHostName localhost\n\tPort " + secondSshServer.getPort() + "\n\tProxyJump firsthop\n\n");
 
-		sshServer.start();
+		SshProxySettings settings = SshProxySettings.defaults().withForwardingEngine(ForwardingEngine.NIO);
+		try (DummyServerSocketThread firstDummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT);
+			 DummyServerSocketThread secondDummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT);
+			 SshProxy sshProxy = new SshProxy(settings)) {
+			int firstPort = sshProxy.connect("secondhop", "localhost", firstDummyServerSocketThread.getPort());
+			int secondPort = sshProxy.connect("secondhop", "localhost", secondDummyServerSocketThread.getPort());
 
-		int sshServerPort = sshServer.getPort();
-		assertThat(sshServerPort).isPositive();
+			assertThat(readLineFromLocalPort(firstPort)).isEqualTo(TEST_TEXT);
+			assertThat(readLineFromLocalPort(secondPort)).isEqualTo(TEST_TEXT);
+		} finally {
+			tryStop(firstSshServer);
+			tryStop(secondSshServer);
+		}
+		assertThat(SshSessionPool.getInstance().size()).isZero();
+	}
 
-		return sshServer;
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testNioForwardingEngine_HalfClose() throws Exception {
+		assertEchoWithHalfClose(SshProxySettings.defaults().withForwardingEngine(ForwardingEngine.NIO));
 	}
 
-	private void writeFingerprintToKnownHosts(String algorithm) throws IOException {
-		switch (algorithm) {
-			case KeyUtils.RSA_ALGORITHM:
-				appendToSshFile(KNOWN_HOSTS_FILENAME, "localhost ssh-rsa AAAAB3NzaC1yc2EAAAADAQABAAABAQDL8360Wxcgo33sggS0bSid0u7Ad4XFig8/e0UfD5l02x/w2DRJuqJow4SiDfi9jvD8p3lu7To7b/oGH/c/vsK9j35ICG0eJ/bbnQDuHROBAnbAC6PXN+/XX2F9s48KlOC5dQXrGYyYhoozW67yoHTooisZSzF/iyPdNat64rM0+ZO3dV6eEQ0FItYO632YcSiBRE7YZe9rP7ne50xaltKgrAmHRDRo+tjIcykrlcZFG1Bp/ct9Ejs2DQDsFOZRCmFbag0pQxxbkA1U6z7O3qwhhDWcJz2ZHDHK8DUkgHdX+Hbp7LxBWEaCiU8cL+S6rmCpNsui9NT/XeoLuXQ4J8jX\n");
-				break;
-			case KeyUtils.EC_ALGORITHM:
-				appendToSshFile(KNOWN_HOSTS_FILENAME, "localhost ecdsa-sha2-nistp256 AAAAE2VjZHNhLXNoYTItbmlzdHAyNTYAAAAIbmlzdHAyNTYAAABBBCH+0xjLYNGoqVGlD4VtKHF1Tig2/Y76BxVld88bYAaRV4ojJni62vIYMKqk+FMZhL1lcQ/VQTvIeLMnYk+grKo=\n");
-				break;
-			default:
-				throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testNioForwardingEngine_SlowClient() throws Exception {
+		SshServer sshServer = setUpSshServer();
+		String hostConfigName = "localhost-" + sshServer.getPort();
+		appendToSshFile(CONFIG_FILENAME, "Host " + hostConfigName + "\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n\n");
+
+		byte[] chunk = new byte[64 * 1024];
+		long downloadSize = 1024L * chunk.length;
+		AtomicLong written = new AtomicLong();
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		SshProxySettings settings = SshProxySettings.defaults().withForwardingEngine(ForwardingEngine.NIO);
+		try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			 SshProxy sshProxy = new SshProxy(settings)) {
+			Future<?> download = executor.submit(() -> {
+				try (Socket socket = serverSocket.accept();
+					 OutputStream outputStream = socket.getOutputStream()) {
+					while (written.get() < downloadSize) {
+						outputStream.write(chunk);
+						written.addAndGet(chunk.length);
+					}
+				}
+				return null;
+			});
+
+			int port = sshProxy.connect(hostConfigName, serverSocket.getInetAddress().getHostAddress(), serverSocket.getLocalPort());
+			try (Socket socket = new Socket(SshProxy.LOCALHOST, port)) {
+				// the proxy must not buffer the download while the client does not read
+				Thread.sleep(2_000);
+				assertThat(written.get()).isLessThan(downloadSize / 2);
+
+				assertThat(socket.getInputStream().transferTo(OutputStream.nullOutputStream())).isEqualTo(downloadSize);
+			}
+			download.get();
+		} finally {
+			executor.shutdownNow();
+			tryStop(sshServer);
 		}
 	}
 
-	private static Path getServerKeyFile(String algorithm) {
-		switch (algorithm) {
-			case KeyUtils.RSA_ALGORITHM:
-				return SERVER_RSA_KEY;
-			case KeyUtils.EC_ALGORITHM:
-				return SERVER_ECDSA_KEY;
-			default:
-				throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testNioForwardingEngine_FixedChannelWriterThreads() throws Exception {
+		AtomicInteger createdThreads = new AtomicInteger();
+		ThreadFactory threadFactory = runnable -> {
+			Thread thread = new Thread(runnable, "test-forwarder-" + createdThreads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+
+		SshServer sshServer = setUpSshServer();
+		String hostConfigName = "localhost-" + sshServer.getPort();
+		appendToSshFile(CONFIG_FILENAME, "Host " + hostConfigName + "\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n\n");
+
+		byte[] data = new byte[1024 * 1024];
+		new Random(0).nextBytes(data);
+
+		int connections = 16;
+		SshProxySettings settings = SshProxySettings.defaults()
+			.withForwardingEngine(ForwardingEngine.NIO)
+			.withThreadFactory(threadFactory)
+			.withChannelWriterThreads(2);
+		ExecutorService executor = Executors.newFixedThreadPool(2 * connections);
+		try (EchoServerSocketThread echoServerSocketThread = new EchoServerSocketThread();
+			 SshProxy sshProxy = new SshProxy(settings)) {
+			int port = sshProxy.connect(hostConfigName, "localhost", echoServerSocketThread.getPort());
+			List<Future<byte[]>> echoed = new ArrayList<>();
+			for (int i = 0; i < connections; i++) {
+				echoed.add(executor.submit(() -> echoViaLocalPort(port, data, executor)));
+			}
+			for (Future<byte[]> future : echoed) {
+				assertThat(future.get()).isEqualTo(data);
+			}
+		} finally {
+			executor.shutdownNow();
+			tryStop(sshServer);
 		}
+
+		// the selector thread, the channel openers and the two channel writers
+		assertThat(createdThreads.get()).isLessThanOrEqualTo(1 + 8 + 2);
+	}
+
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testThreadPerConnectionForwardingEngine_HalfClose() throws Exception {
+		AtomicInteger createdThreads = new AtomicInteger();
+		ThreadFactory threadFactory = runnable -> {
+			Thread thread = new Thread(runnable, "test-forwarder-" + createdThreads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+
+		assertEchoWithHalfClose(SshProxySettings.defaults()
+			.withForwardingEngine(ForwardingEngine.THREAD_PER_CONNECTION)
+			.withThreadFactory(threadFactory));
+
+		assertThat(createdThreads).hasValue(2);
+	}
+
+	@Test
+	@EnabledForJreRange(min = JRE.JAVA_21)
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testThreadPerConnectionForwardingEngine_VirtualThreads() throws Exception {
+		assertEchoWithHalfClose(SshProxySettings.defaults()
+			.withForwardingEngine(ForwardingEngine.THREAD_PER_CONNECTION)
+			.withThreadFactory(VirtualThreads.newThreadFactory("ssh-proxy-test")));
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = { false, true })
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testCompression(boolean adaptiveCompression) throws Exception {
+		assertEchoWithHalfClose(SshProxySettings.defaults().withAdaptiveCompression(adaptiveCompression),
+			"\tCompression yes\n\tCompressionLevel 1\n");
+	}
+
+	@ParameterizedTest
+	@EnumSource(value = ForwardingEngine.class, names = { "NIO", "THREAD_PER_CONNECTION" })
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testStripedSessions(ForwardingEngine forwardingEngine) throws Exception {
+		SshServer firstSshServer = setUpSshServer();
+		SshServer secondSshServer = setUpSshServer();
+
+		appendToSshFile(CONFIG_FILENAME, "Host firsthop\n\tHostName localhost\n\tPort " + firstSshServer.getPort() + "\n\n");
+		appendToSshFile(CONFIG_FILENAME, "Host secondhop\n\tHostName localhost\n\tPort " + secondSshServer.getPort() + "\n\tProxyJump firsthop\n\n");
+
+		SshProxySettings settings = SshProxySettings.defaults().withForwardingEngine(forwardingEngine);
+		try (EchoServerSocketThread echoServerSocketThread = new EchoServerSocketThread();
+			 SshProxy sshProxy = new SshProxy(settings)) {
+			int port = sshProxy.connect(new TunnelSpec("secondhop", "localhost", echoServerSocketThread.getPort()).withSessions(3));
+
+			assertThat(firstSshServer.getActiveSessions()).hasSize(3);
+			assertThat(secondSshServer.getActiveSessions()).hasSize(3);
+			for (int i = 0; i < 3; i++) {
+				assertThat(echoLineViaLocalPort(port, TEST_TEXT + i)).isEqualTo(TEST_TEXT + i);
+			}
+		} finally {
+			tryStop(firstSshServer);
+			tryStop(secondSshServer);
+		}
+		assertThat(SshSessionPool.getInstance().size()).isZero();
+	}
+
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testFailedStripedTunnelReleasesAllSessions() throws Exception {
+		SshServer sshServer = setUpSshServer();
+		String hostConfigName = "localhost-" + sshServer.getPort();
+		appendToSshFile(CONFIG_FILENAME, "Host " + hostConfigName + "\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n\n");
+
+		SshProxySettings settings = SshProxySettings.defaults().withForwardingEngine(ForwardingEngine.NIO);
+		try (ServerSocket usedLocalPort = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+			 SshProxy sshProxy = new SshProxy(settings)) {
+			TunnelSpec tunnelSpec = new TunnelSpec(hostConfigName, "localhost", 1234, usedLocalPort.getLocalPort()).withSessions(3);
+			assertThatExceptionOfType(SshProxyRuntimeException.class)
+				.isThrownBy(() -> sshProxy.connect(tunnelSpec));
+
+			assertThat(SshSessionPool.getInstance().size()).isZero();
+		} finally {
+			tryStop(sshServer);
+		}
+	}
+
+	@Test
+	void testStripedSessions_JSchForwardingEngine() {
+		try (SshProxy sshProxy = new SshProxy()) {
+			TunnelSpec tunnelSpec = new TunnelSpec("localhost", "targethost", 1234).withSessions(2);
+			assertThatExceptionOfType(IllegalArgumentException.class)
+				.isThrownBy(() -> sshProxy.connect(tunnelSpec))
+				.withMessage("striping across multiple sessions is not supported by the forwarding engine JSCH");
+		}
+	}
+
+	@Test
+	@EnabledForJreRange(min = JRE.JAVA_16)
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testUnixSocketForwarding() throws Exception {
+		SshServer sshServer = setUpSshServer();
+		String hostConfigName = "localhost-" + sshServer.getPort();
+		appendToSshFile(CONFIG_FILENAME, "Host " + hostConfigName + "\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n\n");
+
+		Path socketPath = userHome.resolve("tunnel.sock");
+		SshProxySettings settings = SshProxySettings.defaults().withForwardingEngine(ForwardingEngine.NIO);
+		try (EchoServerSocketThread echoServerSocketThread = new EchoServerSocketThread();
+			 SshProxy sshProxy = new SshProxy(settings)) {
+			assertThat(sshProxy.connectUnixSocket(hostConfigName, "localhost", echoServerSocketThread.getPort(), socketPath)).isEqualTo(socketPath);
+			assertThat(sshProxy.connectUnixSocket(hostConfigName, "localhost", echoServerSocketThread.getPort(), socketPath)).isEqualTo(socketPath);
+			assertThat(sshServer.getActiveSessions()).hasSize(1);
+			assertThat(echoLineViaUnixSocket(socketPath, TEST_TEXT)).isEqualTo(TEST_TEXT);
+
+			sshProxy.disconnectUnixSocket(socketPath);
+			assertThat(echoLineViaUnixSocket(socketPath, TEST_TEXT)).isEqualTo(TEST_TEXT);
+
+			sshProxy.disconnectUnixSocket(socketPath);
+			assertThat(socketPath).doesNotExist();
+			assertThat(SshSessionPool.getInstance().size()).isZero();
+
+			assertThatExceptionOfType(IllegalArgumentException.class)
+				.isThrownBy(() -> sshProxy.disconnectUnixSocket(socketPath))
+				.withMessage("no tunnel on Unix domain socket " + socketPath);
+		} finally {
+			tryStop(sshServer);
+		}
+	}
+
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testDynamicForwarding() throws Exception {
+		SshServer sshServer = setUpSshServer();
+		String hostConfigName = "localhost-" + sshServer.getPort();
+		appendToSshFile(CONFIG_FILENAME, "Host " + hostConfigName + "\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n\n");
+
+		RecordingSshProxyListener listener = new RecordingSshProxyListener();
+		SshProxySettings settings = SshProxySettings.defaults().withForwardingEngine(ForwardingEngine.NIO).withListener(listener);
+		try (EchoServerSocketThread firstEchoServerSocketThread = new EchoServerSocketThread();
+			 EchoServerSocketThread secondEchoServerSocketThread = new EchoServerSocketThread();
+			 SshProxy sshProxy = new SshProxy(settings)) {
+			int port = sshProxy.connectDynamic(hostConfigName);
+			assertThat(sshProxy.connectDynamic(hostConfigName)).isEqualTo(port);
+
+			Proxy socksProxy = new Proxy(Proxy.Type.SOCKS, new InetSocketAddress(SshProxy.LOCALHOST, port));
+			try (Socket socket = new Socket(socksProxy)) {
+				socket.connect(InetSocketAddress.createUnresolved("localhost", firstEchoServerSocketThread.getPort()));
+				socket.getOutputStream().write((TEST_TEXT + "\n").getBytes(TRANSFER_CHARSET));
+				assertThat(readLine(socket.getInputStream())).isEqualTo(TEST_TEXT);
+			}
+
+			try (Socket socket = new Socket(SshProxy.LOCALHOST, port)) {
+				OutputStream out = socket.getOutputStream();
+				out.write(("CONNECT 127.0.0.1:" + secondEchoServerSocketThread.getPort() + " HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+				assertThat(readHttpResponseHeader(socket.getInputStream())).startsWith("HTTP/1.1 200");
+				out.write((TEST_TEXT + "\n").getBytes(TRANSFER_CHARSET));
+				assertThat(readLine(socket.getInputStream())).isEqualTo(TEST_TEXT);
+			}
+
+			assertThat(sshServer.getActiveSessions()).hasSize(1);
+			listener.awaitEvent("connectionClosed " + hostConfigName + " 127.0.0.1");
+			assertThat(listener.getEvents()).filteredOn(event -> event.startsWith("connectionOpened"))
+				.containsExactly("connectionOpened " + hostConfigName + " localhost", "connectionOpened " + hostConfigName + " 127.0.0.1");
+		} finally {
+			tryStop(sshServer);
+		}
+	}
+
+	@Test
+	void testDynamicForwarding_JSchForwardingEngine() {
+		try (SshProxy sshProxy = new SshProxy()) {
+			assertThatExceptionOfType(IllegalArgumentException.class)
+				.isThrownBy(() -> sshProxy.connectDynamic("localhost"))
+				.withMessage("dynamic forwarding is not supported by the forwarding engine JSCH");
+		}
+	}
+
+	@Test
+	void testUnixSocketForwarding_JSchForwardingEngine() {
+		try (SshProxy sshProxy = new SshProxy()) {
+			Path socketPath = userHome.resolve("tunnel.sock");
+			assertThatExceptionOfType(IllegalArgumentException.class)
+				.isThrownBy(() -> sshProxy.connectUnixSocket("localhost", "targethost", 1234, socketPath))
+				.withMessage("Unix domain sockets are not supported by the forwarding engine JSCH");
+			assertThatExceptionOfType(IllegalArgumentException.class)
+				.isThrownBy(() -> sshProxy.connect(new TunnelSpec("localhost", "targethost", 1234).withSocketPath(socketPath)))
+				.withMessage("tunnels on Unix domain sockets must be connected with connectUnixSocket");
+		}
+	}
+
+	@ParameterizedTest
+	@EnumSource(value = ForwardingEngine.class, names = { "NIO", "THREAD_PER_CONNECTION" })
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testHostBufferSizes(ForwardingEngine forwardingEngine) throws Exception {
+		assertEchoWithHalfClose(SshProxySettings.defaults().withForwardingEngine(forwardingEngine),
+			"\tChannelWindowSize 8388608\n\tChannelMaxPacketSize 65536\n\tSocketBufferSize 1048576\n");
+	}
+
+	@ParameterizedTest
+	@EnumSource(value = ForwardingEngine.class, names = { "NIO", "THREAD_PER_CONNECTION" })
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testTunnelBufferSizes(ForwardingEngine forwardingEngine) throws Exception {
+		SshServer sshServer = setUpSshServer();
+		String hostConfigName = "localhost-" + sshServer.getPort();
+		appendToSshFile(CONFIG_FILENAME, "Host " + hostConfigName + "\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n\n");
+
+		SshProxySettings settings = SshProxySettings.defaults().withForwardingEngine(forwardingEngine);
+		try (DummyServerSocketThread dummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT);
+			 SshProxy sshProxy = new SshProxy(settings)) {
+			TunnelSpec tunnelSpec = new TunnelSpec(hostConfigName, "localhost", dummyServerSocketThread.getPort())
+				.withWindowSize(4 * 1024 * 1024)
+				.withMaxPacketSize(64 * 1024)
+				.withSocketBufferSize(256 * 1024);
+			int port = sshProxy.connect(tunnelSpec);
+
+			assertThat(readLineFromLocalPort(port)).isEqualTo(TEST_TEXT);
+		} finally {
+			tryStop(sshServer);
+		}
+	}
+
+	@Test
+	void testTunnelBufferSizes_JSchForwardingEngine() {
+		try (SshProxy sshProxy = new SshProxy()) {
+			TunnelSpec tunnelSpec = new TunnelSpec("localhost", "targethost", 1234).withWindowSize(4 * 1024 * 1024);
+			assertThatExceptionOfType(IllegalArgumentException.class)
+				.isThrownBy(() -> sshProxy.connect(tunnelSpec))
+				.withMessage("window, packet and socket buffer sizes are not supported by the forwarding engine JSCH");
+		}
+	}
+
+	@ParameterizedTest
+	@EnumSource(ForwardingEngine.class)
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testChannelLimitQueuesConnections(ForwardingEngine forwardingEngine) throws Exception {
+		SshServer sshServer = setUpSshServer();
+		String hostConfigName = "localhost-" + sshServer.getPort();
+		appendToSshFile(CONFIG_FILENAME, "Host " + hostConfigName + "\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n\n");
+
+		SshProxySettings settings = SshProxySettings.defaults()
+			.withForwardingEngine(forwardingEngine)
+			.withMaxChannelsPerSession(1)
+			.withMaxQueuedChannels(10)
+			.withAcceptBacklog(100);
+		ExecutorService executor = Executors.newFixedThreadPool(5);
+		try (EchoServerSocketThread echoServerSocketThread = new EchoServerSocketThread();
+			 SshProxy sshProxy = new SshProxy(settings)) {
+			int port = sshProxy.connect(hostConfigName, "localhost", echoServerSocketThread.getPort());
+
+			List<Future<String>> echoes = new ArrayList<>();
+			for (int i = 0; i < 5; i++) {
+				String line = TEST_TEXT + i;
+				echoes.add(executor.submit(() -> echoLineViaLocalPort(port, line)));
+			}
+			for (int i = 0; i < 5; i++) {
+				assertThat(echoes.get(i).get()).isEqualTo(TEST_TEXT + i);
+			}
+		} finally {
+			executor.shutdownNow();
+			tryStop(sshServer);
+		}
+	}
+
+	@ParameterizedTest
+	@EnumSource(ForwardingEngine.class)
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testChannelLimitRejectsConnectionsIfQueueIsFull(ForwardingEngine forwardingEngine) throws Exception {
+		SshServer sshServer = setUpSshServer();
+		String hostConfigName = "localhost-" + sshServer.getPort();
+		appendToSshFile(CONFIG_FILENAME, "Host " + hostConfigName + "\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n\n");
+
+		RecordingSshProxyListener listener = new RecordingSshProxyListener();
+		SshProxySettings settings = SshProxySettings.defaults()
+			.withForwardingEngine(forwardingEngine)
+			.withListener(listener)
+			.withMaxChannelsPerSession(1);
+		try (EchoServerSocketThread echoServerSocketThread = new EchoServerSocketThread();
+			 SshProxy sshProxy = new SshProxy(settings)) {
+			int port = sshProxy.connect(hostConfigName, "localhost", echoServerSocketThread.getPort());
+
+			try (Socket s = new Socket(SshProxy.LOCALHOST, port)) {
+				s.getOutputStream().write((TEST_TEXT + "\n").getBytes(TRANSFER_CHARSET));
+				listener.awaitEvent("connectionOpened");
+
+				assertThatThrownBy(() -> echoLineViaLocalPort(port, TEST_TEXT));
+				listener.awaitEvent("connectionFailed");
+			}
+		} finally {
+			tryStop(sshServer);
+		}
+	}
+
+	private void assertEchoWithHalfClose(SshProxySettings settings) throws Exception {
+		assertEchoWithHalfClose(settings, "");
+	}
+
+	private void assertEchoWithHalfClose(SshProxySettings settings, String additionalHostConfig) throws Exception {
+		SshServer sshServer = setUpSshServer();
+		String hostConfigName = "localhost-" + sshServer.getPort();
+		appendToSshFile(CONFIG_FILENAME, "Host " + hostConfigName + "\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n" + additionalHostConfig + "\n");
+
+		byte[] data = new byte[4 * 1024 * 1024];
+		new Random(0).nextBytes(data);
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try (ServerSocket echoServerSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			 SshProxy sshProxy = new SshProxy(settings)) {
+			executor.submit(() -> {
+				try (Socket socket = echoServerSocket.accept()) {
+					socket.getInputStream().transferTo(socket.getOutputStream());
+				}
+				return null;
+			});
+
+			int port = sshProxy.connect(hostConfigName, echoServerSocket.getInetAddress().getHostAddress(), echoServerSocket.getLocalPort());
+			try (Socket socket = new Socket(SshProxy.LOCALHOST, port)) {
+				Future<?> writer = executor.submit(() -> {
+					socket.getOutputStream().write(data);
+					socket.shutdownOutput();
+					return null;
+				});
+				byte[] echoed = socket.getInputStream().readAllBytes();
+				writer.get();
+				assertThat(echoed).isEqualTo(data);
+			}
+		} finally {
+			executor.shutdownNow();
+			tryStop(sshServer);
+		}
+	}
+
+	@ParameterizedTest
+	@EnumSource(ForwardingEngine.class)
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testReconnectKeepsLocalPort(ForwardingEngine forwardingEngine) throws Exception {
+		SshServer firstSshServer = setUpSshServer();
+		SshServer secondSshServer = setUpSshServer();
+		int firstSshServerPort = firstSshServer.getPort();
+
+		appendToSshFile(CONFIG_FILENAME, "Host firsthop\n\tHostName localhost\n\tPort " + firstSshServerPort + "\n\tServerAliveInterval 1\n\n");
+		appendToSshFile(CONFIG_FILENAME, "Host secondhop\n\tHostName localhost\n\tPort " + secondSshServer.getPort() + "\n\tProxyJump firsthop\n\n");
+
+		RecordingSshProxyListener listener = new RecordingSshProxyListener();
+		SshProxySettings settings = SshProxySettings.defaults()
+			.withForwardingEngine(forwardingEngine)
+			.withListener(listener)
+			.withHealthCheckIntervalMillis(100);
+
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try (ServerSocket echoServerSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			 SshProxy sshProxy = new SshProxy(settings)) {
+			startEchoServer(echoServerSocket, executor);
+
+			int port = sshProxy.connect("secondhop", echoServerSocket.getInetAddress().getHostAddress(), echoServerSocket.getLocalPort());
+			assertThat(echoLineViaLocalPort(port, "before restart")).isEqualTo("before restart");
+
+			tryStop(firstSshServer);
+			firstSshServer = TestSshServer.start(KeyUtils.RSA_ALGORITHM, firstSshServerPort);
+
+			listener.awaitEvent("tunnelReconnected secondhop");
+			assertThat(echoLineViaLocalPort(port, "after restart")).isEqualTo("after restart");
+		} finally {
+			executor.shutdownNow();
+			tryStop(firstSshServer);
+			tryStop(secondSshServer);
+		}
+		assertThat(SshSessionPool.getInstance().size()).isZero();
+	}
+
+	@ParameterizedTest
+	@EnumSource(ForwardingEngine.class)
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testServerAliveBehindJumpHost(ForwardingEngine forwardingEngine) throws Exception {
+		SshServer firstSshServer = setUpSshServer();
+		SshServer secondSshServer = setUpSshServer();
+
+		ExecutorService executor = Executors.newCachedThreadPool();
+		AtomicInteger relayGeneration = new AtomicInteger();
+		try (ServerSocket relayServerSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			 ServerSocket echoServerSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			startStallingRelay(relayServerSocket, secondSshServer.getPort(), relayGeneration, executor);
+			startEchoServer(echoServerSocket, executor);
+
+			appendToSshFile(CONFIG_FILENAME, "Host firsthop\n\tHostName localhost\n\tPort " + firstSshServer.getPort() + "\n\n");
+			appendToSshFile(CONFIG_FILENAME, "Host secondhop\n\tHostName localhost\n\tPort " + relayServerSocket.getLocalPort()
+				+ "\n\tProxyJump firsthop\n\tServerAliveInterval 1\n\tServerAliveCountMax 1\n\n");
+
+			RecordingSshProxyListener listener = new RecordingSshProxyListener();
+			SshProxySettings settings = SshProxySettings.defaults()
+				.withForwardingEngine(forwardingEngine)
+				.withListener(listener)
+				.withHealthCheckIntervalMillis(100);
+
+			try (SshProxy sshProxy = new SshProxy(settings)) {
+				int port = sshProxy.connect("secondhop", echoServerSocket.getInetAddress().getHostAddress(), echoServerSocket.getLocalPort());
+				assertThat(echoLineViaLocalPort(port, "before stall")).isEqualTo("before stall");
+
+				// the second hop stops answering while the jump host stays connected
+				relayGeneration.incrementAndGet();
+
+				listener.awaitEvent("tunnelReconnected secondhop");
+				assertThat(echoLineViaLocalPort(port, "after stall")).isEqualTo("after stall");
+			}
+		} finally {
+			executor.shutdownNow();
+			tryStop(firstSshServer);
+			tryStop(secondSshServer);
+		}
+		assertThat(SshSessionPool.getInstance().size()).isZero();
+	}
+
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testListener() throws Exception {
+		SshServer firstSshServer = setUpSshServer();
+		SshServer secondSshServer = setUpSshServer();
+
+		appendToSshFile(CONFIG_FILENAME, "Host firsthop\n\tHostName localhost\n\tPort " + firstSshServer.getPort() + "\n\n");
+		appendToSshFile(CONFIG_FILENAME, "Host secondhop\n\tHostName localhost\n\tPort " + secondSshServer.getPort() + "\n\tProxyJump firsthop\n\n");
+
+		RecordingSshProxyListener listener = new RecordingSshProxyListener();
+		int expectedBytes = (TEST_TEXT + "\r\n").getBytes(TRANSFER_CHARSET).length;
+
+		try (DummyServerSocketThread firstDummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT);
+			 DummyServerSocketThread secondDummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT)) {
+			try (SshProxy sshProxy = new SshProxy(SshProxySettings.defaults().withListener(listener))) {
+				int port = sshProxy.connect("secondhop", "localhost", firstDummyServerSocketThread.getPort());
+				assertThat(readLineFromLocalPort(port)).isEqualTo(TEST_TEXT);
+				listener.awaitEvent("connectionClosed");
+
+				try (Socket s = sshProxy.openSocket("secondhop", "localhost", secondDummyServerSocketThread.getPort())) {
+					assertThat(readLine(s.getInputStream())).isEqualTo(TEST_TEXT);
+				}
+			}
+
+			assertThat(listener.getEvents()).containsExactly(
+				"sessionConnected firsthop",
+				"sessionConnected secondhop",
+				"tunnelOpened secondhop localhost",
+				"connectionOpened secondhop localhost",
+				"connectionClosed secondhop localhost sent=0 received=" + expectedBytes,
+				"connectionOpened secondhop localhost",
+				"connectionClosed secondhop localhost sent=0 received=" + expectedBytes,
+				"tunnelClosed secondhop localhost",
+				"sessionClosed secondhop",
+				"sessionClosed firsthop"
+			);
+		} finally {
+			tryStop(firstSshServer);
+			tryStop(secondSshServer);
+		}
+	}
+
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testListenerIsNotifiedAboutFailedTunnel() throws Exception {
+		appendToSshFile(CONFIG_FILENAME, "Host unreachable\n\tHostName localhost\n\tPort 1\n\n");
+		appendToSshFile(KNOWN_HOSTS_FILENAME, TestSshServer.getKnownHostsEntry(KeyUtils.RSA_ALGORITHM));
+
+		RecordingSshProxyListener listener = new RecordingSshProxyListener();
+		try (SshProxy sshProxy = new SshProxy(SshProxySettings.defaults().withListener(listener))) {
+			assertThatExceptionOfType(SshProxyRuntimeException.class)
+				.isThrownBy(() -> sshProxy.connect("unreachable", "localhost", 1234));
+		}
+
+		assertThat(listener.getEvents()).containsExactly(
+			"sessionFailed unreachable",
+			"tunnelFailed unreachable localhost"
+		);
+	}
+
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testConnectAll() throws Exception {
+		SshServer firstSshServer = setUpSshServer();
+		SshServer secondSshServer = setUpSshServer();
+
+		appendToSshFile(CONFIG_FILENAME, "Host firsthop\n\tHostName localhost\n\tPort " + firstSshServer.getPort() + "\n\n");
+		appendToSshFile(CONFIG_FILENAME, "Host secondhop\n\tHostName localhost\n\tPort " + secondSshServer.getPort() + "\n\tProxyJump firsthop\n\n");
+
+		RecordingSshProxyListener listener = new RecordingSshProxyListener();
+		try (DummyServerSocketThread firstDummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, "first");
+			 DummyServerSocketThread secondDummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, "second");
+			 DummyServerSocketThread thirdDummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, "third");
+			 SshProxy sshProxy = new SshProxy(SshProxySettings.defaults().withListener(listener))) {
+			List<Integer> localPorts = sshProxy.connectAll(Arrays.asList(
+				new TunnelSpec("secondhop", "localhost", firstDummyServerSocketThread.getPort()),
+				new TunnelSpec("firsthop", "localhost", secondDummyServerSocketThread.getPort()),
+				new TunnelSpec("secondhop", "localhost", thirdDummyServerSocketThread.getPort())
+			));
+
+			assertThat(localPorts).hasSize(3);
+			assertThat(readLineFromLocalPort(localPorts.get(0).intValue())).isEqualTo("first");
+			assertThat(readLineFromLocalPort(localPorts.get(1).intValue())).isEqualTo("second");
+			assertThat(readLineFromLocalPort(localPorts.get(2).intValue())).isEqualTo("third");
+			assertThat(SshSessionPool.getInstance().size()).isEqualTo(2);
+		} finally {
+			tryStop(firstSshServer);
+			tryStop(secondSshServer);
+		}
+
+		assertThat(listener.getEvents()).filteredOn(event -> event.startsWith("sessionConnected")).containsExactlyInAnyOrder(
+			"sessionConnected firsthop",
+			"sessionConnected secondhop"
+		);
+		assertThat(SshSessionPool.getInstance().size()).isZero();
+	}
+
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testDisconnectDoesNotWaitForConnectToOtherHost() throws Exception {
+		SshServer sshServer = setUpSshServer();
+		appendToSshFile(CONFIG_FILENAME, "Host reachable\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n\n");
+
+		// accepts the connection, but never sends the SSH identification
+		try (ServerSocket silentSshServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			 SshProxy sshProxy = new SshProxy(SshProxySettings.defaults().withTimeoutMillis(10_000))) {
+			appendToSshFile(CONFIG_FILENAME, "Host silent\n\tHostName localhost\n\tPort " + silentSshServer.getLocalPort() + "\n\n");
+			int localPort = sshProxy.connect("reachable", "localhost", 1234);
+
+			CompletableFuture<Integer> hangingConnect = sshProxy.connectAsync("silent", "localhost", 1234);
+			try (Socket accepted = silentSshServer.accept()) {
+				long startNanos = System.nanoTime();
+				sshProxy.disconnect(localPort);
+				assertThat(Duration.ofNanos(System.nanoTime() - startNanos)).isLessThan(Duration.ofSeconds(5));
+				assertThat(hangingConnect).isNotDone();
+			}
+		} finally {
+			tryStop(sshServer);
+		}
+	}
+
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testConnectAll_Failure() throws Exception {
+		SshServer sshServer = setUpSshServer();
+		appendToSshFile(CONFIG_FILENAME, "Host reachable\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n\n");
+		appendToSshFile(CONFIG_FILENAME, "Host unreachable\n\tHostName localhost\n\tPort 1\n\n");
+
+		try (SshProxy sshProxy = new SshProxy()) {
+			assertThatExceptionOfType(SshProxyRuntimeException.class)
+				.isThrownBy(() -> sshProxy.connectAll(Arrays.asList(
+					new TunnelSpec("reachable", "localhost", 1234),
+					new TunnelSpec("unreachable", "localhost", 1234)
+				)))
+				.withMessage("Failed to create SSH tunnel to localhost via unreachable");
+			assertThat(SshSessionPool.getInstance().size()).isZero();
+		} finally {
+			tryStop(sshServer);
+		}
+		assertThat(SshSessionPool.getInstance().size()).isZero();
+	}
+
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testConnectAsync() throws Exception {
+		SshServer sshServer = setUpSshServer();
+		appendToSshFile(CONFIG_FILENAME, "Host localhost-async\n\tHostName localhost\n\tPort " + sshServer.getPort() + "\n\n");
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try (DummyServerSocketThread dummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT);
+			 SshProxy sshProxy = new SshProxy(SshProxySettings.defaults().withConnectExecutor(executor))) {
+			CompletableFuture<Integer> localPort = sshProxy.connectAsync("localhost-async", "localhost", dummyServerSocketThread.getPort());
+
+			assertThat(readLineFromLocalPort(localPort.get().intValue())).isEqualTo(TEST_TEXT);
+		} finally {
+			executor.shutdownNow();
+			tryStop(sshServer);
+		}
+	}
+
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testSocketFactory() throws Exception {
+		SshServer sshServer = setUpSshServer();
+		int sshServerPort = sshServer.getPort();
+
+		String hostConfigName = "localhost-" + sshServerPort;
+		appendToSshFile(CONFIG_FILENAME, "Host " + hostConfigName + "\n\tHostName localhost\n\tPort " + sshServerPort + "\n\n");
+
+		try (DummyServerSocketThread dummyServerSocketThread = new DummyServerSocketThread(TRANSFER_CHARSET, TEST_TEXT);
+			 ServerSocket silentServerSocket = new ServerSocket(0);
+			 SshProxy sshProxy = new SshProxy()) {
+			SocketFactory socketFactory = sshProxy.getSocketFactory(hostConfigName);
+
+			Socket socket = socketFactory.createSocket();
+			assertThat(socket.isConnected()).isFalse();
+			socket.connect(new InetSocketAddress("localhost", dummyServerSocketThread.getPort()), 1000);
+			assertThat(readLine(socket.getInputStream())).isEqualTo(TEST_TEXT);
+
+			Socket silentSocket = socketFactory.createSocket("localhost", silentServerSocket.getLocalPort());
+			silentSocket.setSoTimeout(100);
+			assertThatExceptionOfType(SocketTimeoutException.class)
+				.isThrownBy(() -> silentSocket.getInputStream().read());
+
+			sshProxy.close();
+
+			assertThat(socket.isClosed()).isTrue();
+			assertThat(silentSocket.isClosed()).isTrue();
+		} finally {
+			tryStop(sshServer);
+		}
+	}
+
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testSingleHop_NoHostKeyFound() {
+		try (SshProxy sshProxy = new SshProxy()) {
+			sshProxy.connect("jumphost", "targethost", 1234);
+			fail("SshProxyRuntimeException expected");
+		} catch (SshProxyRuntimeException e) {
+			log.debug("Expected exception", e);
+			assertThat(e.getMessage()).isEqualTo("Failed to create SSH tunnel to targethost via jumphost");
+			assertThat(e.getCause().getMessage()).startsWith("Found no host key for jumphost");
+		}
+	}
+
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testSingleHop_ConnectionRefused() throws Exception {
+		try (SshServer sshServer = setUpSshServer()) {
+			sshServer.stop();
+			try (SshProxy sshProxy = new SshProxy()) {
+				sshProxy.connect("localhost", "targethost", 1234);
+				fail("SshProxyRuntimeException expected");
+			} catch (SshProxyRuntimeException e) {
+				log.debug("Expected exception", e);
+				assertThat(e.getMessage()).isEqualTo("Failed to create SSH tunnel to targethost via localhost");
+				assertThat(e.getCause().getMessage()).isEqualTo("Failed to connect to targethost via localhost");
+			}
+		}
+	}
+
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testSingleHop_IllegalPort() {
+		try (SshProxy sshProxy = new SshProxy()) {
+			sshProxy.connect("localhost", "targethost", 0);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getMessage()).isEqualTo("illegal port: 0");
+		}
+	}
+
+	@Test
+	@Timeout(value = TEST_TIMEOUT_MILLIS,unit = TimeUnit.MILLISECONDS)
+	void testSingleHop_IllegalLocalPort() {
+		try (SshProxy sshProxy = new SshProxy()) {
+			sshProxy.connect("localhost", "targethost", 1234, -1);
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getMessage()).isEqualTo("illegal local port: -1");
+		}
+	}
+
+	private void tryStop(SshServer sshServer) {
+		TestSshServer.stop(sshServer);
+	}
+
+	private static void startEchoServer(ServerSocket serverSocket, ExecutorService executor) {
+		executor.submit(() -> {
+			while (true) {
+				Socket socket = serverSocket.accept();
+				executor.submit(() -> {
+					try (Socket s = socket) {
+						s.getInputStream().transferTo(s.getOutputStream());
+					}
+					return null;
+				});
+			}
+		});
+	}
+
+	// relays connections to the target port, connections accepted before the generation is incremented drop all data
+	private static void startStallingRelay(ServerSocket serverSocket, int targetPort, AtomicInteger generation, ExecutorService executor) {
+		executor.submit(() -> {
+			while (true) {
+				Socket socket = serverSocket.accept();
+				Socket target = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+				int connectionGeneration = generation.get();
+				for (Socket[] direction : Arrays.asList(new Socket[] { socket, target }, new Socket[] { target, socket })) {
+					executor.submit(() -> {
+						try (Socket from = direction[0]; Socket to = direction[1]) {
+							byte[] buffer = new byte[8192];
+							int read;
+							while ((read = from.getInputStream().read(buffer)) >= 0) {
+								if (generation.get() == connectionGeneration) {
+									to.getOutputStream().write(buffer, 0, read);
+								}
+							}
+						}
+						return null;
+					});
+				}
+			}
+		});
+	}
+
+	private String echoLineViaLocalPort(int port, String line) throws IOException {
+		try (Socket s = new Socket(SshProxy.LOCALHOST, port)) {
+			s.getOutputStream().write((line + "\n").getBytes(TRANSFER_CHARSET));
+			return readLine(s.getInputStream());
+		}
+	}
+
+	private static byte[] echoViaLocalPort(int port, byte[] data, ExecutorService executor) throws Exception {
+		try (Socket socket = new Socket(SshProxy.LOCALHOST, port)) {
+			Future<?> writer = executor.submit(() -> {
+				socket.getOutputStream().write(data);
+				socket.shutdownOutput();
+				return null;
+			});
+			byte[] echoed = socket.getInputStream().readAllBytes();
+			writer.get();
+			return echoed;
+		}
+	}
+
+	private String readLineFromLocalPort(int port) throws IOException {
+		try (Socket s = new Socket(SshProxy.LOCALHOST, port);
+			 InputStream is = s.getInputStream()) {
+			log.info("connected to port: {}", port);
+			return readLine(is);
+		}
+	}
+
+	private String echoLineViaUnixSocket(Path socketPath, String line) throws IOException {
+		try (SocketChannel channel = UnixDomainSockets.connect(socketPath)) {
+			channel.write(ByteBuffer.wrap((line + "\n").getBytes(TRANSFER_CHARSET)));
+			return readLine(Channels.newInputStream(channel));
+		}
+	}
+
+	private static String readHttpResponseHeader(InputStream is) throws IOException {
+		StringBuilder header = new StringBuilder();
+		while (header.indexOf("\r\n\r\n") < 0) {
+			int b = is.read();
+			assertThat(b).isNotNegative();
+			header.append((char) b);
+		}
+		return header.toString();
+	}
+
+	private String readLine(InputStream is) throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, TRANSFER_CHARSET))) {
+			String line = reader.readLine();
+			assertThat(line).isNotNull();
+			return line.trim();
+		}
+	}
+
+	private SshServer setUpSshServer() throws IOException {
+		return setUpSshServer(KeyUtils.RSA_ALGORITHM);
+	}
+
+	private SshServer setUpSshServer(String algorithm) throws IOException {
+		appendToSshFile(KNOWN_HOSTS_FILENAME, TestSshServer.getKnownHostsEntry(algorithm));
+
+		SshServer sshServer = TestSshServer.start(algorithm);
+
+		int sshServerPort = sshServer.getPort();
+		assertThat(sshServerPort).isPositive();
+
+		return sshServer;
 	}
 
 	private void appendToSshFile(String filename, String text) throws IOException {
@@ -0,0 +1,199 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.jcraft.jsch.Session;
+
+import de.cronn.proxy.ssh.SshSessionPool.PooledSession;
+
+@ExtendWith(MockitoExtension.class)
+class SshSessionPoolTest {
+
+	private static final SessionKey JUMP_HOST_KEY = new SessionKey("user", "jumphost", 22, null);
+	private static final SessionKey TARGET_KEY = new SessionKey("user", "target", 22, JUMP_HOST_KEY);
+
+	@Mock
+	private Session session;
+
+	@Mock
+	private Session otherSession;
+
+	@Test
+	void testAcquireReusesSession() throws Exception {
+		SshSessionPool sessionPool = new SshSessionPool();
+		when(session.isConnected()).thenReturn(true);
+		AtomicInteger openedSessions = new AtomicInteger();
+
+		SshSessionLease firstLease = sessionPool.acquire(TARGET_KEY, () -> {
+			openedSessions.incrementAndGet();
+			return new PooledSession(session);
+		});
+		SshSessionLease secondLease = sessionPool.acquire(TARGET_KEY, () -> {
+			openedSessions.incrementAndGet();
+			return new PooledSession(otherSession);
+		});
+
+		assertThat(openedSessions).hasValue(1);
+		assertThat(firstLease.getSession()).isSameAs(session);
+		assertThat(secondLease.getSession()).isSameAs(session);
+		assertThat(sessionPool.size()).isEqualTo(1);
+
+		firstLease.close();
+		verify(session, never()).disconnect();
+		assertThat(sessionPool.size()).isEqualTo(1);
+
+		secondLease.close();
+		verify(session).disconnect();
+		assertThat(sessionPool.size()).isZero();
+	}
+
+	@Test
+	void testReleaseIsIdempotent() throws Exception {
+		SshSessionPool sessionPool = new SshSessionPool();
+		AtomicInteger disconnectCallbacks = new AtomicInteger();
+
+		SshSessionLease lease = sessionPool.acquire(JUMP_HOST_KEY, () -> new PooledSession(session, disconnectCallbacks::incrementAndGet));
+		lease.close();
+		lease.close();
+
+		verify(session).disconnect();
+		assertThat(disconnectCallbacks).hasValue(1);
+	}
+
+	@Test
+	void testDisconnectedSessionIsReplaced() throws Exception {
+		SshSessionPool sessionPool = new SshSessionPool();
+		when(session.isConnected()).thenReturn(false);
+
+		SshSessionLease firstLease = sessionPool.acquire(JUMP_HOST_KEY, () -> new PooledSession(session));
+		SshSessionLease secondLease = sessionPool.acquire(JUMP_HOST_KEY, () -> new PooledSession(otherSession));
+
+		assertThat(secondLease.getSession()).isSameAs(otherSession);
+
+		secondLease.close();
+		verify(otherSession).disconnect();
+		assertThat(sessionPool.size()).isZero();
+
+		firstLease.close();
+		verify(session).disconnect();
+	}
+
+	@Test
+	void testSessionBehindDisconnectedJumpHostIsReplaced() throws Exception {
+		SshSessionPool sessionPool = new SshSessionPool();
+		Session jumpHostSession = mock(Session.class);
+		when(jumpHostSession.isConnected()).thenReturn(true);
+		when(session.isConnected()).thenReturn(true);
+
+		SshSessionLease jumpHostLease = sessionPool.acquire(JUMP_HOST_KEY, () -> new PooledSession(jumpHostSession));
+		SshSessionLease firstLease = sessionPool.acquire(TARGET_KEY, () -> new PooledSession(session, jumpHostLease, jumpHostLease::close));
+		assertThat(firstLease.isConnected()).isTrue();
+
+		when(jumpHostSession.isConnected()).thenReturn(false);
+		assertThat(firstLease.isConnected()).isFalse();
+
+		SshSessionLease secondLease = sessionPool.acquire(TARGET_KEY, () -> new PooledSession(otherSession));
+		assertThat(secondLease.getSession()).isSameAs(otherSession);
+
+		secondLease.close();
+		firstLease.close();
+		verify(session).disconnect();
+		verify(jumpHostSession).disconnect();
+		assertThat(sessionPool.size()).isZero();
+	}
+
+	@Test
+	void testSessionsAreKeyedByHopChain() throws Exception {
+		SshSessionPool sessionPool = new SshSessionPool();
+		SessionKey directTargetKey = new SessionKey("user", "target", 22, null);
+
+		try (SshSessionLease viaJumpHost = sessionPool.acquire(TARGET_KEY, () -> new PooledSession(session));
+			 SshSessionLease direct = sessionPool.acquire(directTargetKey, () -> new PooledSession(otherSession))) {
+			assertThat(viaJumpHost.getSession()).isSameAs(session);
+			assertThat(direct.getSession()).isSameAs(otherSession);
+			assertThat(sessionPool.size()).isEqualTo(2);
+		}
+
+		assertThat(sessionPool.size()).isZero();
+	}
+
+	@Test
+	void testSessionsAreKeyedBySettings() throws Exception {
+		SshSessionPool sessionPool = new SshSessionPool();
+		SessionKey otherTimeoutKey = new SessionKey("user", "jumphost", 22, CryptoProfile.DEFAULT, 0, null, 1000, false);
+		SessionKey adaptiveCompressionKey = new SessionKey("user", "jumphost", 22, CryptoProfile.DEFAULT, 0, null,
+			SshProxySettings.DEFAULT_TIMEOUT_MILLIS, true);
+
+		try (SshSessionLease defaultLease = sessionPool.acquire(JUMP_HOST_KEY, () -> new PooledSession(session));
+			 SshSessionLease otherTimeoutLease = sessionPool.acquire(otherTimeoutKey, () -> new PooledSession(otherSession));
+			 SshSessionLease adaptiveCompressionLease = sessionPool.acquire(adaptiveCompressionKey, () -> new PooledSession(mock(Session.class)))) {
+			assertThat(defaultLease.getSession()).isSameAs(session);
+			assertThat(otherTimeoutLease.getSession()).isSameAs(otherSession);
+			assertThat(adaptiveCompressionLease.getSession()).isNotIn(session, otherSession);
+			assertThat(sessionPool.size()).isEqualTo(3);
+		}
+
+		assertThat(sessionPool.size()).isZero();
+	}
+
+	@Test
+	void testConcurrentAcquireOpensSessionOnce() throws Exception {
+		SshSessionPool sessionPool = new SshSessionPool();
+		when(session.isConnected()).thenReturn(true);
+		AtomicInteger openedSessions = new AtomicInteger();
+		CountDownLatch sessionOpening = new CountDownLatch(1);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<SshSessionLease>> leases = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				leases.add(executor.submit(() -> sessionPool.acquire(JUMP_HOST_KEY, () -> {
+					openedSessions.incrementAndGet();
+					awaitUninterruptibly(sessionOpening);
+					return new PooledSession(session);
+				})));
+			}
+
+			Thread.sleep(100);
+			sessionOpening.countDown();
+
+			for (Future<SshSessionLease> lease : leases) {
+				assertThat(lease.get(10, TimeUnit.SECONDS).getSession()).isSameAs(session);
+			}
+			assertThat(openedSessions).hasValue(1);
+
+			for (Future<SshSessionLease> lease : leases) {
+				lease.get().close();
+			}
+			verify(session).disconnect();
+			assertThat(sessionPool.size()).isZero();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void awaitUninterruptibly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,90 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import com.jcraft.jsch.Session;
+
+class StripedSessionsTest {
+
+	@Test
+	void testConnectionsAreDistributedRoundRobin() throws Exception {
+		StripedSessions sessions = new StripedSessions(Arrays.asList(connectedSession(), connectedSession(), connectedSession()));
+
+		assertThat(sessions.size()).isEqualTo(3);
+		assertThat(sessions.acquire()).isEqualTo(0);
+		assertThat(sessions.acquire()).isEqualTo(1);
+		assertThat(sessions.acquire()).isEqualTo(2);
+		assertThat(sessions.acquire()).isEqualTo(0);
+		assertThat(sessions.getActiveConnections(0)).isEqualTo(2);
+		assertThat(sessions.getActiveConnections(1)).isEqualTo(1);
+		assertThat(sessions.getActiveConnections(2)).isEqualTo(1);
+	}
+
+	@Test
+	void testLeastLoadedSessionIsPreferred() throws Exception {
+		StripedSessions sessions = new StripedSessions(Arrays.asList(connectedSession(), connectedSession(), connectedSession()));
+		for (int i = 0; i < 6; i++) {
+			sessions.acquire();
+		}
+
+		sessions.release(1);
+		sessions.release(1);
+
+		assertThat(sessions.acquire()).isEqualTo(1);
+		assertThat(sessions.acquire()).isEqualTo(1);
+		assertThat(sessions.getActiveConnections(1)).isEqualTo(2);
+	}
+
+	@Test
+	void testDisconnectedSessionIsSkipped() throws Exception {
+		Session disconnectedSession = mock(Session.class);
+		StripedSessions sessions = new StripedSessions(Arrays.asList(connectedSession(), disconnectedSession));
+
+		assertThat(sessions.acquire()).isEqualTo(0);
+		assertThat(sessions.acquire()).isEqualTo(0);
+
+		Session reconnectedSession = connectedSession();
+		assertThat(sessions.replace(disconnectedSession, reconnectedSession)).isTrue();
+		assertThat(sessions.replace(disconnectedSession, reconnectedSession)).isFalse();
+
+		assertThat(sessions.getSession(1)).isSameAs(reconnectedSession);
+		assertThat(sessions.acquire()).isEqualTo(1);
+	}
+
+	@Test
+	void testAllSessionsDisconnected() throws Exception {
+		Session session = mock(Session.class);
+		StripedSessions sessions = new StripedSessions(Collections.singletonList(session));
+
+		assertThat(sessions.acquire()).isEqualTo(0);
+		assertThat(sessions.getSession(0)).isSameAs(session);
+	}
+
+	@Test
+	void testReleaseWithoutAcquire() throws Exception {
+		StripedSessions sessions = new StripedSessions(Collections.singletonList(connectedSession()));
+
+		assertThatExceptionOfType(IllegalArgumentException.class)
+			.isThrownBy(() -> sessions.release(0))
+			.withMessage("stripe 0 was not acquired");
+	}
+
+	@Test
+	void testEmptySessions() throws Exception {
+		assertThatExceptionOfType(IllegalArgumentException.class)
+			.isThrownBy(() -> new StripedSessions(Collections.emptyList()))
+			.withMessage("sessions must not be empty");
+	}
+
+	private static Session connectedSession() {
+		Session session = mock(Session.class);
+		when(session.isConnected()).thenReturn(true);
+		return session;
+	}
+}
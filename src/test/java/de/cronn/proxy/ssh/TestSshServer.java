@@ -0,0 +1,78 @@
+package de.cronn.proxy.ssh;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.sshd.common.config.keys.KeyUtils;
+import org.apache.sshd.common.util.security.SecurityUtils;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.auth.pubkey.AcceptAllPublickeyAuthenticator;
+import org.apache.sshd.server.forward.AcceptAllForwardingFilter;
+import org.apache.sshd.server.keyprovider.AbstractGeneratorHostKeyProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public final class TestSshServer {
+
+	private static final Logger log = LoggerFactory.getLogger(TestSshServer.class);
+
+	private static final Path TEST_RESOURCES = Paths.get("src", "test", "resources");
+	private static final Path SERVER_RSA_KEY = TEST_RESOURCES.resolve("server-rsa.key");
+	private static final Path SERVER_ECDSA_KEY = TEST_RESOURCES.resolve("server-ecdsa.key");
+
+	private TestSshServer() {
+	}
+
+	public static SshServer start(String algorithm) throws IOException {
+		return start(algorithm, 0);
+	}
+
+	public static SshServer start(String algorithm, int port) throws IOException {
+		SshServer sshServer = SshServer.setUpDefaultServer();
+		sshServer.setPort(port);
+		AbstractGeneratorHostKeyProvider hostKeyProvider = SecurityUtils.createGeneratorHostKeyProvider(getServerKeyFile(algorithm));
+		hostKeyProvider.setAlgorithm(algorithm);
+		if (algorithm.equals(KeyUtils.EC_ALGORITHM)) {
+			hostKeyProvider.setKeySize(256);
+		}
+		sshServer.setKeyPairProvider(hostKeyProvider);
+
+		sshServer.setPublickeyAuthenticator(AcceptAllPublickeyAuthenticator.INSTANCE);
+		sshServer.setForwardingFilter(AcceptAllForwardingFilter.INSTANCE);
+
+		sshServer.start();
+		return sshServer;
+	}
+
+	public static void stop(SshServer sshServer) {
+		try {
+			log.debug("stopping SSH server");
+			sshServer.stop();
+		} catch (IOException e) {
+			log.error("Failed to stop SSH server", e);
+		}
+	}
+
+	public static String getKnownHostsEntry(String algorithm) {
+		switch (algorithm) {
+			case KeyUtils.RSA_ALGORITHM:
+				return "localhost ssh-rsa AAAAB3NzaC1yc2EAAAADAQABAAABAQDL8360Wxcgo33sggS0bSid0u7Ad4XFig8/e0UfD5l02x/w2DRJuqJow4SiDfi9jvD8p3lu7To7b/oGH/c/vsK9j35ICG0eJ/bbnQDuHROBAnbAC6PXN+/XX2F9s48KlOC5dQXrGYyYhoozW67yoHTooisZSzF/iyPdNat64rM0+ZO3dV6eEQ0FItYO632YcSiBRE7YZe9rP7ne50xaltKgrAmHRDRo+tjIcykrlcZFG1Bp/ct9Ejs2DQDsFOZRCmFbag0pQxxbkA1U6z7O3qwhhDWcJz2ZHDHK8DUkgHdX+Hbp7LxBWEaCiU8cL+S6rmCpNsui9NT/XeoLuXQ4J8jX\n";
+			case KeyUtils.EC_ALGORITHM:
+				return "localhost ecdsa-sha2-nistp256 AAAAE2VjZHNhLXNoYTItbmlzdHAyNTYAAAAIbmlzdHAyNTYAAABBBCH+0xjLYNGoqVGlD4VtKHF1Tig2/Y76BxVld88bYAaRV4ojJni62vIYMKqk+FMZhL1lcQ/VQTvIeLMnYk+grKo=\n";
+			default:
+				throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+		}
+	}
+
+	private static Path getServerKeyFile(String algorithm) {
+		switch (algorithm) {
+			case KeyUtils.RSA_ALGORITHM:
+				return SERVER_RSA_KEY;
+			case KeyUtils.EC_ALGORITHM:
+				return SERVER_ECDSA_KEY;
+			default:
+				throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class TunnelActivityTrackerTest {
+
+	@Mock
+	private SshProxyListener listener;
+
+	@Test
+	void testTunnelWithOpenConnectionIsNotIdle() {
+		TunnelActivityTracker tracker = new TunnelActivityTracker(listener);
+		tracker.track("jumpHost", "host", 1234);
+		assertThat(tracker.isIdle("jumpHost", "host", 1234)).isTrue();
+
+		tracker.connectionOpened("jumpHost", "host", 1234, Duration.ofMillis(1));
+		tracker.connectionOpened("jumpHost", "host", 1234, Duration.ofMillis(1));
+		assertThat(tracker.isIdle("jumpHost", "host", 1234)).isFalse();
+		assertThat(tracker.isIdle("jumpHost", "host", 4321)).isTrue();
+
+		tracker.connectionClosed("jumpHost", "host", 1234, 10, 20, Duration.ofSeconds(1));
+		assertThat(tracker.isIdle("jumpHost", "host", 1234)).isFalse();
+
+		tracker.connectionClosed("jumpHost", "host", 1234, 10, 20, Duration.ofSeconds(1));
+		assertThat(tracker.isIdle("jumpHost", "host", 1234)).isTrue();
+
+		verify(listener, times(2)).connectionOpened("jumpHost", "host", 1234, Duration.ofMillis(1));
+		verify(listener, times(2)).connectionClosed("jumpHost", "host", 1234, 10, 20, Duration.ofSeconds(1));
+	}
+
+	@Test
+	void testConnectionClosedWithoutOpening() {
+		TunnelActivityTracker tracker = new TunnelActivityTracker(listener);
+		tracker.track("jumpHost", "host", 1234);
+		ConnectionMeter openedMeter = new ConnectionMeter(tracker, "jumpHost", "host", 1234);
+		ConnectionMeter refusedMeter = new ConnectionMeter(tracker, "jumpHost", "host", 1234);
+
+		openedMeter.opened();
+		refusedMeter.closed();
+		refusedMeter.opened();
+		assertThat(tracker.isIdle("jumpHost", "host", 1234)).isFalse();
+
+		openedMeter.closed();
+		assertThat(tracker.isIdle("jumpHost", "host", 1234)).isTrue();
+
+		verify(listener).connectionOpened(eq("jumpHost"), eq("host"), eq(1234), any(Duration.class));
+		verify(listener).connectionFailed(eq("jumpHost"), eq("host"), eq(1234), any(IOException.class));
+		verify(listener).connectionClosed(eq("jumpHost"), eq("host"), eq(1234), eq(0L), eq(0L), any(Duration.class));
+	}
+
+	@Test
+	void testConnectionsOfAnyTargetKeepDynamicTunnelActive() {
+		TunnelActivityTracker tracker = new TunnelActivityTracker(listener);
+		tracker.track("jumpHost", "*", 0);
+		tracker.track("otherJumpHost", "*", 0);
+		assertThat(tracker.isIdle("jumpHost", "*", 0)).isTrue();
+
+		tracker.connectionOpened("jumpHost", "host", 1234, Duration.ofMillis(1));
+		assertThat(tracker.isIdle("jumpHost", "*", 0)).isFalse();
+		assertThat(tracker.isIdle("otherJumpHost", "*", 0)).isTrue();
+
+		tracker.connectionClosed("jumpHost", "host", 1234, 10, 20, Duration.ofSeconds(1));
+		assertThat(tracker.isIdle("jumpHost", "*", 0)).isTrue();
+		assertThat(tracker.getLastActiveNanos("jumpHost", "*", 0)).isNotEqualTo(Long.MIN_VALUE);
+		assertThat(tracker.getLastActiveNanos("otherJumpHost", "*", 0)).isEqualTo(Long.MIN_VALUE);
+		// the targets of dynamic connections are not tracked
+		assertThat(tracker.getLastActiveNanos("jumpHost", "host", 1234)).isEqualTo(Long.MIN_VALUE);
+	}
+
+	@Test
+	void testForgottenTunnelIsRemovedAfterLastConnection() {
+		TunnelActivityTracker tracker = new TunnelActivityTracker(listener);
+		tracker.track("jumpHost", "host", 1234);
+		tracker.track("jumpHost", "host", 1234);
+		tracker.connectionOpened("jumpHost", "host", 1234, Duration.ofMillis(1));
+
+		tracker.forget("jumpHost", "host", 1234);
+		tracker.forget("jumpHost", "host", 1234);
+		assertThat(tracker.isIdle("jumpHost", "host", 1234)).isFalse();
+
+		tracker.connectionClosed("jumpHost", "host", 1234, 10, 20, Duration.ofSeconds(1));
+		assertThat(tracker.getLastActiveNanos("jumpHost", "host", 1234)).isEqualTo(Long.MIN_VALUE);
+
+		tracker.connectionOpened("jumpHost", "host", 1234, Duration.ofMillis(1));
+		assertThat(tracker.isIdle("jumpHost", "host", 1234)).isTrue();
+	}
+
+	@Test
+	void testLastActive() {
+		TunnelActivityTracker tracker = new TunnelActivityTracker(listener);
+		tracker.track("jumpHost", "host", 1234);
+		assertThat(tracker.getLastActiveNanos("jumpHost", "host", 1234)).isEqualTo(Long.MIN_VALUE);
+
+		long beforeNanos = System.nanoTime();
+		tracker.connectionFailed("jumpHost", "host", 1234, new IllegalStateException("failed"));
+		assertThat(tracker.getLastActiveNanos("jumpHost", "host", 1234)).isGreaterThanOrEqualTo(beforeNanos);
+		assertThat(tracker.isIdle("jumpHost", "host", 1234)).isTrue();
+
+		tracker.forget("jumpHost", "host", 1234);
+		assertThat(tracker.getLastActiveNanos("jumpHost", "host", 1234)).isEqualTo(Long.MIN_VALUE);
+	}
+}
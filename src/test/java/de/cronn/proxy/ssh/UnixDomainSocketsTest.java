@@ -0,0 +1,78 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+@EnabledForJreRange(min = JRE.JAVA_16)
+class UnixDomainSocketsTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	@DisabledOnOs(OS.WINDOWS)
+	void testSocketIsOnlyAccessibleByOwner() throws Exception {
+		Path socketPath = directory.resolve("test.sock");
+		try (ServerSocketChannel serverChannel = UnixDomainSockets.bind(socketPath, 1);
+			 SocketChannel channel = UnixDomainSockets.connect(socketPath)) {
+			assertThat(channel.isConnected()).isTrue();
+			assertThat(Files.getPosixFilePermissions(socketPath))
+				.containsExactlyInAnyOrder(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+			assertThat(directory).isDirectoryNotContaining(path -> !path.equals(socketPath));
+		}
+	}
+
+	@Test
+	void testStaleSocketIsReplaced() throws Exception {
+		Path socketPath = directory.resolve("test.sock");
+		UnixDomainSockets.bind(socketPath, 1).close();
+		assertThat(socketPath).exists();
+
+		try (ServerSocketChannel serverChannel = UnixDomainSockets.bind(socketPath, 1);
+			 SocketChannel channel = UnixDomainSockets.connect(socketPath)) {
+			assertThat(channel.isConnected()).isTrue();
+		}
+	}
+
+	@Test
+	void testSocketInUseIsNotReplaced() throws Exception {
+		Path socketPath = directory.resolve("test.sock");
+		try (ServerSocketChannel serverChannel = UnixDomainSockets.bind(socketPath, 1)) {
+			assertThatIOException()
+				.isThrownBy(() -> UnixDomainSockets.bind(socketPath, 1))
+				.withMessage("Unix domain socket " + socketPath + " is already in use");
+		}
+	}
+
+	@Test
+	void testRegularFileIsNotReplaced() throws Exception {
+		Path file = Files.writeString(directory.resolve("test.sock"), "data");
+
+		assertThatExceptionOfType(FileAlreadyExistsException.class)
+			.isThrownBy(() -> UnixDomainSockets.bind(file, 1))
+			.withMessageContaining("not a Unix domain socket");
+		assertThat(file).hasContent("data");
+	}
+
+	@Test
+	void testDirectoryIsNotReplaced() throws Exception {
+		Path socketPath = Files.createDirectory(directory.resolve("test.sock"));
+
+		assertThatExceptionOfType(FileAlreadyExistsException.class)
+			.isThrownBy(() -> UnixDomainSockets.bind(socketPath, 1));
+		assertThat(socketPath).isDirectory();
+	}
+}
@@ -0,0 +1,35 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+
+class VirtualThreadsTest {
+
+	@Test
+	@EnabledForJreRange(max = JRE.JAVA_20)
+	void testNotSupportedBeforeJava21() throws Exception {
+		assertThat(VirtualThreads.isSupported()).isFalse();
+		assertThatExceptionOfType(UnsupportedOperationException.class)
+			.isThrownBy(() -> VirtualThreads.newThreadFactory("test"))
+			.withMessage("Virtual threads require Java 21+");
+	}
+
+	@Test
+	@EnabledForJreRange(min = JRE.JAVA_21)
+	void testNewThreadFactory() throws Exception {
+		assertThat(VirtualThreads.isSupported()).isTrue();
+
+		ThreadFactory threadFactory = VirtualThreads.newThreadFactory("test");
+		Thread first = threadFactory.newThread(() -> {});
+		Thread second = threadFactory.newThread(() -> {});
+
+		assertThat(first.getName()).isEqualTo("test-1");
+		assertThat(second.getName()).isEqualTo("test-2");
+		assertThat(first.isDaemon()).isTrue();
+	}
+}
@@ -0,0 +1,115 @@
+package de.cronn.proxy.ssh;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.jcraft.jsch.Compression;
+
+class ZlibCompressionTest {
+
+	private static final int PAYLOAD_OFFSET = 5;
+	private static final int PACKET_MARGIN = 128;
+
+	private ZlibCompression deflater;
+	private ZlibCompression inflater;
+
+	@BeforeEach
+	void setUp() {
+		deflater = new ZlibCompression();
+		deflater.init(Compression.DEFLATER, 6);
+		inflater = new ZlibCompression();
+		inflater.init(Compression.INFLATER, 0);
+	}
+
+	@AfterEach
+	void tearDown() {
+		deflater.end();
+		inflater.end();
+	}
+
+	@Test
+	void testRoundTrip() throws Exception {
+		byte[] first = compressibleData(10_000);
+		byte[] second = compressibleData(20_000);
+
+		byte[] compressedFirst = compress(deflater, first);
+		byte[] compressedSecond = compress(deflater, second);
+
+		assertThat(compressedFirst.length).isLessThan(first.length / 10);
+		assertThat(compressedSecond.length).isLessThan(compressedFirst.length);
+		assertThat(uncompress(inflater, compressedFirst)).isEqualTo(first);
+		assertThat(uncompress(inflater, compressedSecond)).isEqualTo(second);
+	}
+
+	@Test
+	void testRoundTripOfIncompressibleData() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			byte[] data = randomData(32 * 1024, i);
+			assertThat(uncompress(inflater, compress(deflater, data))).isEqualTo(data);
+		}
+	}
+
+	@Test
+	void testRoundTripOfLargePackets() throws Exception {
+		byte[] data = compressibleData(1024 * 1024);
+		assertThat(uncompress(inflater, compress(deflater, data))).isEqualTo(data);
+	}
+
+	@Test
+	void testPacketBufferIsKeptIfCompressedDataFits() throws Exception {
+		byte[] data = compressibleData(10_000);
+		byte[] buffer = packet(data);
+		int[] length = { PAYLOAD_OFFSET + data.length };
+
+		assertThat(deflater.compress(buffer, PAYLOAD_OFFSET, length)).isSameAs(buffer);
+	}
+
+	@Test
+	void testUncompressInvalidData() throws Exception {
+		byte[] buffer = packet(new byte[] { 1, 2, 3, 4 });
+		int[] length = { 4 };
+
+		assertThat(inflater.uncompress(buffer, PAYLOAD_OFFSET, length)).isNull();
+	}
+
+	static byte[] compress(Compression compression, byte[] data) {
+		int[] length = { PAYLOAD_OFFSET + data.length };
+		byte[] result = compression.compress(packet(data), PAYLOAD_OFFSET, length);
+		return Arrays.copyOfRange(result, PAYLOAD_OFFSET, length[0]);
+	}
+
+	static byte[] uncompress(Compression compression, byte[] data) {
+		int[] length = { data.length };
+		byte[] result = compression.uncompress(packet(data), PAYLOAD_OFFSET, length);
+		assertThat(result).isNotNull();
+		return Arrays.copyOfRange(result, PAYLOAD_OFFSET, PAYLOAD_OFFSET + length[0]);
+	}
+
+	static byte[] compressibleData(int size) {
+		byte[] pattern = "{\"id\":12345,\"name\":\"some name\",\"values\":[1,2,3]},".getBytes(StandardCharsets.US_ASCII);
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = pattern[i % pattern.length];
+		}
+		return data;
+	}
+
+	static byte[] randomData(int size, long seed) {
+		byte[] data = new byte[size];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+
+	private static byte[] packet(byte[] payload) {
+		byte[] buffer = new byte[PAYLOAD_OFFSET + payload.length + PACKET_MARGIN];
+		System.arraycopy(payload, 0, buffer, PAYLOAD_OFFSET, payload.length);
+		return buffer;
+	}
+}
@@ -0,0 +1,59 @@
+package de.cronn.proxy.ssh.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileStampTest {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testUnchangedFile() throws Exception {
+		Path file = Files.writeString(tempDir.resolve("file"), "content");
+
+		assertThat(FileStamp.of(file)).isEqualTo(FileStamp.of(file));
+		assertThat(FileStamp.of(file)).hasSameHashCodeAs(FileStamp.of(file));
+	}
+
+	@Test
+	void testChangedSize() throws Exception {
+		Path file = Files.writeString(tempDir.resolve("file"), "content");
+		FileTime lastModifiedTime = Files.getLastModifiedTime(file);
+		FileStamp before = FileStamp.of(file);
+
+		Files.writeString(file, " appended", StandardOpenOption.APPEND);
+		Files.setLastModifiedTime(file, lastModifiedTime);
+
+		assertThat(FileStamp.of(file)).isNotEqualTo(before);
+	}
+
+	@Test
+	void testChangedModificationTime() throws Exception {
+		Path file = Files.writeString(tempDir.resolve("file"), "content");
+		FileStamp before = FileStamp.of(file);
+
+		Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+
+		assertThat(FileStamp.of(file)).isNotEqualTo(before);
+	}
+
+	@Test
+	void testMissingFile() throws Exception {
+		Path file = tempDir.resolve("does-not-exist");
+
+		assertThat(FileStamp.of(file)).isEqualTo(FileStamp.of(file));
+		assertThat(FileStamp.of(file).getPath()).isEqualTo(file.toAbsolutePath());
+
+		Files.writeString(file, "");
+		assertThat(FileStamp.of(file)).isNotEqualTo(FileStamp.of(tempDir.resolve("does-not-exist-either")));
+	}
+
+}